@@ -0,0 +1,444 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration.plugin;
+
+import java.io.File;
+import java.util.*;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.ExecutionEvent;
+import org.apache.maven.execution.ExecutionListener;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+
+import com.salesforce.bazel.migration.DependenciesParser;
+import com.salesforce.bazel.migration.DependencyAnalyzer;
+import com.salesforce.bazel.migration.InputFileRegistry;
+import com.salesforce.bazel.migration.MavenDependency;
+import com.salesforce.bazel.migration.MavenDependencyArbiter;
+import com.salesforce.bazel.migration.MavenToBazelGenerator;
+import com.salesforce.bazel.migration.ProvenanceReport;
+import com.salesforce.bazel.migration.VersionSelectionStrategy;
+
+/**
+ * Maven goal that runs the generator inside the Maven build. Instead of capturing the text output of
+ * <i>mvn dependency:list</i> and parsing it in a second JVM, the artifacts Maven already resolved for each project
+ * are converted to MavenDependency objects directly.
+ * <p>
+ * The goal runs for every project of the reactor. The dependencies are collected in the Maven session, and when the
+ * last project completes they are analyzed together (after the files in the optional input directory, e.g. an existing
+ * WORKSPACE and rule files) and the outputs are written.
+ * <p>
+ * If the goal does not run for every project (e.g. it is skipped in some modules, or a module fails with
+ * <i>--fail-at-end</i>), the outputs are written when the Maven session ends, from the projects that were collected,
+ * with a warning that lists the missing projects.
+ * <pre>
+ *   mvn com.salesforce.bazel:maventobazel-maven-plugin:1.0.0:generate -Dmaventobazel.build=true
+ * </pre>
+ */
+@Mojo(name = "generate", defaultPhase = LifecyclePhase.VALIDATE, requiresDependencyCollection = ResolutionScope.TEST, threadSafe = true)
+public class GenerateBazelMojo extends AbstractMojo {
+    private static final String SESSION_KEY = GenerateBazelMojo.class.getName()+".reactorDependencies";
+
+    @Parameter(defaultValue = "${session}", readonly = true, required = true)
+    MavenSession session;
+
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    MavenProject project;
+
+    /**
+     * Optional directory of input files to merge with, e.g. the existing WORKSPACE and arbiter rule files
+     */
+    @Parameter(property = "maventobazel.inputDirectory")
+    File inputDirectory;
+
+    @Parameter(property = "maventobazel.outputDirectory", defaultValue = "${session.executionRootDirectory}/target/maventobazel")
+    File outputDirectory;
+
+    @Parameter(property = "maventobazel.workspace", defaultValue = "true")
+    boolean workspace;
+
+    @Parameter(property = "maventobazel.build", defaultValue = "false")
+    boolean build;
+
+    @Parameter(property = "maventobazel.ignoreTestDeps", defaultValue = "false")
+    boolean ignoreTestDeps;
+
+    @Parameter(property = "maventobazel.workspaceTable", defaultValue = "false")
+    boolean workspaceTable;
+
+    /**
+     * Optional, sha1 or sha256 to add checksums of the jars in the local repository to the WORKSPACE entries
+     */
+    @Parameter(property = "maventobazel.checksums")
+    String checksums;
+
+    /**
+     * How to choose between versions when no rule applies: newest, majority or minchange
+     */
+    @Parameter(property = "maventobazel.strategy", defaultValue = "newest")
+    String strategy;
+
+    /**
+     * Writes provenance.out, with the pom.xml (or input file) that declared each chosen and overruled version
+     */
+    @Parameter(property = "maventobazel.provenance", defaultValue = "false")
+    boolean provenance;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        ReactorDependencies reactorDependencies = getReactorDependencies();
+        List<MavenDependency> projectDependencies = new ArrayList<>();
+        int pomFileId;
+        synchronized (reactorDependencies) {
+            pomFileId = reactorDependencies.sourceFiles.register(project.getFile() == null ? project.getBasedir() : project.getFile());
+        }
+        Set<String> reactorArtifacts = new HashSet<>();
+        for (MavenProject reactorProject : session.getProjects()) {
+            reactorArtifacts.add(reactorProject.getGroupId()+":"+reactorProject.getArtifactId());
+        }
+        for (Artifact artifact : project.getArtifacts()) {
+            if (reactorArtifacts.contains(artifact.getGroupId()+":"+artifact.getArtifactId())) {
+                // built by this reactor, so it will be a Bazel target rather than an external dependency
+                continue;
+            }
+            MavenDependency dep = toMavenDependency(artifact);
+            if (dep == null) {
+                getLog().warn("Skipping dependency "+artifact+" with unsupported scope "+artifact.getScope());
+                continue;
+            }
+            dep.sourceFileId = pomFileId;
+            projectDependencies.add(dep);
+        }
+        getLog().info("Collected ["+projectDependencies.size()+"] resolved dependencies of "+project.getId());
+
+        if (reactorDependencies.addProject(project.getId(), projectDependencies, getReactorProjectIds())) {
+            try {
+                generate(reactorDependencies);
+            } catch (Exception anyE) {
+                throw new MojoExecutionException("Could not generate the Bazel files", anyE);
+            }
+        }
+    }
+
+    /**
+     * Converts a resolved artifact.
+     *
+     * @return the dependency, or null if the artifact's scope has no Bazel equivalent (e.g. system)
+     */
+    static MavenDependency toMavenDependency(Artifact artifact) {
+        String scope = artifact.getScope() == null ? Artifact.SCOPE_COMPILE : artifact.getScope();
+        if (Artifact.SCOPE_SYSTEM.equals(scope) || Artifact.SCOPE_IMPORT.equals(scope)) {
+            return null;
+        }
+        String classifier = artifact.getClassifier() == null || artifact.getClassifier().isEmpty() ? null : artifact.getClassifier();
+        return new MavenDependency(null, artifact.getGroupId(), artifact.getArtifactId(), scope, artifact.getBaseVersion(), classifier);
+    }
+
+    // INTERNALS
+
+    /**
+     * Called when the Maven session ends, writes the outputs if not every project of the reactor was collected.
+     */
+    private void generateAtSessionEnd(ReactorDependencies reactorDependencies) {
+        if (!reactorDependencies.claimAtSessionEnd()) {
+            return;
+        }
+        getLog().warn("The goal did not run for "+reactorDependencies.findMissingProjects(getReactorProjectIds())+
+                ", their dependencies are not in the Bazel files");
+        try {
+            generate(reactorDependencies);
+        } catch (Exception anyE) {
+            // the build result is already decided, so this can only be reported
+            getLog().error("Could not generate the Bazel files", anyE);
+        }
+    }
+
+    private void generate(ReactorDependencies reactorDependencies) throws Exception {
+        MavenDependencyArbiter arbiter = new MavenDependencyArbiter();
+        arbiter.selectionStrategy = VersionSelectionStrategy.forName(strategy);
+        DependenciesParser parser = new DependenciesParser(arbiter);
+        parser.inputFiles = reactorDependencies.sourceFiles;
+        List<MavenDependency> deps = new ArrayList<>();
+        if (inputDirectory != null) {
+            for (File candidateFile : MavenToBazelGenerator.listInputFiles(inputDirectory)) {
+                getLog().info("Loading dependency input file ["+candidateFile+"]");
+                deps.addAll(parser.parseFile(candidateFile));
+            }
+        }
+        // in reactor order, so that a parallel build gives the same result
+        deps.addAll(reactorDependencies.getDependencies(getReactorProjectIds()));
+        DependencyAnalyzer analyzer = new DependencyAnalyzer(arbiter);
+        if (provenance) {
+            analyzer.defeatedDependencies = new HashMap<>();
+        }
+        Map<String, MavenDependency> computedDeps = analyzer.processDependencies(deps, ignoreTestDeps);
+        getLog().info("Analyzed ["+deps.size()+"] dependencies of the reactor, the final list contains ["+computedDeps.size()+"] entries.");
+        arbiter.printRuleReport();
+
+        MavenToBazelGenerator.generateOutputs(computedDeps, outputDirectory, toOutputOptions());
+        if (provenance) {
+            new ProvenanceReport(parser.inputFiles).write(computedDeps, analyzer.defeatedDependencies, new File(outputDirectory, "provenance.out"));
+        }
+        getLog().info("Wrote the Bazel files to "+outputDirectory.getAbsolutePath());
+    }
+
+    /**
+     * The command line options of the generator for the parameters of the goal
+     */
+    String[] toOutputOptions() {
+        List<String> args = new ArrayList<>();
+        if (workspace) {
+            args.add("--workspace");
+        }
+        if (build) {
+            args.add("--build");
+        }
+        if (workspaceTable) {
+            args.add("--workspacetable");
+        }
+        if (checksums != null) {
+            args.add("--checksums="+checksums);
+        }
+        args.add("--localrepo="+session.getLocalRepository().getBasedir());
+        return args.toArray(new String[args.size()]);
+    }
+
+    private List<String> getReactorProjectIds() {
+        List<String> projectIds = new ArrayList<>();
+        for (MavenProject reactorProject : session.getProjects()) {
+            projectIds.add(reactorProject.getId());
+        }
+        return projectIds;
+    }
+
+    private ReactorDependencies getReactorDependencies() {
+        Object key = SESSION_KEY;
+        while (true) {
+            ReactorDependencies existing = (ReactorDependencies) session.getRepositorySession().getData().get(key);
+            if (existing != null) {
+                return existing;
+            }
+            final ReactorDependencies created = new ReactorDependencies();
+            if (session.getRepositorySession().getData().set(key, null, created)) {
+                // the first execution of the session listens for its end, in case some projects never run the goal
+                final ExecutionListener originalListener = session.getRequest().getExecutionListener();
+                session.getRequest().setExecutionListener(new SessionEndListener(originalListener, new Runnable() {
+                    @Override
+                    public void run() {
+                        session.getRequest().setExecutionListener(originalListener);
+                        generateAtSessionEnd(created);
+                    }
+                }));
+            }
+        }
+    }
+
+    /**
+     * The dependencies collected so far, shared by the executions of this goal in one Maven session
+     */
+    static class ReactorDependencies {
+        Map<String, List<MavenDependency>> dependenciesByProject = new HashMap<>();
+        // the pom.xml files of the projects, and the input files
+        InputFileRegistry sourceFiles = new InputFileRegistry();
+        // true once an execution (or the end of the session) took over writing the outputs
+        boolean generated;
+
+        /**
+         * Adds the dependencies of a project.
+         *
+         * @return true if every project of the reactor has now been collected, so the outputs should be written
+         */
+        synchronized boolean addProject(String projectId, List<MavenDependency> projectDependencies, List<String> reactorProjectIds) {
+            dependenciesByProject.put(projectId, projectDependencies);
+            if (generated || !dependenciesByProject.keySet().containsAll(reactorProjectIds)) {
+                return false;
+            }
+            generated = true;
+            return true;
+        }
+
+        /**
+         * @return true if the outputs were not written during the session, but some projects were collected
+         */
+        synchronized boolean claimAtSessionEnd() {
+            if (generated || dependenciesByProject.isEmpty()) {
+                return false;
+            }
+            generated = true;
+            return true;
+        }
+
+        /**
+         * @return the projects of the reactor that were not collected
+         */
+        synchronized List<String> findMissingProjects(List<String> reactorProjectIds) {
+            List<String> missingProjects = new ArrayList<>();
+            for (String projectId : reactorProjectIds) {
+                if (!dependenciesByProject.containsKey(projectId)) {
+                    missingProjects.add(projectId);
+                }
+            }
+            return missingProjects;
+        }
+
+        /**
+         * @return the dependencies of the collected projects, in reactor order
+         */
+        synchronized List<MavenDependency> getDependencies(List<String> reactorProjectIds) {
+            List<MavenDependency> deps = new ArrayList<>();
+            for (String projectId : reactorProjectIds) {
+                List<MavenDependency> projectDependencies = dependenciesByProject.get(projectId);
+                if (projectDependencies != null) {
+                    deps.addAll(projectDependencies);
+                }
+            }
+            return deps;
+        }
+    }
+
+    /**
+     * Forwards the events of the Maven session to the original listener, and runs a task when the session ends.
+     * Maven reads the listener from the execution request for every event, so it can be installed by a goal.
+     */
+    static class SessionEndListener implements ExecutionListener {
+        private final ExecutionListener delegate;
+        private final Runnable sessionEndTask;
+
+        SessionEndListener(ExecutionListener delegate, Runnable sessionEndTask) {
+            this.delegate = delegate;
+            this.sessionEndTask = sessionEndTask;
+        }
+
+        @Override
+        public void sessionEnded(ExecutionEvent event) {
+            // before the delegate, so that the outputs are logged before the reactor summary
+            sessionEndTask.run();
+            if (delegate != null) {
+                delegate.sessionEnded(event);
+            }
+        }
+
+        @Override
+        public void projectDiscoveryStarted(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectDiscoveryStarted(event);
+            }
+        }
+
+        @Override
+        public void sessionStarted(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.sessionStarted(event);
+            }
+        }
+
+        @Override
+        public void projectSkipped(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectSkipped(event);
+            }
+        }
+
+        @Override
+        public void projectStarted(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectStarted(event);
+            }
+        }
+
+        @Override
+        public void projectSucceeded(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectSucceeded(event);
+            }
+        }
+
+        @Override
+        public void projectFailed(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.projectFailed(event);
+            }
+        }
+
+        @Override
+        public void mojoSkipped(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoSkipped(event);
+            }
+        }
+
+        @Override
+        public void mojoStarted(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoStarted(event);
+            }
+        }
+
+        @Override
+        public void mojoSucceeded(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoSucceeded(event);
+            }
+        }
+
+        @Override
+        public void mojoFailed(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.mojoFailed(event);
+            }
+        }
+
+        @Override
+        public void forkStarted(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkStarted(event);
+            }
+        }
+
+        @Override
+        public void forkSucceeded(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkSucceeded(event);
+            }
+        }
+
+        @Override
+        public void forkFailed(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkFailed(event);
+            }
+        }
+
+        @Override
+        public void forkedProjectStarted(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkedProjectStarted(event);
+            }
+        }
+
+        @Override
+        public void forkedProjectSucceeded(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkedProjectSucceeded(event);
+            }
+        }
+
+        @Override
+        public void forkedProjectFailed(ExecutionEvent event) {
+            if (delegate != null) {
+                delegate.forkedProjectFailed(event);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration.plugin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.execution.AbstractExecutionListener;
+import org.apache.maven.execution.ExecutionEvent;
+import org.junit.Test;
+
+import com.salesforce.bazel.migration.MavenDependency;
+import com.salesforce.bazel.migration.plugin.GenerateBazelMojo.ReactorDependencies;
+import com.salesforce.bazel.migration.plugin.GenerateBazelMojo.SessionEndListener;
+
+public class GenerateBazelMojoTest {
+
+	@Test
+	public void testToMavenDependency() {
+		MavenDependency dep = GenerateBazelMojo.toMavenDependency(new DefaultArtifact("io.netty", "netty-transport-native-epoll", "4.1.8.Final", 
+				"runtime", "jar", "linux-x86_64", new DefaultArtifactHandler("jar")));
+		assertEquals("io.netty:netty-transport-native-epoll:linux-x86_64", dep.getLogicalName());
+		assertEquals("4.1.8.Final", dep.version.label);
+		assertEquals(MavenDependency.Scope.RUNTIME, dep.scope);
+		
+		dep = GenerateBazelMojo.toMavenDependency(new DefaultArtifact("com.sample", "foo", "1.0-20180101.120000-1", 
+				null, "jar", "", new DefaultArtifactHandler("jar")));
+		assertEquals("com.sample:foo", dep.getLogicalName());
+		assertEquals("1.0-SNAPSHOT", dep.version.label);
+		assertEquals(MavenDependency.Scope.COMPILE, dep.scope);
+		
+		assertNull(GenerateBazelMojo.toMavenDependency(new DefaultArtifact("com.sun", "tools", "1.8", 
+				"system", "jar", null, new DefaultArtifactHandler("jar"))));
+	}
+	
+	@Test
+	public void testReactorAggregation() {
+		List<String> reactorProjectIds = Arrays.asList("com.sample:parent:pom:1.0", "com.sample:api:jar:1.0", "com.sample:impl:jar:1.0");
+		List<MavenDependency> apiDeps = Arrays.asList(new MavenDependency(null, "com.google.guava", "guava", "compile", "20.0"));
+		List<MavenDependency> implDeps = Arrays.asList(new MavenDependency(null, "junit", "junit", "test", "4.12"));
+		
+		// a parallel build completes the projects out of order
+		ReactorDependencies reactorDependencies = new ReactorDependencies();
+		assertFalse(reactorDependencies.addProject("com.sample:impl:jar:1.0", implDeps, reactorProjectIds));
+		assertFalse(reactorDependencies.addProject("com.sample:api:jar:1.0", apiDeps, reactorProjectIds));
+		assertEquals(Arrays.asList("com.sample:parent:pom:1.0"), reactorDependencies.findMissingProjects(reactorProjectIds));
+		assertTrue(reactorDependencies.addProject("com.sample:parent:pom:1.0", Collections.<MavenDependency>emptyList(), reactorProjectIds));
+		assertEquals(Collections.emptyList(), reactorDependencies.findMissingProjects(reactorProjectIds));
+		assertEquals("com.google.guava:guava", reactorDependencies.getDependencies(reactorProjectIds).get(0).getLogicalName());
+		assertEquals("junit:junit", reactorDependencies.getDependencies(reactorProjectIds).get(1).getLogicalName());
+		// the outputs were written, so the end of the session has nothing to do
+		assertFalse(reactorDependencies.claimAtSessionEnd());
+		
+		// the goal is skipped in the parent, so only the end of the session writes the outputs
+		reactorDependencies = new ReactorDependencies();
+		assertFalse(reactorDependencies.claimAtSessionEnd());
+		assertFalse(reactorDependencies.addProject("com.sample:api:jar:1.0", apiDeps, reactorProjectIds));
+		assertFalse(reactorDependencies.addProject("com.sample:impl:jar:1.0", implDeps, reactorProjectIds));
+		assertTrue(reactorDependencies.claimAtSessionEnd());
+		assertFalse(reactorDependencies.claimAtSessionEnd());
+		assertEquals(2, reactorDependencies.getDependencies(reactorProjectIds).size());
+	}
+	
+	@Test
+	public void testSessionEndListener() {
+		final List<String> events = new ArrayList<>();
+		AbstractExecutionListener originalListener = new AbstractExecutionListener() {
+			@Override
+			public void projectSucceeded(ExecutionEvent event) {
+				events.add("projectSucceeded");
+			}
+			
+			@Override
+			public void sessionEnded(ExecutionEvent event) {
+				events.add("sessionEnded");
+			}
+		};
+		SessionEndListener listener = new SessionEndListener(originalListener, new Runnable() {
+			@Override
+			public void run() {
+				events.add("generate");
+			}
+		});
+		listener.projectSucceeded(null);
+		listener.sessionEnded(null);
+		assertEquals(Arrays.asList("projectSucceeded", "generate", "sessionEnded"), events);
+	}
+}
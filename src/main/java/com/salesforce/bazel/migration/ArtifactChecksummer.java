@@ -0,0 +1,142 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Computes the checksums of the jars of the resolved dependencies, so that the generated <i>maven_jar</i> entries can
+ * carry a <i>sha1</i> (or <i>sha256</i>) attribute. With a checksum, Bazel verifies the download and can serve the
+ * artifact from its repository cache.
+ * <p>
+ * The jars are located in a {@link LocalMavenRepository} and hashed in parallel, using memory-mapped reads. If the
+ * repository has a {@link LocalMavenRepositoryIndex}, checksums are remembered there and jars that did not change since
+ * are not hashed again.
+ */
+public class ArtifactChecksummer {
+    private static final long MAP_CHUNK_SIZE = 64L * 1024 * 1024;
+    
+    LocalMavenRepository localRepository;
+    String checksumAttribute;
+    String algorithm;
+    int threadCount;
+
+    // logical name to the hex checksum of the jar
+    public Map<String, String> checksums = new TreeMap<>();
+    // artifacts that could not be found in the local repository
+    public List<MavenDependency> missingArtifacts = new ArrayList<>();
+    
+    /**
+     * @param localRepository the repository to find the jars in
+     * @param checksumAttribute the maven_jar attribute, either sha1 or sha256
+     */
+    public ArtifactChecksummer(LocalMavenRepository localRepository, String checksumAttribute) {
+        this.localRepository = localRepository;
+        this.checksumAttribute = checksumAttribute;
+        this.algorithm = toAlgorithm(checksumAttribute);
+        this.threadCount = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Computes the checksums of the dependency jars. The results are available in the public fields.
+     * 
+     * @param dependencies the resolved dependencies, as returned by the DependencyAnalyzer
+     * @throws Exception
+     */
+    public void computeChecksums(Map<String, MavenDependency> dependencies) throws Exception {
+        Map<String, Future<String>> hashes = new LinkedHashMap<>();
+        Map<String, LocalMavenRepositoryIndex.Entry> indexEntries = new HashMap<>();
+        int cachedCount = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            for (MavenDependency dep : dependencies.values()) {
+                final File jarFile = localRepository.findArtifact(dep);
+                if (jarFile == null) {
+                    missingArtifacts.add(dep);
+                    System.out.println(" WARNING artifact ["+BazelNamer.computeBazelMavenName(dep)+"] is not in the local repository "+
+                            localRepository+", its entry will not have a checksum");
+                    continue;
+                }
+                LocalMavenRepositoryIndex.Entry entry = localRepository.index == null ? null : localRepository.index.lookup(dep);
+                if (entry != null) {
+                    // the remembered checksum is stale if the jar was overwritten in place
+                    localRepository.index.refreshEntry(entry, jarFile);
+                    String cachedChecksum = localRepository.index.getChecksum(entry, checksumAttribute);
+                    if (cachedChecksum != null) {
+                        checksums.put(dep.getLogicalName(), cachedChecksum);
+                        cachedCount++;
+                        continue;
+                    }
+                    indexEntries.put(dep.getLogicalName(), entry);
+                }
+                hashes.put(dep.getLogicalName(), executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        return computeChecksum(jarFile, algorithm);
+                    }
+                }));
+            }
+            for (Map.Entry<String, Future<String>> hash : hashes.entrySet()) {
+                try {
+                    String checksum = hash.getValue().get();
+                    checksums.put(hash.getKey(), checksum);
+                    LocalMavenRepositoryIndex.Entry entry = indexEntries.get(hash.getKey());
+                    if (entry != null) {
+                        localRepository.index.putChecksum(entry, checksumAttribute, checksum);
+                    }
+                } catch (ExecutionException ee) {
+                    throw new IllegalStateException("Could not compute the checksum of ["+hash.getKey()+"]", ee.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        System.out.println("Computed ["+checksums.size()+"] "+algorithm+" checksums (["+cachedCount+"] from the index), ["+missingArtifacts.size()+
+                "] artifacts were not found in the local repository "+localRepository);
+    }
+
+    /**
+     * Hashes the file with memory-mapped reads.
+     * 
+     * @param file the file to hash
+     * @param algorithm a MessageDigest algorithm, e.g. SHA-1
+     * @return the lower case hex digest
+     * @throws Exception
+     */
+    public static String computeChecksum(File file, String algorithm) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance(algorithm);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            for (long position = 0; position < size; position += MAP_CHUNK_SIZE) {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_CHUNK_SIZE, size - position));
+                digest.update(buffer);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+    
+    static String toAlgorithm(String checksumAttribute) {
+        switch (checksumAttribute) {
+        case "sha1":
+            return "SHA-1";
+        case "sha256":
+            return "SHA-256";
+        default:
+            throw new IllegalArgumentException("Unsupported checksum ["+checksumAttribute+"], use sha1 or sha256");
+        }
+    }
+}
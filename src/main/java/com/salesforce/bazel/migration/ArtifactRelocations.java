@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import static com.salesforce.bazel.migration.XmlDocuments.getChild;
+import static com.salesforce.bazel.migration.XmlDocuments.getChildText;
+
+import java.io.File;
+import java.util.*;
+
+import org.w3c.dom.Element;
+
+/**
+ * The table of artifacts that moved to new coordinates, e.g. <i>asm:asm</i> to <i>org.ow2.asm:asm</i>. Without it the
+ * old and the new coordinates are different logical artifacts, and both jars end up in the WORKSPACE and on the
+ * classpaths. The {@link DependencyAnalyzer} maps every candidate onto its canonical coordinates before it is analyzed,
+ * so the versions of all aliases are arbitrated against each other.
+ * <p>
+ * Relocations are added with lines in the input files:
+ * <pre>
+ * # RELOCATE from=asm:asm to=org.ow2.asm:asm
+ * </pre>
+ * and optionally read from the <i>&lt;distributionManagement&gt;&lt;relocation&gt;</i> element of the POMs in a local
+ * Maven repository. A POM relocation may also change the version. Relocations are followed transitively, and the
+ * classifier is kept. Relocations that lead back to coordinates already visited are rejected.
+ */
+public class ArtifactRelocations {
+    // "groupId:artifactId" to the "groupId:artifactId" it was relocated to
+    private Map<String, String> relocations = new LinkedHashMap<>();
+    // if not null, the <relocation> elements of the POMs in this repository are used too
+    public LocalMavenRepository pomRepository;
+    // "groupId:artifactId:version" to the relocated "groupId:artifactId:version", or to null if the POM has no relocation
+    private Map<String, String[]> pomRelocations = new HashMap<>();
+
+    // the aliases that were seen, old logical name to the canonical one
+    public Map<String, String> appliedRelocations = new TreeMap<>();
+
+    /**
+     * Adds a relocation from a line of the form <i>from=groupId:artifactId to=groupId:artifactId</i>.
+     *
+     * @throws IllegalArgumentException if the line cannot be parsed
+     */
+    public void addRelocation(String relocationLine) {
+        String from = null;
+        String to = null;
+        for (String token : relocationLine.trim().split("\\s+")) {
+            if (token.startsWith("from=")) {
+                from = token.substring(5);
+            } else if (token.startsWith("to=")) {
+                to = token.substring(3);
+            }
+        }
+        if (from == null || to == null || from.split(":").length != 2 || to.split(":").length != 2) {
+            throw new IllegalArgumentException("Invalid relocation ["+relocationLine.trim()+"], expected from=groupId:artifactId to=groupId:artifactId");
+        }
+        if (from.equals(to)) {
+            return;
+        }
+        relocations.put(from, to);
+    }
+
+    /**
+     * The relocations added with {@link #addRelocation(String)}, old "groupId:artifactId" to the new one.
+     */
+    public Map<String, String> getRelocations() {
+        return relocations;
+    }
+
+    /**
+     * @return true if no dependency can be relocated, so the analysis does not need to ask
+     */
+    public boolean isEmpty() {
+        return relocations.isEmpty() && pomRepository == null;
+    }
+
+    /**
+     * Maps the dependency onto its canonical coordinates.
+     *
+     * @return the dependency itself if it was not relocated, otherwise a relocated copy
+     * @throws IllegalArgumentException if the relocations of the dependency form a loop
+     */
+    public MavenDependency relocate(MavenDependency dep) {
+        if (isEmpty()) {
+            return dep;
+        }
+        String groupId = dep.groupId;
+        String artifactId = dep.artifactId;
+        String version = dep.version.label;
+        // the "groupId:artifactId:version" followed so far, in order
+        List<String> visitedCoordinates = new ArrayList<>();
+        while (true) {
+            String coordinates = groupId+":"+artifactId+":"+version;
+            int loopStart = visitedCoordinates.indexOf(coordinates);
+            if (loopStart >= 0) {
+                StringBuilder loop = new StringBuilder();
+                for (String visited : visitedCoordinates.subList(loopStart, visitedCoordinates.size())) {
+                    loop.append(visited).append(" -> ");
+                }
+                throw new IllegalArgumentException("The relocations of ["+dep.getLogicalName()+"] form a loop: "+loop+coordinates);
+            }
+            visitedCoordinates.add(coordinates);
+            String relocatedTo = relocations.get(groupId+":"+artifactId);
+            if (relocatedTo != null) {
+                int colon = relocatedTo.indexOf(':');
+                groupId = relocatedTo.substring(0, colon);
+                artifactId = relocatedTo.substring(colon + 1);
+                continue;
+            }
+            String[] pomRelocation = findPomRelocation(groupId, artifactId, version);
+            if (pomRelocation == null) {
+                break;
+            }
+            groupId = pomRelocation[0];
+            artifactId = pomRelocation[1];
+            version = pomRelocation[2];
+        }
+        if (groupId.equals(dep.groupId) && artifactId.equals(dep.artifactId) && version.equals(dep.version.label)) {
+            return dep;
+        }
+        MavenDependency relocatedDep = new MavenDependency(dep);
+        relocatedDep.groupId = groupId;
+        relocatedDep.artifactId = artifactId;
+        relocatedDep.version = new MavenDependencyVersion(version, groupId+":"+artifactId);
+        if (!appliedRelocations.containsKey(dep.getLogicalName())) {
+            appliedRelocations.put(dep.getLogicalName(), relocatedDep.getLogicalName());
+            System.out.println("   RELOCATE: "+dep.getLogicalName()+" is now "+relocatedDep.getLogicalName());
+        }
+        return relocatedDep;
+    }
+
+    // INTERNALS
+
+    /**
+     * @return the relocated group, artifact and version from the POM of the artifact, or null if it was not relocated
+     */
+    private String[] findPomRelocation(String groupId, String artifactId, String version) {
+        if (pomRepository == null) {
+            return null;
+        }
+        String key = groupId+":"+artifactId+":"+version;
+        if (pomRelocations.containsKey(key)) {
+            return pomRelocations.get(key);
+        }
+        String[] relocation = null;
+        MavenDependency pomDep = new MavenDependency(null, groupId, artifactId, "compile", version);
+        File pomFile = new File(pomRepository.getVersionDirectory(pomDep), LocalMavenRepository.computeArtifactFileName(pomDep, "pom"));
+        if (pomFile.isFile()) {
+            try {
+                Element relocationElement = getChild(getChild(XmlDocuments.parse(pomFile), "distributionManagement"), "relocation");
+                if (relocationElement != null) {
+                    relocation = new String[] { getChildText(relocationElement, "groupId", groupId),
+                            getChildText(relocationElement, "artifactId", artifactId), getChildText(relocationElement, "version", version) };
+                    if (relocation[0].equals(groupId) && relocation[1].equals(artifactId) && relocation[2].equals(version)) {
+                        relocation = null;
+                    }
+                }
+            } catch (Exception anyE) {
+                System.err.println(" WARNING could not read "+pomFile+": "+anyE.getMessage());
+            }
+        }
+        pomRelocations.put(key, relocation);
+        return relocation;
+    }
+}
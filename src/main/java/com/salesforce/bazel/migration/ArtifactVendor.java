@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Vendors the jars of the resolved dependencies from a {@link LocalMavenRepository} into a <i>third_party</i> tree, with
+ * one Bazel package per artifact that wraps the jar in a <i>java_import</i> target:
+ * <pre>
+ * third_party/com_google_guava_guava/BUILD
+ * third_party/com_google_guava_guava/guava-20.0.jar
+ * </pre>
+ * BUILD files then depend on <i>//third_party/com_google_guava_guava:jar</i> instead of <i>@com_google_guava_guava//jar</i>,
+ * and Bazel never downloads a jar, so builds work offline.
+ * <p>
+ * The jars are hard links to the files in the local repository, so vendoring takes no extra disk space and no time
+ * to copy. If the tree is on another file system (or the file system has no hard links), the jars are copied instead.
+ * Jars that are already vendored are left alone. Packages of artifacts that are no longer resolved are deleted, but
+ * only if their BUILD file was generated by this class.
+ */
+public class ArtifactVendor {
+    static final String BUILD_FILE_HEADER = "# vendored by the Maven to Bazel generator from ";
+
+    LocalMavenRepository localRepository;
+    File vendorDirectory;
+
+    // artifacts that could not be found in the local repository
+    public List<MavenDependency> missingArtifacts = new ArrayList<>();
+    public int linkedCount = 0;
+    public int copiedCount = 0;
+    public int unchangedCount = 0;
+    public int deletedPackageCount = 0;
+
+    /**
+     * @param localRepository the repository that holds the jars
+     * @param vendorDirectory the directory of the vendor package, e.g. <i>outputs/third_party</i>
+     */
+    public ArtifactVendor(LocalMavenRepository localRepository, File vendorDirectory) {
+        this.localRepository = localRepository;
+        this.vendorDirectory = vendorDirectory;
+    }
+
+    /**
+     * Vendors the jars of the dependencies, and writes a BUILD file for each.
+     *
+     * @param dependencies the resolved dependencies, as returned by the DependencyAnalyzer
+     * @throws IllegalStateException if any of the jars is not in the local repository, after the others were vendored
+     */
+    public void vendor(Map<String, MavenDependency> dependencies) throws Exception {
+        long start = System.currentTimeMillis();
+        vendorDirectory.mkdirs();
+        Set<String> packageNames = new HashSet<>();
+        for (MavenDependency dep : dependencies.values()) {
+            String packageName = BazelNamer.computeBazelName(dep);
+            packageNames.add(packageName);
+            File jarFile = localRepository.findArtifact(dep);
+            if (jarFile == null) {
+                missingArtifacts.add(dep);
+                System.err.println(" MISSING artifact ["+BazelNamer.computeBazelMavenName(dep)+"] is not in the local repository "+localRepository);
+                continue;
+            }
+            File packageDirectory = new File(vendorDirectory, packageName);
+            packageDirectory.mkdirs();
+            String jarName = LocalMavenRepository.computeArtifactFileName(dep, "jar");
+            vendorJar(jarFile, new File(packageDirectory, jarName));
+            deleteOtherJars(packageDirectory, jarName);
+            GeneratedFileWriter.writeIfChanged(new File(packageDirectory, "BUILD"), computeBuildFile(dep, jarName));
+        }
+        deleteStalePackages(packageNames);
+        System.out.println("Vendored ["+dependencies.size()+"] artifacts into "+vendorDirectory.getAbsolutePath()+": ["+linkedCount+"] linked, ["+
+                copiedCount+"] copied, ["+unchangedCount+"] unchanged, ["+deletedPackageCount+"] stale packages deleted in "+
+                (System.currentTimeMillis() - start)+"ms");
+        if (!missingArtifacts.isEmpty()) {
+            throw new IllegalStateException("["+missingArtifacts.size()+"] of the ["+dependencies.size()+
+                    "] resolved dependencies are not in the local repository "+localRepository+" and could not be vendored");
+        }
+    }
+
+    static String computeBuildFile(MavenDependency dep, String jarName) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(BUILD_FILE_HEADER).append(BazelNamer.computeBazelMavenName(dep)).append("\n\n");
+        sb.append("java_import(\n");
+        sb.append("    name = \"jar\",\n");
+        sb.append("    jars = [\"").append(jarName).append("\"],\n");
+        sb.append("    visibility = [\"//visibility:public\"],\n");
+        sb.append(")\n");
+        return sb.toString();
+    }
+
+    // INTERNALS
+
+    private void vendorJar(File jarFile, File vendoredFile) throws IOException {
+        if (vendoredFile.exists()) {
+            if (Files.isSameFile(jarFile.toPath(), vendoredFile.toPath()) ||
+                    (vendoredFile.length() == jarFile.length() && vendoredFile.lastModified() == jarFile.lastModified())) {
+                unchangedCount++;
+                return;
+            }
+            Files.delete(vendoredFile.toPath());
+        }
+        try {
+            Files.createLink(vendoredFile.toPath(), jarFile.toPath());
+            linkedCount++;
+        } catch (IOException | UnsupportedOperationException | SecurityException noLink) {
+            // e.g. the local repository is on another file system
+            Files.copy(jarFile.toPath(), vendoredFile.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+            copiedCount++;
+        }
+    }
+
+    /**
+     * Deletes the jars of earlier versions of the artifact
+     */
+    private static void deleteOtherJars(File packageDirectory, String jarName) throws IOException {
+        for (File file : packageDirectory.listFiles()) {
+            if (file.getName().endsWith(".jar") && !file.getName().equals(jarName)) {
+                Files.delete(file.toPath());
+            }
+        }
+    }
+
+    private void deleteStalePackages(Set<String> packageNames) throws IOException {
+        for (File packageDirectory : vendorDirectory.listFiles()) {
+            if (!packageDirectory.isDirectory() || packageNames.contains(packageDirectory.getName())) {
+                continue;
+            }
+            File buildFile = new File(packageDirectory, "BUILD");
+            if (!buildFile.isFile() || !new String(Files.readAllBytes(buildFile.toPath()), "UTF-8").startsWith(BUILD_FILE_HEADER)) {
+                // not ours
+                continue;
+            }
+            for (File file : packageDirectory.listFiles()) {
+                Files.delete(file.toPath());
+            }
+            Files.delete(packageDirectory.toPath());
+            deletedPackageCount++;
+        }
+    }
+}
@@ -6,14 +6,14 @@
  */
 package com.salesforce.bazel.migration;
 
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
- * Takes in a set of deduplicated {@link MavenDependency} objects, and writes out the <b>deps</b> list for use in a 
- * Bazel BUILD file.
+ * Takes in a set of deduplicated {@link MavenDependency} objects, and writes out the <b>deps</b>, <b>runtime_deps</b> and
+ * test <b>deps</b> lists for use in a Bazel BUILD file.
  * This allows migrating projects to easily generate the full list of transitive dependencies, and insert into a BUILD file
  * using the Bazel naming convention.
  * <p>
@@ -24,18 +24,39 @@ import java.util.Map;
  * <p>
  * <b>Output</b>
  * <p>
- * A file with the the dependencies written in Bazel BUILD file form, one line per dependency. For example:
+ * A file with the the dependencies written in Bazel BUILD file form, one line per dependency, split by Maven scope. 
+ * Compile and provided scoped dependencies go in <i>deps</i>. A provided dependency is compile-only: it refers to a
+ * <i>java_library</i> with <i>neverlink = 1</i> that exports the jar, written at the end of the file to be copied along.
+ * Runtime scoped
+ * dependencies go in <i>runtime_deps</i> so they stay off the javac classpath, and test scoped dependencies are listed 
+ * separately for the <i>java_test</i> target. Empty lists are not written. For example:
  * <pre>
+  # deps for your java_library
+  deps = [
     "@com_fasterxml_jackson_core_jackson_annotations//jar",
     "@com_fasterxml_jackson_core_jackson_core//jar",
-    "@com_fasterxml_jackson_core_jackson_databind//jar",
-    "@com_fasterxml_jackson_jaxrs_jackson_jaxrs_base//jar",
-    "@com_fasterxml_jackson_jaxrs_jackson_jaxrs_json_provider//jar",
+    ":javax_servlet_javax_servlet_api_neverlink",
+  ],
+  # runtime_deps for your java_library
+  runtime_deps = [
+    "@com_fasterxml_jackson_module_jackson_module_afterburner//jar",
+  ],
+  # deps for your java_test, in addition to the java_library
+  deps = [
+    "@junit_junit//jar",
+  ],
+
+# compile-only wrappers of the provided dependencies, copy them into the same BUILD file
+java_library(
+    name = "javax_servlet_javax_servlet_api_neverlink",
+    exports = ["@javax_servlet_javax_servlet_api//jar"],
+    neverlink = 1,
+)
    </pre>
  * <p>
  * <b>Usage Notes:</b>
  * <p>
- * 1. Note that the output of this is <b>not</b> a usable BUILD file. It is just the <i>deps</i> list that you can plug into
+ * 1. Note that the output of this is <b>not</b> a usable BUILD file. It is just the <i>deps</i> lists that you can plug into
  * a BUILD file (that you manually migrated).
  * <p>
  * 2. If any of the dependencies (e.g. an upstream library) is also moving into the Bazel WORKSPACE, you will need to manually
@@ -47,6 +68,9 @@ import java.util.Map;
  * @author plaird
  */
 public class BazelBuildDependenciesGenerator {
+	// the package of the vendored artifacts (see ArtifactVendor), or null to refer to the maven_jar repositories
+	public String vendorPackage = null;
+	
 	/**
 	 * Writes the list of dependencies in BUILD file form, as described in the class-level Javadoc.
 	 * 
@@ -55,25 +79,68 @@ public class BazelBuildDependenciesGenerator {
 	 * @throws Exception
 	 */
     public void writeDependenciesAsBuildFile(Map<String, MavenDependency> dependencies, File outputFile)  throws Exception {
-        BufferedWriter bw = null;
-        FileWriter fw = null;
-
-        try {
-            fw = new FileWriter(outputFile);
-            bw = new BufferedWriter(fw);
-            bw.write("# this is a list of dependencies to copy into your deps attribute in your Java target's BUILD file\n\n");
-
-            // write a @
-            for (MavenDependency dep : dependencies.values()) {
-                bw.write("  \"@");
-                bw.write(BazelNamer.computeBazelName(dep));
-                bw.write("//jar\",\n");
+        List<MavenDependency> compileDeps = new ArrayList<>();
+        List<MavenDependency> runtimeDeps = new ArrayList<>();
+        List<MavenDependency> testDeps = new ArrayList<>();
+        for (MavenDependency dep : dependencies.values()) {
+            switch (dep.scope) {
+            case RUNTIME:
+                runtimeDeps.add(dep);
+                break;
+            case TEST:
+                testDeps.add(dep);
+                break;
+            default:
+                compileDeps.add(dep);
             }
+        }
+        
+        StringBuilder sb = new StringBuilder();
+        sb.append("# this is a list of dependencies to copy into the attributes of your Java targets in your BUILD file\n\n");
+        appendDependencyList(sb, "deps for your java_library", "deps", compileDeps);
+        appendDependencyList(sb, "runtime_deps for your java_library", "runtime_deps", runtimeDeps);
+        appendDependencyList(sb, "deps for your java_test, in addition to the java_library", "deps", testDeps);
+        appendNeverlinkWrappers(sb, compileDeps);
 
+        if (GeneratedFileWriter.writeIfChanged(outputFile, sb.toString())) {
             System.out.println("Wrote Bazel partial BUILD file "+outputFile.getAbsolutePath());
-        } finally {
-            if (bw != null) bw.close();
-            if (fw != null) fw.close();
+        }
+    }
+    
+    void appendDependencyList(StringBuilder sb, String comment, String attribute, List<MavenDependency> dependencies) {
+        if (dependencies.isEmpty()) {
+            return;
+        }
+        sb.append("  # ").append(comment).append("\n");
+        sb.append("  ").append(attribute).append(" = [\n");
+        // write a @
+        for (MavenDependency dep : dependencies) {
+            sb.append("    \"");
+            if (dep.scope == MavenDependency.Scope.PROVIDED) {
+                sb.append(":").append(BazelNamer.computeNeverlinkName(dep));
+            } else {
+                sb.append(BazelNamer.computeBazelLabel(dep, vendorPackage));
+            }
+            sb.append("\",\n");
+        }
+        sb.append("  ],\n");
+    }
+
+    void appendNeverlinkWrappers(StringBuilder sb, List<MavenDependency> dependencies) {
+        boolean first = true;
+        for (MavenDependency dep : dependencies) {
+            if (dep.scope != MavenDependency.Scope.PROVIDED) {
+                continue;
+            }
+            if (first) {
+                sb.append("\n# compile-only wrappers of the provided dependencies, copy them into the same BUILD file\n");
+                first = false;
+            }
+            sb.append("java_library(\n");
+            sb.append("    name = \"").append(BazelNamer.computeNeverlinkName(dep)).append("\",\n");
+            sb.append("    exports = [\"").append(BazelNamer.computeBazelLabel(dep, vendorPackage)).append("\"],\n");
+            sb.append("    neverlink = 1,\n");
+            sb.append(")\n");
         }
     }
 }
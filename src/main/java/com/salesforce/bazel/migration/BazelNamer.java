@@ -35,6 +35,42 @@ public class BazelNamer {
         return name;
     }
 	
+	/**
+	 * Constructs the label that BUILD files use to depend on the jar of a Maven dependency.
+	 * <p>
+	 * <b>Examples</b>
+	 * <ul>
+	 * <li>com.sample:foo => @com_sample_foo//jar, the external repository of its maven_jar rule
+	 * <li>com.sample:foo, vendored in third_party => //third_party/com_sample_foo:jar, see {@link ArtifactVendor}
+	 * </ul>
+	 * 
+	 * @param dep the Maven dependency
+	 * @param vendorPackage the package that holds the vendored artifacts, or null if they are downloaded by maven_jar rules
+	 * @return the label
+	 */
+	public static String computeBazelLabel(MavenDependency dep, String vendorPackage) {
+		if (vendorPackage == null) {
+			return "@"+computeBazelName(dep)+"//jar";
+		}
+		return "//"+vendorPackage+"/"+computeBazelName(dep)+":jar";
+	}
+	
+	/**
+	 * Constructs the name of the compile-only <i>java_library</i> (with <i>neverlink = 1</i>) that exports the jar of a 
+	 * provided scope dependency, so it is on the javac classpath but not on the runtime classpath.
+	 * <p>
+	 * <b>Examples</b>
+	 * <ul>
+	 * <li>javax.servlet:servlet-api => javax_servlet_servlet_api_neverlink
+	 * </ul>
+	 * 
+	 * @param dep the Maven dependency
+	 * @return the name of the wrapper target, in the package of the target that depends on it
+	 */
+	public static String computeNeverlinkName(MavenDependency dep) {
+		return computeBazelName(dep)+"_neverlink";
+	}
+	
 	/**
 	 * Constructs the Maven artifact name for use in a Bazel maven_jar rule that is used to download the
 	 * artifact from Nexus/Artifactory.
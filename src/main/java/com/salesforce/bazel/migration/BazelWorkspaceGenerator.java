@@ -6,8 +6,8 @@
  */
 package com.salesforce.bazel.migration;
 
-import java.io.*;
-import java.util.Map;
+import java.io.File;
+import java.util.*;
 
 /**
  * Takes in a list of Dependency objects, and writes out a Bazel WORKSPACE file that has a <i>maven_jar()</i>
@@ -42,29 +42,162 @@ def external_maven_jars():
   )
    </pre>
  * <p>
+ * <b>Checksums</b>
+ * <p>
+ * If checksums were computed (see {@link ArtifactChecksummer}), each entry also gets a <i>sha1</i> or <i>sha256</i> attribute.
+ * <p>
+ * <b>Table Output</b>
+ * <p>
+ * With several thousand entries, the <i>maven_jar()</i> blocks make a large file that is slow for Bazel to load. The table
+ * format writes the entries as one compact Starlark dict (name to artifact and sha1 checksum, which may be empty), and a loop
+ * that declares the repositories from it:
+ * <pre>
+_MAVEN_JARS = {
+  "com_fasterxml_jackson_core_jackson_core": ("com.fasterxml.jackson.core:jackson-core:2.8.9", ""),
+}
+
+def external_maven_jars():
+  for name, entry in _MAVEN_JARS.items():
+    native.maven_jar(name = name, artifact = entry[0], sha1 = entry[1] or None)
+   </pre>
+ * <p>
+ * <b>Sharded Output</b>
+ * <p>
+ * Alternatively the entries can be split into several shard files, keyed by groupId prefix or by a hash bucket of the groupId.
+ * Each shard file has the same form as the single file. A small aggregator file loads the shards and calls each of them, so the 
+ * WORKSPACE snippet stays the same. When a version changes, only the shard that contains it changes.
+ * <pre>
+load("//:external_deps_com_fasterxml.bzl", external_maven_jars_com_fasterxml = "external_maven_jars")
+
+def external_maven_jars():
+  external_maven_jars_com_fasterxml()
+   </pre>
  */
 public class BazelWorkspaceGenerator {
+    static final String SHARD_FILE_PREFIX = "external_deps_";
+    static final String OUTPUT_FILE_SUFFIX = ".bzl.out";
+    
+    // write the entries as a Starlark data table instead of maven_jar() blocks
+    public boolean tableFormat = false;
+    
+    // logical name to checksum of the artifact jar, entries without a checksum are written without the attribute
+    public Map<String, String> checksums = new HashMap<>();
+    // the maven_jar attribute the checksums are written to, sha1 or sha256
+    public String checksumAttribute = "sha1";
 
     public void writeDependenciesAsWorkspaceFile(Map<String, MavenDependency> dependencies, File outputFile)  throws Exception {
-        BufferedWriter bw = null;
-        FileWriter fw = null;
+        StringBuilder sb = new StringBuilder();
+        appendWorkspaceFunction(sb, dependencies.values());
 
-        try {
-            fw = new FileWriter(outputFile);
-            bw = new BufferedWriter(fw);
+        if (GeneratedFileWriter.writeIfChanged(outputFile, sb.toString())) {
+            System.out.println("Wrote Bazel Workspace file "+outputFile.getAbsolutePath());
+        }
+    }
 
-            bw.write("# Generated by the Maven to Bazel migration tool\n");
-            bw.write("#  See the migration tool README for the 'load' snippet to insert into your WORKSPACE file to execute this file\n\n");
-            bw.write("def external_maven_jars():\n\n");
-            
-            for (MavenDependency dep : dependencies.values()) {
-                bw.write(constructMavenJarEntry(dep));
+    /**
+     * Writes the dependencies into shard files, plus the external_deps.bzl.out aggregator file that loads them. Shard files 
+     * from a previous run that no longer have any entries are deleted.
+     * 
+     * @param dependencies the dependencies
+     * @param outputDirectory the directory to write the files into
+     * @param hashBuckets the number of hash buckets to spread the groupIds over, or 0 to shard by groupId prefix 
+     * @throws Exception
+     */
+    public void writeDependenciesAsShardedWorkspaceFiles(Map<String, MavenDependency> dependencies, File outputDirectory, int hashBuckets)  throws Exception {
+        TreeMap<String, List<MavenDependency>> shards = new TreeMap<>();
+        for (MavenDependency dep : dependencies.values()) {
+            String shardName = computeShardName(dep, hashBuckets);
+            List<MavenDependency> shard = shards.get(shardName);
+            if (shard == null) {
+                shard = new ArrayList<>();
+                shards.put(shardName, shard);
+            }
+            shard.add(dep);
+        }
+        
+        StringBuilder aggregator = new StringBuilder();
+        aggregator.append("# Generated by the Maven to Bazel migration tool\n");
+        aggregator.append("#  See the migration tool README for the 'load' snippet to insert into your WORKSPACE file to execute this file\n");
+        aggregator.append("#  Copy the "+SHARD_FILE_PREFIX+"*.bzl shard files next to this file\n\n");
+        for (Map.Entry<String, List<MavenDependency>> shard : shards.entrySet()) {
+            File shardFile = new File(outputDirectory, SHARD_FILE_PREFIX+shard.getKey()+OUTPUT_FILE_SUFFIX);
+            StringBuilder sb = new StringBuilder();
+            appendWorkspaceFunction(sb, shard.getValue());
+            if (GeneratedFileWriter.writeIfChanged(shardFile, sb.toString())) {
+                System.out.println("Wrote Bazel Workspace shard file "+shardFile.getAbsolutePath());
             }
+            aggregator.append("load(\"//:"+SHARD_FILE_PREFIX+shard.getKey()+".bzl\", external_maven_jars_"+shard.getKey()+
+                    " = \"external_maven_jars\")\n");
+        }
+        aggregator.append("\ndef external_maven_jars():\n");
+        for (String shardName : shards.keySet()) {
+            aggregator.append("  external_maven_jars_"+shardName+"()\n");
+        }
+        
+        File[] existingFiles = outputDirectory.listFiles();
+        if (existingFiles != null) {
+            for (File existingFile : existingFiles) {
+                String name = existingFile.getName();
+                if (name.startsWith(SHARD_FILE_PREFIX) && name.endsWith(OUTPUT_FILE_SUFFIX) && 
+                        !shards.containsKey(name.substring(SHARD_FILE_PREFIX.length(), name.length() - OUTPUT_FILE_SUFFIX.length()))) {
+                    System.out.println("Deleting empty Bazel Workspace shard file "+existingFile.getAbsolutePath());
+                    existingFile.delete();
+                }
+            }
+        }
+        
+        File aggregatorFile = new File(outputDirectory, "external_deps"+OUTPUT_FILE_SUFFIX);
+        if (GeneratedFileWriter.writeIfChanged(aggregatorFile, aggregator.toString())) {
+            System.out.println("Wrote Bazel Workspace file "+aggregatorFile.getAbsolutePath());
+        }
+    }
+    
+    /**
+     * Computes the shard that a dependency is written to. 
+     * <p>
+     * <b>Examples</b>
+     * <ul>
+     * <li>by prefix: com.fasterxml.jackson.core => com_fasterxml
+     * <li>by prefix: junit => junit
+     * <li>16 hash buckets: com.fasterxml.jackson.core => 07
+     * </ul>
+     * All artifacts of a groupId always go to the same shard.
+     * 
+     * @param dep the dependency
+     * @param hashBuckets the number of hash buckets, or 0 to shard by groupId prefix 
+     * @return the shard name, which is usable in a file name and as a Starlark identifier
+     */
+    static String computeShardName(MavenDependency dep, int hashBuckets) {
+        if (hashBuckets > 0) {
+            // String.hashCode() is specified by the JLS, so the buckets are stable across runs and JVMs
+            int bucket = Math.floorMod(dep.groupId.hashCode(), hashBuckets);
+            String digits = Integer.toString(hashBuckets - 1);
+            return String.format("%0"+digits.length()+"d", bucket);
+        }
+        String[] segments = dep.groupId.split("\\.");
+        String prefix = segments.length > 1 ? segments[0]+"_"+segments[1] : segments[0];
+        return prefix.replaceAll("[^A-Za-z0-9_]", "_");
+    }
 
-            System.out.println("Wrote Bazel Workspace file "+outputFile.getAbsolutePath());
-        } finally {
-            if (bw != null) bw.close();
-            if (fw != null) fw.close();
+    void appendWorkspaceFunction(StringBuilder sb, Collection<MavenDependency> dependencies) {
+        sb.append("# Generated by the Maven to Bazel migration tool\n");
+        sb.append("#  See the migration tool README for the 'load' snippet to insert into your WORKSPACE file to execute this file\n\n");
+        if (tableFormat) {
+            sb.append("# name: (artifact, "+checksumAttribute+")\n");
+            sb.append("_MAVEN_JARS = {\n");
+            for (MavenDependency dep : dependencies) {
+                sb.append(constructMavenJarTableEntry(dep));
+            }
+            sb.append("}\n\n");
+            sb.append("def external_maven_jars():\n");
+            sb.append("  for name, entry in _MAVEN_JARS.items():\n");
+            sb.append("    native.maven_jar(name = name, artifact = entry[0], "+checksumAttribute+" = entry[1] or None)\n");
+            return;
+        }
+        sb.append("def external_maven_jars():\n\n");
+        
+        for (MavenDependency dep : dependencies) {
+            sb.append(constructMavenJarEntry(dep));
         }
     }
 
@@ -74,8 +207,30 @@ public class BazelWorkspaceGenerator {
         sb.append(BazelNamer.computeBazelName(dep));
         sb.append("\",\n    artifact = \"");
         sb.append(BazelNamer.computeBazelMavenName(dep));
+        String checksum = checksums.get(dep.getLogicalName());
+        if (checksum != null) {
+            sb.append("\",\n    ");
+            sb.append(checksumAttribute);
+            sb.append(" = \"");
+            sb.append(checksum);
+        }
         sb.append("\",\n  )\n\n");
         return sb.toString();
     }
+
+    String constructMavenJarTableEntry(MavenDependency dep) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("  \"");
+        sb.append(BazelNamer.computeBazelName(dep));
+        sb.append("\": (\"");
+        sb.append(BazelNamer.computeBazelMavenName(dep));
+        sb.append("\", \"");
+        String checksum = checksums.get(dep.getLogicalName());
+        if (checksum != null) {
+            sb.append(checksum);
+        }
+        sb.append("\"),\n");
+        return sb.toString();
+    }
     
 }
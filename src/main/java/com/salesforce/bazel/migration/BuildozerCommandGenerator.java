@@ -0,0 +1,178 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Writes a <a href="https://github.com/bazelbuild/buildtools/tree/master/buildozer">buildozer</a> command file that 
+ * edits the <i>deps</i> and <i>runtime_deps</i> of the Bazel targets of the migrated projects in place. This replaces
+ * copying the BUILD.out lists into each BUILD file by hand; all targets are updated with one invocation:
+ * <pre>
+ *   buildozer -k -f outputs/buildozer_commands.out
+ * </pre>
+ * <p>
+ * Each input file names the targets of its project with <i># BAZEL_TARGET //pkg:lib</i> and optionally 
+ * <i># BAZEL_TEST_TARGET //pkg:tests</i> lines. The dependencies declared in the file are then added to those targets, 
+ * split by scope as in {@link BazelBuildDependenciesGenerator}. A dependency is also removed from the other attribute, 
+ * so a scope change moves it. Artifacts that were removed from the resolved set (see {@link ImpactReport}) are removed
+ * from all targets. For example:
+ * <pre>
+add deps @com_google_guava_guava//jar|//projects/foo:lib
+remove runtime_deps @com_google_guava_guava//jar|//projects/foo:lib
+add runtime_deps @org_slf4j_slf4j_simple//jar|//projects/foo:lib
+remove deps @org_slf4j_slf4j_simple//jar|//projects/foo:lib
+add deps @junit_junit//jar|//projects/foo:tests
+ * </pre>
+ * A provided scope dependency is compile-only. The commands create a <i>java_library</i> with <i>neverlink = 1</i> that 
+ * exports its jar, in the package of the target, and add that to <i>deps</i> instead (see 
+ * {@link BazelNamer#computeNeverlinkName(MavenDependency)}):
+ * <pre>
+new java_library javax_servlet_javax_servlet_api_neverlink|//projects/foo:__pkg__
+add exports @javax_servlet_javax_servlet_api//jar|//projects/foo:javax_servlet_javax_servlet_api_neverlink
+set neverlink 1|//projects/foo:javax_servlet_javax_servlet_api_neverlink
+add deps :javax_servlet_javax_servlet_api_neverlink|//projects/foo:lib
+remove deps @javax_servlet_javax_servlet_api//jar|//projects/foo:lib
+remove runtime_deps @javax_servlet_javax_servlet_api//jar|//projects/foo:lib
+ * </pre>
+ * The <i>new</i> command fails if the wrapper already exists, e.g. on a second run, so run buildozer with <i>-k</i>.
+ */
+public class BuildozerCommandGenerator {
+    public boolean dropTestScopeDeps = false;
+    // the package of the vendored artifacts (see ArtifactVendor), or null to refer to the maven_jar repositories
+    public String vendorPackage = null;
+    
+    // target to the dependencies declared for it, by logical name
+    TreeMap<String, TreeMap<String, MavenDependency>> targetDependencies = new TreeMap<>();
+    
+    /**
+     * Records the dependencies declared by the input files that name a Bazel target.
+     */
+    public void addDeclarations(Collection<MavenDependency> deps, InputFileRegistry inputFiles) {
+        for (MavenDependency dep : deps) {
+            addDeclaration(dep, inputFiles);
+        }
+    }
+
+    /**
+     * Records the dependencies declared by the input files that name a Bazel target.
+     */
+    public void addDeclarations(MavenDependencyTable table, InputFileRegistry inputFiles) {
+        for (int row = 0; row < table.size(); row++) {
+            int fileId = table.getSourceFileId(row);
+            if (inputFiles.bazelTargets.containsKey(fileId) || inputFiles.bazelTestTargets.containsKey(fileId)) {
+                addDeclaration(table.toMavenDependency(row), inputFiles);
+            }
+        }
+    }
+    
+    /**
+     * Writes the command file.
+     * 
+     * @param removedDeps the artifacts that are no longer in the resolved set, they are removed from every target
+     * @param outputFile the command file
+     * @throws Exception
+     */
+    public void writeCommandFile(Collection<MavenDependency> removedDeps, File outputFile) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, TreeMap<String, MavenDependency>> target : targetDependencies.entrySet()) {
+            // the labels of the jars that go in deps, and the labels that are added there instead (neverlink wrappers)
+            List<String> compileLabels = new ArrayList<>();
+            List<String> addedLabels = new ArrayList<>();
+            List<String> providedLabels = new ArrayList<>();
+            List<String> runtimeLabels = new ArrayList<>();
+            for (MavenDependency dep : target.getValue().values()) {
+                if (dep.scope == MavenDependency.Scope.RUNTIME) {
+                    runtimeLabels.add(computeLabel(dep));
+                } else if (dep.scope == MavenDependency.Scope.PROVIDED) {
+                    appendNeverlinkWrapper(sb, dep, target.getKey());
+                    compileLabels.add(computeLabel(dep));
+                    addedLabels.add(":"+BazelNamer.computeNeverlinkName(dep));
+                    providedLabels.add(computeLabel(dep));
+                } else {
+                    compileLabels.add(computeLabel(dep));
+                    addedLabels.add(computeLabel(dep));
+                }
+            }
+            appendCommand(sb, "add deps", addedLabels, target.getKey());
+            appendCommand(sb, "remove deps", providedLabels, target.getKey());
+            appendCommand(sb, "remove runtime_deps", compileLabels, target.getKey());
+            appendCommand(sb, "add runtime_deps", runtimeLabels, target.getKey());
+            appendCommand(sb, "remove deps", runtimeLabels, target.getKey());
+        }
+        if (!removedDeps.isEmpty()) {
+            List<String> removedLabels = new ArrayList<>();
+            for (MavenDependency dep : removedDeps) {
+                removedLabels.add(computeLabel(dep));
+            }
+            for (String target : targetDependencies.keySet()) {
+                appendCommand(sb, "remove deps", removedLabels, target);
+                appendCommand(sb, "remove runtime_deps", removedLabels, target);
+            }
+        }
+        if (GeneratedFileWriter.writeIfChanged(outputFile, sb.toString())) {
+            System.out.println("Wrote buildozer command file "+outputFile.getAbsolutePath()+" for ["+targetDependencies.size()+"] targets");
+        }
+    }
+    
+    // INTERNALS
+    
+    private void addDeclaration(MavenDependency dep, InputFileRegistry inputFiles) {
+        if (dep.scope == MavenDependency.Scope.TEST) {
+            if (!dropTestScopeDeps) {
+                addTargetDependency(inputFiles.bazelTestTargets.get(dep.sourceFileId), dep);
+            }
+            return;
+        }
+        addTargetDependency(inputFiles.bazelTargets.get(dep.sourceFileId), dep);
+    }
+
+    private void addTargetDependency(String target, MavenDependency dep) {
+        if (target == null) {
+            return;
+        }
+        TreeMap<String, MavenDependency> deps = targetDependencies.get(target);
+        if (deps == null) {
+            deps = new TreeMap<>();
+            targetDependencies.put(target, deps);
+        }
+        MavenDependency previousDep = deps.get(dep.getLogicalName());
+        if (previousDep != null && previousDep.scope != dep.scope) {
+            dep = new MavenDependency(dep);
+            dep.scope = previousDep.scope.widen(dep.scope);
+        }
+        deps.put(dep.getLogicalName(), dep);
+    }
+
+    /**
+     * Creates the compile-only java_library of a provided dependency in the package of the target
+     */
+    private void appendNeverlinkWrapper(StringBuilder sb, MavenDependency dep, String target) {
+        int colon = target.lastIndexOf(':');
+        String bazelPackage = colon < 0 ? target : target.substring(0, colon);
+        String wrapperName = BazelNamer.computeNeverlinkName(dep);
+        sb.append("new java_library ").append(wrapperName).append("|").append(bazelPackage).append(":__pkg__\n");
+        sb.append("add exports ").append(computeLabel(dep)).append("|").append(bazelPackage).append(":").append(wrapperName).append("\n");
+        sb.append("set neverlink 1|").append(bazelPackage).append(":").append(wrapperName).append("\n");
+    }
+
+    private String computeLabel(MavenDependency dep) {
+        return BazelNamer.computeBazelLabel(dep, vendorPackage);
+    }
+
+    private static void appendCommand(StringBuilder sb, String command, List<String> labels, String target) {
+        if (labels.isEmpty()) {
+            return;
+        }
+        sb.append(command);
+        for (String label : labels) {
+            sb.append(" ").append(label);
+        }
+        sb.append("|").append(target).append("\n");
+    }
+}
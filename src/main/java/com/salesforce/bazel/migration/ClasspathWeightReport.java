@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Measures how heavy the generated <i>deps</i> lists are: the total size, jar count and class count of each list, and its
+ * heaviest artifacts. The lists are the ones in BUILD.out (see {@link BazelBuildDependenciesGenerator}), and the lists of
+ * each target when a buildozer command file is written (see {@link BuildozerCommandGenerator}).
+ * <p>
+ * The jars are located in a {@link LocalMavenRepository} and read in parallel, only their zip central directory is read
+ * to count the classes (see {@link JarCentralDirectory}). Optional budgets limit the bytes, jars and classes of every list,
+ * so classpath bloat fails the migration instead of showing up in the Bazel build.
+ */
+public class ClasspathWeightReport {
+    static final int HEAVIEST_ARTIFACT_COUNT = 5;
+
+    LocalMavenRepository localRepository;
+    int threadCount;
+
+    // budgets for every list, 0 for no limit
+    public long maxBytes = 0;
+    public int maxJars = 0;
+    public int maxClasses = 0;
+
+    // artifacts that could not be found in the local repository, they do not count towards the weights
+    public List<MavenDependency> missingArtifacts = new ArrayList<>();
+    // logical name to the weight of its jar
+    public Map<String, ArtifactWeight> artifactWeights = new HashMap<>();
+    // list name to its weight, in the order the lists were added
+    public Map<String, ListWeight> listWeights = new LinkedHashMap<>();
+
+    public static class ArtifactWeight {
+        public final String logicalName;
+        public final long bytes;
+        public final int classes;
+
+        ArtifactWeight(String logicalName, long bytes, int classes) {
+            this.logicalName = logicalName;
+            this.bytes = bytes;
+            this.classes = classes;
+        }
+    }
+
+    public static class ListWeight {
+        public long bytes;
+        public int jars;
+        public int classes;
+        public List<ArtifactWeight> heaviestArtifacts = new ArrayList<>();
+    }
+
+    public ClasspathWeightReport(LocalMavenRepository localRepository) {
+        this(localRepository, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ClasspathWeightReport(LocalMavenRepository localRepository, int threadCount) {
+        this.localRepository = localRepository;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Sets the budgets from a comma separated list, as in <i>mb=200,jars=300,classes=50000</i>.
+     *
+     * @throws IllegalArgumentException if the budgets cannot be parsed
+     */
+    public void setBudgets(String budgets) {
+        for (String budget : budgets.split(",")) {
+            String[] keyValue = budget.split("=");
+            if (keyValue.length != 2 || !keyValue[1].matches("[1-9][0-9]*")) {
+                throw new IllegalArgumentException("Invalid classpath budget ["+budget+"], expected mb=N, jars=N or classes=N");
+            }
+            switch (keyValue[0]) {
+            case "mb":
+                maxBytes = Long.parseLong(keyValue[1]) * 1024 * 1024;
+                break;
+            case "jars":
+                maxJars = Integer.parseInt(keyValue[1]);
+                break;
+            case "classes":
+                maxClasses = Integer.parseInt(keyValue[1]);
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid classpath budget ["+budget+"], expected mb=N, jars=N or classes=N");
+            }
+        }
+    }
+
+    /**
+     * Reads the size and class count of the jars of the resolved dependencies. Lists can only be weighed afterwards.
+     *
+     * @param dependencies the resolved dependencies, as returned by the DependencyAnalyzer
+     */
+    public void measure(Map<String, MavenDependency> dependencies) throws Exception {
+        Map<MavenDependency, Future<ArtifactWeight>> measurements = new LinkedHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            for (final MavenDependency dep : dependencies.values()) {
+                final File jarFile = localRepository.findArtifact(dep);
+                if (jarFile == null) {
+                    missingArtifacts.add(dep);
+                    continue;
+                }
+                measurements.put(dep, executor.submit(new Callable<ArtifactWeight>() {
+                    @Override
+                    public ArtifactWeight call() throws Exception {
+                        int classes = 0;
+                        for (String entryName : JarCentralDirectory.readEntryNames(jarFile)) {
+                            if (entryName.endsWith(".class") && !entryName.startsWith("META-INF/") && !entryName.endsWith("module-info.class")) {
+                                classes++;
+                            }
+                        }
+                        return new ArtifactWeight(dep.getLogicalName(), jarFile.length(), classes);
+                    }
+                }));
+            }
+            for (Map.Entry<MavenDependency, Future<ArtifactWeight>> measurement : measurements.entrySet()) {
+                try {
+                    ArtifactWeight weight = measurement.getValue().get();
+                    artifactWeights.put(weight.logicalName, weight);
+                } catch (ExecutionException ee) {
+                    System.err.println(" WARNING could not read jar of ["+measurement.getKey().getLogicalName()+"]: "+ee.getCause().getMessage());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        System.out.println("Measured ["+artifactWeights.size()+"] jars, ["+missingArtifacts.size()+
+                "] artifacts not found in the local repository "+localRepository);
+    }
+
+    /**
+     * Adds the lists of BUILD.out, split by scope the same way.
+     */
+    public void addBuildLists(Map<String, MavenDependency> dependencies) {
+        List<MavenDependency> compileDeps = new ArrayList<>();
+        List<MavenDependency> runtimeDeps = new ArrayList<>();
+        List<MavenDependency> testDeps = new ArrayList<>();
+        for (MavenDependency dep : dependencies.values()) {
+            switch (dep.scope) {
+            case RUNTIME:
+                runtimeDeps.add(dep);
+                break;
+            case TEST:
+                testDeps.add(dep);
+                break;
+            default:
+                compileDeps.add(dep);
+            }
+        }
+        addList("BUILD.out deps", compileDeps);
+        addList("BUILD.out runtime_deps", runtimeDeps);
+        addList("BUILD.out test deps", testDeps);
+    }
+
+    /**
+     * Adds the list of each target of the buildozer command file.
+     */
+    public void addTargetLists(BuildozerCommandGenerator buildozer) {
+        for (Map.Entry<String, TreeMap<String, MavenDependency>> target : buildozer.targetDependencies.entrySet()) {
+            addList(target.getKey(), target.getValue().values());
+        }
+    }
+
+    /**
+     * Weighs a list of dependencies. Empty lists are skipped, like in the BUILD.out file.
+     */
+    public void addList(String name, Collection<MavenDependency> dependencies) {
+        if (dependencies.isEmpty()) {
+            return;
+        }
+        ListWeight listWeight = new ListWeight();
+        for (MavenDependency dep : dependencies) {
+            ArtifactWeight weight = artifactWeights.get(dep.getLogicalName());
+            if (weight == null) {
+                continue;
+            }
+            listWeight.bytes += weight.bytes;
+            listWeight.jars++;
+            listWeight.classes += weight.classes;
+            listWeight.heaviestArtifacts.add(weight);
+        }
+        Collections.sort(listWeight.heaviestArtifacts, new Comparator<ArtifactWeight>() {
+            @Override
+            public int compare(ArtifactWeight weight1, ArtifactWeight weight2) {
+                return Long.compare(weight2.bytes, weight1.bytes);
+            }
+        });
+        if (listWeight.heaviestArtifacts.size() > HEAVIEST_ARTIFACT_COUNT) {
+            listWeight.heaviestArtifacts = new ArrayList<>(listWeight.heaviestArtifacts.subList(0, HEAVIEST_ARTIFACT_COUNT));
+        }
+        listWeights.put(name, listWeight);
+    }
+
+    /**
+     * @return one message per list and budget that it exceeds, empty if all lists are within their budgets
+     */
+    public List<String> findBudgetViolations() {
+        List<String> violations = new ArrayList<>();
+        for (Map.Entry<String, ListWeight> list : listWeights.entrySet()) {
+            ListWeight weight = list.getValue();
+            if (maxBytes > 0 && weight.bytes > maxBytes) {
+                violations.add("["+list.getKey()+"] has "+formatBytes(weight.bytes)+" of jars, the budget is "+formatBytes(maxBytes));
+            }
+            if (maxJars > 0 && weight.jars > maxJars) {
+                violations.add("["+list.getKey()+"] has "+weight.jars+" jars, the budget is "+maxJars);
+            }
+            if (maxClasses > 0 && weight.classes > maxClasses) {
+                violations.add("["+list.getKey()+"] has "+weight.classes+" classes, the budget is "+maxClasses);
+            }
+        }
+        return violations;
+    }
+
+    /**
+     * Writes the weight of each list, its heaviest artifacts and the budget violations.
+     */
+    public void writeReport(File outputFile) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# Classpath weight of the generated deps lists, from the jars in the local repository ").append(localRepository).append("\n");
+        for (Map.Entry<String, ListWeight> list : listWeights.entrySet()) {
+            ListWeight weight = list.getValue();
+            sb.append("\n").append(list.getKey()).append(": ").append(formatBytes(weight.bytes)).append(" in ");
+            sb.append(weight.jars).append(" jars, ").append(weight.classes).append(" classes\n");
+            for (ArtifactWeight artifact : weight.heaviestArtifacts) {
+                sb.append("  ").append(formatBytes(artifact.bytes)).append("  ").append(artifact.classes).append(" classes  ");
+                sb.append(artifact.logicalName).append("\n");
+            }
+        }
+        List<String> violations = findBudgetViolations();
+        if (!violations.isEmpty()) {
+            sb.append("\n# Budget violations\n");
+            for (String violation : violations) {
+                sb.append("OVER BUDGET ").append(violation).append("\n");
+            }
+        }
+        if (!missingArtifacts.isEmpty()) {
+            sb.append("\n# Artifacts not found in the local repository, not counted\n");
+            for (MavenDependency dep : missingArtifacts) {
+                sb.append(BazelNamer.computeBazelMavenName(dep)).append("\n");
+            }
+        }
+        if (GeneratedFileWriter.writeIfChanged(outputFile, sb.toString())) {
+            System.out.println("Wrote classpath weight report "+outputFile.getAbsolutePath());
+        }
+    }
+
+    static String formatBytes(long bytes) {
+        if (bytes < 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1fKB", bytes / 1024.0);
+        }
+        return String.format(Locale.ROOT, "%.1fMB", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -7,6 +7,8 @@
 package com.salesforce.bazel.migration;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -18,7 +20,13 @@ import java.util.List;
  * <li><i>mvn dependency:list</i> output: <b>[INFO]    org.mockito:mockito-core:jar:1.10.19:test</b>
  * <li>WORKSPACE .bzl file from running Bazel's <i>migration-tooling</i>: <b>artifact = "org.slf4j:slf4j-api:1.6.2",</b>
  * <li>WORKSPACE (e.g. as generated by this tool): <b>artifact = "ch.qos.logback:logback-classic:1.1.11",</b>
+ * <li>WORKSPACE table format generated by this tool: <b>"ch_qos_logback_logback_classic": ("ch.qos.logback:logback-classic:1.1.11", ""),</b>
  * </ul>
+ * Files named WORKSPACE, *.bzl or *.bazel are read as Starlark by the {@link StarlarkDependencyScanner}, which also
+ * understands <i>maven_install</i>, <i>http_jar</i> and entries that span several lines.
+ * <p>
+ * Files named pom.xml, *.pom or *-pom.xml are Maven projects, their transitive dependencies are resolved offline from
+ * the POMs in the local repository by the {@link LocalPomResolver}, as if <i>mvn dependency:list</i> had been run.
  * <p>
  * <b>Usage Notes:</b>
  * <ul>
@@ -26,6 +34,9 @@ import java.util.List;
  * of the <i>mvn dependency:list</i> command to the end of a WORKSPACE file, and all the dependencies will be correctly parsed</li>
  * <li>Any line that does not match the above formats is ignored.</li> 
  * <li>The parser expects a single line to contain at most one dependency</li>
+ * <li>A {@link DependencyFilter} drops dependencies by scope, classifier or coordinates while the lines are parsed</li>
+ * <li>A file can name the Bazel targets of its project with <b># BAZEL_TARGET //pkg:lib</b> and 
+ * <b># BAZEL_TEST_TARGET //pkg:tests</b> lines, see {@link InputFileRegistry}</li>
  * </ul>
  *
  * @author plaird
@@ -34,20 +45,101 @@ public class DependenciesParser {
 	public MavenDependencyArbiter arbiter;
 	public int ignoredLineCount = 0;
 	public int parseErrorLineCount = 0;
+	// the files that were parsed, dependencies refer to them by id
+	public InputFileRegistry inputFiles = new InputFileRegistry();
+	// resolves the dependencies of pom.xml inputs, created for ~/.m2/repository if not set
+	public LocalPomResolver pomResolver;
+	// if set, dependencies it does not accept are dropped before any object is created for them
+	public DependencyFilter filter;
 
 	public DependenciesParser(MavenDependencyArbiter arbiter) {
 		this.arbiter = arbiter;
 	}
 	
     /**
-     * Parses a file, and returns a list of dependency POJOs 
+     * Parses a file, and returns a list of dependency POJOs. Each dependency records the file id (see {@link #inputFiles})
+     * and line number it was parsed from. 
      * 
      * @param file text file, see this class Javadoc for expected formats
      * @return a list of zero or more MavenDependency objects parsed from the file 
      */
     public List<MavenDependency> parseFile(File file) throws Exception {
-        List<String> rawLines = readFileLines(file);
-        return parseFileLines(rawLines);
+        Object event = MigrationEvents.beginInputFile();
+        List<MavenDependency> dependencies = new ArrayList<>();
+        int fileId = inputFiles.register(file);
+        if (isStarlarkFile(file)) {
+            int lineCount = scanStarlarkFile(file, fileId, dependencies, null);
+            MigrationEvents.endInputFile(event, file, lineCount, dependencies.size());
+            return dependencies;
+        }
+        if (isPomFile(file)) {
+            for (String[] tokens : resolvePomFile(file)) {
+                MavenDependency dep = toDependency(tokens, file.toString(), fileId, 0);
+                if (dep != null) {
+                    dependencies.add(dep);
+                }
+            }
+            MigrationEvents.endInputFile(event, file, 0, dependencies.size());
+            return dependencies;
+        }
+        int lineNumber = 0;
+        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(file))) {
+            String rawLine;
+            while ((rawLine = bufferedReader.readLine()) != null) {
+                lineNumber++;
+                try {
+                    MavenDependency dep = parseDependencyLine(rawLine, fileId, lineNumber);
+                    if (dep != null) {
+                        dependencies.add(dep);
+                    }
+                } catch (Exception anyE) {
+                    System.err.println(">>> FAILURE parsing line "+file+":"+lineNumber+": "+rawLine);
+                    throw anyE;
+                }
+            }
+        }
+        MigrationEvents.endInputFile(event, file, lineNumber, dependencies.size());
+        return dependencies;
+    }
+
+    /**
+     * Parses a file into the compact table form. The file is streamed, the lines are not held in memory.
+     * 
+     * @param file text file, see this class Javadoc for expected formats
+     * @param table the table to add the parsed dependencies to
+     * @return the number of dependencies added to the table 
+     */
+    public int parseFile(File file, MavenDependencyTable table) throws Exception {
+        Object event = MigrationEvents.beginInputFile();
+        int count = 0;
+        int fileId = inputFiles.register(file);
+        if (isStarlarkFile(file)) {
+            int sizeBefore = table.size();
+            int lineCount = scanStarlarkFile(file, fileId, null, table);
+            MigrationEvents.endInputFile(event, file, lineCount, table.size() - sizeBefore);
+            return table.size() - sizeBefore;
+        }
+        if (isPomFile(file)) {
+            for (String[] tokens : resolvePomFile(file)) {
+                if (addToTable(tokens, file.toString(), table, fileId, 0)) {
+                    count++;
+                }
+            }
+            MigrationEvents.endInputFile(event, file, 0, count);
+            return count;
+        }
+        int lineNumber = 0;
+        try (BufferedReader bufferedReader = new BufferedReader(new FileReader(file))) {
+            String rawLine;
+            while ((rawLine = bufferedReader.readLine()) != null) {
+                lineNumber++;
+                if (parseDependencyLine(rawLine, table, fileId, lineNumber)) {
+                    count++;
+                }
+            }
+        }
+        MigrationEvents.endInputFile(event, file, lineNumber, count);
+        return count;
     }
 
     /**
@@ -59,9 +151,11 @@ public class DependenciesParser {
     public List<MavenDependency> parseFileLines(List<String> rawLines) throws Exception {
         List<MavenDependency> dependencies = new ArrayList<>();
         
+        int lineNumber = 0;
         for (String rawLine : rawLines) {
+            lineNumber++;
             try {
-                MavenDependency dep = parseDependencyLine(rawLine);
+                MavenDependency dep = parseDependencyLine(rawLine, -1, lineNumber);
                 if (dep != null) {
                     dependencies.add(dep);
                 }
@@ -81,9 +175,82 @@ public class DependenciesParser {
      * @return a MavenDependency object, or null if the text line does not appear to express a dependency
      */
     public MavenDependency parseDependencyLine(final String rawLine) {
+        return parseDependencyLine(rawLine, -1, 0);
+    }
+    
+    /**
+     * Parses a candidate dependency line, see {@link #parseDependencyLine(String)}. The raw line is not kept, the
+     * dependency refers to it by file id and line number.
+     */
+    MavenDependency parseDependencyLine(final String rawLine, int sourceFileId, int sourceLineNumber) {
+        String[] tokens = parseDependencyTokens(rawLine, sourceFileId);
+        if (tokens == null) {
+            return null;
+        }
+        return toDependency(tokens, rawLine, sourceFileId, sourceLineNumber);
+    }
+
+    MavenDependency toDependency(String[] tokens, String rawLine, int sourceFileId, int sourceLineNumber) {
+        MavenDependency dep = null;
+        try {
+            dep = new MavenDependency(null, tokens[0], tokens[1], tokens[2], tokens[3], tokens[4]);
+            dep.sourceFileId = sourceFileId;
+            dep.sourceLineNumber = sourceLineNumber;
+            dep.declaredInWorkspace = tokens[5] != null;
+            System.out.println(" ADDED DEP "+dep);
+        } catch (Exception anyE) {
+            parseError(rawLine);
+        }
+        return dep;
+    }
+    
+    /**
+     * Parses a candidate dependency line into the compact table form, see {@link #parseDependencyLine(String)}.
+     * 
+     * @param rawLine a line of text, see this class Javadoc for expected formats
+     * @param table the table to add the dependency to
+     * @return true if a dependency was added to the table
+     */
+    public boolean parseDependencyLine(final String rawLine, MavenDependencyTable table) {
+        return parseDependencyLine(rawLine, table, -1, 0);
+    }
+    
+    boolean parseDependencyLine(final String rawLine, MavenDependencyTable table, int sourceFileId, int sourceLineNumber) {
+        String[] tokens = parseDependencyTokens(rawLine, sourceFileId);
+        if (tokens == null) {
+            return false;
+        }
+        return addToTable(tokens, rawLine, table, sourceFileId, sourceLineNumber);
+    }
+
+    private boolean addToTable(String[] tokens, String rawLine, MavenDependencyTable table, int sourceFileId, int sourceLineNumber) {
+        try {
+            table.add(tokens[0], tokens[1], tokens[2], tokens[3], tokens[4], sourceFileId, sourceLineNumber, tokens[5] != null);
+        } catch (Exception anyE) {
+            parseError(rawLine);
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Splits a candidate dependency line into its coordinates. Target lines are recorded for the source file.
+     * 
+     * @return group, artifact, scope, version, classifier (which may be null) and "workspace" if the line is a WORKSPACE entry 
+     *   (null if it is Maven output), or null if the line is not a dependency or the {@link #filter} drops it
+     */
+    String[] parseDependencyTokens(final String rawLine, int sourceFileId) {
         boolean isMavenDependencyFormat = true;
 
         String parsedLine = rawLine.trim();
+        if (parsedLine.startsWith("# BAZEL_TARGET ")) {
+            inputFiles.bazelTargets.put(sourceFileId, parsedLine.substring(15).trim());
+            return null;
+        }
+        if (parsedLine.startsWith("# BAZEL_TEST_TARGET ")) {
+            inputFiles.bazelTestTargets.put(sourceFileId, parsedLine.substring(20).trim());
+            return null;
+        }
         if (parsedLine.startsWith("# RULE")) {
             // this is an arbiter rule
         	if (arbiter != null) {
@@ -94,6 +261,20 @@ public class DependenciesParser {
         	}
             return null;
         }
+        if (parsedLine.startsWith("# RELOCATE ")) {
+            // old coordinates of a relocated artifact
+        	if (arbiter != null) {
+        		try {
+        			arbiter.relocations.addRelocation(parsedLine.substring(11));
+        			System.out.println(" ADDED RELOCATION: "+parsedLine.substring(11).trim());
+        		} catch (IllegalArgumentException iae) {
+        			parseError(rawLine);
+        		}
+        	} else {
+        		System.out.println(" WARNING found a relocation but no arbiter is configured. "+parsedLine);
+        	}
+            return null;
+        }
         if (parsedLine.contains("Finished at") || parsedLine.contains("Download") || parsedLine.startsWith("[INFO] ---")) {
             // mvn dependency:list has some doppleganger log lines that confuse our simple parsing scheme due to
             // the number of colons they contain, just defeat them here.
@@ -114,6 +295,18 @@ public class DependenciesParser {
             parsedLine = parsedLine.substring(6);
         }
 
+        // WORKSPACE table format: take the first string of the tuple
+        //    "org_slf4j_slf4j_api": ("org.slf4j:slf4j-api:1.6.2", ""),  =>   org.slf4j:slf4j-api:1.6.2
+        int tableEntryIndex = parsedLine.indexOf("\": (\"");
+        if (parsedLine.startsWith("\"") && tableEntryIndex > 0) {
+            int artifactStart = tableEntryIndex + 5;
+            int artifactEnd = parsedLine.indexOf('"', artifactStart);
+            if (artifactEnd > artifactStart) {
+                isMavenDependencyFormat = false;
+                parsedLine = parsedLine.substring(artifactStart, artifactEnd);
+            }
+        }
+
         // WORKSPACE format: remove quotes, trailing comma, and leading 'artifact ='
         //    artifact = "org.slf4j:slf4j-api:1.6.2",  =>   org.slf4j:slf4j-api:1.6.2
         parsedLine = parsedLine.replace("\"", "");
@@ -170,29 +363,102 @@ public class DependenciesParser {
             classifier = parts[3];
         }
         
-        MavenDependency dep = null;
-        try {
-            dep = new MavenDependency(rawLine, group, artifact, scope, version, classifier);
-            System.out.println(" ADDED DEP "+dep);
-        } catch (Exception anyE) {
-    		ignoredLineCount++;
-        	parseErrorLineCount++;
-            System.out.println(" PLEASE CHECK This line has colons in it, but I don't think it is a dependency. Ignoring. Line: "+rawLine);
+        if (filter != null && !filter.accept(group, artifact, scope, classifier)) {
+            return null;
         }
-        return dep;
+        return new String[] { group, artifact, scope, version, classifier, isMavenDependencyFormat ? null : "workspace" };
+    }
+
+    /**
+     * Applies the {@link #filter} to the tokens of a dependency that was not read from a line, e.g. from a Starlark call
+     *
+     * @return true if the dependency is kept
+     */
+    boolean accept(String[] tokens) {
+        return filter == null || filter.accept(tokens[0], tokens[1], tokens[2], tokens[4]);
     }
     
-    private List<String> readFileLines(File file) throws Exception {
-        List<String> lines = new ArrayList<>();
-        String line = null;
+    /**
+     * WORKSPACE and .bzl files are Starlark, they are read with a {@link StarlarkDependencyScanner} rather than line by line
+     */
+    static boolean isStarlarkFile(File file) {
+        String name = file.getName();
+        return name.equals("WORKSPACE") || name.endsWith(".bzl") || name.endsWith(".bazel");
+    }
+
+    /**
+     * Maven projects are not parsed line by line, their dependencies are resolved by the {@link LocalPomResolver}
+     */
+    static boolean isPomFile(File file) {
+        String name = file.getName();
+        return name.equals("pom.xml") || name.endsWith(".pom") || name.endsWith("-pom.xml");
+    }
 
-        FileReader fileReader = new FileReader(file);
-        BufferedReader bufferedReader = new BufferedReader(fileReader);
-        while ((line = bufferedReader.readLine()) != null) {
-            lines.add(line);
+    /**
+     * @return the tokens of the transitive dependencies of the project that the {@link #filter} accepts, see
+     *   {@link #parseDependencyTokens(String, int)}
+     */
+    List<String[]> resolvePomFile(File file) throws Exception {
+        if (pomResolver == null) {
+            pomResolver = new LocalPomResolver(new LocalMavenRepository());
+        }
+        List<String[]> dependencies = new ArrayList<>();
+        for (String[] tokens : pomResolver.resolve(file)) {
+            if (accept(tokens)) {
+                dependencies.add(tokens);
+            }
         }
-        bufferedReader.close();
-        return lines;
+        return dependencies;
+    }
+
+    /**
+     * @return the number of lines in the file
+     */
+    private int scanStarlarkFile(final File file, final int fileId, final List<MavenDependency> dependencies, final MavenDependencyTable table) throws Exception {
+        char[] content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).toCharArray();
+        StarlarkDependencyScanner.Listener listener = new StarlarkDependencyScanner.Listener() {
+            @Override
+            public void dependency(String[] tokens, int lineNumber) {
+                if (!accept(tokens)) {
+                    return;
+                }
+                if (table != null) {
+                    addToTable(tokens, file+":"+lineNumber, table, fileId, lineNumber);
+                    return;
+                }
+                MavenDependency dep = toDependency(tokens, file+":"+lineNumber, fileId, lineNumber);
+                if (dep != null) {
+                    dependencies.add(dep);
+                }
+            }
+
+            @Override
+            public void line(String rawLine, int lineNumber) {
+                // comments (e.g. rules), and mvn output appended to the file
+                if (table != null) {
+                    parseDependencyLine(rawLine, table, fileId, lineNumber);
+                    return;
+                }
+                MavenDependency dep = parseDependencyLine(rawLine, fileId, lineNumber);
+                if (dep != null) {
+                    dependencies.add(dep);
+                }
+            }
+
+            @Override
+            public void unrecognized(String text, int lineNumber) {
+                parseError(file+":"+lineNumber+": "+text);
+            }
+        };
+        StarlarkDependencyScanner scanner = new StarlarkDependencyScanner(content, listener);
+        scanner.scan();
+        return scanner.getLineCount();
+    }
+
+    private void parseError(String rawLine) {
+		ignoredLineCount++;
+    	parseErrorLineCount++;
+        System.out.println(" PLEASE CHECK This line has colons in it, but I don't think it is a dependency. Ignoring. Line: "+rawLine);
     }
 
 }
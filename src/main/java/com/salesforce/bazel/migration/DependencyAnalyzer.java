@@ -6,7 +6,10 @@
  */
 package com.salesforce.bazel.migration;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
 
 /**
@@ -16,6 +19,9 @@ import java.util.TreeMap;
 public class DependencyAnalyzer {
 	
 	MavenDependencyArbiter dependencyArbiter;
+	
+	// if not null, the candidates that lost to the chosen version are recorded here, by logical name
+	public Map<String, List<MavenDependency>> defeatedDependencies;
     
 	public DependencyAnalyzer(MavenDependencyArbiter dependencyArbiter) {
 		this.dependencyArbiter = dependencyArbiter;
@@ -28,41 +34,290 @@ public class DependencyAnalyzer {
 	 * @return the list of processed dependencies
 	 */
     public TreeMap<String, MavenDependency> processDependencies(List<MavenDependency> inputDependencies, boolean dropTestScopeDeps) {
-        TreeMap<String, MavenDependency> finalDependencies = new TreeMap<>();
+        return processDependencies(new TreeMap<>(), inputDependencies, dropTestScopeDeps);
+    }
+
+	/**
+	 * Iterate through the list and merge it into an already resolved set of dependencies, for example one loaded
+	 * from a {@link DependencySnapshot}. The result is the same as processing the inputs that produced the resolved 
+	 * set followed by the new inputs, but only the new inputs are visited.
+	 * @param resolvedDependencies  the previously resolved dependencies, this map is not modified
+	 * @param inputDependencies  the raw list of new dependencies
+	 * @param dropTestScopeDeps true, if test scoped deps should be dropped
+	 * @return the list of processed dependencies
+	 */
+    public TreeMap<String, MavenDependency> processDependencies(TreeMap<String, MavenDependency> resolvedDependencies, 
+            List<MavenDependency> inputDependencies, boolean dropTestScopeDeps) {
+        TreeMap<String, MavenDependency> finalDependencies = new TreeMap<>(resolvedDependencies);
+        inputDependencies = relocateCandidates(finalDependencies, inputDependencies);
+        
+        // build the version histograms for the selection strategy
+        dependencyArbiter.clearVersionHistograms();
+        for (MavenDependency resolvedDep : finalDependencies.values()) {
+            dependencyArbiter.recordResolved(resolvedDep.getLogicalName(), resolvedDep);
+        }
+        for (MavenDependency candidateDep : inputDependencies) {
+            if (!dropTestScopeDeps || candidateDep.scope != MavenDependency.Scope.TEST) {
+                dependencyArbiter.recordCandidate(candidateDep.getLogicalName(), candidateDep.version.label, candidateDep.sourceFileId, 
+                        candidateDep.declaredInWorkspace);
+            }
+        }
         
         for (MavenDependency candidateDep : inputDependencies) {
             if (dropTestScopeDeps && candidateDep.scope == MavenDependency.Scope.TEST) {
                 System.out.println("  Ignoring test scope dependency ["+candidateDep.getLogicalName()+"]");
                 continue;
             }
-            System.out.println("  ANALYZE: "+candidateDep);
-            
-            String key = candidateDep.getLogicalName();
-            MavenDependency processedDep = dependencyArbiter.preprocessDependency(candidateDep);
-            if (processedDep != null) {
-            	// the arbiter made the decision already
-                finalDependencies.put(key, processedDep);
-                System.out.println("   SELECT: duped deps, chose "+processedDep);
+            analyzeCandidate(finalDependencies, candidateDep);
+        }
+        
+        return finalDependencies;
+    }
+
+	/**
+	 * Same as {@link #processDependencies(List, boolean)}, but over the compact columnar form of the candidates.
+	 * MavenDependency objects are only created for the rows that win or that need version arbitration, all other rows
+	 * are decided by comparing pooled ids.
+	 * <p>
+	 * Preprocess rules (e.g. pinned versions) only look at the groupId and artifactId, so they are evaluated once per 
+	 * logical artifact rather than once per row.
+	 * 
+	 * @param table  the candidate dependencies
+	 * @param dropTestScopeDeps true, if test scoped deps should be dropped
+	 * @return the list of processed dependencies
+	 */
+    public TreeMap<String, MavenDependency> processDependencies(MavenDependencyTable table, boolean dropTestScopeDeps) {
+        return processDependencies(new TreeMap<>(), table, dropTestScopeDeps);
+    }
+
+	/**
+	 * Same as {@link #processDependencies(TreeMap, List, boolean)}, but over the compact columnar form of the candidates.
+	 * 
+	 * @param resolvedDependencies  the previously resolved dependencies, this map is not modified
+	 * @param table  the new candidate dependencies
+	 * @param dropTestScopeDeps true, if test scoped deps should be dropped
+	 * @return the list of processed dependencies
+	 */
+    public TreeMap<String, MavenDependency> processDependencies(TreeMap<String, MavenDependency> resolvedDependencies, 
+            MavenDependencyTable table, boolean dropTestScopeDeps) {
+        Map<Integer, MavenDependency> winners = new HashMap<>();
+        Map<Integer, Integer> winnerVersionIds = new HashMap<>();
+        // logical name and version ids of a row to the ids of its canonical coordinates, only if there are relocations
+        Map<Long, int[]> canonicalIds = dependencyArbiter.relocations.isEmpty() ? null : new HashMap<Long, int[]>();
+        dependencyArbiter.clearVersionHistograms();
+        for (MavenDependency resolvedDep : resolvedDependencies.values()) {
+            resolvedDep = dependencyArbiter.relocations.relocate(resolvedDep);
+            int key = table.strings.intern(resolvedDep.getLogicalName());
+            if (winners.containsKey(key)) {
+                // two resolved aliases of a relocated artifact
+                resolvedDep = dependencyArbiter.choosePreferredVersionOfDependency(winners.get(key), resolvedDep);
+            }
+            winners.put(key, resolvedDep);
+            winnerVersionIds.put(key, table.strings.intern(resolvedDep.version.label));
+            dependencyArbiter.recordResolved(resolvedDep.getLogicalName(), resolvedDep);
+        }
+        // build the version histograms for the selection strategy
+        for (int row = 0; row < table.size(); row++) {
+            if (!dropTestScopeDeps || table.getScope(row) != MavenDependency.Scope.TEST) {
+                int logicalNameId = table.getLogicalNameId(row);
+                int versionId = table.getVersionId(row);
+                if (canonicalIds != null) {
+                    int[] ids = getCanonicalIds(table, row, canonicalIds);
+                    logicalNameId = ids[0];
+                    versionId = ids[1];
+                }
+                dependencyArbiter.recordCandidate(table.strings.get(logicalNameId), table.strings.get(versionId), 
+                        table.getSourceFileId(row), table.isDeclaredInWorkspace(row));
+            }
+        }
+        // result of the preprocess rules for each logical artifact, the key maps to null if no rule fired
+        Map<Integer, MavenDependency> preprocessedDeps = new HashMap<>();
+        
+        for (int row = 0; row < table.size(); row++) {
+            if (dropTestScopeDeps && table.getScope(row) == MavenDependency.Scope.TEST) {
                 continue;
             }
-            MavenDependency existingDep = finalDependencies.get(key);
+            int key = table.getLogicalNameId(row);
+            int versionId = table.getVersionId(row);
+            if (canonicalIds != null) {
+                int[] ids = getCanonicalIds(table, row, canonicalIds);
+                key = ids[0];
+                versionId = ids[1];
+            }
             
-            if (existingDep != null) {
-            	// we have already seen this dependency, so we might have to do version arbitrage if the versions don't match
-                if (!existingDep.version.label.equals(candidateDep.version.label)) {
-                    // two different versions, need to choose one.
-                	processedDep = dependencyArbiter.choosePreferredVersionOfDependency(existingDep, candidateDep);
-                    finalDependencies.put(key, processedDep);
+            if (!preprocessedDeps.containsKey(key)) {
+                MavenDependency processedDep = dependencyArbiter.preprocessDependency(toCandidate(table, row));
+                preprocessedDeps.put(key, processedDep);
+                if (processedDep != null) {
+                    // the arbiter made the decision already
+                    winners.put(key, processedDep);
                     System.out.println("   SELECT: duped deps, chose "+processedDep);
-                } else {
-                	// the version we saw before is the same as this one, so no arbitrage needed
                 }
-            } else {
-                finalDependencies.put(key, candidateDep);
+            }
+            if (preprocessedDeps.get(key) != null) {
+                if (defeatedDependencies != null && !table.strings.get(versionId).equals(preprocessedDeps.get(key).version.label)) {
+                    recordDefeat(table.strings.get(key), toCandidate(table, row));
+                }
+                widenScope(winners, key, winners.get(key), table.getScope(row));
+                continue;
+            }
+            
+            Integer existingVersionId = winnerVersionIds.get(key);
+            if (existingVersionId == null) {
+                MavenDependency candidateDep = toCandidate(table, row);
+                winners.put(key, candidateDep);
+                winnerVersionIds.put(key, versionId);
                 System.out.println("   NEWDEP: "+candidateDep);
+            } else if (existingVersionId != versionId) {
+                // two different versions, need to choose one.
+                MavenDependency candidateDep = toCandidate(table, row);
+                MavenDependency existingDep = winners.get(key);
+                MavenDependency processedDep = dependencyArbiter.choosePreferredVersionOfDependency(existingDep, candidateDep);
+                if (processedDep == candidateDep) {
+                    winners.put(key, candidateDep);
+                    winnerVersionIds.put(key, versionId);
+                }
+                System.out.println("   SELECT: duped deps, chose "+processedDep);
+                recordDefeat(table.strings.get(key), processedDep == candidateDep ? existingDep : candidateDep);
+                widenScope(winners, key, existingDep, table.getScope(row));
+            } else {
+                widenScope(winners, key, winners.get(key), table.getScope(row));
             }
         }
         
+        TreeMap<String, MavenDependency> finalDependencies = new TreeMap<>();
+        for (Map.Entry<Integer, MavenDependency> winner : winners.entrySet()) {
+            finalDependencies.put(table.strings.get(winner.getKey()), winner.getValue());
+        }
+        return finalDependencies;
+    }
+
+    /**
+     * Arbitrates the candidates of a single logical artifact, in input order. Unlike processDependencies, the version
+     * histograms are not rebuilt here: the caller records every candidate with 
+     * {@link MavenDependencyArbiter#recordCandidate(String, String, int, boolean)} first. This is used by the 
+     * {@link OutOfCoreDependencyMerger}, which sees the candidates grouped by logical name.
+     * 
+     * @param key the logical name of the artifact
+     * @param resolvedDep the previously resolved dependency, or null
+     * @param candidates the candidates, test scoped ones already dropped if needed
+     * @return the chosen dependency by logical name, empty if there was no resolved dependency and no candidate. This is 
+     *   the chosen dependency of the group, under another logical name if the artifact was relocated (see 
+     *   {@link ArtifactRelocations}), or more than one if its versions were relocated to different artifacts. 
+     */
+    public Map<String, MavenDependency> processDependencyGroup(String key, MavenDependency resolvedDep, List<MavenDependency> candidates) {
+        Map<String, MavenDependency> finalDependencies = new TreeMap<>();
+        if (resolvedDep != null) {
+            finalDependencies.put(key, resolvedDep);
+        }
+        for (MavenDependency candidateDep : relocateCandidates(finalDependencies, candidates)) {
+            analyzeCandidate(finalDependencies, candidateDep);
+        }
         return finalDependencies;
     }
+
+    // INTERNALS
+    
+    /**
+     * Maps the candidates onto their canonical coordinates, see {@link ArtifactRelocations}. Resolved dependencies whose
+     * coordinates were relocated since they were resolved are taken out of the final dependencies, and analyzed again 
+     * as the first candidates.
+     */
+    private List<MavenDependency> relocateCandidates(Map<String, MavenDependency> finalDependencies, List<MavenDependency> inputDependencies) {
+        ArtifactRelocations relocations = dependencyArbiter.relocations;
+        if (relocations.isEmpty()) {
+            return inputDependencies;
+        }
+        List<MavenDependency> candidates = new ArrayList<>(inputDependencies.size());
+        for (MavenDependency resolvedDep : new ArrayList<>(finalDependencies.values())) {
+            MavenDependency relocatedDep = relocations.relocate(resolvedDep);
+            if (relocatedDep != resolvedDep) {
+                finalDependencies.remove(resolvedDep.getLogicalName());
+                candidates.add(relocatedDep);
+            }
+        }
+        for (MavenDependency candidateDep : inputDependencies) {
+            candidates.add(relocations.relocate(candidateDep));
+        }
+        return candidates;
+    }
+    
+    /**
+     * @return the logical name and version ids of the canonical coordinates of the row, cached by the ids of the row
+     */
+    private int[] getCanonicalIds(MavenDependencyTable table, int row, Map<Long, int[]> canonicalIds) {
+        long rowKey = ((long) table.getLogicalNameId(row) << 32) | (table.getVersionId(row) & 0xFFFFFFFFL);
+        int[] ids = canonicalIds.get(rowKey);
+        if (ids == null) {
+            MavenDependency relocatedDep = toCandidate(table, row);
+            ids = new int[] { table.strings.intern(relocatedDep.getLogicalName()), table.strings.intern(relocatedDep.version.label) };
+            canonicalIds.put(rowKey, ids);
+        }
+        return ids;
+    }
+    
+    private MavenDependency toCandidate(MavenDependencyTable table, int row) {
+        return dependencyArbiter.relocations.relocate(table.toMavenDependency(row));
+    }
+    
+    private void analyzeCandidate(Map<String, MavenDependency> finalDependencies, MavenDependency candidateDep) {
+        System.out.println("  ANALYZE: "+candidateDep);
+        
+        String key = candidateDep.getLogicalName();
+        MavenDependency existingDep = finalDependencies.get(key);
+        MavenDependency processedDep = dependencyArbiter.preprocessDependency(candidateDep);
+        if (processedDep != null) {
+        	// the arbiter made the decision already
+            finalDependencies.put(key, processedDep);
+            System.out.println("   SELECT: duped deps, chose "+processedDep);
+            if (!processedDep.version.label.equals(candidateDep.version.label)) {
+                recordDefeat(key, candidateDep);
+            }
+            widenScope(finalDependencies, key, existingDep, candidateDep.scope);
+            return;
+        }
+        
+        if (existingDep != null) {
+        	// we have already seen this dependency, so we might have to do version arbitrage if the versions don't match
+            if (!existingDep.version.label.equals(candidateDep.version.label)) {
+                // two different versions, need to choose one.
+            	processedDep = dependencyArbiter.choosePreferredVersionOfDependency(existingDep, candidateDep);
+                finalDependencies.put(key, processedDep);
+                System.out.println("   SELECT: duped deps, chose "+processedDep);
+                recordDefeat(key, processedDep == candidateDep ? existingDep : candidateDep);
+            } else {
+            	// the version we saw before is the same as this one, so no arbitrage needed
+            }
+            widenScope(finalDependencies, key, existingDep, candidateDep.scope);
+        } else {
+            finalDependencies.put(key, candidateDep);
+            System.out.println("   NEWDEP: "+candidateDep);
+        }
+    }
+    
+    private void recordDefeat(String key, MavenDependency defeatedDep) {
+        if (defeatedDependencies == null) {
+            return;
+        }
+        List<MavenDependency> defeated = defeatedDependencies.get(key);
+        if (defeated == null) {
+            defeated = new ArrayList<>();
+            defeatedDependencies.put(key, defeated);
+        }
+        defeated.add(defeatedDep);
+    }
+    
+    /**
+     * When the same artifact is seen with different scopes, the chosen dependency gets the widest of the scopes, 
+     * see {@link MavenDependency.Scope#widen(MavenDependency.Scope)}. A copy is made so the input objects are not changed.
+     */
+    private static <K> void widenScope(Map<K, MavenDependency> dependencies, K key, MavenDependency previousDep, MavenDependency.Scope candidateScope) {
+        MavenDependency chosenDep = dependencies.get(key);
+        MavenDependency.Scope scope = previousDep == null ? candidateScope : previousDep.scope.widen(candidateScope);
+        if (chosenDep.scope != scope) {
+            chosenDep = new MavenDependency(chosenDep);
+            chosenDep.scope = scope;
+            dependencies.put(key, chosenDep);
+        }
+    }
 }
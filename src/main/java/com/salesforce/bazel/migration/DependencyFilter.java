@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which input dependencies are parsed at all. The {@link DependenciesParser} asks the filter with the coordinate
+ * strings of a line, before it creates a MavenDependency, a table row or a spilled candidate for it, so inputs that are
+ * mostly test dependencies or internal artifacts cost little more than reading them.
+ * <p>
+ * A dependency is dropped if
+ * <ul>
+ * <li>its scope is excluded, e.g. <i>test</i> (which is what --ignoretestdeps does)</li>
+ * <li>its classifier is excluded, e.g. <i>sources</i></li>
+ * <li>there are include patterns, and it matches none of them</li>
+ * <li>it matches an exclude pattern</li>
+ * </ul>
+ * Patterns are <i>groupId</i> or <i>groupId:artifactId</i>, and each part may end with a * wildcard, as in
+ * <i>com.acme.*</i> or <i>com.acme:internal-*</i>. Matching does not allocate.
+ */
+public class DependencyFilter {
+    private static final String[] SCOPES = { "compile", "runtime", "provided", "test", "system" };
+
+    private List<String> excludedScopes = new ArrayList<>();
+    private List<String> excludedClassifiers = new ArrayList<>();
+    // each pattern is { groupId pattern, artifactId pattern or null }
+    private List<String[]> includePatterns = new ArrayList<>();
+    private List<String[]> excludePatterns = new ArrayList<>();
+
+    // the number of dependencies that were dropped
+    public int filteredCount = 0;
+
+    /**
+     * Excludes the scopes in the comma separated list, as in <i>test,provided</i>.
+     *
+     * @throws IllegalArgumentException if a scope is not a Maven scope
+     */
+    public void excludeScopes(String scopes) {
+        for (String scope : scopes.split(",")) {
+            scope = scope.trim().toLowerCase();
+            boolean known = false;
+            for (String mavenScope : SCOPES) {
+                known |= mavenScope.equals(scope);
+            }
+            if (!known) {
+                throw new IllegalArgumentException("Invalid scope ["+scope+"], expected one of compile, runtime, provided, test or system");
+            }
+            if (!excludedScopes.contains(scope)) {
+                excludedScopes.add(scope);
+            }
+        }
+    }
+
+    /**
+     * Excludes the classifiers in the comma separated list, as in <i>sources,javadoc</i>.
+     */
+    public void excludeClassifiers(String classifiers) {
+        for (String classifier : classifiers.split(",")) {
+            if (!classifier.trim().isEmpty()) {
+                excludedClassifiers.add(classifier.trim());
+            }
+        }
+    }
+
+    /**
+     * Adds the include patterns of the comma separated list, see the class Javadoc.
+     *
+     * @throws IllegalArgumentException if a pattern cannot be parsed
+     */
+    public void addIncludes(String patterns) {
+        includePatterns.addAll(parsePatterns(patterns));
+    }
+
+    /**
+     * Adds the exclude patterns of the comma separated list, see the class Javadoc.
+     *
+     * @throws IllegalArgumentException if a pattern cannot be parsed
+     */
+    public void addExcludes(String patterns) {
+        excludePatterns.addAll(parsePatterns(patterns));
+    }
+
+    /**
+     * @return true if the filter accepts every dependency
+     */
+    public boolean isEmpty() {
+        return excludedScopes.isEmpty() && excludedClassifiers.isEmpty() && includePatterns.isEmpty() && excludePatterns.isEmpty();
+    }
+
+    /**
+     * Decides if a dependency is kept, and counts it in {@link #filteredCount} if it is not.
+     *
+     * @param classifier the classifier, or null
+     */
+    public boolean accept(String groupId, String artifactId, String scope, String classifier) {
+        if (isExcluded(groupId, artifactId, scope, classifier)) {
+            filteredCount++;
+            return false;
+        }
+        return true;
+    }
+
+    static boolean matches(String pattern, String value) {
+        int length = pattern.length();
+        if (length > 0 && pattern.charAt(length - 1) == '*') {
+            return value.regionMatches(0, pattern, 0, length - 1);
+        }
+        return pattern.equals(value);
+    }
+
+    // INTERNALS
+
+    private boolean isExcluded(String groupId, String artifactId, String scope, String classifier) {
+        for (int i = 0; i < excludedScopes.size(); i++) {
+            if (excludedScopes.get(i).equalsIgnoreCase(scope)) {
+                return true;
+            }
+        }
+        if (classifier != null) {
+            for (int i = 0; i < excludedClassifiers.size(); i++) {
+                if (excludedClassifiers.get(i).equals(classifier)) {
+                    return true;
+                }
+            }
+        }
+        if (!includePatterns.isEmpty() && !matchesAny(includePatterns, groupId, artifactId)) {
+            return true;
+        }
+        return matchesAny(excludePatterns, groupId, artifactId);
+    }
+
+    private static boolean matchesAny(List<String[]> patterns, String groupId, String artifactId) {
+        for (int i = 0; i < patterns.size(); i++) {
+            String[] pattern = patterns.get(i);
+            if (matches(pattern[0], groupId) && (pattern[1] == null || matches(pattern[1], artifactId))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<String[]> parsePatterns(String patterns) {
+        List<String[]> parsedPatterns = new ArrayList<>();
+        for (String pattern : patterns.split(",")) {
+            pattern = pattern.trim();
+            String[] parts = pattern.split(":", -1);
+            if (pattern.isEmpty() || parts.length > 2 || !isValidPattern(parts[0]) || (parts.length == 2 && !isValidPattern(parts[1]))) {
+                throw new IllegalArgumentException("Invalid dependency pattern ["+pattern+
+                        "], expected groupId or groupId:artifactId, each may end with *");
+            }
+            parsedPatterns.add(new String[] { parts[0], parts.length == 2 ? parts[1] : null });
+        }
+        return parsedPatterns;
+    }
+
+    private static boolean isValidPattern(String part) {
+        int wildcard = part.indexOf('*');
+        return !part.isEmpty() && (wildcard < 0 || wildcard == part.length() - 1);
+    }
+}
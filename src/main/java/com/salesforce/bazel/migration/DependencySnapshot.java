@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Persists the resolved output of the {@link DependencyAnalyzer} (winning dependencies, their versions, classifiers,
+ * scopes and the rule that decided each one) to a compact binary file, and loads it back.
+ * <p>
+ * This enables an incremental merge: instead of reparsing the existing WORKSPACE together with the new project's
+ * dependencies, a later run loads the snapshot and only processes the new inputs on top of it. The arbiter rules that
+ * were in effect are stored in the snapshot as well, so that they keep their original evaluation order. So is the
+ * {@link VersionHistogram} of each dependency, with the paths of the files that declared each version, so a selection
+ * strategy that counts declarations (e.g. <i>majority</i>) decides as it would in a full run over all the inputs.
+ * <p>
+ * <b>File format</b>
+ * <p>
+ * A magic number and format version, the rule lines, the relocation lines (since version 3), a pool of distinct strings,
+ * and then one record per dependency made of variable length int references into the string pool, followed by its
+ * version histogram (since version 2). Group ids in particular repeat a lot, so the pool keeps the file small.
+ */
+public class DependencySnapshot {
+    static final int MAGIC = 0x4D324253; // M2BS
+    static final int FORMAT_VERSION = 3;
+
+    public List<String> ruleLines = new ArrayList<>();
+    // the relocations of the arbiter, see ArtifactRelocations, as "from=groupId:artifactId to=groupId:artifactId" lines
+    public List<String> relocationLines = new ArrayList<>();
+    public TreeMap<String, MavenDependency> dependencies = new TreeMap<>();
+    // logical name to the declarations of each version, empty for snapshots before version 2
+    public Map<String, List<VersionDeclarations>> histograms = new HashMap<>();
+
+    /**
+     * The declarations of one version of an artifact, see {@link VersionHistogram}
+     */
+    public static class VersionDeclarations {
+        public String version;
+        // the paths of the input files that declare the version
+        public List<String> declaringPaths = new ArrayList<>();
+        // declarations without an input file
+        public int unattributedCount;
+        public boolean workspaceVersion;
+    }
+
+    /**
+     * Writes the resolved dependencies and the arbiter rules to the snapshot file.
+     *
+     * @param dependencies the resolved dependencies, as returned by the DependencyAnalyzer
+     * @param arbiter the arbiter that was used to resolve the dependencies
+     * @param snapshotFile the file to write
+     * @throws Exception
+     */
+    public static void write(Map<String, MavenDependency> dependencies, MavenDependencyArbiter arbiter, File snapshotFile) throws Exception {
+        write(dependencies, arbiter, null, snapshotFile);
+    }
+
+    /**
+     * Writes the resolved dependencies, their version histograms and the arbiter rules to the snapshot file.
+     *
+     * @param dependencies the resolved dependencies, as returned by the DependencyAnalyzer
+     * @param arbiter the arbiter that was used to resolve the dependencies
+     * @param inputFiles the input files of the analysis, to store the declaring files by path; if null, declarations are
+     *   stored without their files
+     * @param snapshotFile the file to write
+     * @throws Exception
+     */
+    public static void write(Map<String, MavenDependency> dependencies, MavenDependencyArbiter arbiter, InputFileRegistry inputFiles,
+            File snapshotFile) throws Exception {
+        List<MavenDependencyArbiterRule> rules = arbiter.getRules();
+        Map<String, Integer> pool = new LinkedHashMap<>();
+        Map<String, List<VersionDeclarations>> histograms = new HashMap<>();
+        for (MavenDependency dep : dependencies.values()) {
+            poolString(pool, dep.groupId);
+            poolString(pool, dep.artifactId);
+            poolString(pool, dep.version.label);
+            if (dep.classifier != null) {
+                poolString(pool, dep.classifier);
+            }
+            List<VersionDeclarations> histogram = toDeclarations(dep, arbiter, inputFiles);
+            for (VersionDeclarations declarations : histogram) {
+                poolString(pool, declarations.version);
+                for (String path : declarations.declaringPaths) {
+                    poolString(pool, path);
+                }
+            }
+            histograms.put(dep.getLogicalName(), histogram);
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(snapshotFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            writeVarInt(out, rules.size());
+            for (MavenDependencyArbiterRule rule : rules) {
+                out.writeUTF(rule.ruleLine);
+            }
+            Map<String, String> relocations = arbiter.relocations.getRelocations();
+            writeVarInt(out, relocations.size());
+            for (Map.Entry<String, String> relocation : relocations.entrySet()) {
+                out.writeUTF("from="+relocation.getKey()+" to="+relocation.getValue());
+            }
+            writeVarInt(out, pool.size());
+            for (String string : pool.keySet()) {
+                out.writeUTF(string);
+            }
+            writeVarInt(out, dependencies.size());
+            for (MavenDependency dep : dependencies.values()) {
+                writeVarInt(out, pool.get(dep.groupId));
+                writeVarInt(out, pool.get(dep.artifactId));
+                writeVarInt(out, pool.get(dep.version.label));
+                // 0 means no classifier/rule, so the real references are shifted by one
+                writeVarInt(out, dep.classifier == null ? 0 : pool.get(dep.classifier) + 1);
+                writeVarInt(out, dep.decidingRule == null ? 0 : rules.indexOf(dep.decidingRule) + 1);
+                out.writeByte(dep.scope.ordinal());
+                List<VersionDeclarations> histogram = histograms.get(dep.getLogicalName());
+                writeVarInt(out, histogram.size());
+                for (VersionDeclarations declarations : histogram) {
+                    writeVarInt(out, pool.get(declarations.version));
+                    writeVarInt(out, declarations.unattributedCount);
+                    out.writeBoolean(declarations.workspaceVersion);
+                    writeVarInt(out, declarations.declaringPaths.size());
+                    for (String path : declarations.declaringPaths) {
+                        writeVarInt(out, pool.get(path));
+                    }
+                }
+            }
+        }
+        System.out.println("Wrote resolved dependency snapshot "+snapshotFile.getAbsolutePath()+" with ["+dependencies.size()+"] entries");
+    }
+
+    /**
+     * Reads a snapshot file written by {@link #write(Map, MavenDependencyArbiter, File)}. The returned dependencies
+     * reference rules that are not attached to any arbiter, see {@link #attachRules(MavenDependencyArbiter)}.
+     *
+     * @param snapshotFile the file to read
+     * @return the snapshot
+     * @throws Exception
+     */
+    public static DependencySnapshot read(File snapshotFile) throws Exception {
+        DependencySnapshot snapshot = new DependencySnapshot();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IllegalArgumentException("File ["+snapshotFile.getAbsolutePath()+"] is not a dependency snapshot.");
+            }
+            int formatVersion = in.readInt();
+            if (formatVersion < 1 || formatVersion > FORMAT_VERSION) {
+                throw new IllegalArgumentException("Dependency snapshot ["+snapshotFile.getAbsolutePath()+"] has unsupported format version "+formatVersion);
+            }
+            int ruleCount = readVarInt(in);
+            List<MavenDependencyArbiterRule> rules = new ArrayList<>(ruleCount);
+            for (int i = 0; i < ruleCount; i++) {
+                String ruleLine = in.readUTF();
+                snapshot.ruleLines.add(ruleLine);
+                rules.add(new MavenDependencyArbiterRule(ruleLine));
+            }
+            // snapshots before version 3 have no relocations
+            int relocationCount = formatVersion < 3 ? 0 : readVarInt(in);
+            for (int i = 0; i < relocationCount; i++) {
+                snapshot.relocationLines.add(in.readUTF());
+            }
+            String[] pool = new String[readVarInt(in)];
+            for (int i = 0; i < pool.length; i++) {
+                pool[i] = in.readUTF();
+            }
+            MavenDependency.Scope[] scopes = MavenDependency.Scope.values();
+            int depCount = readVarInt(in);
+            for (int i = 0; i < depCount; i++) {
+                String groupId = pool[readVarInt(in)];
+                String artifactId = pool[readVarInt(in)];
+                String version = pool[readVarInt(in)];
+                int classifierRef = readVarInt(in);
+                int ruleRef = readVarInt(in);
+                MavenDependency.Scope scope = scopes[in.readByte()];
+                MavenDependency dep = new MavenDependency("snapshot "+snapshotFile.getName(), groupId, artifactId, scope.name(), version,
+                        classifierRef == 0 ? null : pool[classifierRef - 1]);
+                dep.decidingRule = ruleRef == 0 ? null : rules.get(ruleRef - 1);
+                dep.declaredInWorkspace = true;
+                snapshot.dependencies.put(dep.getLogicalName(), dep);
+                if (formatVersion < 2) {
+                    continue;
+                }
+                int versionCount = readVarInt(in);
+                List<VersionDeclarations> histogram = new ArrayList<>(versionCount);
+                for (int v = 0; v < versionCount; v++) {
+                    VersionDeclarations declarations = new VersionDeclarations();
+                    declarations.version = pool[readVarInt(in)];
+                    declarations.unattributedCount = readVarInt(in);
+                    declarations.workspaceVersion = in.readBoolean();
+                    int pathCount = readVarInt(in);
+                    for (int p = 0; p < pathCount; p++) {
+                        declarations.declaringPaths.add(pool[readVarInt(in)]);
+                    }
+                    histogram.add(declarations);
+                }
+                snapshot.histograms.put(dep.getLogicalName(), histogram);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Checks the first bytes of the file for the snapshot magic number.
+     */
+    public static boolean isSnapshotFile(File file) {
+        if (!file.isFile() || file.length() < 8) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (IOException ioE) {
+            return false;
+        }
+    }
+
+    /**
+     * Adds the snapshot rules to the arbiter, ahead of any rule found in the new inputs, and points the deciding rule
+     * of each snapshot dependency at the arbiter's instance of that rule. The snapshot relocations are added too. This must be called before the new inputs are
+     * parsed so the rules keep their original order.
+     *
+     * @param arbiter the arbiter that will process the new inputs
+     */
+    public void attachRules(MavenDependencyArbiter arbiter) {
+        Map<String, MavenDependencyArbiterRule> attached = new HashMap<>();
+        for (String ruleLine : ruleLines) {
+            MavenDependencyArbiterRule rule = arbiter.addArbiterRule(ruleLine);
+            attached.put(rule.ruleLine, rule);
+        }
+        for (String relocationLine : relocationLines) {
+            arbiter.relocations.addRelocation(relocationLine);
+        }
+        for (MavenDependency dep : dependencies.values()) {
+            if (dep.decidingRule != null) {
+                dep.decidingRule = attached.get(dep.decidingRule.ruleLine);
+            }
+        }
+    }
+
+    /**
+     * Gives the arbiter the version histograms of the snapshot dependencies, so they are analyzed with all the
+     * declarations of the earlier runs rather than as a single one, see {@link MavenDependencyArbiter#recordResolved(String, MavenDependency)}.
+     * The declaring files are looked up by path, so a file that is also parsed in this run counts once.
+     *
+     * @param arbiter the arbiter that will process the new inputs
+     * @param inputFiles the input files of this run
+     */
+    public void attachHistograms(MavenDependencyArbiter arbiter, InputFileRegistry inputFiles) {
+        for (Map.Entry<String, List<VersionDeclarations>> entry : histograms.entrySet()) {
+            VersionHistogram histogram = new VersionHistogram();
+            for (VersionDeclarations declarations : entry.getValue()) {
+                for (String path : declarations.declaringPaths) {
+                    histogram.addDeclaration(declarations.version, inputFiles.findOrRegister(path), declarations.workspaceVersion);
+                }
+                for (int i = 0; i < declarations.unattributedCount; i++) {
+                    histogram.addDeclaration(declarations.version, -1, declarations.workspaceVersion);
+                }
+            }
+            arbiter.setPreviousHistogram(entry.getKey(), histogram);
+        }
+    }
+
+    /**
+     * Applies the rules that were added to the arbiter after the snapshot was taken to the snapshot dependencies.
+     * New pinnedVersion rules are applied directly. A new winningVersion rule would need the versions that lost in the
+     * original run, which the snapshot does not have, so in that case a full run is required.
+     *
+     * @param arbiter the arbiter, after the new inputs were parsed
+     * @return the snapshot dependencies, updated for the new rules
+     */
+    public TreeMap<String, MavenDependency> applyNewRules(MavenDependencyArbiter arbiter) {
+        List<MavenDependencyArbiterRule> rules = arbiter.getRules();
+        List<MavenDependencyArbiterRule> newRules = rules.subList(ruleLines.size(), rules.size());
+        if (newRules.isEmpty()) {
+            return dependencies;
+        }
+        TreeMap<String, MavenDependency> updatedDependencies = new TreeMap<>(dependencies);
+        for (MavenDependencyArbiterRule rule : newRules) {
+            for (MavenDependency dep : dependencies.values()) {
+                if (!rule.matches(dep)) {
+                    continue;
+                }
+                if (rule.winningVersion != null) {
+                    throw new IllegalStateException("New winningVersion rule ["+rule+"] applies to dependency ["+dep.getLogicalName()+
+                            "] from the snapshot. The snapshot does not record the versions that lost, so please do a full run without the snapshot.");
+                }
+                MavenDependency processedDep = arbiter.preprocessDependency(dep);
+                if (processedDep != null) {
+                    updatedDependencies.put(dep.getLogicalName(), processedDep);
+                }
+            }
+        }
+        return updatedDependencies;
+    }
+
+    // INTERNALS
+
+    /**
+     * The declarations of the dependency's versions in the analysis, or in the earlier runs if the analysis had no new
+     * candidates for it (e.g. in out of core merges), or else just the dependency itself
+     */
+    private static List<VersionDeclarations> toDeclarations(MavenDependency dep, MavenDependencyArbiter arbiter, InputFileRegistry inputFiles) {
+        VersionHistogram histogram = arbiter.getVersionHistogram(dep.getLogicalName());
+        if (histogram == null) {
+            histogram = arbiter.getPreviousHistogram(dep.getLogicalName());
+        }
+        if (histogram == null) {
+            histogram = new VersionHistogram();
+            histogram.addDeclaration(dep.version.label, dep.sourceFileId, dep.declaredInWorkspace);
+        }
+        List<VersionDeclarations> histogramDeclarations = new ArrayList<>();
+        for (String version : histogram.getVersions()) {
+            VersionDeclarations declarations = new VersionDeclarations();
+            declarations.version = version;
+            declarations.unattributedCount = histogram.getUnattributedCount(version);
+            declarations.workspaceVersion = histogram.isWorkspaceVersion(version);
+            for (Integer fileId : histogram.getDeclaringFileIds(version)) {
+                String path = inputFiles == null ? null : inputFiles.getPath(fileId);
+                if (path == null) {
+                    declarations.unattributedCount++;
+                } else if (!declarations.declaringPaths.contains(path)) {
+                    declarations.declaringPaths.add(path);
+                }
+            }
+            histogramDeclarations.add(declarations);
+        }
+        return histogramDeclarations;
+    }
+
+    private static void poolString(Map<String, Integer> pool, String string) {
+        if (!pool.containsKey(string)) {
+            pool.put(string, pool.size());
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Scans the jars of the resolved dependencies for classes that are shipped by more than one artifact (e.g. relocated or
+ * shaded copies of a library), and for packages that are split across artifacts. Such conflicts bloat the Bazel
+ * classpaths and typically only show up at runtime.
+ * <p>
+ * The jars are located in a {@link LocalMavenRepository}. Only the zip central directory of each jar is read (see
+ * {@link JarCentralDirectory}), and the jars are read in parallel.
+ */
+public class DuplicateClassScanner {
+    LocalMavenRepository localRepository;
+    int threadCount;
+
+    // artifacts that could not be found in the local repository
+    public List<MavenDependency> missingArtifacts = new ArrayList<>();
+    // class name to the logical names of the artifacts that contain it, only classes in more than one artifact
+    public TreeMap<String, List<String>> duplicateClasses = new TreeMap<>();
+    // package name to the logical names of the artifacts that contain classes in it, only packages in more than one artifact
+    public TreeMap<String, Set<String>> splitPackages = new TreeMap<>();
+
+    public DuplicateClassScanner(LocalMavenRepository localRepository) {
+        this(localRepository, Runtime.getRuntime().availableProcessors());
+    }
+
+    public DuplicateClassScanner(LocalMavenRepository localRepository, int threadCount) {
+        this.localRepository = localRepository;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Scans the jars of the dependencies. The results are available in the public fields of this scanner.
+     *
+     * @param dependencies the resolved dependencies, as returned by the DependencyAnalyzer
+     * @throws Exception
+     */
+    public void scan(Map<String, MavenDependency> dependencies) throws Exception {
+        Map<MavenDependency, Future<List<String>>> scans = new LinkedHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            for (final MavenDependency dep : dependencies.values()) {
+                final File jarFile = localRepository.findArtifact(dep);
+                if (jarFile == null) {
+                    missingArtifacts.add(dep);
+                    continue;
+                }
+                scans.put(dep, executor.submit(new Callable<List<String>>() {
+                    @Override
+                    public List<String> call() throws Exception {
+                        return JarCentralDirectory.readEntryNames(jarFile);
+                    }
+                }));
+            }
+
+            Map<String, List<String>> classOwners = new HashMap<>();
+            Map<String, Set<String>> packageOwners = new HashMap<>();
+            for (Map.Entry<MavenDependency, Future<List<String>>> scan : scans.entrySet()) {
+                String owner = scan.getKey().getLogicalName();
+                List<String> entryNames;
+                try {
+                    entryNames = scan.getValue().get();
+                } catch (ExecutionException ee) {
+                    System.err.println(" WARNING could not read jar of ["+owner+"]: "+ee.getCause().getMessage());
+                    continue;
+                }
+                for (String entryName : entryNames) {
+                    if (!entryName.endsWith(".class") || entryName.startsWith("META-INF/")
+                            || entryName.endsWith("module-info.class") || entryName.endsWith("package-info.class")) {
+                        continue;
+                    }
+                    String className = entryName.substring(0, entryName.length() - 6).replace('/', '.');
+                    List<String> owners = classOwners.get(className);
+                    if (owners == null) {
+                        owners = new ArrayList<>(1);
+                        classOwners.put(className, owners);
+                    }
+                    owners.add(owner);
+
+                    int lastDot = className.lastIndexOf('.');
+                    String packageName = lastDot < 0 ? "" : className.substring(0, lastDot);
+                    Set<String> packageArtifacts = packageOwners.get(packageName);
+                    if (packageArtifacts == null) {
+                        packageArtifacts = new TreeSet<>();
+                        packageOwners.put(packageName, packageArtifacts);
+                    }
+                    packageArtifacts.add(owner);
+                }
+            }
+
+            for (Map.Entry<String, List<String>> classOwner : classOwners.entrySet()) {
+                if (classOwner.getValue().size() > 1) {
+                    duplicateClasses.put(classOwner.getKey(), classOwner.getValue());
+                }
+            }
+            for (Map.Entry<String, Set<String>> packageOwner : packageOwners.entrySet()) {
+                if (packageOwner.getValue().size() > 1) {
+                    splitPackages.put(packageOwner.getKey(), packageOwner.getValue());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        System.out.println("Scanned ["+scans.size()+"] jars: ["+duplicateClasses.size()+"] duplicate classes, ["+splitPackages.size()+
+                "] split packages, ["+missingArtifacts.size()+"] artifacts not found in the local repository "+localRepository);
+    }
+
+    /**
+     * Writes the results of the scan as a text report.
+     *
+     * @param outputFile the report file
+     * @throws Exception
+     */
+    public void writeReport(File outputFile) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# Duplicate classes and split packages across the resolved dependencies\n\n");
+        sb.append("# Split packages (package: artifacts)\n");
+        for (Map.Entry<String, Set<String>> splitPackage : splitPackages.entrySet()) {
+            sb.append(splitPackage.getKey()).append(": ").append(String.join(" ", splitPackage.getValue())).append("\n");
+        }
+        sb.append("\n# Duplicate classes (class: artifacts)\n");
+        for (Map.Entry<String, List<String>> duplicateClass : duplicateClasses.entrySet()) {
+            sb.append(duplicateClass.getKey()).append(": ").append(String.join(" ", duplicateClass.getValue())).append("\n");
+        }
+        sb.append("\n# Artifacts not found in the local repository "+localRepository+"\n");
+        for (MavenDependency dep : missingArtifacts) {
+            sb.append(BazelNamer.computeBazelMavenName(dep)).append("\n");
+        }
+        if (GeneratedFileWriter.writeIfChanged(outputFile, sb.toString())) {
+            System.out.println("Wrote duplicate class report "+outputFile.getAbsolutePath());
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Writes generated output files. A file is only rewritten if its content changed, which keeps the file timestamp 
+ * stable for tools (and Bazel) that watch the outputs.
+ */
+public class GeneratedFileWriter {
+
+    /**
+     * Writes the content to the file, unless the file already has exactly this content.
+     * 
+     * @param outputFile the file to write
+     * @param content the full content of the file
+     * @return true if the file was written, false if it was unchanged
+     * @throws Exception
+     */
+    public static boolean writeIfChanged(File outputFile, String content) throws Exception {
+        Object event = MigrationEvents.beginOutputFile();
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        if (outputFile.isFile() && outputFile.length() == bytes.length) {
+            if (Arrays.equals(bytes, Files.readAllBytes(outputFile.toPath()))) {
+                System.out.println("Unchanged "+outputFile.getAbsolutePath());
+                MigrationEvents.endOutputFile(event, outputFile, bytes.length, false);
+                return false;
+            }
+        }
+        Files.write(outputFile.toPath(), bytes);
+        MigrationEvents.endOutputFile(event, outputFile, bytes.length, true);
+        return true;
+    }
+}
@@ -0,0 +1,214 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares a previously resolved set of dependencies with the newly computed one, and lists the artifacts that were
+ * added, removed or changed version. For each of them it also lists the input files (typically one per project, the
+ * <i>mvn dependency:list</i> output of that project) that declare the artifact. A CI system can use this to rebuild and
+ * test only the affected projects instead of everything.
+ * <p>
+ * The previous set is either a {@link DependencySnapshot} or a WORKSPACE/.bzl file, such as a previous 
+ * <i>external_deps.bzl</i>. The <i>load()</i> statements of a sharded <i>external_deps.bzl</i> (see 
+ * {@link BazelWorkspaceGenerator#writeDependenciesAsShardedWorkspaceFiles(Map, File, int)}) are followed to the shard 
+ * files next to it.
+ */
+public class ImpactReport {
+    private static final Pattern LOAD_PATTERN = Pattern.compile("^\\s*load\\(\\s*\"([^\"@][^\"]*)\"");
+    String previousSource;
+    
+    public TreeMap<String, MavenDependency> addedDependencies = new TreeMap<>();
+    public TreeMap<String, MavenDependency> removedDependencies = new TreeMap<>();
+    // logical name to the previous and the new dependency
+    public TreeMap<String, MavenDependency[]> changedDependencies = new TreeMap<>();
+    // logical name to the input files that declare it
+    public Map<String, Set<String>> declaringFiles = new HashMap<>();
+
+    /**
+     * @param previousSource describes where the previous dependencies came from, for the report header
+     */
+    public ImpactReport(String previousSource) {
+        this.previousSource = previousSource;
+    }
+    
+    /**
+     * Loads the previously resolved dependencies from a snapshot file, or parses them from a WORKSPACE or .bzl file and 
+     * the files it loads from its own directory.
+     *
+     * @throws IllegalStateException if the file declares no dependencies
+     */
+    public static Map<String, MavenDependency> loadPreviousDependencies(File previousFile) throws Exception {
+        if (DependencySnapshot.isSnapshotFile(previousFile)) {
+            return DependencySnapshot.read(previousFile).dependencies;
+        }
+        // a generated file has one entry per artifact, but tolerate duplicates in hand edited files by taking the last one
+        Map<String, MavenDependency> previousDeps = new TreeMap<>();
+        DependenciesParser parser = new DependenciesParser(null);
+        List<File> files = new ArrayList<>();
+        files.add(previousFile);
+        files.addAll(findLoadedFiles(previousFile));
+        for (File file : files) {
+            for (MavenDependency dep : parser.parseFile(file)) {
+                previousDeps.put(dep.getLogicalName(), dep);
+            }
+        }
+        if (previousDeps.isEmpty()) {
+            throw new IllegalStateException("The previous file "+previousFile+" declares no dependencies, every artifact would be reported as added. "+
+                    "If it loads shard files, copy them next to it, or use a --snapshot file instead");
+        }
+        return previousDeps;
+    }
+    
+    /**
+     * Records that the input file declares the artifact.
+     */
+    public void addDeclaration(String logicalName, String inputFilePath) {
+        Set<String> files = declaringFiles.get(logicalName);
+        if (files == null) {
+            files = new TreeSet<>();
+            declaringFiles.put(logicalName, files);
+        }
+        files.add(inputFilePath);
+    }
+
+    /**
+     * Records the input file of each dependency as declaring it, see {@link InputFileRegistry}.
+     */
+    public void addDeclarations(Collection<MavenDependency> deps, InputFileRegistry inputFiles) {
+        for (MavenDependency dep : deps) {
+            String path = inputFiles.getPath(dep.sourceFileId);
+            if (path != null) {
+                addDeclaration(dep.getLogicalName(), path);
+            }
+        }
+    }
+
+    /**
+     * Records the input file of each row as declaring it, see {@link InputFileRegistry}.
+     */
+    public void addDeclarations(MavenDependencyTable table, InputFileRegistry inputFiles) {
+        for (int row = 0; row < table.size(); row++) {
+            String path = inputFiles.getPath(table.getSourceFileId(row));
+            if (path != null) {
+                addDeclaration(table.strings.get(table.getLogicalNameId(row)), path);
+            }
+        }
+    }
+
+    /**
+     * Computes the differences between the two dependency sets. Scope changes are ignored, as they do not change the
+     * external artifact.
+     */
+    public void compare(Map<String, MavenDependency> previousDeps, Map<String, MavenDependency> computedDeps) {
+        for (Map.Entry<String, MavenDependency> entry : computedDeps.entrySet()) {
+            MavenDependency previousDep = previousDeps.get(entry.getKey());
+            if (previousDep == null) {
+                addedDependencies.put(entry.getKey(), entry.getValue());
+            } else if (!previousDep.version.label.equals(entry.getValue().version.label)) {
+                changedDependencies.put(entry.getKey(), new MavenDependency[] { previousDep, entry.getValue() });
+            }
+        }
+        for (Map.Entry<String, MavenDependency> entry : previousDeps.entrySet()) {
+            if (!computedDeps.containsKey(entry.getKey())) {
+                removedDependencies.put(entry.getKey(), entry.getValue());
+            }
+        }
+        System.out.println("Compared with "+previousSource+": ["+addedDependencies.size()+"] added, ["+removedDependencies.size()+
+                "] removed and ["+changedDependencies.size()+"] changed dependencies, affecting ["+findAffectedFiles().size()+"] input files");
+    }
+    
+    /**
+     * The input files that declare at least one added, removed or changed artifact
+     */
+    public Set<String> findAffectedFiles() {
+        Set<String> affectedFiles = new TreeSet<>();
+        for (String logicalName : addedDependencies.keySet()) {
+            affectedFiles.addAll(getDeclaringFiles(logicalName));
+        }
+        for (String logicalName : removedDependencies.keySet()) {
+            affectedFiles.addAll(getDeclaringFiles(logicalName));
+        }
+        for (String logicalName : changedDependencies.keySet()) {
+            affectedFiles.addAll(getDeclaringFiles(logicalName));
+        }
+        return affectedFiles;
+    }
+
+    /**
+     * Writes the report.
+     * 
+     * @param outputFile the report file
+     * @throws Exception
+     */
+    public void write(File outputFile) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# Impact of the resolved dependencies compared to ").append(previousSource).append("\n");
+        sb.append("# ADDED|REMOVED|CHANGED artifact version(s)  input files that declare it\n\n");
+        for (Map.Entry<String, MavenDependency> entry : addedDependencies.entrySet()) {
+            appendLine(sb, "ADDED", entry.getKey(), entry.getValue().version.label);
+        }
+        for (Map.Entry<String, MavenDependency> entry : removedDependencies.entrySet()) {
+            appendLine(sb, "REMOVED", entry.getKey(), entry.getValue().version.label);
+        }
+        for (Map.Entry<String, MavenDependency[]> entry : changedDependencies.entrySet()) {
+            appendLine(sb, "CHANGED", entry.getKey(), entry.getValue()[0].version.label+" -> "+entry.getValue()[1].version.label);
+        }
+        sb.append("\n# Affected input files\n");
+        for (String affectedFile : findAffectedFiles()) {
+            sb.append(affectedFile).append("\n");
+        }
+        if (GeneratedFileWriter.writeIfChanged(outputFile, sb.toString())) {
+            System.out.println("Wrote impact report "+outputFile.getAbsolutePath());
+        }
+    }
+    
+    // INTERNALS
+
+    /**
+     * The files of the <i>load()</i> statements that are in the same directory as the file, e.g. the shard files of a 
+     * sharded external_deps.bzl, as they were generated (<i>.bzl.out</i>) or copied (<i>.bzl</i>)
+     */
+    private static List<File> findLoadedFiles(File file) throws Exception {
+        List<File> loadedFiles = new ArrayList<>();
+        for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+            Matcher matcher = LOAD_PATTERN.matcher(line);
+            if (!matcher.find()) {
+                continue;
+            }
+            String label = matcher.group(1);
+            String fileName = label.substring(label.lastIndexOf(':') + 1);
+            File loadedFile = new File(file.getParentFile(), fileName);
+            if (!loadedFile.isFile()) {
+                loadedFile = new File(file.getParentFile(), fileName+".out");
+            }
+            if (loadedFile.isFile()) {
+                loadedFiles.add(loadedFile);
+            }
+        }
+        return loadedFiles;
+    }
+    
+    private Set<String> getDeclaringFiles(String logicalName) {
+        Set<String> files = declaringFiles.get(logicalName);
+        return files == null ? Collections.<String>emptySet() : files;
+    }
+    
+    private void appendLine(StringBuilder sb, String change, String logicalName, String versions) {
+        sb.append(change).append(" ").append(logicalName).append(" ").append(versions);
+        for (String file : getDeclaringFiles(logicalName)) {
+            sb.append("  ").append(file);
+        }
+        sb.append("\n");
+    }
+}
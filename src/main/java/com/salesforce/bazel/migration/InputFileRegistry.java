@@ -0,0 +1,77 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns a small int id to each parsed input file. A {@link MavenDependency} refers to the file it was parsed from
+ * by this id and a line number, rather than keeping a copy of the raw line.
+ * <p>
+ * It also holds the Bazel targets that an input file is for, declared in the file with <i># BAZEL_TARGET //pkg:lib</i>
+ * and <i># BAZEL_TEST_TARGET //pkg:tests</i> lines.
+ */
+public class InputFileRegistry {
+    private List<String> paths = new ArrayList<>();
+    // path to the id it was first registered with
+    private Map<String, Integer> ids = new HashMap<>();
+    // file id to the Bazel java_library target of the project
+    public Map<Integer, String> bazelTargets = new HashMap<>();
+    // file id to the Bazel java_test target of the project
+    public Map<Integer, String> bazelTestTargets = new HashMap<>();
+
+    /**
+     * Registers the file.
+     * 
+     * @return the id of the file
+     */
+    public int register(File file) {
+        paths.add(file.getPath());
+        if (!ids.containsKey(file.getPath())) {
+            ids.put(file.getPath(), paths.size() - 1);
+        }
+        return paths.size() - 1;
+    }
+
+    /**
+     * @return the id of a file that was registered with this path, or the id of the path registered now if there is none
+     */
+    public int findOrRegister(String path) {
+        Integer id = ids.get(path);
+        return id != null ? id : register(new File(path));
+    }
+    
+    /**
+     * @return the path of the file with the given id, or null if the id is unknown (e.g. -1 for no file)
+     */
+    public String getPath(int fileId) {
+        if (fileId < 0 || fileId >= paths.size()) {
+            return null;
+        }
+        return paths.get(fileId);
+    }
+    
+    /**
+     * Describes where the dependency was declared, as in <i>inputs/WORKSPACE:12</i>, or just the file if the line is 
+     * not known (e.g. a pom.xml read by the Maven plugin)
+     */
+    public String describeSource(MavenDependency dep) {
+        String path = getPath(dep.sourceFileId);
+        if (path == null) {
+            return dep.originalLine == null ? "unknown source" : dep.originalLine;
+        }
+        return dep.sourceLineNumber > 0 ? path+":"+dep.sourceLineNumber : path;
+    }
+
+    public int size() {
+        return paths.size();
+    }
+}
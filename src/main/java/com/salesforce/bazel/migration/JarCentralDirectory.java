@@ -0,0 +1,102 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads the names of the entries of a jar file from its zip central directory. Only the end of the file is 
+ * memory-mapped and read, the entries themselves are never inflated. This is much cheaper than opening the jar 
+ * with a JarFile when all you need is the list of classes.
+ * <p>
+ * Zip64 archives (more than 65535 entries or larger than 4GB) are rare for jars, they are read with {@link ZipFile}.
+ */
+public class JarCentralDirectory {
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_ENTRY_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    /**
+     * @param jarFile the jar (or any zip) file
+     * @return the names of all entries, in central directory order
+     * @throws IOException if the file is not a zip file
+     */
+    public static List<String> readEntryNames(File jarFile) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(jarFile, "r"); FileChannel channel = raf.getChannel()) {
+            long fileSize = channel.size();
+            if (fileSize < END_OF_CENTRAL_DIRECTORY_SIZE) {
+                throw new IOException("Not a zip file: "+jarFile);
+            }
+            
+            // the end of central directory record is at the end of the file, followed by an optional comment
+            int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+            MappedByteBuffer tail = channel.map(FileChannel.MapMode.READ_ONLY, fileSize - tailSize, tailSize);
+            tail.order(ByteOrder.LITTLE_ENDIAN);
+            int eocd = -1;
+            for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+                if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                    eocd = i;
+                    break;
+                }
+            }
+            if (eocd < 0) {
+                throw new IOException("Not a zip file: "+jarFile);
+            }
+            int entryCount = tail.getShort(eocd + 10) & 0xFFFF;
+            long directorySize = tail.getInt(eocd + 12) & 0xFFFFFFFFL;
+            long directoryOffset = tail.getInt(eocd + 16) & 0xFFFFFFFFL;
+            if (entryCount == 0xFFFF || directoryOffset == 0xFFFFFFFFL || directoryOffset + directorySize > fileSize) {
+                return readEntryNamesWithZipFile(jarFile);
+            }
+            
+            MappedByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, directorySize);
+            directory.order(ByteOrder.LITTLE_ENDIAN);
+            List<String> names = new ArrayList<>(entryCount);
+            byte[] nameBytes = new byte[256];
+            int position = 0;
+            for (int i = 0; i < entryCount; i++) {
+                if (directory.getInt(position) != CENTRAL_DIRECTORY_ENTRY_SIGNATURE) {
+                    throw new IOException("Corrupt zip central directory in "+jarFile);
+                }
+                int nameLength = directory.getShort(position + 28) & 0xFFFF;
+                int extraLength = directory.getShort(position + 30) & 0xFFFF;
+                int commentLength = directory.getShort(position + 32) & 0xFFFF;
+                if (nameLength > nameBytes.length) {
+                    nameBytes = new byte[nameLength];
+                }
+                directory.position(position + 46);
+                directory.get(nameBytes, 0, nameLength);
+                names.add(new String(nameBytes, 0, nameLength, StandardCharsets.UTF_8));
+                position += 46 + nameLength + extraLength + commentLength;
+            }
+            return names;
+        }
+    }
+    
+    private static List<String> readEntryNamesWithZipFile(File jarFile) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (ZipFile zipFile = new ZipFile(jarFile)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                names.add(entries.nextElement().getName());
+            }
+        }
+        return names;
+    }
+}
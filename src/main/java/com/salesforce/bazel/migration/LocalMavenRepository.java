@@ -0,0 +1,101 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.io.File;
+
+/**
+ * Locates artifacts in a local Maven repository that uses the standard <i>~/.m2/repository</i> layout:
+ * <pre>
+ *   com/fasterxml/jackson/core/jackson-core/2.8.9/jackson-core-2.8.9.jar
+ *   io/netty/netty-transport-native-epoll/4.1.8.Final/netty-transport-native-epoll-4.1.8.Final-linux-x86_64.jar
+ * </pre>
+ */
+public class LocalMavenRepository {
+    public File rootDirectory;
+    // optional, when set artifacts are looked up in the index instead of on disk
+    public LocalMavenRepositoryIndex index;
+    
+    /**
+     * Uses the default local repository location, ~/.m2/repository
+     */
+    public LocalMavenRepository() {
+        this(new File(System.getProperty("user.home"), ".m2"+File.separator+"repository"));
+    }
+
+    public LocalMavenRepository(File rootDirectory) {
+        this.rootDirectory = rootDirectory;
+    }
+    
+    /**
+     * Computes the directory that holds the given version of the artifact. It may not exist. The timestamped builds
+     * of a snapshot (e.g. 1.0-20180101.120000-3) are in the directory of the snapshot (1.0-SNAPSHOT).
+     */
+    public File getVersionDirectory(MavenDependency dep) {
+        File artifactDirectory = new File(rootDirectory, dep.groupId.replace('.', File.separatorChar)+File.separator+dep.artifactId);
+        String version = dep.version.label;
+        if (SnapshotVersionResolver.isTimestampedVersion(version)) {
+            version = SnapshotVersionResolver.toSnapshotVersion(version);
+        }
+        return new File(artifactDirectory, version);
+    }
+
+    /**
+     * Computes the file name of the artifact jar, as in <i>artifactId-version[-classifier].jar</i>
+     */
+    public static String computeArtifactFileName(MavenDependency dep, String extension) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(dep.artifactId);
+        sb.append("-");
+        sb.append(dep.version.label);
+        if (dep.classifier != null) {
+            sb.append("-");
+            sb.append(dep.classifier);
+        }
+        sb.append(".");
+        sb.append(extension);
+        return sb.toString();
+    }
+
+    /**
+     * Computes the location of the jar file for the dependency. It may not exist.
+     */
+    public File getArtifactFile(MavenDependency dep) {
+        return new File(getVersionDirectory(dep), computeArtifactFileName(dep, "jar"));
+    }
+
+    /**
+     * Finds the jar file for the dependency.
+     * 
+     * @return the jar file, or null if it is not in the local repository
+     */
+    public File findArtifact(MavenDependency dep) {
+        if (index != null) {
+            LocalMavenRepositoryIndex.Entry entry = index.lookup(dep);
+            return entry == null ? null : entry.getFile(rootDirectory);
+        }
+        File artifactFile = getArtifactFile(dep);
+        if (artifactFile.isFile()) {
+            return artifactFile;
+        }
+        return null;
+    }
+    
+    /**
+     * Saves the index, if there is one and it changed.
+     */
+    public void saveIndex() throws Exception {
+        if (index != null) {
+            index.saveIfChanged();
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return rootDirectory.getAbsolutePath();
+    }
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.io.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A persistent index of the jars in a {@link LocalMavenRepository}. It maps <i>groupId:artifactId:version[:classifier]</i>
+ * to the jar path, size, modification time and (once computed) checksums, and is saved to a compact file between runs.
+ * <p>
+ * Walking a repository with hundreds of thousands of files on every run is slow, so {@link #refresh()} is incremental:
+ * the modification time of every directory is recorded, and a directory whose time did not change is not listed again.
+ * Its remembered subdirectories are still visited, but the files of unchanged version directories are never touched.
+ * A directory that was modified just before it was listed is listed again on the next refresh, in case a later change
+ * landed within the same timestamp.
+ * After a refresh, checking whether an artifact exists locally is a map lookup.
+ */
+public class LocalMavenRepositoryIndex {
+    static final int MAGIC = 0x4D324249; // M2BI
+    static final int FORMAT_VERSION = 1;
+    // file systems with coarse timestamps can miss a change made right after a directory was listed
+    static final long RACY_MILLIS = 2000L;
+    private static final Pattern TIMESTAMPED_BUILD = Pattern.compile("[0-9]{8}\\.[0-9]{6}-[0-9]+");
+
+    File rootDirectory;
+    File indexFile;
+    boolean dirty = false;
+
+    // relative directory path to its state when it was last listed
+    Map<String, DirectoryState> directories = new HashMap<>();
+    // coordinate to the indexed jar
+    Map<String, Entry> entries = new HashMap<>();
+
+    public LocalMavenRepositoryIndex(File rootDirectory, File indexFile) {
+        this.rootDirectory = rootDirectory;
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * An indexed jar
+     */
+    public static class Entry {
+        public String path;
+        public long size;
+        public long lastModified;
+        public String sha1;
+        public String sha256;
+
+        public File getFile(File rootDirectory) {
+            return new File(rootDirectory, path);
+        }
+    }
+
+    static class DirectoryState {
+        long lastModified;
+        // modified just before it was listed, so its time cannot be trusted
+        boolean racy;
+        List<String> subdirectories = new ArrayList<>();
+        List<String> coordinates = new ArrayList<>();
+    }
+
+    /**
+     * Loads the index file if it exists and belongs to the same repository, and then refreshes the index.
+     *
+     * @throws Exception
+     */
+    public void loadAndRefresh() throws Exception {
+        long start = System.currentTimeMillis();
+        if (indexFile.isFile()) {
+            load();
+        }
+        int listedDirectories = refresh();
+        System.out.println("Refreshed the local repository index "+indexFile.getAbsolutePath()+" in "+(System.currentTimeMillis() - start)+
+                "ms, ["+entries.size()+"] jars, ["+listedDirectories+"] of ["+directories.size()+"] directories were listed");
+    }
+
+    /**
+     * Brings the index up to date with the repository on disk.
+     *
+     * @return the number of directories that had changed and were listed
+     */
+    public int refresh() {
+        Map<String, DirectoryState> newDirectories = new HashMap<>();
+        Map<String, Entry> newEntries = new HashMap<>();
+        int listed = refreshDirectory("", rootDirectory, newDirectories, newEntries);
+        if (listed > 0 || newDirectories.size() != directories.size()) {
+            dirty = true;
+        }
+        directories = newDirectories;
+        entries = newEntries;
+        return listed;
+    }
+
+    /**
+     * @param dep the dependency
+     * @return the indexed jar for the dependency, or null if it is not in the repository
+     */
+    public Entry lookup(MavenDependency dep) {
+        return entries.get(computeCoordinate(dep.groupId, dep.artifactId, dep.version.label, dep.classifier));
+    }
+
+    /**
+     * Checks that every dependency has a jar in the local repository.
+     *
+     * @param dependencies the resolved dependencies
+     * @return the dependencies that are missing
+     */
+    public List<MavenDependency> findMissing(Map<String, MavenDependency> dependencies) {
+        List<MavenDependency> missing = new ArrayList<>();
+        for (MavenDependency dep : dependencies.values()) {
+            if (lookup(dep) == null) {
+                missing.add(dep);
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * Returns the remembered checksum of the jar, see {@link ArtifactChecksummer#toAlgorithm(String)}
+     *
+     * @param entry the indexed jar
+     * @param checksumAttribute sha1 or sha256
+     * @return the checksum, or null if it was not computed yet
+     */
+    public String getChecksum(Entry entry, String checksumAttribute) {
+        return "sha256".equals(checksumAttribute) ? entry.sha256 : entry.sha1;
+    }
+
+    /**
+     * Compares the entry with the jar on disk. A directory's modification time only changes when files are added or
+     * removed, so a jar that was overwritten in place (e.g. a reinstalled SNAPSHOT) keeps its entry on a refresh. If the
+     * size or modification time of the jar differ, the entry is updated and its checksums are forgotten.
+     *
+     * @return true if the jar changed since it was indexed
+     */
+    public synchronized boolean refreshEntry(Entry entry, File jarFile) {
+        long size = jarFile.length();
+        long lastModified = jarFile.lastModified();
+        if (entry.size == size && entry.lastModified == lastModified) {
+            return false;
+        }
+        entry.size = size;
+        entry.lastModified = lastModified;
+        entry.sha1 = null;
+        entry.sha256 = null;
+        dirty = true;
+        return true;
+    }
+
+    /**
+     * Remembers the checksum of the jar, it is saved with the index.
+     */
+    public synchronized void putChecksum(Entry entry, String checksumAttribute, String checksum) {
+        if ("sha256".equals(checksumAttribute)) {
+            entry.sha256 = checksum;
+        } else {
+            entry.sha1 = checksum;
+        }
+        dirty = true;
+    }
+
+    /**
+     * Writes the index file, if anything changed since it was loaded.
+     *
+     * @throws Exception
+     */
+    public void saveIfChanged() throws Exception {
+        if (!dirty) {
+            return;
+        }
+        File parent = indexFile.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeUTF(rootDirectory.getAbsolutePath());
+            out.writeInt(directories.size());
+            for (Map.Entry<String, DirectoryState> directory : directories.entrySet()) {
+                DirectoryState state = directory.getValue();
+                out.writeUTF(directory.getKey());
+                out.writeLong(state.lastModified);
+                out.writeBoolean(state.racy);
+                out.writeInt(state.subdirectories.size());
+                for (String subdirectory : state.subdirectories) {
+                    out.writeUTF(subdirectory);
+                }
+                out.writeInt(state.coordinates.size());
+                for (String coordinate : state.coordinates) {
+                    Entry entry = entries.get(coordinate);
+                    out.writeUTF(coordinate);
+                    out.writeUTF(entry.path);
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.lastModified);
+                    out.writeUTF(entry.sha1 == null ? "" : entry.sha1);
+                    out.writeUTF(entry.sha256 == null ? "" : entry.sha256);
+                }
+            }
+        }
+        dirty = false;
+    }
+
+    // INTERNALS
+
+    void load() throws Exception {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !in.readUTF().equals(rootDirectory.getAbsolutePath())) {
+                System.out.println("Local repository index "+indexFile.getAbsolutePath()+" is stale or for another repository, rebuilding it");
+                return;
+            }
+            int directoryCount = in.readInt();
+            for (int i = 0; i < directoryCount; i++) {
+                String directoryPath = in.readUTF();
+                DirectoryState state = new DirectoryState();
+                state.lastModified = in.readLong();
+                state.racy = in.readBoolean();
+                int subdirectoryCount = in.readInt();
+                for (int j = 0; j < subdirectoryCount; j++) {
+                    state.subdirectories.add(in.readUTF());
+                }
+                int coordinateCount = in.readInt();
+                for (int j = 0; j < coordinateCount; j++) {
+                    String coordinate = in.readUTF();
+                    Entry entry = new Entry();
+                    entry.path = in.readUTF();
+                    entry.size = in.readLong();
+                    entry.lastModified = in.readLong();
+                    entry.sha1 = emptyToNull(in.readUTF());
+                    entry.sha256 = emptyToNull(in.readUTF());
+                    state.coordinates.add(coordinate);
+                    entries.put(coordinate, entry);
+                }
+                directories.put(directoryPath, state);
+            }
+        }
+    }
+
+    private int refreshDirectory(String relativePath, File directory, Map<String, DirectoryState> newDirectories, Map<String, Entry> newEntries) {
+        long lastModified = directory.lastModified();
+        if (lastModified == 0L) {
+            // directory is gone
+            return 0;
+        }
+        int listed = 0;
+        DirectoryState state = directories.get(relativePath);
+        if (state != null && !state.racy && state.lastModified == lastModified) {
+            // nothing was added or removed in this directory, keep what we know about it
+            for (String coordinate : state.coordinates) {
+                newEntries.put(coordinate, entries.get(coordinate));
+            }
+        } else {
+            listed++;
+            state = listDirectory(relativePath, directory, lastModified, newEntries);
+        }
+        newDirectories.put(relativePath, state);
+        for (String subdirectory : state.subdirectories) {
+            String subdirectoryPath = relativePath.isEmpty() ? subdirectory : relativePath+"/"+subdirectory;
+            listed += refreshDirectory(subdirectoryPath, new File(directory, subdirectory), newDirectories, newEntries);
+        }
+        return listed;
+    }
+
+    private DirectoryState listDirectory(String relativePath, File directory, long lastModified, Map<String, Entry> newEntries) {
+        DirectoryState state = new DirectoryState();
+        state.lastModified = lastModified;
+        state.racy = lastModified >= System.currentTimeMillis() - RACY_MILLIS;
+        File[] children = directory.listFiles();
+        if (children == null) {
+            return state;
+        }
+        // in a version directory, the path is groupId/path/artifactId/version
+        String[] segments = relativePath.split("/");
+        for (File child : children) {
+            if (child.isDirectory()) {
+                state.subdirectories.add(child.getName());
+                continue;
+            }
+            if (segments.length < 3 || !child.getName().endsWith(".jar")) {
+                continue;
+            }
+            String version = segments[segments.length - 1];
+            String artifactId = segments[segments.length - 2];
+            String prefix = artifactId+"-"+version;
+            String fileName = child.getName();
+            String rest = fileName.substring(0, fileName.length() - 4);
+            if (!rest.startsWith(prefix)) {
+                // a timestamped build in a SNAPSHOT directory, as in lib-1.0-20180101.120000-1.jar in 1.0-SNAPSHOT
+                version = findTimestampedVersion(artifactId, version, rest);
+                if (version == null) {
+                    continue;
+                }
+                prefix = artifactId+"-"+version;
+            }
+            rest = rest.substring(prefix.length());
+            String classifier = null;
+            if (rest.startsWith("-")) {
+                classifier = rest.substring(1);
+            } else if (!rest.isEmpty()) {
+                continue;
+            }
+            String groupId = String.join(".", Arrays.copyOfRange(segments, 0, segments.length - 2));
+            String coordinate = computeCoordinate(groupId, artifactId, version, classifier);
+
+            Entry entry = new Entry();
+            entry.path = relativePath+"/"+fileName;
+            entry.size = child.length();
+            entry.lastModified = child.lastModified();
+            Entry oldEntry = entries.get(coordinate);
+            if (oldEntry != null && oldEntry.size == entry.size && oldEntry.lastModified == entry.lastModified) {
+                // same file, the checksums are still valid
+                entry.sha1 = oldEntry.sha1;
+                entry.sha256 = oldEntry.sha256;
+            }
+            state.coordinates.add(coordinate);
+            newEntries.put(coordinate, entry);
+        }
+        return state;
+    }
+
+    /**
+     * @return the timestamped version of the jar in the SNAPSHOT version directory, or null if it is not a timestamped build
+     */
+    static String findTimestampedVersion(String artifactId, String directoryVersion, String fileName) {
+        if (!directoryVersion.endsWith(SnapshotVersionResolver.SNAPSHOT_SUFFIX)) {
+            return null;
+        }
+        String baseVersion = directoryVersion.substring(0, directoryVersion.length() - SnapshotVersionResolver.SNAPSHOT_SUFFIX.length());
+        String buildPrefix = artifactId+"-"+baseVersion+"-";
+        if (!fileName.startsWith(buildPrefix)) {
+            return null;
+        }
+        Matcher matcher = TIMESTAMPED_BUILD.matcher(fileName.substring(buildPrefix.length()));
+        return matcher.lookingAt() ? baseVersion+"-"+matcher.group() : null;
+    }
+
+    static String computeCoordinate(String groupId, String artifactId, String version, String classifier) {
+        String coordinate = groupId+":"+artifactId+":"+version;
+        return classifier == null ? coordinate : coordinate+":"+classifier;
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+}
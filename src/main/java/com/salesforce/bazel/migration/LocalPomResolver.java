@@ -0,0 +1,711 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import static com.salesforce.bazel.migration.XmlDocuments.getChild;
+import static com.salesforce.bazel.migration.XmlDocuments.getChildText;
+
+import java.io.File;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Resolves the transitive dependencies of a project's pom.xml offline, from the POMs in a {@link LocalMavenRepository}.
+ * This replaces running <i>mvn dependency:list</i> for the project: no Maven process is started and nothing is
+ * downloaded, so the parent and dependency POMs must be in the local repository already (e.g. from an earlier build).
+ * <p>
+ * It follows the Maven rules that decide the dependency list:
+ * <ul>
+ * <li>parent POMs (from the <i>relativePath</i> next to the project, or the repository), with inherited properties,
+ * dependencies and dependencyManagement, interpolated in the context of the child</li>
+ * <li>dependencyManagement, including BOMs imported with <i>&lt;scope&gt;import&lt;/scope&gt;</i>. The project's
+ * dependencyManagement also overrides the versions and scopes of transitive dependencies.</li>
+ * <li>scopes: test and provided dependencies are not transitive, and a runtime dependency of a compile dependency is
+ * runtime, see {@link #computeTransitiveScope(String, String)}</li>
+ * <li>exclusions (including * wildcards) and optional dependencies</li>
+ * <li>mediation: the nearest declaration wins, then the first one. A dependency that is needed with several scopes
+ * gets the widest of them, unless it is declared by the project, and the scopes of its own dependencies follow from that.</li>
+ * <li>version ranges, resolved to the newest version in the local repository</li>
+ * </ul>
+ * Profiles are not activated. Parsed POMs are cached, so the parents and BOMs that many artifacts share are read once.
+ * <p>
+ * The dependencies are returned as the tokens that {@link DependenciesParser#parseDependencyTokens(String, int)} returns
+ * for a <i>mvn dependency:list</i> line, so the parser turns them into the same MavenDependency objects.
+ */
+public class LocalPomResolver {
+    private static final Pattern PROPERTY_REFERENCE = Pattern.compile("\\$\\{([^}]+)\\}");
+    private static final int MAX_PARENT_DEPTH = 32;
+
+    LocalMavenRepository localRepository;
+
+    // parsed POM files, by path
+    private Map<File, RawPom> rawPoms = new HashMap<>();
+    // effective models, by groupId:artifactId:version, null if the POM is not in the local repository
+    private Map<String, Model> models = new HashMap<>();
+
+    // groupId:artifactId:version of the POMs that were needed but are not in the local repository
+    public Set<String> missingPoms = new TreeSet<>();
+    // groupId:artifactId to why no version could be chosen
+    public Map<String, String> unresolvedDependencies = new TreeMap<>();
+
+    public LocalPomResolver(LocalMavenRepository localRepository) {
+        this.localRepository = localRepository;
+    }
+
+    /**
+     * Resolves the dependencies of a project.
+     *
+     * @param pomFile the pom.xml of the project
+     * @return the tokens of each dependency: group, artifact, scope, version, classifier (or null), and null, in the
+     *   order Maven lists them
+     * @throws IllegalStateException if the POM or one of its parents cannot be read
+     */
+    public List<String[]> resolve(File pomFile) throws Exception {
+        long start = System.currentTimeMillis();
+        Model project = buildModel(pomFile, 0);
+        Map<String, ResolutionNode> resolved = new LinkedHashMap<>();
+        Deque<ResolutionNode> queue = new ArrayDeque<>();
+        for (Dependency dep : project.dependencies) {
+            Dependency managedDep = project.managedDependencies.get(dep.getManagementKey());
+            // the exclusions declared with the dependency, or else the ones of its dependencyManagement entry
+            List<String> exclusions = dep.exclusions.isEmpty() && managedDep != null ? managedDep.exclusions : dep.exclusions;
+            ResolutionNode node = new ResolutionNode(dep, 1, dep.scope != null ? dep.scope : managedDep != null && managedDep.scope != null ? managedDep.scope : "compile",
+                    exclusions);
+            if (node.dependency.version == null && managedDep != null) {
+                node.dependency = dep.withVersion(managedDep.version);
+            }
+            queue.add(node);
+        }
+
+        // first choose the nodes: the nearest declaration wins, then the first one
+        List<ResolutionNode> transitiveEdges = new ArrayList<>();
+        while (!queue.isEmpty()) {
+            ResolutionNode node = queue.poll();
+            Dependency dep = node.dependency;
+            if ("system".equals(node.scope) || "import".equals(node.scope)) {
+                continue;
+            }
+            if (node.parentKey != null) {
+                transitiveEdges.add(node);
+            }
+            String key = dep.getLogicalName();
+            if (resolved.containsKey(key)) {
+                continue;
+            }
+            String version = resolveVersion(dep);
+            if (version == null) {
+                continue;
+            }
+            node.dependency = dep.withVersion(version);
+            resolved.put(key, node);
+
+            Model model = findModel(dep.groupId, dep.artifactId, version);
+            if (model == null) {
+                continue;
+            }
+            for (Dependency childDep : model.dependencies) {
+                String childScope = childDep.scope == null ? "compile" : childDep.scope;
+                if (childDep.optional || isExcluded(node.exclusions, childDep) || (!childScope.equals("compile") && !childScope.equals("runtime"))) {
+                    // test, provided and system dependencies are not transitive
+                    continue;
+                }
+                Dependency managedDep = project.managedDependencies.get(childDep.getManagementKey());
+                Dependency transitiveDep = childDep;
+                String managedScope = null;
+                if (managedDep != null) {
+                    // the dependencyManagement of the project overrides the transitive dependencies
+                    if (managedDep.version != null) {
+                        transitiveDep = childDep.withVersion(managedDep.version);
+                    }
+                    managedScope = managedDep.scope;
+                }
+                List<String> exclusions = node.exclusions;
+                if (!childDep.exclusions.isEmpty()) {
+                    exclusions = new ArrayList<>(node.exclusions);
+                    exclusions.addAll(childDep.exclusions);
+                }
+                ResolutionNode childNode = new ResolutionNode(transitiveDep, node.depth + 1, managedScope, exclusions);
+                childNode.parentKey = key;
+                childNode.declaredScope = childScope;
+                queue.add(childNode);
+            }
+        }
+        computeTransitiveScopes(resolved, transitiveEdges);
+
+        List<String[]> dependencies = new ArrayList<>();
+        for (ResolutionNode node : resolved.values()) {
+            Dependency dep = node.dependency;
+            if (!dep.isJar()) {
+                // e.g. a dependency on a pom, only its dependencies are on the classpath
+                continue;
+            }
+            dependencies.add(new String[] { dep.groupId, dep.artifactId, node.scope, dep.version, dep.getClassifier(), null });
+        }
+        System.out.println("Resolved ["+dependencies.size()+"] dependencies of "+pomFile+" from the POMs in "+localRepository+" in "+
+                (System.currentTimeMillis() - start)+"ms, ["+missingPoms.size()+"] POMs missing, ["+unresolvedDependencies.size()+"] unresolved");
+        return dependencies;
+    }
+
+    /**
+     * Then derive the scopes of the chosen transitive dependencies: each gets the widest scope that any of the chosen
+     * nodes needs it with, and the scope of its own dependencies follows from that. This is repeated until no scope
+     * widens, so a dependency that is first reached through a test dependency and later through a compile one is
+     * compile, and so are its dependencies. The scopes of the project's own dependencies are as declared.
+     */
+    private static void computeTransitiveScopes(Map<String, ResolutionNode> resolved, List<ResolutionNode> transitiveEdges) {
+        for (ResolutionNode node : resolved.values()) {
+            if (node.parentKey != null) {
+                node.scope = null;
+            }
+        }
+        boolean widened = true;
+        while (widened) {
+            widened = false;
+            for (ResolutionNode edge : transitiveEdges) {
+                ResolutionNode parent = resolved.get(edge.parentKey);
+                ResolutionNode node = resolved.get(edge.dependency.getLogicalName());
+                if (node == null || node.parentKey == null || parent.scope == null) {
+                    continue;
+                }
+                String scope = edge.managedScope != null ? edge.managedScope : computeTransitiveScope(parent.scope, edge.declaredScope);
+                String newScope = node.scope == null ? scope : widenScope(node.scope, scope);
+                if (!newScope.equals(node.scope)) {
+                    node.scope = newScope;
+                    widened = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * The scope of a transitive dependency, from the scope of the dependency that brings it in and its declared scope.
+     *
+     * @return the scope, or null if the dependency is not transitive
+     */
+    static String computeTransitiveScope(String parentScope, String scope) {
+        if (!scope.equals("compile") && !scope.equals("runtime")) {
+            // test, provided and system dependencies are not transitive
+            return null;
+        }
+        if (parentScope.equals("compile")) {
+            return scope;
+        }
+        if (parentScope.equals("runtime")) {
+            return "runtime";
+        }
+        // provided and test
+        return parentScope;
+    }
+
+    /**
+     * Compares two versions the way Maven orders them: numbers numerically, and qualifiers as
+     * alpha &lt; beta &lt; milestone &lt; rc &lt; snapshot &lt; (release) &lt; sp &lt; other qualifiers.
+     */
+    static int compareVersions(String version1, String version2) {
+        List<Object> items1 = parseVersionItems(version1);
+        List<Object> items2 = parseVersionItems(version2);
+        for (int i = 0; i < Math.max(items1.size(), items2.size()); i++) {
+            Object item1 = i < items1.size() ? items1.get(i) : null;
+            Object item2 = i < items2.size() ? items2.get(i) : null;
+            int result = compareVersionItems(item1, item2);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return true if the version is within the range, as in [1.0,2.0), (,1.5], [1.2] or [1.0,1.2),[1.5,)
+     */
+    static boolean isInRange(String version, String range) {
+        Matcher matcher = Pattern.compile("([\\[(])([^\\[\\]()]*)([\\])])").matcher(range);
+        while (matcher.find()) {
+            String[] bounds = matcher.group(2).split(",", -1);
+            String lower = bounds[0].trim();
+            String upper = bounds.length > 1 ? bounds[1].trim() : lower;
+            boolean aboveLower = lower.isEmpty() || (matcher.group(1).equals("[") ? compareVersions(version, lower) >= 0 : compareVersions(version, lower) > 0);
+            boolean belowUpper = upper.isEmpty() || (matcher.group(3).equals("]") ? compareVersions(version, upper) <= 0 : compareVersions(version, upper) < 0);
+            if (aboveLower && belowUpper) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // INTERNALS
+
+    private String resolveVersion(Dependency dep) {
+        String ga = dep.groupId+":"+dep.artifactId;
+        if (dep.version == null || dep.version.isEmpty()) {
+            unresolvedDependencies.put(ga, "no version, and none in the dependencyManagement");
+            return null;
+        }
+        if (!dep.version.startsWith("[") && !dep.version.startsWith("(")) {
+            return dep.version;
+        }
+        File artifactDirectory = new File(localRepository.rootDirectory, dep.groupId.replace('.', File.separatorChar)+File.separator+dep.artifactId);
+        String newestVersion = null;
+        File[] versionDirectories = artifactDirectory.listFiles();
+        if (versionDirectories != null) {
+            for (File versionDirectory : versionDirectories) {
+                String version = versionDirectory.getName();
+                if (versionDirectory.isDirectory() && isInRange(version, dep.version) &&
+                        (newestVersion == null || compareVersions(version, newestVersion) > 0)) {
+                    newestVersion = version;
+                }
+            }
+        }
+        if (newestVersion == null) {
+            unresolvedDependencies.put(ga, "no version in the range "+dep.version+" is in the local repository");
+        }
+        return newestVersion;
+    }
+
+    private static boolean isExcluded(List<String> exclusions, Dependency dep) {
+        for (String exclusion : exclusions) {
+            int colon = exclusion.indexOf(':');
+            String groupId = exclusion.substring(0, colon);
+            String artifactId = exclusion.substring(colon + 1);
+            if ((groupId.equals("*") || groupId.equals(dep.groupId)) && (artifactId.equals("*") || artifactId.equals(dep.artifactId))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String widenScope(String scope1, String scope2) {
+        return MavenDependency.Scope.valueOf(scope1.toUpperCase()).widen(MavenDependency.Scope.valueOf(scope2.toUpperCase())).name().toLowerCase();
+    }
+
+    /**
+     * @return the effective model of the POM in the local repository, or null if it is not there
+     */
+    private Model findModel(String groupId, String artifactId, String version) throws Exception {
+        String coordinate = groupId+":"+artifactId+":"+version;
+        if (models.containsKey(coordinate)) {
+            return models.get(coordinate);
+        }
+        Model model = null;
+        File pomFile = getRepositoryPomFile(groupId, artifactId, version);
+        if (pomFile.isFile()) {
+            try {
+                model = buildModel(pomFile, 0);
+            } catch (Exception anyE) {
+                System.err.println(" WARNING could not build the model of "+pomFile+": "+anyE.getMessage());
+            }
+        } else {
+            missingPoms.add(coordinate);
+        }
+        models.put(coordinate, model);
+        return model;
+    }
+
+    private File getRepositoryPomFile(String groupId, String artifactId, String version) {
+        MavenDependency pomDep = new MavenDependency(null, groupId, artifactId, "compile", version);
+        return new File(localRepository.getVersionDirectory(pomDep), LocalMavenRepository.computeArtifactFileName(pomDep, "pom"));
+    }
+
+    /**
+     * Builds the effective model of a POM: inherits from the parents, interpolates, and imports the BOMs
+     */
+    private Model buildModel(File pomFile, int depth) throws Exception {
+        if (depth > MAX_PARENT_DEPTH) {
+            throw new IllegalStateException("The parents of "+pomFile+" are nested too deeply, is there a cycle?");
+        }
+        RawPom pom = readPom(pomFile);
+        Model model = new Model();
+        Map<String, String> properties = new HashMap<>();
+        Map<String, Dependency> managedDependencies = new LinkedHashMap<>();
+        Map<String, Dependency> dependencies = new LinkedHashMap<>();
+        if (pom.parentArtifactId != null) {
+            Model parent = buildModel(findParentPom(pom, pomFile), depth + 1);
+            properties.putAll(parent.rawProperties);
+            managedDependencies.putAll(parent.rawManagedDependencies);
+            dependencies.putAll(parent.rawDependencies);
+        }
+        properties.putAll(pom.properties);
+        for (Dependency dep : pom.managedDependencies) {
+            managedDependencies.put(dep.getManagementKey(), dep);
+        }
+        for (Dependency dep : pom.dependencies) {
+            dependencies.put(dep.getManagementKey(), dep);
+        }
+        model.rawProperties = properties;
+        model.rawManagedDependencies = managedDependencies;
+        model.rawDependencies = dependencies;
+
+        // interpolated in the context of this POM, so a parent's ${foo.version} uses the child's foo.version
+        model.groupId = pom.groupId != null ? pom.groupId : pom.parentGroupId;
+        model.artifactId = pom.artifactId;
+        model.version = pom.version != null ? pom.version : pom.parentVersion;
+        Map<String, String> context = new HashMap<>(properties);
+        putProjectProperties(context, "project.", model.groupId, model.artifactId, model.version);
+        putProjectProperties(context, "pom.", model.groupId, model.artifactId, model.version);
+        if (pom.parentArtifactId != null) {
+            putProjectProperties(context, "project.parent.", pom.parentGroupId, pom.parentArtifactId, pom.parentVersion);
+            putProjectProperties(context, "parent.", pom.parentGroupId, pom.parentArtifactId, pom.parentVersion);
+        }
+
+        List<Dependency> imports = new ArrayList<>();
+        for (Dependency dep : managedDependencies.values()) {
+            Dependency managedDep = dep.interpolate(context);
+            if ("import".equals(managedDep.scope) && "pom".equals(managedDep.type)) {
+                imports.add(managedDep);
+            } else {
+                model.managedDependencies.put(managedDep.getManagementKey(), managedDep);
+            }
+        }
+        // declared entries win over imported ones, and earlier imports over later ones
+        for (Dependency bom : imports) {
+            Model bomModel = findModel(bom.groupId, bom.artifactId, bom.version);
+            if (bomModel == null) {
+                continue;
+            }
+            for (Dependency managedDep : bomModel.managedDependencies.values()) {
+                if (!model.managedDependencies.containsKey(managedDep.getManagementKey())) {
+                    model.managedDependencies.put(managedDep.getManagementKey(), managedDep);
+                }
+            }
+        }
+        for (Dependency dep : dependencies.values()) {
+            Dependency interpolatedDep = dep.interpolate(context);
+            Dependency managedDep = model.managedDependencies.get(interpolatedDep.getManagementKey());
+            if (managedDep != null) {
+                interpolatedDep = interpolatedDep.manage(managedDep);
+            }
+            model.dependencies.add(interpolatedDep);
+        }
+        return model;
+    }
+
+    private static void putProjectProperties(Map<String, String> context, String prefix, String groupId, String artifactId, String version) {
+        context.put(prefix+"groupId", groupId);
+        context.put(prefix+"artifactId", artifactId);
+        context.put(prefix+"version", version);
+    }
+
+    /**
+     * The parent is taken from its relativePath (../pom.xml by default) if the POM there has the parent's coordinates,
+     * as in a reactor, and from the local repository otherwise.
+     */
+    private File findParentPom(RawPom pom, File pomFile) throws Exception {
+        if (!pom.parentRelativePath.isEmpty()) {
+            // canonical, so a pom.xml that is linked into the inputs directory finds the parent next to the original
+            File relativeFile = new File(pomFile.getCanonicalFile().getParentFile(), pom.parentRelativePath);
+            if (relativeFile.isDirectory()) {
+                relativeFile = new File(relativeFile, "pom.xml");
+            }
+            if (relativeFile.isFile()) {
+                RawPom relativePom = readPom(relativeFile);
+                String relativeGroupId = relativePom.groupId != null ? relativePom.groupId : relativePom.parentGroupId;
+                String relativeVersion = relativePom.version != null ? relativePom.version : relativePom.parentVersion;
+                if (pom.parentGroupId.equals(relativeGroupId) && pom.parentArtifactId.equals(relativePom.artifactId) &&
+                        pom.parentVersion.equals(relativeVersion)) {
+                    return relativeFile;
+                }
+            }
+        }
+        File parentFile = getRepositoryPomFile(pom.parentGroupId, pom.parentArtifactId, pom.parentVersion);
+        if (!parentFile.isFile()) {
+            missingPoms.add(pom.parentGroupId+":"+pom.parentArtifactId+":"+pom.parentVersion);
+            throw new IllegalStateException("The parent "+pom.parentGroupId+":"+pom.parentArtifactId+":"+pom.parentVersion+" of "+pomFile+
+                    " is not in the local repository "+localRepository);
+        }
+        return parentFile;
+    }
+
+    private RawPom readPom(File pomFile) throws Exception {
+        RawPom pom = rawPoms.get(pomFile);
+        if (pom != null) {
+            return pom;
+        }
+        pom = new RawPom();
+        Element project = XmlDocuments.parse(pomFile);
+        pom.groupId = getChildText(project, "groupId", null);
+        pom.artifactId = getChildText(project, "artifactId", null);
+        pom.version = getChildText(project, "version", null);
+        Element parent = getChild(project, "parent");
+        if (parent != null) {
+            pom.parentGroupId = getChildText(parent, "groupId", null);
+            pom.parentArtifactId = getChildText(parent, "artifactId", null);
+            pom.parentVersion = getChildText(parent, "version", null);
+            pom.parentRelativePath = getChildText(parent, "relativePath", "../pom.xml");
+        }
+        for (Element property : getChildElements(getChild(project, "properties"), null)) {
+            pom.properties.put(property.getNodeName(), property.getTextContent().trim());
+        }
+        pom.dependencies = readDependencies(getChild(project, "dependencies"));
+        pom.managedDependencies = readDependencies(getChild(getChild(project, "dependencyManagement"), "dependencies"));
+        rawPoms.put(pomFile, pom);
+        return pom;
+    }
+
+    private static List<Dependency> readDependencies(Element dependenciesElement) {
+        List<Dependency> dependencies = new ArrayList<>();
+        for (Element element : getChildElements(dependenciesElement, "dependency")) {
+            Dependency dep = new Dependency();
+            dep.groupId = getChildText(element, "groupId", null);
+            dep.artifactId = getChildText(element, "artifactId", null);
+            dep.version = getChildText(element, "version", null);
+            dep.type = getChildText(element, "type", "jar");
+            dep.classifier = getChildText(element, "classifier", null);
+            dep.scope = getChildText(element, "scope", null);
+            dep.optional = "true".equals(getChildText(element, "optional", "false"));
+            for (Element exclusion : getChildElements(getChild(element, "exclusions"), "exclusion")) {
+                dep.exclusions.add(getChildText(exclusion, "groupId", "*")+":"+getChildText(exclusion, "artifactId", "*"));
+            }
+            dependencies.add(dep);
+        }
+        return dependencies;
+    }
+
+    private static List<Element> getChildElements(Element parent, String name) {
+        List<Element> elements = new ArrayList<>();
+        if (parent == null) {
+            return elements;
+        }
+        NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node child = children.item(i);
+            if (child instanceof Element && (name == null || name.equals(child.getNodeName()))) {
+                elements.add((Element) child);
+            }
+        }
+        return elements;
+    }
+
+    static String interpolate(String value, Map<String, String> context) {
+        if (value == null || value.indexOf("${") < 0) {
+            return value;
+        }
+        // properties can refer to other properties
+        for (int pass = 0; pass < 10 && value.indexOf("${") >= 0; pass++) {
+            Matcher matcher = PROPERTY_REFERENCE.matcher(value);
+            StringBuffer sb = new StringBuffer();
+            boolean replaced = false;
+            while (matcher.find()) {
+                String replacement = context.get(matcher.group(1));
+                if (replacement == null) {
+                    replacement = System.getProperty(matcher.group(1));
+                }
+                if (replacement == null) {
+                    replacement = matcher.group();
+                } else {
+                    replaced = true;
+                }
+                matcher.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+            }
+            matcher.appendTail(sb);
+            value = sb.toString();
+            if (!replaced) {
+                break;
+            }
+        }
+        return value;
+    }
+
+    private static List<Object> parseVersionItems(String version) {
+        List<Object> items = new ArrayList<>();
+        Matcher matcher = Pattern.compile("[0-9]+|[a-zA-Z]+").matcher(version.toLowerCase());
+        while (matcher.find()) {
+            String token = matcher.group();
+            if (Character.isDigit(token.charAt(0))) {
+                items.add(Long.valueOf(token.length() > 18 ? token.substring(0, 18) : token));
+            } else {
+                items.add(token);
+            }
+        }
+        // 1.0 is 1, 1.0.0-final is 1
+        while (!items.isEmpty()) {
+            Object last = items.get(items.size() - 1);
+            if (Long.valueOf(0).equals(last) || "final".equals(last) || "ga".equals(last) || "release".equals(last)) {
+                items.remove(items.size() - 1);
+            } else {
+                break;
+            }
+        }
+        return items;
+    }
+
+    private static final List<String> QUALIFIERS = Arrays.asList("alpha", "beta", "milestone", "rc", "snapshot", "", "sp");
+
+    private static int compareVersionItems(Object item1, Object item2) {
+        if (item1 instanceof Long && item2 instanceof Long) {
+            return ((Long) item1).compareTo((Long) item2);
+        }
+        if (item1 instanceof Long) {
+            // a number is newer than a qualifier or nothing, 1.1 > 1-rc > 1-alpha and 1.1 > 1
+            return item2 == null && (Long) item1 == 0 ? 0 : 1;
+        }
+        if (item2 instanceof Long) {
+            return -compareVersionItems(item2, item1);
+        }
+        return Integer.compare(qualifierRank(item1), qualifierRank(item2)) != 0 ? Integer.compare(qualifierRank(item1), qualifierRank(item2)) :
+            String.valueOf(item1).compareTo(String.valueOf(item2));
+    }
+
+    private static int qualifierRank(Object qualifier) {
+        String name = qualifier == null ? "" : (String) qualifier;
+        if (name.equals("a")) {
+            name = "alpha";
+        } else if (name.equals("b")) {
+            name = "beta";
+        } else if (name.equals("m")) {
+            name = "milestone";
+        } else if (name.equals("cr")) {
+            name = "rc";
+        }
+        int rank = QUALIFIERS.indexOf(name);
+        return rank < 0 ? QUALIFIERS.size() : rank;
+    }
+
+    /**
+     * A POM as written, before inheritance and interpolation
+     */
+    private static class RawPom {
+        String groupId;
+        String artifactId;
+        String version;
+        String parentGroupId;
+        String parentArtifactId;
+        String parentVersion;
+        String parentRelativePath;
+        Map<String, String> properties = new LinkedHashMap<>();
+        List<Dependency> dependencies;
+        List<Dependency> managedDependencies;
+    }
+
+    /**
+     * The effective model of a POM
+     */
+    private static class Model {
+        String groupId;
+        String artifactId;
+        String version;
+        // inherited but not interpolated, for the children of this POM
+        Map<String, String> rawProperties;
+        Map<String, Dependency> rawManagedDependencies;
+        Map<String, Dependency> rawDependencies;
+        // interpolated, with the BOMs imported, by management key
+        Map<String, Dependency> managedDependencies = new LinkedHashMap<>();
+        // interpolated and managed
+        List<Dependency> dependencies = new ArrayList<>();
+    }
+
+    private static class Dependency {
+        String groupId;
+        String artifactId;
+        String version;
+        String type;
+        String classifier;
+        String scope;
+        boolean optional;
+        // groupId:artifactId, either may be *
+        List<String> exclusions = new ArrayList<>();
+
+        /**
+         * The key of dependencyManagement entries, as in Maven
+         */
+        String getManagementKey() {
+            return groupId+":"+artifactId+":"+type+(classifier == null ? "" : ":"+classifier);
+        }
+
+        String getLogicalName() {
+            String jarClassifier = getClassifier();
+            return groupId+":"+artifactId+(jarClassifier == null ? "" : ":"+jarClassifier);
+        }
+
+        /**
+         * The classifier of the jar, a test-jar is the jar with the tests classifier
+         */
+        String getClassifier() {
+            if (classifier == null && "test-jar".equals(type)) {
+                return "tests";
+            }
+            return classifier;
+        }
+
+        boolean isJar() {
+            return type.equals("jar") || type.equals("test-jar") || type.equals("bundle");
+        }
+
+        Dependency copy() {
+            Dependency copy = new Dependency();
+            copy.groupId = groupId;
+            copy.artifactId = artifactId;
+            copy.version = version;
+            copy.type = type;
+            copy.classifier = classifier;
+            copy.scope = scope;
+            copy.optional = optional;
+            copy.exclusions = exclusions;
+            return copy;
+        }
+
+        Dependency withVersion(String newVersion) {
+            Dependency copy = copy();
+            copy.version = newVersion;
+            return copy;
+        }
+
+        Dependency interpolate(Map<String, String> context) {
+            Dependency copy = copy();
+            copy.groupId = LocalPomResolver.interpolate(groupId, context);
+            copy.artifactId = LocalPomResolver.interpolate(artifactId, context);
+            copy.version = LocalPomResolver.interpolate(version, context);
+            copy.type = LocalPomResolver.interpolate(type, context);
+            copy.classifier = LocalPomResolver.interpolate(classifier, context);
+            copy.scope = LocalPomResolver.interpolate(scope, context);
+            return copy;
+        }
+
+        /**
+         * Fills in the version, scope and exclusions from the dependencyManagement entry, if they are not declared
+         */
+        Dependency manage(Dependency managedDep) {
+            Dependency copy = copy();
+            if (copy.version == null) {
+                copy.version = managedDep.version;
+            }
+            if (copy.scope == null) {
+                copy.scope = managedDep.scope;
+            }
+            if (copy.exclusions.isEmpty()) {
+                copy.exclusions = managedDep.exclusions;
+            }
+            return copy;
+        }
+    }
+
+    /**
+     * A dependency in the resolution graph
+     */
+    private static class ResolutionNode {
+        Dependency dependency;
+        int depth;
+        String scope;
+        List<String> exclusions;
+        // for a transitive dependency: the logical name of the dependency that declares it, its declared scope and the
+        // scope from the project's dependencyManagement, if any
+        String parentKey;
+        String declaredScope;
+        String managedScope;
+
+        ResolutionNode(Dependency dependency, int depth, String scope, List<String> exclusions) {
+            this.dependency = dependency;
+            this.depth = depth;
+            this.scope = scope;
+            this.exclusions = exclusions;
+        }
+    }
+}
@@ -22,8 +22,18 @@ public class MavenDependency implements Comparator<MavenDependency> {
     public MavenDependencyVersion version;
     public String classifier;
     
+    // the arbiter rule that decided this version, or null if it was chosen by SemVer (or never contested)
+    public MavenDependencyArbiterRule decidingRule;
+    
+    // where this dep was declared, the id of the file in the InputFileRegistry (-1 if unknown) and the 1-based line number
+    public int sourceFileId = -1;
+    public int sourceLineNumber = 0;
+    // true if declared in the existing workspace (e.g. a maven_jar entry) rather than by a Maven project
+    public boolean declaredInWorkspace = false;
+    
     /**
-     * @param originalLine the line this dep was parsed from, only used in logging output
+     * @param originalLine describes where this dep came from, only used in logging output. The DependenciesParser leaves 
+     *   it null and sets the sourceFileId and sourceLineNumber instead.
      * @param groupId the Maven groupId
      * @param artifactId the Maven artifactId
      * @param scope the Maven scope, "compile", "provided", "test"
@@ -34,7 +44,8 @@ public class MavenDependency implements Comparator<MavenDependency> {
     }
     
     /**
-     * @param originalLine the line this dep was parsed from, only used in logging output
+     * @param originalLine describes where this dep came from, only used in logging output. The DependenciesParser leaves 
+     *   it null and sets the sourceFileId and sourceLineNumber instead.
      * @param groupId the Maven groupId
      * @param artifactId the Maven artifactId
      * @param scope the Maven scope, "compile", "provided", "test"
@@ -61,6 +72,10 @@ public class MavenDependency implements Comparator<MavenDependency> {
         this.scope = clone.scope;
         this.version = new MavenDependencyVersion(clone.version);
         this.classifier = clone.classifier;
+        this.decidingRule = clone.decidingRule;
+        this.sourceFileId = clone.sourceFileId;
+        this.sourceLineNumber = clone.sourceLineNumber;
+        this.declaredInWorkspace = clone.declaredInWorkspace;
     }
     
     /**
@@ -83,6 +98,21 @@ public class MavenDependency implements Comparator<MavenDependency> {
         RUNTIME,
         PROVIDED,
         TEST;
+        
+        /**
+         * Combines the scopes of two declarations of the same artifact into the scope that satisfies both.
+         * Compile wins over everything, test loses to everything, and an artifact that is both provided and
+         * runtime is needed on both classpaths, so it becomes compile. 
+         */
+        public Scope widen(Scope other) {
+            if (this == other || other == TEST) {
+                return this;
+            }
+            if (this == TEST) {
+                return other;
+            }
+            return COMPILE;
+        }
     }
     
     /**
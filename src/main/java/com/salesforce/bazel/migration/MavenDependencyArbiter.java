@@ -7,7 +7,10 @@
 package com.salesforce.bazel.migration;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * When merging multiple sources of dependencies (e.g. an existing WORKSPACE file and a migrating Maven project's list of deps)
@@ -34,20 +37,101 @@ import java.util.List;
 public class MavenDependencyArbiter {
 	private List<MavenDependencyArbiterRule> rules = new ArrayList<>();
 	
+	// decides between two versions when no rule fires, newest SemVer by default
+	public VersionSelectionStrategy selectionStrategy = new VersionSelectionStrategy.NewestVersionStrategy();
+	// artifacts that moved to new coordinates, the DependencyAnalyzer maps candidates onto the canonical ones
+	public ArtifactRelocations relocations = new ArtifactRelocations();
+	// logical name to the versions seen during the current analysis, used by the selection strategy
+	private Map<String, VersionHistogram> histograms = new HashMap<>();
+	// logical name to the versions seen by the runs that resolved the artifact before, see DependencySnapshot
+	private Map<String, VersionHistogram> previousHistograms = new HashMap<>();
+	
 	public MavenDependencyArbiter() {
 		
 	}
 	
 	/**
 	 * Adds a new rule to the arbiter. See {@link MavenDependencyArbiterRule} for the format of the String.
+	 * If an identical rule line was already added, the existing rule is returned and the rule order is unchanged.
 	 * @param ruleLine
 	 */
     public MavenDependencyArbiterRule addArbiterRule(String ruleLine) {
     	MavenDependencyArbiterRule rule = new MavenDependencyArbiterRule(ruleLine);
+    	for (MavenDependencyArbiterRule existingRule : rules) {
+    		if (existingRule.ruleLine.equals(rule.ruleLine)) {
+    			return existingRule;
+    		}
+    	}
     	rules.add(rule);
     	return rule;
     }
     
+    /**
+     * The rules, in evaluation order.
+     */
+    public List<MavenDependencyArbiterRule> getRules() {
+    	return rules;
+    }
+    
+    /**
+     * Forgets the version histograms, the DependencyAnalyzer calls this before it records the candidates of an analysis.
+     */
+    public void clearVersionHistograms() {
+    	histograms.clear();
+    }
+    
+    /**
+     * Records a candidate version of an artifact in its version histogram, see {@link VersionHistogram#addDeclaration(String, int, boolean)}
+     */
+    public void recordCandidate(String logicalName, String version, int sourceFileId, boolean declaredInWorkspace) {
+    	VersionHistogram histogram = histograms.get(logicalName);
+    	if (histogram == null) {
+    		histogram = new VersionHistogram();
+    		histograms.put(logicalName, histogram);
+    	}
+    	histogram.addDeclaration(version, sourceFileId, declaredInWorkspace);
+    }
+    
+    /**
+     * Records an already resolved dependency (e.g. from a snapshot) in its version histogram. If the histogram of the
+     * runs that resolved it is known, all of their declarations are recorded, so the selection strategy decides as it
+     * would with all the inputs. Otherwise the resolved dependency counts as one declaration.
+     */
+    public void recordResolved(String logicalName, MavenDependency resolvedDep) {
+    	VersionHistogram previousHistogram = previousHistograms.get(logicalName);
+    	if (previousHistogram == null) {
+    		recordCandidate(logicalName, resolvedDep.version.label, resolvedDep.sourceFileId, resolvedDep.declaredInWorkspace);
+    		return;
+    	}
+    	VersionHistogram histogram = histograms.get(logicalName);
+    	if (histogram == null) {
+    		histogram = new VersionHistogram();
+    		histograms.put(logicalName, histogram);
+    	}
+    	histogram.addAll(previousHistogram);
+    }
+
+    /**
+     * Sets the histogram of an artifact that was resolved by earlier runs, see {@link #recordResolved(String, MavenDependency)}
+     */
+    public void setPreviousHistogram(String logicalName, VersionHistogram histogram) {
+    	previousHistograms.put(logicalName, histogram);
+    }
+
+    /**
+     * @return the histogram of an artifact that was resolved by earlier runs, or null if it is not known
+     */
+    public VersionHistogram getPreviousHistogram(String logicalName) {
+    	return previousHistograms.get(logicalName);
+    }
+
+    /**
+     * @return the versions of the artifact seen during the current analysis, or null if none were recorded
+     */
+    public VersionHistogram getVersionHistogram(String logicalName) {
+    	return histograms.get(logicalName);
+    }
+    
     /**
      * Process unary rules (e.g. pinned versions) that may apply to this dependency
      * @param dep
@@ -58,6 +142,7 @@ public class MavenDependencyArbiter {
     	for (MavenDependencyArbiterRule rule : rules) {
     		processedDep = rule.preprocess(dep);
     		if (processedDep != null) {
+    			MigrationEvents.arbitration(null, dep, processedDep, rule);
     			break;
     		}
     	}
@@ -66,7 +151,8 @@ public class MavenDependencyArbiter {
     
     /**
      * Picks the better version of the two versions that were found for the same logical dependency (groupid + artifactid + classifier)
-     * It first checks if a rule has an opinion about it, otherwise it will try to use SemVer to pick the newer of the versions.
+     * It first checks if a rule has an opinion about it, otherwise it asks the selection strategy, which by default uses SemVer
+     * to pick the newer of the versions.
      *  
      * @param dep1
      * @param dep2
@@ -86,15 +172,73 @@ public class MavenDependencyArbiter {
         for (MavenDependencyArbiterRule rule : rules) {
     		processedDep = rule.checkForPreference(dep1, dep2);
     		if (processedDep != null) {
+    			MigrationEvents.arbitration(dep1, dep2, processedDep, rule);
     			return processedDep;
     		}
     	}
         
-        // Use the automatic latest SemVer choosing algorithm
-        if (chooseLaterVersionOfDependencyUsingSemVer(dep1.version, dep2.version) >= 0) {
-            return dep1;
+        // Use the selection strategy, by default the automatic latest SemVer choosing algorithm
+        VersionHistogram histogram = histograms.get(dep1.getLogicalName());
+        if (histogram == null) {
+        	// the candidates were not recorded, e.g. when called directly rather than by the DependencyAnalyzer
+        	histogram = new VersionHistogram();
+        	histogram.addDeclaration(dep1.version.label, -1, dep1.declaredInWorkspace);
+        	histogram.addDeclaration(dep2.version.label, -1, dep2.declaredInWorkspace);
         }
-        return dep2;
+        MavenDependency chosenDep = selectionStrategy.compare(dep1, dep2, histogram) >= 0 ? dep1 : dep2;
+        MigrationEvents.arbitration(dep1, dep2, chosenDep, selectionStrategy);
+        return chosenDep;
+    }
+    
+    /**
+     * Returns the rules that never fired during the analysis. These are candidates for removal from the rules file.
+     */
+    public List<MavenDependencyArbiterRule> findUnfiredRules() {
+    	List<MavenDependencyArbiterRule> unfired = new ArrayList<>();
+    	for (MavenDependencyArbiterRule rule : rules) {
+    		if (rule.fireCount == 0) {
+    			unfired.add(rule);
+    		}
+    	}
+    	return unfired;
+    }
+    
+    /**
+     * Returns the rules that can never fire because an earlier rule always takes precedence.
+     * @return map of shadowed rule to the earlier rule that shadows it
+     */
+    public Map<MavenDependencyArbiterRule, MavenDependencyArbiterRule> findShadowedRules() {
+    	Map<MavenDependencyArbiterRule, MavenDependencyArbiterRule> shadowed = new LinkedHashMap<>();
+    	for (int i = 1; i < rules.size(); i++) {
+    		MavenDependencyArbiterRule rule = rules.get(i);
+    		for (int j = 0; j < i; j++) {
+    			if (rule.isShadowedBy(rules.get(j))) {
+    				shadowed.put(rule, rules.get(j));
+    				break;
+    			}
+    		}
+    	}
+    	return shadowed;
+    }
+    
+    /**
+     * Writes the per rule profiling counters to stdout, followed by the rules that never fired and the rules
+     * that are shadowed by an earlier rule. 
+     */
+    public void printRuleReport() {
+    	if (rules.isEmpty()) {
+    		return;
+    	}
+    	System.out.println("Arbiter rule report (evaluated/matched/fired/match time):");
+    	for (MavenDependencyArbiterRule rule : rules) {
+    		System.out.println("  "+rule.evaluationCount+"/"+rule.matchCount+"/"+rule.fireCount+"/"+(rule.matchNanos / 1000000)+"ms  "+rule);
+    	}
+    	for (MavenDependencyArbiterRule rule : findUnfiredRules()) {
+    		System.out.println(" UNUSED RULE (never fired): "+rule);
+    	}
+    	for (Map.Entry<MavenDependencyArbiterRule, MavenDependencyArbiterRule> entry : findShadowedRules().entrySet()) {
+    		System.out.println(" SHADOWED RULE: "+entry.getKey()+"  is shadowed by earlier  "+entry.getValue());
+    	}
     }
     
     // INTERNALS
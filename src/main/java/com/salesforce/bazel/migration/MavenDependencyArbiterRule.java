@@ -8,6 +8,7 @@ package com.salesforce.bazel.migration;
 
 import java.io.StringReader;
 import java.util.Properties;
+import java.util.regex.Pattern;
 
 /**
  * A rule that defines how to preprocess the dependencies and to arbitrate between two versions of the 
@@ -20,10 +21,14 @@ import java.util.Properties;
  * </ul>
  * Rules always have to have a <i>groupId</i>.
  * Rules are processed in 'discovered' order. 
+ * <p>
+ * Each rule keeps simple profiling counters (evaluations, matches, fires, time spent matching) so that
+ * dead and expensive rules can be found with {@link MavenDependencyArbiter#printRuleReport()}.
  * 
  * @author plaird
  */
 public class MavenDependencyArbiterRule {
+	public String ruleLine;
 	public String groupId;
 	public String artifactId;
 
@@ -34,6 +39,17 @@ public class MavenDependencyArbiterRule {
 	// arbitrage rules
 	public String winningVersion;
 	
+	// profiling counters
+	public long evaluationCount = 0;
+	public long matchCount = 0;
+	public long fireCount = 0;
+	public long matchNanos = 0;
+
+	// compiled forms of the regexes, so we don't recompile them for every dependency
+	private Pattern groupIdPattern;
+	private Pattern artifactIdPattern;
+	private Pattern winningVersionPattern;
+	
 	public MavenDependencyArbiterRule() {}
 	
 	public MavenDependencyArbiterRule(String ruleLine) {
@@ -50,6 +66,7 @@ public class MavenDependencyArbiterRule {
 			throw new IllegalArgumentException("Invalid empty rule line.");
 		}
 		ruleLine = ruleLine.trim();
+		this.ruleLine = ruleLine;
 		ruleLine = ruleLine.replace(" ", "\n");
 		Properties ruleProps = new Properties();
 		try {
@@ -71,6 +88,7 @@ public class MavenDependencyArbiterRule {
 		}
 		pinnedVersion = ruleProps.getProperty("pinnedVersion");
 		winningVersion = ruleProps.getProperty("winningVersion");
+		compilePatterns();
 	}
 	
 	/**
@@ -81,9 +99,12 @@ public class MavenDependencyArbiterRule {
 	public MavenDependency preprocess(MavenDependency dep) {
 		MavenDependency processedDep = null;
 		if (pinnedVersion != null) {
+			evaluationCount++;
 			if (matches(dep)) {
 				processedDep = new MavenDependency(dep);
 				processedDep.version = new MavenDependencyVersion(pinnedVersion, dep.getLogicalName());
+				processedDep.decidingRule = this;
+				fireCount++;
 				System.out.println("   RULE MATCH: "+processedDep+" RULE(pinnedVersion): "+this);
 			}
 		}
@@ -99,24 +120,33 @@ public class MavenDependencyArbiterRule {
 	 * @return the preferred dependency, either dep1 or dep2 depending on which rule/algorithm won out
 	 */
 	public MavenDependency checkForPreference(MavenDependency dep1, MavenDependency dep2) {
+		if (winningVersion == null) {
+			return null;
+		}
+		evaluationCount++;
 		if (matches(dep1)) {
-			if (winningVersion != null) {
-				boolean dep1Match = dep1.version.label.matches(winningVersion);
-				boolean dep2Match = dep2.version.label.matches(winningVersion);
-				if (dep1Match && !dep2Match) {
-					// dep1 matches the regex and dep2 doesn't, so prefer dep1
-					System.out.println("   RULE MATCH: "+dep1+" RULE(winningVersion): "+this);
-					return dep1;
-				}
-				if (dep2Match && !dep1Match) {
-					// dep2 matches the regex and dep1 doesn't, so prefer dep2
-					System.out.println("   RULE MATCH: "+dep2+" RULE(winningVersion): "+this);
-					return dep2;
-				}
-				// either both dep1 and dep2 match, or neither matches, so the rule doesn't prefer one over the other
-				// so return null
-				System.out.println("   RULE NO WINNING PREF: "+this);
+			if (winningVersionPattern == null) {
+				compilePatterns();
+			}
+			boolean dep1Match = winningVersionPattern.matcher(dep1.version.label).matches();
+			boolean dep2Match = winningVersionPattern.matcher(dep2.version.label).matches();
+			if (dep1Match && !dep2Match) {
+				// dep1 matches the regex and dep2 doesn't, so prefer dep1
+				fireCount++;
+				dep1.decidingRule = this;
+				System.out.println("   RULE MATCH: "+dep1+" RULE(winningVersion): "+this);
+				return dep1;
+			}
+			if (dep2Match && !dep1Match) {
+				// dep2 matches the regex and dep1 doesn't, so prefer dep2
+				fireCount++;
+				dep2.decidingRule = this;
+				System.out.println("   RULE MATCH: "+dep2+" RULE(winningVersion): "+this);
+				return dep2;
 			}
+			// either both dep1 and dep2 match, or neither matches, so the rule doesn't prefer one over the other
+			// so return null
+			System.out.println("   RULE NO WINNING PREF: "+this);
 		}
 		return null;
 	}
@@ -127,9 +157,54 @@ public class MavenDependencyArbiterRule {
 	}
 	
 	
+	/**
+	 * Determines if this rule can never fire because an earlier rule always fires first for every dependency
+	 * this rule would match. This is a static check on the rule definitions, it does not look at any dependencies.
+	 * 
+	 * @param earlierRule a rule that is evaluated before this one
+	 * @return true if this rule is shadowed by the earlier rule
+	 */
+	public boolean isShadowedBy(MavenDependencyArbiterRule earlierRule) {
+		if (!covers(earlierRule.groupId, groupId) || !covers(earlierRule.artifactId, artifactId)) {
+			return false;
+		}
+		if (pinnedVersion != null) {
+			// the earlier pinnedVersion rule always fires when it matches
+			return earlierRule.pinnedVersion != null;
+		}
+		if (winningVersion != null) {
+			// a winningVersion rule only fires when exactly one version matches, so only an identical regex is guaranteed
+			// to make the same decision first
+			return winningVersion.equals(earlierRule.winningVersion);
+		}
+		return false;
+	}
+	
+	
 	// INTERNALS
 	
 	boolean matches(MavenDependency dep) {
-		return dep.groupId.matches(groupId) && dep.artifactId.matches(artifactId); 
+		if (groupIdPattern == null) {
+			compilePatterns();
+		}
+		long start = System.nanoTime();
+		boolean matched = groupIdPattern.matcher(dep.groupId).matches() && artifactIdPattern.matcher(dep.artifactId).matches();
+		matchNanos += System.nanoTime() - start;
+		if (matched) {
+			matchCount++;
+		}
+		return matched;
+	}
+	
+	private void compilePatterns() {
+		groupIdPattern = Pattern.compile(groupId);
+		artifactIdPattern = Pattern.compile(artifactId);
+		if (winningVersion != null) {
+			winningVersionPattern = Pattern.compile(winningVersion);
+		}
+	}
+	
+	private static boolean covers(String earlierRegex, String laterRegex) {
+		return earlierRegex.equals(".*") || earlierRegex.equals(laterRegex);
 	}
 }
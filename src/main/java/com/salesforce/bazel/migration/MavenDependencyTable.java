@@ -0,0 +1,140 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.util.Arrays;
+
+/**
+ * A compact, columnar alternative to a List of {@link MavenDependency} objects. Each candidate dependency is a row,
+ * and each attribute is a column in a primitive array. All Strings are held in a shared {@link StringPool} and
+ * referenced by int id.
+ * <p>
+ * With millions of candidate lines, most of them are duplicates of the same few thousand artifacts and versions, so
+ * this representation needs a small fraction of the heap. The raw input line is not kept, only the id of the input file
+ * and the line number.
+ * {@link DependencyAnalyzer#processDependencies(MavenDependencyTable, boolean)} analyzes the table directly, and only
+ * creates MavenDependency objects for the winning rows and for rows that need version arbitration.
+ */
+public class MavenDependencyTable {
+    private static final MavenDependency.Scope[] SCOPES = MavenDependency.Scope.values();
+    
+    public final StringPool strings = new StringPool();
+    
+    private int size = 0;
+    private int[] groupIds = new int[1024];
+    private int[] artifactIds = new int[1024];
+    private int[] versionIds = new int[1024];
+    private int[] classifierIds = new int[1024];
+    private int[] logicalNameIds = new int[1024];
+    private byte[] scopes = new byte[1024];
+    private int[] sourceFileIds = new int[1024];
+    private int[] sourceLineNumbers = new int[1024];
+    private boolean[] workspaceDeclarations = new boolean[1024];
+    
+    /**
+     * Adds a candidate dependency row.
+     * 
+     * @param groupId the Maven groupId
+     * @param artifactId the Maven artifactId
+     * @param scope the Maven scope, "compile", "provided", "test"
+     * @param version the Maven version string
+     * @param classifier the Maven classifier, or null
+     * @return the row number
+     */
+    public int add(String groupId, String artifactId, String scope, String version, String classifier) {
+        return add(groupId, artifactId, scope, version, classifier, -1, 0, false);
+    }
+    
+    /**
+     * Adds a candidate dependency row.
+     * 
+     * @param groupId the Maven groupId
+     * @param artifactId the Maven artifactId
+     * @param scope the Maven scope, "compile", "provided", "test"
+     * @param version the Maven version string
+     * @param classifier the Maven classifier, or null
+     * @param sourceFileId the id of the input file in the InputFileRegistry, or -1
+     * @param sourceLineNumber the line number in the input file
+     * @param declaredInWorkspace true if declared in the existing workspace rather than by a Maven project
+     * @return the row number
+     */
+    public int add(String groupId, String artifactId, String scope, String version, String classifier, int sourceFileId, int sourceLineNumber,
+            boolean declaredInWorkspace) {
+        MavenDependency.Scope parsedScope = MavenDependency.Scope.valueOf(scope.toUpperCase());
+        if (size == groupIds.length) {
+            int newLength = size * 2;
+            groupIds = Arrays.copyOf(groupIds, newLength);
+            artifactIds = Arrays.copyOf(artifactIds, newLength);
+            versionIds = Arrays.copyOf(versionIds, newLength);
+            classifierIds = Arrays.copyOf(classifierIds, newLength);
+            logicalNameIds = Arrays.copyOf(logicalNameIds, newLength);
+            scopes = Arrays.copyOf(scopes, newLength);
+            sourceFileIds = Arrays.copyOf(sourceFileIds, newLength);
+            sourceLineNumbers = Arrays.copyOf(sourceLineNumbers, newLength);
+            workspaceDeclarations = Arrays.copyOf(workspaceDeclarations, newLength);
+        }
+        groupIds[size] = strings.intern(groupId);
+        artifactIds[size] = strings.intern(artifactId);
+        versionIds[size] = strings.intern(version);
+        classifierIds[size] = strings.intern(classifier);
+        String logicalName = classifier == null ? groupId+":"+artifactId : groupId+":"+artifactId+":"+classifier;
+        logicalNameIds[size] = strings.intern(logicalName);
+        scopes[size] = (byte) parsedScope.ordinal();
+        sourceFileIds[size] = sourceFileId;
+        sourceLineNumbers[size] = sourceLineNumber;
+        workspaceDeclarations[size] = declaredInWorkspace;
+        return size++;
+    }
+
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * The pooled id of the logical name (group:artifact[:classifier]) of the row, see {@link MavenDependency#getLogicalName()}
+     */
+    public int getLogicalNameId(int row) {
+        return logicalNameIds[row];
+    }
+
+    /**
+     * The pooled id of the version label of the row
+     */
+    public int getVersionId(int row) {
+        return versionIds[row];
+    }
+
+    /**
+     * The id of the input file of the row in the InputFileRegistry, or -1
+     */
+    public int getSourceFileId(int row) {
+        return sourceFileIds[row];
+    }
+
+    /**
+     * True if the row was declared in the existing workspace rather than by a Maven project
+     */
+    public boolean isDeclaredInWorkspace(int row) {
+        return workspaceDeclarations[row];
+    }
+
+    public MavenDependency.Scope getScope(int row) {
+        return SCOPES[scopes[row]];
+    }
+
+    /**
+     * Creates a MavenDependency object for a row.
+     */
+    public MavenDependency toMavenDependency(int row) {
+        MavenDependency dep = new MavenDependency(null, strings.get(groupIds[row]), strings.get(artifactIds[row]), getScope(row).name(), 
+                strings.get(versionIds[row]), strings.get(classifierIds[row]));
+        dep.sourceFileId = sourceFileIds[row];
+        dep.sourceLineNumber = sourceLineNumbers[row];
+        dep.declaredInWorkspace = workspaceDeclarations[row];
+        return dep;
+    }
+}
@@ -14,15 +14,30 @@ import java.util.*;
  * and generate various Bazel configuration files. 
  */
 public class MavenToBazelGenerator {
+    static final String DEFAULT_LOCAL_REPOSITORY_INDEX = ".maventobazel-cache/localrepo.idx";
+    static final String DEFAULT_SPILL_DIRECTORY = ".maventobazel-cache/spill";
+    static final String DEFAULT_RESULT_CACHE_DIRECTORY = ".maventobazel-cache/results";
+    static final String DEFAULT_VENDOR_PACKAGE = "third_party";
+    
     public static void main(String[] args) {
         if (args.length == 0) {
             printUsage();
             System.exit(1);
         }
-        Set<MigrationOptions> options = parseCommandLine(args);
+        Map<MigrationOptions, String> optionValues = new HashMap<>();
+        Set<MigrationOptions> options = parseCommandLine(args, optionValues);
         
         try {
-            doMigration("inputs", "outputs", options);
+            if (options.contains(MigrationOptions.WATCH)) {
+                MigrationOptions unsupportedOption = MigrationWatcher.findUnsupportedOption(options);
+                if (unsupportedOption != null) {
+                    System.err.println("Option "+unsupportedOption+" cannot be combined with --watch, the watcher only rewrites the WORKSPACE and BUILD outputs, exiting...");
+                    System.exit(1);
+                }
+                new MigrationWatcher(new File("inputs"), new File("outputs"), options, optionValues).watch();
+            } else {
+                doMigration("inputs", "outputs", options, optionValues);
+            }
         } catch (Exception anyE) {
             anyE.printStackTrace();
             System.exit(1);
@@ -38,6 +53,20 @@ public class MavenToBazelGenerator {
      * @throws Exception
      */
     protected static void doMigration(String inputDirectoryPath, String outputDirectoryPath, Set<MigrationOptions> options) throws Exception {
+        doMigration(inputDirectoryPath, outputDirectoryPath, options, new HashMap<>());
+    }
+
+    /**
+     * Main entry point for doing the migration work
+     * 
+     * @param inputDirectoryPath the relative path to find all the input files containing existing Bazel deps, rules, and new Maven deps
+     * @param outputDirectoryPath the relative path where the output file will be written
+     * @param options the options to use during the proceessing
+     * @param optionValues the values of the options that take a value (e.g. --snapshot=path)
+     * @throws Exception
+     */
+    protected static void doMigration(String inputDirectoryPath, String outputDirectoryPath, Set<MigrationOptions> options, 
+            Map<MigrationOptions, String> optionValues) throws Exception {
         File inputDirectoryFile = new File(inputDirectoryPath);
         String inputDirectoryAbsolutePath = inputDirectoryFile.getAbsolutePath();
         if (!inputDirectoryFile.exists()) {
@@ -54,39 +83,399 @@ public class MavenToBazelGenerator {
             System.err.println("Output directory ["+outputDirectoryAbsolutePath+"] does not exist, exiting...");
             System.exit(1);
         }
+        if (options.contains(MigrationOptions.OUT_OF_CORE) && (options.contains(MigrationOptions.IMPACT) || options.contains(MigrationOptions.BUILDOZER))) {
+            System.err.println("Option --outofcore cannot be combined with --impact or --buildozer, they need every input dependency in memory, exiting...");
+            System.exit(1);
+        }
+        
+        Object runEvent = MigrationEvents.beginRun();
+        List<File> inputFiles = listInputFiles(inputDirectoryFile);
+        ResultCache resultCache = null;
+        String resultCacheKey = null;
+        if (options.contains(MigrationOptions.RESULT_CACHE)) {
+            MigrationOptions uncacheableOption = ResultCache.findUncacheableOption(options);
+            if (uncacheableOption != null) {
+                System.out.println("Not using the result cache, the outputs of option "+uncacheableOption+" depend on more than the input files");
+            } else if (ResultCache.findPomFile(inputFiles) != null) {
+                System.out.println("Not using the result cache, the dependencies of "+ResultCache.findPomFile(inputFiles)+
+                        " depend on the POMs in the local repository");
+            } else {
+                String maxMegabytes = optionValues.get(MigrationOptions.RESULT_CACHE);
+                long maxBytes = maxMegabytes == null ? ResultCache.DEFAULT_MAX_BYTES : Long.parseLong(maxMegabytes) * 1024 * 1024;
+                resultCache = new ResultCache(new File(DEFAULT_RESULT_CACHE_DIRECTORY), maxBytes);
+                resultCacheKey = ResultCache.computeKey(inputFiles, options, optionValues);
+                if (resultCache.restore(resultCacheKey, outputDirectoryFile)) {
+                    System.out.println("Restored the outputs from the result cache, entry "+resultCacheKey);
+                    MigrationEvents.endRun(runEvent, inputDirectoryFile, inputFiles.size(), -1, -1);
+                    return;
+                }
+            }
+        }
         
         MavenDependencyArbiter arbiter = new MavenDependencyArbiter();
-        DependenciesParser parser = new DependenciesParser(arbiter);
-        List<MavenDependency> deps = new ArrayList<>();
-        for (File candidateFile : inputDirectoryFile.listFiles()) {
-	        System.out.println("Loading dependency input file ["+candidateFile+"]");
-	        deps.addAll(parser.parseFile(candidateFile));
+        if (options.contains(MigrationOptions.STRATEGY)) {
+            arbiter.selectionStrategy = VersionSelectionStrategy.forName(optionValues.get(MigrationOptions.STRATEGY));
+        }
+        if (options.contains(MigrationOptions.RELOCATIONS_FROM_POMS)) {
+            arbiter.relocations.pomRepository = createLocalRepository(optionValues);
+        }
+        DependencySnapshot snapshot = null;
+        File snapshotFile = null;
+        if (options.contains(MigrationOptions.SNAPSHOT)) {
+            snapshotFile = new File(optionValues.get(MigrationOptions.SNAPSHOT));
+            if (snapshotFile.exists()) {
+                System.out.println("Loading resolved dependency snapshot ["+snapshotFile+"], only the new inputs will be analyzed");
+                snapshot = DependencySnapshot.read(snapshotFile);
+                snapshot.attachRules(arbiter);
+            }
         }
-        System.out.println("Loaded ["+deps.size()+"] dependencies (some may be dupes), now analyzing and will dedupe the list...");
         
+        DependenciesParser parser = new DependenciesParser(arbiter);
+        parser.pomResolver = new LocalPomResolver(createLocalRepository(optionValues));
+        parser.filter = createDependencyFilter(options, optionValues);
         DependencyAnalyzer analyzer = new DependencyAnalyzer(arbiter);
-        Map<String, MavenDependency> computedDeps = analyzer.processDependencies(deps, options.contains(MigrationOptions.DROP_TEST_SCOPE_DEPS));
+        if (options.contains(MigrationOptions.PROVENANCE)) {
+            analyzer.defeatedDependencies = new HashMap<>();
+        }
+        boolean dropTestScopeDeps = options.contains(MigrationOptions.DROP_TEST_SCOPE_DEPS);
+        TreeMap<String, MavenDependency> resolvedDeps = new TreeMap<>();
+        Map<String, MavenDependency> computedDeps;
+        long candidateCount;
+        ImpactReport impactReport = null;
+        if (options.contains(MigrationOptions.IMPACT)) {
+            impactReport = new ImpactReport(optionValues.get(MigrationOptions.IMPACT));
+        }
+        BuildozerCommandGenerator buildozer = null;
+        if (options.contains(MigrationOptions.BUILDOZER)) {
+            buildozer = new BuildozerCommandGenerator();
+            buildozer.vendorPackage = optionValues.get(MigrationOptions.VENDOR);
+            buildozer.dropTestScopeDeps = dropTestScopeDeps;
+        }
+        if (options.contains(MigrationOptions.OUT_OF_CORE)) {
+            OutOfCoreDependencyMerger merger = new OutOfCoreDependencyMerger(parser, analyzer, new File(DEFAULT_SPILL_DIRECTORY));
+            merger.dropTestScopeDeps = dropTestScopeDeps;
+            if (optionValues.containsKey(MigrationOptions.OUT_OF_CORE)) {
+                merger.runSize = Integer.parseInt(optionValues.get(MigrationOptions.OUT_OF_CORE));
+            }
+            for (File candidateFile : inputFiles) {
+                System.out.println("Loading dependency input file ["+candidateFile+"]");
+                merger.addInputFile(candidateFile);
+            }
+            if (snapshot != null) {
+                resolvedDeps = snapshot.applyNewRules(arbiter);
+                snapshot.attachHistograms(arbiter, parser.inputFiles);
+            }
+            computedDeps = merger.merge(resolvedDeps);
+            candidateCount = merger.candidateCount;
+        } else if (options.contains(MigrationOptions.COMPACT)) {
+            MavenDependencyTable table = new MavenDependencyTable();
+            for (File candidateFile : inputFiles) {
+                System.out.println("Loading dependency input file ["+candidateFile+"]");
+                parser.parseFile(candidateFile, table);
+            }
+            System.out.println("Loaded ["+table.size()+"] dependencies (some may be dupes) with ["+table.strings.size()+
+                    "] distinct strings, now analyzing and will dedupe the list...");
+            if (impactReport != null) {
+                impactReport.addDeclarations(table, parser.inputFiles);
+            }
+            if (buildozer != null) {
+                buildozer.addDeclarations(table, parser.inputFiles);
+            }
+            if (snapshot != null) {
+                resolvedDeps = snapshot.applyNewRules(arbiter);
+                snapshot.attachHistograms(arbiter, parser.inputFiles);
+            }
+            computedDeps = analyzer.processDependencies(resolvedDeps, table, dropTestScopeDeps);
+            candidateCount = table.size();
+        } else {
+            List<MavenDependency> deps = new ArrayList<>();
+            for (File candidateFile : inputFiles) {
+                System.out.println("Loading dependency input file ["+candidateFile+"]");
+                deps.addAll(parser.parseFile(candidateFile));
+            }
+            System.out.println("Loaded ["+deps.size()+"] dependencies (some may be dupes), now analyzing and will dedupe the list...");
+            if (impactReport != null) {
+                impactReport.addDeclarations(deps, parser.inputFiles);
+            }
+            if (buildozer != null) {
+                buildozer.addDeclarations(deps, parser.inputFiles);
+            }
+            if (snapshot != null) {
+                resolvedDeps = snapshot.applyNewRules(arbiter);
+                snapshot.attachHistograms(arbiter, parser.inputFiles);
+            }
+            computedDeps = analyzer.processDependencies(resolvedDeps, deps, dropTestScopeDeps);
+            candidateCount = deps.size();
+        }
 
+        if (parser.filter != null) {
+            System.out.println("Filtered out ["+parser.filter.filteredCount+"] dependencies while parsing the inputs");
+        }
         System.out.println("Analyzed the dependencies, the final list contains ["+computedDeps.size()+"] entries.");
+        arbiter.printRuleReport();
         
         for (MavenDependency dep : computedDeps.values()) {
             System.out.println(dep.getLogicalName());
         }
         
-        if (options.contains(MigrationOptions.GENERATE_WORKSPACE)) {
+        LocalMavenRepository localRepository = createLocalRepository(options, optionValues);
+        
+        // the outputs name timestamped builds, the snapshot and provenance keep the versions as declared
+        Map<String, MavenDependency> outputDeps = computedDeps;
+        if (options.contains(MigrationOptions.RESOLVE_SNAPSHOTS)) {
+            SnapshotVersionResolver snapshotResolver = new SnapshotVersionResolver(localRepository);
+            outputDeps = snapshotResolver.resolve(computedDeps);
+            snapshotResolver.writeReport(new File(outputDirectoryFile, "snapshot_resolution.out"));
+        }
+        writeOutputs(outputDeps, outputDirectoryFile, options, optionValues, localRepository);
+        
+        if (options.contains(MigrationOptions.SCAN_DUPLICATES)) {
+            DuplicateClassScanner scanner = new DuplicateClassScanner(localRepository);
+            scanner.scan(outputDeps);
+            scanner.writeReport(new File(outputDirectoryFile, "duplicate_classes.out"));
+        }
+        localRepository.saveIndex();
+        
+        if (options.contains(MigrationOptions.PROVENANCE)) {
+            ProvenanceReport provenanceReport = new ProvenanceReport(parser.inputFiles);
+            provenanceReport.write(computedDeps, analyzer.defeatedDependencies, new File(outputDirectoryFile, "provenance.out"));
+        }
+        
+        if (impactReport != null) {
+            impactReport.compare(ImpactReport.loadPreviousDependencies(new File(optionValues.get(MigrationOptions.IMPACT))), outputDeps);
+            impactReport.write(new File(outputDirectoryFile, "impact.out"));
+        }
+        
+        if (buildozer != null) {
+            Collection<MavenDependency> removedDeps = impactReport == null ? Collections.<MavenDependency>emptyList() : 
+                impactReport.removedDependencies.values();
+            buildozer.writeCommandFile(removedDeps, new File(outputDirectoryFile, "buildozer_commands.out"));
+        }
+        
+        if (options.contains(MigrationOptions.CLASSPATH_WEIGHT)) {
+            writeClasspathWeightReport(outputDeps, buildozer, outputDirectoryFile, optionValues.get(MigrationOptions.CLASSPATH_WEIGHT), 
+                localRepository);
+        }
+        
+        if (snapshotFile != null) {
+            DependencySnapshot.write(computedDeps, arbiter, parser.inputFiles, snapshotFile);
+        }
+        
+        if (resultCache != null) {
+            resultCache.store(resultCacheKey, ResultCache.listOutputFiles(outputDirectoryFile, options));
+        }
+        MigrationEvents.endRun(runEvent, inputDirectoryFile, inputFiles.size(), candidateCount, computedDeps.size());
+    }
+    
+    /**
+     * Entry point for tools that resolve the dependencies themselves, e.g. the Maven plugin. Writes the output files for 
+     * the resolved dependencies, as a command line run with the same options would. Options that are about the inputs 
+     * (e.g. --snapshot) have no effect.
+     * 
+     * @param computedDeps the resolved dependencies, by logical name
+     * @param outputDirectoryFile the directory to write to, it is created if needed
+     * @param args the command line options that select the outputs, e.g. --workspace, --build or --checksums=sha256
+     * @throws Exception
+     */
+    public static void generateOutputs(Map<String, MavenDependency> computedDeps, File outputDirectoryFile, String... args) throws Exception {
+        Map<MigrationOptions, String> optionValues = new HashMap<>();
+        Set<MigrationOptions> options = parseCommandLine(args, optionValues);
+        outputDirectoryFile.mkdirs();
+        writeOutputs(computedDeps, outputDirectoryFile, options, optionValues);
+    }
+    
+    /**
+     * Writes the output files selected by the options. Output files whose content did not change are not rewritten.
+     * 
+     * @param computedDeps the resolved dependencies
+     * @param outputDirectoryFile the directory to write to
+     * @param options the options to use during the proceessing
+     * @param optionValues the values of the options that take a value
+     * @throws Exception
+     */
+    protected static void writeOutputs(Map<String, MavenDependency> computedDeps, File outputDirectoryFile, Set<MigrationOptions> options, 
+            Map<MigrationOptions, String> optionValues) throws Exception {
+        LocalMavenRepository localRepository = createLocalRepository(options, optionValues);
+        writeOutputs(computedDeps, outputDirectoryFile, options, optionValues, localRepository);
+        localRepository.saveIndex();
+    }
+
+    /**
+     * Writes the output files selected by the options. Output files whose content did not change are not rewritten.
+     * 
+     * @param computedDeps the resolved dependencies
+     * @param outputDirectoryFile the directory to write to
+     * @param options the options to use during the proceessing
+     * @param optionValues the values of the options that take a value
+     * @param localRepository the local Maven repository, see {@link #createLocalRepository(Set, Map)}
+     * @throws Exception
+     */
+    protected static void writeOutputs(Map<String, MavenDependency> computedDeps, File outputDirectoryFile, Set<MigrationOptions> options, 
+            Map<MigrationOptions, String> optionValues, LocalMavenRepository localRepository) throws Exception {
+        if (options.contains(MigrationOptions.VALIDATE_LOCAL_REPOSITORY)) {
+            validateLocalRepository(computedDeps, localRepository);
+        }
+        
+        String vendorPackage = optionValues.get(MigrationOptions.VENDOR);
+        if (vendorPackage != null) {
+            ArtifactVendor vendor = new ArtifactVendor(localRepository, new File(outputDirectoryFile, vendorPackage));
+            vendor.vendor(computedDeps);
+        }
+        
+        if (options.contains(MigrationOptions.GENERATE_WORKSPACE) && vendorPackage != null) {
+            System.out.println("Not writing the WORKSPACE maven_jar rules, the java_import targets in "+vendorPackage+" replace them");
+        } else if (options.contains(MigrationOptions.GENERATE_WORKSPACE)) {
             BazelWorkspaceGenerator bazelWorkspace = new BazelWorkspaceGenerator();
-            bazelWorkspace.writeDependenciesAsWorkspaceFile(computedDeps, new File("outputs/external_deps.bzl.out"));
+            bazelWorkspace.tableFormat = options.contains(MigrationOptions.WORKSPACE_TABLE);
+            if (options.contains(MigrationOptions.CHECKSUMS)) {
+                String checksumAttribute = optionValues.get(MigrationOptions.CHECKSUMS);
+                ArtifactChecksummer checksummer = new ArtifactChecksummer(localRepository, checksumAttribute);
+                checksummer.computeChecksums(computedDeps);
+                bazelWorkspace.checksums = checksummer.checksums;
+                bazelWorkspace.checksumAttribute = checksumAttribute;
+            }
+            if (options.contains(MigrationOptions.SHARDS)) {
+                String shards = optionValues.get(MigrationOptions.SHARDS);
+                int hashBuckets = shards.equals("prefix") ? 0 : Integer.parseInt(shards);
+                bazelWorkspace.writeDependenciesAsShardedWorkspaceFiles(computedDeps, outputDirectoryFile, hashBuckets);
+            } else {
+                bazelWorkspace.writeDependenciesAsWorkspaceFile(computedDeps, new File(outputDirectoryFile, "external_deps.bzl.out"));
+            }
         }
         
         if (options.contains(MigrationOptions.GENERATE_BUILD)) {
             BazelBuildDependenciesGenerator bazelBuild = new BazelBuildDependenciesGenerator();
-            bazelBuild.writeDependenciesAsBuildFile(computedDeps, new File("outputs/BUILD.out"));
+            bazelBuild.vendorPackage = vendorPackage;
+            bazelBuild.writeDependenciesAsBuildFile(computedDeps, new File(outputDirectoryFile, "BUILD.out"));
         }
     }
     
+    /**
+     * Writes the classpath weight report, and fails if a deps list exceeds the budgets.
+     * 
+     * @param buildozer the buildozer command generator, if its targets should be weighed, or null
+     * @param budgets the budgets, as in mb=200,jars=300,classes=50000, or null
+     */
+    static void writeClasspathWeightReport(Map<String, MavenDependency> computedDeps, BuildozerCommandGenerator buildozer, 
+            File outputDirectoryFile, String budgets, LocalMavenRepository localRepository) throws Exception {
+        ClasspathWeightReport weightReport = new ClasspathWeightReport(localRepository);
+        if (budgets != null) {
+            weightReport.setBudgets(budgets);
+        }
+        weightReport.measure(computedDeps);
+        weightReport.addBuildLists(computedDeps);
+        if (buildozer != null) {
+            weightReport.addTargetLists(buildozer);
+        }
+        weightReport.writeReport(new File(outputDirectoryFile, "classpath_weight.out"));
+        List<String> violations = weightReport.findBudgetViolations();
+        for (String violation : violations) {
+            System.err.println(" OVER BUDGET "+violation);
+        }
+        if (!violations.isEmpty()) {
+            throw new IllegalStateException("["+violations.size()+"] classpath budgets were exceeded, see classpath_weight.out");
+        }
+    }
+    
+    /**
+     * Fails if any of the resolved dependencies is not in the local Maven repository.
+     */
+    static void validateLocalRepository(Map<String, MavenDependency> computedDeps, LocalMavenRepository localRepository) {
+        long start = System.currentTimeMillis();
+        List<MavenDependency> missingDeps = localRepository.index.findMissing(computedDeps);
+        for (MavenDependency dep : missingDeps) {
+            System.err.println(" MISSING artifact ["+BazelNamer.computeBazelMavenName(dep)+"] is not in the local repository "+localRepository);
+        }
+        if (!missingDeps.isEmpty()) {
+            throw new IllegalStateException("["+missingDeps.size()+"] of the ["+computedDeps.size()+
+                    "] resolved dependencies are not in the local repository "+localRepository);
+        }
+        System.out.println("Validated that all ["+computedDeps.size()+"] resolved dependencies are in the local repository in "+
+                (System.currentTimeMillis() - start)+"ms");
+    }
+    
+    /**
+     * The local Maven repository set with --localrepo, or ~/.m2/repository by default
+     */
+    static LocalMavenRepository createLocalRepository(Map<MigrationOptions, String> optionValues) {
+        String localRepositoryPath = optionValues.get(MigrationOptions.LOCAL_REPOSITORY);
+        if (localRepositoryPath == null) {
+            return new LocalMavenRepository();
+        }
+        return new LocalMavenRepository(new File(localRepositoryPath));
+    }
+    
+    /**
+     * The local Maven repository, with its index loaded and refreshed if --localrepoindex or --validatelocalrepo is set
+     */
+    static LocalMavenRepository createLocalRepository(Set<MigrationOptions> options, Map<MigrationOptions, String> optionValues) throws Exception {
+        LocalMavenRepository localRepository = createLocalRepository(optionValues);
+        if (options.contains(MigrationOptions.LOCAL_REPOSITORY_INDEX) || options.contains(MigrationOptions.VALIDATE_LOCAL_REPOSITORY)) {
+            String indexPath = optionValues.get(MigrationOptions.LOCAL_REPOSITORY_INDEX);
+            File indexFile = new File(indexPath == null ? DEFAULT_LOCAL_REPOSITORY_INDEX : indexPath);
+            localRepository.index = new LocalMavenRepositoryIndex(localRepository.rootDirectory, indexFile);
+            localRepository.index.loadAndRefresh();
+        }
+        return localRepository;
+    }
+    
+    /**
+     * The filter of the --include, --exclude, --excludescopes and --excludeclassifiers options, and of --ignoretestdeps
+     *
+     * @return the filter, or null if no option filters the dependencies
+     */
+    static DependencyFilter createDependencyFilter(Set<MigrationOptions> options, Map<MigrationOptions, String> optionValues) {
+        DependencyFilter filter = new DependencyFilter();
+        if (options.contains(MigrationOptions.DROP_TEST_SCOPE_DEPS)) {
+            filter.excludeScopes("test");
+        }
+        if (options.contains(MigrationOptions.EXCLUDE_SCOPES)) {
+            filter.excludeScopes(optionValues.get(MigrationOptions.EXCLUDE_SCOPES));
+        }
+        if (options.contains(MigrationOptions.EXCLUDE_CLASSIFIERS)) {
+            filter.excludeClassifiers(optionValues.get(MigrationOptions.EXCLUDE_CLASSIFIERS));
+        }
+        if (options.contains(MigrationOptions.INCLUDE)) {
+            filter.addIncludes(optionValues.get(MigrationOptions.INCLUDE));
+        }
+        if (options.contains(MigrationOptions.EXCLUDE)) {
+            filter.addExcludes(optionValues.get(MigrationOptions.EXCLUDE));
+        }
+        return filter.isEmpty() ? null : filter;
+    }
+    
+    /**
+     * Lists the files in the input directory that should be parsed, skipping snapshot files
+     */
+    public static List<File> listInputFiles(File inputDirectoryFile) {
+        List<File> inputFiles = new ArrayList<>();
+        for (File candidateFile : inputDirectoryFile.listFiles()) {
+            if (DependencySnapshot.isSnapshotFile(candidateFile)) {
+                System.out.println("Skipping dependency snapshot file ["+candidateFile+"], use the --snapshot option to load it");
+                continue;
+            }
+            inputFiles.add(candidateFile);
+        }
+        return inputFiles;
+    }
+    
     protected static Set<MigrationOptions> parseCommandLine(String[] args) {
+        return parseCommandLine(args, new HashMap<>());
+    }
+
+    /**
+     * Parses the command line. Options that take a value are written as --option=value, and the value is put 
+     * into the optionValues map.
+     */
+    protected static Set<MigrationOptions> parseCommandLine(String[] args, Map<MigrationOptions, String> optionValues) {
         Set<MigrationOptions> options = new HashSet<>();
         for (String arg : args) {
+            String value = null;
+            int equalsIndex = arg.indexOf('=');
+            if (equalsIndex > 0) {
+                value = arg.substring(equalsIndex + 1);
+                arg = arg.substring(0, equalsIndex);
+            }
             switch (arg) {
             case "--ignoretestdeps":
                     options.add(MigrationOptions.DROP_TEST_SCOPE_DEPS);
@@ -100,6 +489,151 @@ public class MavenToBazelGenerator {
                 options.add(MigrationOptions.GENERATE_WORKSPACE);
                 System.out.println(" option: generating a WORKSPACE.out file");
                 break;
+            case "--snapshot":
+                options.add(MigrationOptions.SNAPSHOT);
+                optionValues.put(MigrationOptions.SNAPSHOT, requireValue(arg, value));
+                System.out.println(" option: incremental merge against the resolved dependency snapshot "+value);
+                break;
+            case "--compact":
+                options.add(MigrationOptions.COMPACT);
+                System.out.println(" option: using the compact in-memory dependency model");
+                break;
+            case "--watch":
+                options.add(MigrationOptions.WATCH);
+                System.out.println(" option: watching the inputs directory and regenerating the outputs when inputs change");
+                break;
+            case "--shards":
+                options.add(MigrationOptions.SHARDS);
+                optionValues.put(MigrationOptions.SHARDS, requireValue(arg, value));
+                if (!value.equals("prefix") && !value.matches("[1-9][0-9]*")) {
+                    System.err.println("Option --shards must be 'prefix' or a number of hash buckets");
+                    System.exit(1);
+                }
+                System.out.println(" option: sharding the WORKSPACE output by "+(value.equals("prefix") ? "groupId prefix" : value+" groupId hash buckets"));
+                break;
+            case "--workspacetable":
+                options.add(MigrationOptions.WORKSPACE_TABLE);
+                System.out.println(" option: writing the WORKSPACE entries as a Starlark data table");
+                break;
+            case "--localrepo":
+                options.add(MigrationOptions.LOCAL_REPOSITORY);
+                optionValues.put(MigrationOptions.LOCAL_REPOSITORY, requireValue(arg, value));
+                System.out.println(" option: using the local Maven repository "+value);
+                break;
+            case "--localrepoindex":
+                options.add(MigrationOptions.LOCAL_REPOSITORY_INDEX);
+                optionValues.put(MigrationOptions.LOCAL_REPOSITORY_INDEX, value == null ? DEFAULT_LOCAL_REPOSITORY_INDEX : value);
+                System.out.println(" option: indexing the local Maven repository in "+optionValues.get(MigrationOptions.LOCAL_REPOSITORY_INDEX));
+                break;
+            case "--validatelocalrepo":
+                options.add(MigrationOptions.VALIDATE_LOCAL_REPOSITORY);
+                System.out.println(" option: failing if a resolved dependency is not in the local Maven repository");
+                break;
+            case "--scanduplicates":
+                options.add(MigrationOptions.SCAN_DUPLICATES);
+                System.out.println(" option: scanning the resolved jars for duplicate classes and split packages");
+                break;
+            case "--checksums":
+                options.add(MigrationOptions.CHECKSUMS);
+                optionValues.put(MigrationOptions.CHECKSUMS, value == null ? "sha1" : value);
+                if (!optionValues.get(MigrationOptions.CHECKSUMS).matches("sha1|sha256")) {
+                    System.err.println("Option --checksums must be sha1 or sha256");
+                    System.exit(1);
+                }
+                System.out.println(" option: adding "+optionValues.get(MigrationOptions.CHECKSUMS)+" checksums from the local Maven repository to the WORKSPACE entries");
+                break;
+            case "--provenance":
+                options.add(MigrationOptions.PROVENANCE);
+                System.out.println(" option: writing the input file and line of each chosen and overruled version to provenance.out");
+                break;
+            case "--impact":
+                options.add(MigrationOptions.IMPACT);
+                optionValues.put(MigrationOptions.IMPACT, requireValue(arg, value));
+                System.out.println(" option: writing the changes compared to "+value+" and the input files they affect to impact.out");
+                break;
+            case "--strategy":
+                options.add(MigrationOptions.STRATEGY);
+                optionValues.put(MigrationOptions.STRATEGY, requireValue(arg, value));
+                if (!value.matches("newest|majority|minchange")) {
+                    System.err.println("Option --strategy must be newest, majority or minchange");
+                    System.exit(1);
+                }
+                System.out.println(" option: choosing between versions with the "+value+" strategy");
+                break;
+            case "--buildozer":
+                options.add(MigrationOptions.BUILDOZER);
+                System.out.println(" option: writing buildozer commands for the targets named by # BAZEL_TARGET lines");
+                break;
+            case "--outofcore":
+                options.add(MigrationOptions.OUT_OF_CORE);
+                if (value != null) {
+                    if (!value.matches("[1-9][0-9]*")) {
+                        System.err.println("Option --outofcore takes the number of dependencies per spilled run");
+                        System.exit(1);
+                    }
+                    optionValues.put(MigrationOptions.OUT_OF_CORE, value);
+                }
+                System.out.println(" option: merging sorted inputs and spilled runs with bounded memory");
+                break;
+            case "--resultcache":
+                options.add(MigrationOptions.RESULT_CACHE);
+                if (value != null) {
+                    if (!value.matches("[1-9][0-9]*")) {
+                        System.err.println("Option --resultcache takes the maximum size of the cache in megabytes");
+                        System.exit(1);
+                    }
+                    optionValues.put(MigrationOptions.RESULT_CACHE, value);
+                }
+                System.out.println(" option: restoring the outputs of an earlier run with the same inputs and options from "+DEFAULT_RESULT_CACHE_DIRECTORY);
+                break;
+            case "--classpathweight":
+                options.add(MigrationOptions.CLASSPATH_WEIGHT);
+                if (value != null) {
+                    if (!value.matches("(mb|jars|classes)=[1-9][0-9]*(,(mb|jars|classes)=[1-9][0-9]*)*")) {
+                        System.err.println("Option --classpathweight takes budgets as in --classpathweight=mb=200,jars=300,classes=50000");
+                        System.exit(1);
+                    }
+                    optionValues.put(MigrationOptions.CLASSPATH_WEIGHT, value);
+                }
+                System.out.println(" option: weighing the generated deps lists"+(value == null ? "" : " against the budgets "+value));
+                break;
+            case "--pomrelocations":
+                options.add(MigrationOptions.RELOCATIONS_FROM_POMS);
+                System.out.println(" option: reading artifact relocations from the POMs in the local Maven repository");
+                break;
+            case "--vendor":
+                options.add(MigrationOptions.VENDOR);
+                optionValues.put(MigrationOptions.VENDOR, value == null ? DEFAULT_VENDOR_PACKAGE : value);
+                if (!optionValues.get(MigrationOptions.VENDOR).matches("[A-Za-z0-9_][A-Za-z0-9_./-]*")) {
+                    System.err.println("Option --vendor takes a Bazel package, as in --vendor=third_party/maven");
+                    System.exit(1);
+                }
+                System.out.println(" option: vendoring the resolved jars into the "+optionValues.get(MigrationOptions.VENDOR)+" package of the outputs");
+                break;
+            case "--resolvesnapshots":
+                options.add(MigrationOptions.RESOLVE_SNAPSHOTS);
+                System.out.println(" option: resolving SNAPSHOT versions to timestamped builds from the local Maven repository metadata");
+                break;
+            case "--include":
+                options.add(MigrationOptions.INCLUDE);
+                optionValues.put(MigrationOptions.INCLUDE, requireValidFilter(arg, requireValue(arg, value)));
+                System.out.println(" option: only parsing the dependencies that match "+value);
+                break;
+            case "--exclude":
+                options.add(MigrationOptions.EXCLUDE);
+                optionValues.put(MigrationOptions.EXCLUDE, requireValidFilter(arg, requireValue(arg, value)));
+                System.out.println(" option: not parsing the dependencies that match "+value);
+                break;
+            case "--excludescopes":
+                options.add(MigrationOptions.EXCLUDE_SCOPES);
+                optionValues.put(MigrationOptions.EXCLUDE_SCOPES, requireValidFilter(arg, requireValue(arg, value)));
+                System.out.println(" option: not parsing the dependencies with scope "+value);
+                break;
+            case "--excludeclassifiers":
+                options.add(MigrationOptions.EXCLUDE_CLASSIFIERS);
+                optionValues.put(MigrationOptions.EXCLUDE_CLASSIFIERS, requireValue(arg, value));
+                System.out.println(" option: not parsing the dependencies with classifier "+value);
+                break;
             case "--help":
                 printUsage();
                 break;
@@ -108,13 +642,68 @@ public class MavenToBazelGenerator {
         return options;
     }
     
+    private static String requireValue(String arg, String value) {
+        if (value == null || value.isEmpty()) {
+            System.err.println("Option "+arg+" requires a value, as in "+arg+"=value");
+            printUsage();
+            System.exit(1);
+        }
+        return value;
+    }
+    
+    private static String requireValidFilter(String arg, String value) {
+        DependencyFilter filter = new DependencyFilter();
+        try {
+            if (arg.equals("--excludescopes")) {
+                filter.excludeScopes(value);
+            } else {
+                filter.addIncludes(value);
+            }
+        } catch (IllegalArgumentException iae) {
+            System.err.println("Option "+arg+": "+iae.getMessage());
+            System.exit(1);
+        }
+        return value;
+    }
+    
     private static void printUsage() {
-        System.out.println(" See the README for docs.\n java -jar maventobazel-generator.jar [options]\n Options:  --ignoretestdeps --build --workspace");
+        System.out.println(" See the README for docs.\n java -jar maventobazel-generator.jar [options]\n Options:  --ignoretestdeps --build --workspace --workspacetable --shards=prefix|N"+
+                "\n           --snapshot=file --compact --outofcore[=runsize] --watch"+
+                "\n           --localrepo=dir --localrepoindex[=file] --validatelocalrepo --scanduplicates --checksums[=sha1|sha256]"+
+                "\n           --provenance --impact=previous-snapshot-or-bzl-file --strategy=newest|majority|minchange"+
+                "\n           --buildozer --resultcache[=megabytes] --resolvesnapshots"+
+                "\n           --classpathweight[=mb=N,jars=N,classes=N] --pomrelocations --vendor[=package]"+
+                "\n           --include=group[:artifact],... --exclude=group[:artifact],... --excludescopes=scope,..."+
+                " --excludeclassifiers=classifier,...");
     }
     
     protected static enum MigrationOptions {
         DROP_TEST_SCOPE_DEPS,
         GENERATE_BUILD,
-        GENERATE_WORKSPACE
+        GENERATE_WORKSPACE,
+        SNAPSHOT,
+        COMPACT,
+        WATCH,
+        SHARDS,
+        WORKSPACE_TABLE,
+        LOCAL_REPOSITORY,
+        SCAN_DUPLICATES,
+        CHECKSUMS,
+        LOCAL_REPOSITORY_INDEX,
+        VALIDATE_LOCAL_REPOSITORY,
+        PROVENANCE,
+        IMPACT,
+        STRATEGY,
+        BUILDOZER,
+        OUT_OF_CORE,
+        RESULT_CACHE,
+        RESOLVE_SNAPSHOTS,
+        CLASSPATH_WEIGHT,
+        RELOCATIONS_FROM_POMS,
+        VENDOR,
+        INCLUDE,
+        EXCLUDE,
+        EXCLUDE_SCOPES,
+        EXCLUDE_CLASSIFIERS
     }
 }
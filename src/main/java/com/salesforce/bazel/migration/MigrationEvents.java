@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.io.File;
+
+/**
+ * Emits Java Flight Recorder events for the migration: one per input file parsed, per arbitration decision, per output
+ * file written, and a summary per run. Record them with <i>-XX:StartFlightRecording</i> and read them with the standard
+ * tools, e.g. <i>jfr print --categories "Maven to Bazel" recording.jfr</i> or JDK Mission Control.
+ * <p>
+ * The tool still builds for and runs on Java 8, which has no jdk.jfr module: the event classes are in 
+ * <i>MigrationJfrEvents</i>, which is compiled for Java 11 from <i>src/main/java11</i> and only loaded if JFR is present. When no recording is running the events are not committed, and the values of the arbitration events
+ * are not even computed.
+ * <p>
+ * Timed events are begun with a begin method that returns an opaque handle (null without JFR), which is passed to the
+ * matching end method.
+ */
+public final class MigrationEvents {
+    static final Recorder RECORDER = loadJfrRecorder();
+    static final boolean AVAILABLE = RECORDER != null;
+
+    private MigrationEvents() {
+    }
+
+    public static Object beginInputFile() {
+        return AVAILABLE ? RECORDER.beginInputFile() : null;
+    }
+
+    public static void endInputFile(Object event, File file, int lineCount, int dependencyCount) {
+        if (event != null) {
+            RECORDER.endInputFile(event, file, lineCount, dependencyCount);
+        }
+    }
+
+    /**
+     * A version decision of the arbiter.
+     *
+     * @param dep1 the first candidate, or null if a rule decided on a single candidate
+     * @param dep2 the other candidate
+     * @param chosenDep the chosen dependency
+     * @param decidedBy the rule, or the selection strategy, that made the decision
+     */
+    public static void arbitration(MavenDependency dep1, MavenDependency dep2, MavenDependency chosenDep, Object decidedBy) {
+        if (AVAILABLE) {
+            RECORDER.arbitration(dep1, dep2, chosenDep, decidedBy);
+        }
+    }
+
+    public static Object beginOutputFile() {
+        return AVAILABLE ? RECORDER.beginOutputFile() : null;
+    }
+
+    public static void endOutputFile(Object event, File file, long size, boolean changed) {
+        if (event != null) {
+            RECORDER.endOutputFile(event, file, size, changed);
+        }
+    }
+
+    public static Object beginRun() {
+        return AVAILABLE ? RECORDER.beginRun() : null;
+    }
+
+    /**
+     * @param event the handle returned by {@link #beginRun()}
+     * @param inputDirectory the input directory
+     * @param inputFileCount the number of input files
+     * @param candidateCount the number of dependencies parsed from the input files, -1 if restored from the result cache
+     * @param resolvedCount the number of resolved dependencies, -1 if restored from the result cache
+     */
+    public static void endRun(Object event, File inputDirectory, int inputFileCount, long candidateCount, int resolvedCount) {
+        if (event != null) {
+            RECORDER.endRun(event, inputDirectory, inputFileCount, candidateCount, resolvedCount);
+        }
+    }
+
+    /**
+     * Creates and commits the events, implemented by the JFR event classes
+     */
+    interface Recorder {
+        Object beginInputFile();
+
+        void endInputFile(Object event, File file, int lineCount, int dependencyCount);
+
+        void arbitration(MavenDependency dep1, MavenDependency dep2, MavenDependency chosenDep, Object decidedBy);
+
+        Object beginOutputFile();
+
+        void endOutputFile(Object event, File file, long size, boolean changed);
+
+        Object beginRun();
+
+        void endRun(Object event, File inputDirectory, int inputFileCount, long candidateCount, int resolvedCount);
+    }
+
+    private static Recorder loadJfrRecorder() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return (Recorder) Class.forName("com.salesforce.bazel.migration.MigrationJfrEvents").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError noJfr) {
+            return null;
+        }
+    }
+}
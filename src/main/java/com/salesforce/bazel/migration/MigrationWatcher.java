@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.io.File;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import com.salesforce.bazel.migration.MavenToBazelGenerator.MigrationOptions;
+
+/**
+ * Implements the <i>--watch</i> mode. It does a full migration run at startup, and then watches the inputs directory.
+ * When an input file changes, only that file is reparsed, only the logical artifacts that the file declared (before or
+ * after the change) are recomputed, and only the output files whose content changed are rewritten.
+ * <p>
+ * If the set of arbiter rules in the changed file is different, all artifacts are recomputed because a rule can change
+ * the decision for any of them.
+ */
+public class MigrationWatcher {
+    private final File inputDirectory;
+    private final File outputDirectory;
+    private final Set<MigrationOptions> options;
+    private final Map<MigrationOptions, String> optionValues;
+
+    // the parsed state of each input file, in processing order
+    private final Map<File, ParsedInputFile> parsedFiles = new LinkedHashMap<>();
+    private final InputFileRegistry inputFiles = new InputFileRegistry();
+    private MavenDependencyArbiter arbiter;
+    private TreeMap<String, MavenDependency> computedDeps = new TreeMap<>();
+
+    public MigrationWatcher(File inputDirectory, File outputDirectory, Set<MigrationOptions> options, Map<MigrationOptions, String> optionValues) {
+        this.inputDirectory = inputDirectory;
+        this.outputDirectory = outputDirectory;
+        this.options = options;
+        this.optionValues = optionValues;
+    }
+
+    /**
+     * The watcher only rewrites the outputs of {@link MavenToBazelGenerator#writeOutputs(Map, File, Set, Map)}, so it
+     * cannot be combined with the options that change how the inputs are analyzed or that write other outputs.
+     *
+     * @return the first such option, or null if there is none
+     */
+    public static MigrationOptions findUnsupportedOption(Set<MigrationOptions> options) {
+        for (MigrationOptions option : new MigrationOptions[] { MigrationOptions.SNAPSHOT, MigrationOptions.COMPACT,
+                MigrationOptions.SCAN_DUPLICATES, MigrationOptions.PROVENANCE, MigrationOptions.IMPACT,
+                MigrationOptions.BUILDOZER, MigrationOptions.OUT_OF_CORE, MigrationOptions.RESULT_CACHE,
+                MigrationOptions.RESOLVE_SNAPSHOTS, MigrationOptions.CLASSPATH_WEIGHT }) {
+            if (options.contains(option)) {
+                return option;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Does the initial run, and then blocks forever processing changes to the inputs directory.
+     *
+     * @throws Exception
+     */
+    public void watch() throws Exception {
+        update(MavenToBazelGenerator.listInputFiles(inputDirectory));
+        MavenToBazelGenerator.writeOutputs(computedDeps, outputDirectory, options, optionValues);
+
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            Path inputPath = inputDirectory.toPath();
+            inputPath.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE);
+            System.out.println("Watching input directory ["+inputDirectory.getAbsolutePath()+"] for changes...");
+            while (true) {
+                WatchKey key = watchService.take();
+                // editors often write a file in several steps, so give them a moment and coalesce the events
+                Thread.sleep(200);
+                Set<File> changedFiles = new LinkedHashSet<>();
+                do {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            changedFiles.addAll(MavenToBazelGenerator.listInputFiles(inputDirectory));
+                            changedFiles.addAll(parsedFiles.keySet());
+                            continue;
+                        }
+                        changedFiles.add(inputPath.resolve((Path) event.context()).toFile());
+                    }
+                    key.reset();
+                    key = watchService.poll(100, TimeUnit.MILLISECONDS);
+                } while (key != null);
+
+                try {
+                    if (update(changedFiles)) {
+                        MavenToBazelGenerator.writeOutputs(computedDeps, outputDirectory, options, optionValues);
+                    }
+                } catch (Exception anyE) {
+                    // keep watching, the next edit will probably fix the problem
+                    System.err.println(">>> FAILURE processing the changed inputs: "+anyE.getMessage());
+                }
+                System.out.println("Watching input directory ["+inputDirectory.getAbsolutePath()+"] for changes...");
+            }
+        }
+    }
+
+    /**
+     * Reparses the changed files and recomputes the affected artifacts.
+     *
+     * @param changedFiles files that were added, modified or deleted
+     * @return true if the computed dependencies changed
+     * @throws Exception
+     */
+    boolean update(Collection<File> changedFiles) throws Exception {
+        Set<String> affectedKeys = new HashSet<>();
+        boolean rulesChanged = arbiter == null;
+        for (File changedFile : changedFiles) {
+            ParsedInputFile oldParse = parsedFiles.get(changedFile);
+            ParsedInputFile newParse = null;
+            if (changedFile.isFile() && !DependencySnapshot.isSnapshotFile(changedFile)) {
+                System.out.println("Loading dependency input file ["+changedFile+"]");
+                newParse = new ParsedInputFile(changedFile, inputFiles, MavenToBazelGenerator.createLocalRepository(optionValues),
+                        MavenToBazelGenerator.createDependencyFilter(options, optionValues));
+                parsedFiles.put(changedFile, newParse);
+            } else {
+                parsedFiles.remove(changedFile);
+            }
+            List<String> oldRules = oldParse == null ? Collections.emptyList() : oldParse.ruleLines;
+            List<String> newRules = newParse == null ? Collections.emptyList() : newParse.ruleLines;
+            rulesChanged |= !oldRules.equals(newRules);
+            List<String> oldRelocations = oldParse == null ? Collections.emptyList() : oldParse.relocationLines;
+            List<String> newRelocations = newParse == null ? Collections.emptyList() : newParse.relocationLines;
+            rulesChanged |= !oldRelocations.equals(newRelocations);
+            if (oldParse != null) {
+                affectedKeys.addAll(oldParse.dependenciesByKey.keySet());
+            }
+            if (newParse != null) {
+                affectedKeys.addAll(newParse.dependenciesByKey.keySet());
+            }
+        }
+
+        TreeMap<String, MavenDependency> previousDeps = computedDeps;
+        if (rulesChanged) {
+            System.out.println("Arbiter rules changed, recomputing all dependencies");
+            arbiter = new MavenDependencyArbiter();
+            if (options.contains(MigrationOptions.STRATEGY)) {
+                arbiter.selectionStrategy = VersionSelectionStrategy.forName(optionValues.get(MigrationOptions.STRATEGY));
+            }
+            if (options.contains(MigrationOptions.RELOCATIONS_FROM_POMS)) {
+                arbiter.relocations.pomRepository = MavenToBazelGenerator.createLocalRepository(optionValues);
+            }
+            for (ParsedInputFile parsedFile : parsedFiles.values()) {
+                for (String ruleLine : parsedFile.ruleLines) {
+                    arbiter.addArbiterRule(ruleLine);
+                }
+                for (String relocationLine : parsedFile.relocationLines) {
+                    arbiter.relocations.addRelocation(relocationLine);
+                }
+            }
+            affectedKeys.addAll(computedDeps.keySet());
+            for (ParsedInputFile parsedFile : parsedFiles.values()) {
+                affectedKeys.addAll(parsedFile.dependenciesByKey.keySet());
+            }
+        }
+
+        DependencyAnalyzer analyzer = new DependencyAnalyzer(arbiter);
+        boolean dropTestScopeDeps = options.contains(MigrationOptions.DROP_TEST_SCOPE_DEPS);
+        if (!arbiter.relocations.isEmpty()) {
+            // a relocation merges the candidates of several keys, so they cannot be recomputed one key at a time
+            System.out.println("Relocations are in use, recomputing all dependencies");
+            List<MavenDependency> candidates = new ArrayList<>();
+            for (ParsedInputFile parsedFile : parsedFiles.values()) {
+                candidates.addAll(parsedFile.dependencies);
+            }
+            computedDeps = analyzer.processDependencies(candidates, dropTestScopeDeps);
+            return !sameVersions(previousDeps, computedDeps);
+        }
+        
+        System.out.println("Recomputing ["+affectedKeys.size()+"] affected dependencies");
+        computedDeps = new TreeMap<>(computedDeps);
+        for (String key : affectedKeys) {
+            // gather the candidates for this artifact in the same order a full run would see them
+            List<MavenDependency> candidates = new ArrayList<>();
+            for (ParsedInputFile parsedFile : parsedFiles.values()) {
+                List<MavenDependency> fileCandidates = parsedFile.dependenciesByKey.get(key);
+                if (fileCandidates != null) {
+                    candidates.addAll(fileCandidates);
+                }
+            }
+            MavenDependency winner = analyzer.processDependencies(candidates, dropTestScopeDeps).get(key);
+            if (winner == null) {
+                computedDeps.remove(key);
+            } else {
+                computedDeps.put(key, winner);
+            }
+        }
+        return !sameVersions(previousDeps, computedDeps);
+    }
+
+    TreeMap<String, MavenDependency> getComputedDependencies() {
+        return computedDeps;
+    }
+
+    // INTERNALS
+
+    private static boolean sameVersions(Map<String, MavenDependency> deps1, Map<String, MavenDependency> deps2) {
+        if (!deps1.keySet().equals(deps2.keySet())) {
+            return false;
+        }
+        for (Map.Entry<String, MavenDependency> entry : deps1.entrySet()) {
+            MavenDependency other = deps2.get(entry.getKey());
+            if (!entry.getValue().version.label.equals(other.version.label) || entry.getValue().scope != other.scope) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The dependencies and rule lines of one input file
+     */
+    private static class ParsedInputFile {
+        List<String> ruleLines = new ArrayList<>();
+        List<String> relocationLines = new ArrayList<>();
+        List<MavenDependency> dependencies;
+        Map<String, List<MavenDependency>> dependenciesByKey = new HashMap<>();
+
+        ParsedInputFile(File file, InputFileRegistry inputFiles, LocalMavenRepository localRepository, DependencyFilter filter) throws Exception {
+            // parse with a private arbiter so we know which rules came from this file
+            MavenDependencyArbiter fileArbiter = new MavenDependencyArbiter();
+            DependenciesParser parser = new DependenciesParser(fileArbiter);
+            parser.inputFiles = inputFiles;
+            // a new resolver for each parse, so POMs that changed in the repository are read again
+            parser.pomResolver = new LocalPomResolver(localRepository);
+            parser.filter = filter;
+            dependencies = parser.parseFile(file);
+            for (MavenDependency dep : dependencies) {
+                List<MavenDependency> keyDeps = dependenciesByKey.get(dep.getLogicalName());
+                if (keyDeps == null) {
+                    keyDeps = new ArrayList<>();
+                    dependenciesByKey.put(dep.getLogicalName(), keyDeps);
+                }
+                keyDeps.add(dep);
+            }
+            for (MavenDependencyArbiterRule rule : fileArbiter.getRules()) {
+                ruleLines.add(rule.ruleLine);
+            }
+            for (Map.Entry<String, String> relocation : fileArbiter.relocations.getRelocations().entrySet()) {
+                relocationLines.add("from="+relocation.getKey()+" to="+relocation.getValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,523 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * Analyzes the input files with bounded memory, for inputs that are too large to be loaded into one list (e.g. the
+ * aggregated <i>mvn dependency:list</i> output of a CI farm).
+ * <p>
+ * Each input file is read once up front, which collects the rules and finds out how the file is ordered. A file whose
+ * dependencies are sorted by logical name (as with <i>mvn -Dsort dependency:list</i>, where each module is a sorted
+ * section) is used as a handful of sorted runs, read again while merging. The dependencies of other files are buffered,
+ * sorted and spilled to run files of {@link #runSize} entries. All runs are then merged (a k-way merge on the logical name,
+ * in input order within a name), and each logical artifact is arbitrated as soon as its group of candidates is complete.
+ * <p>
+ * Only the winners and the version histograms (the versions of each artifact, and which files declare them) are kept,
+ * so memory is bounded by the number of distinct artifacts rather than the number of input lines. Within a group, a
+ * candidate with the same version and scope as an earlier one cannot change the decision, so only the first of them
+ * is analyzed (and recorded as defeated for the provenance report). They are all counted in the version histograms,
+ * under their canonical coordinates (see {@link ArtifactRelocations}): the aliases of a relocated artifact are in
+ * different groups, and share one histogram, so a selection strategy decides as it would in memory.
+ */
+public class OutOfCoreDependencyMerger {
+    static final int DEFAULT_RUN_SIZE = 1000000;
+    // a file with more sorted sections than this is spilled instead
+    static final int MAX_SEGMENTS_PER_FILE = 64;
+    // each sorted section holds an open file while merging, further sorted files are spilled
+    static final int MAX_SORTED_RUNS = 512;
+
+    DependenciesParser parser;
+    DependencyAnalyzer analyzer;
+    File spillDirectory;
+    // the number of candidates buffered in memory before a sorted run is spilled to disk
+    public int runSize = DEFAULT_RUN_SIZE;
+    public boolean dropTestScopeDeps = false;
+
+    // statistics
+    public long candidateCount = 0;
+    public int sortedRunCount = 0;
+    public int spilledRunCount = 0;
+
+    private int fileCount = 0;
+    private List<Candidate> buffer = new ArrayList<>();
+    private List<CandidateRun> runs = new ArrayList<>();
+    private List<File> spillFiles = new ArrayList<>();
+
+    public OutOfCoreDependencyMerger(DependenciesParser parser, DependencyAnalyzer analyzer, File spillDirectory) {
+        this.parser = parser;
+        this.analyzer = analyzer;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * A parsed dependency line, as tokens (see DependenciesParser#parseDependencyTokens)
+     */
+    static class Candidate {
+        String key;
+        // input order: the file index in the high bits, the position within the file in the low bits
+        long sequence;
+        String[] tokens;
+        int sourceFileId;
+        int sourceLineNumber;
+    }
+
+    /**
+     * Reads an input file: collects its rules, and either keeps its sorted sections as runs or spills its dependencies.
+     *
+     * @param file text file, see the {@link DependenciesParser} Javadoc for the formats
+     */
+    public void addInputFile(File file) throws Exception {
+        Object event = MigrationEvents.beginInputFile();
+        int fileIndex = fileCount++;
+        int fileId = parser.inputFiles.register(file);
+        if (DependenciesParser.isStarlarkFile(file)) {
+            // not line oriented, and usually small
+            spillStarlarkFile(file, fileIndex, fileId, event);
+            return;
+        }
+        if (DependenciesParser.isPomFile(file)) {
+            // resolved rather than read, the dependencies are in Maven's order and not sorted
+            long ordinal = 0;
+            for (String[] tokens : parser.resolvePomFile(file)) {
+                bufferCandidate(newCandidate(tokens, fileIndex, ordinal++, fileId, 0));
+            }
+            MigrationEvents.endInputFile(event, file, 0, (int) ordinal);
+            return;
+        }
+        List<SegmentRun> segments = new ArrayList<>();
+        long ordinal = 0;
+        int lineNumber = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String previousKey = null;
+            SegmentRun segment = null;
+            String rawLine;
+            while ((rawLine = reader.readLine()) != null) {
+                lineNumber++;
+                String[] tokens = parser.parseDependencyTokens(rawLine, fileId);
+                if (tokens == null) {
+                    continue;
+                }
+                String key = computeKey(tokens);
+                if (segment == null || compareKeys(previousKey, key) > 0) {
+                    segment = new SegmentRun(file, fileIndex, fileId, lineNumber, ordinal);
+                    segments.add(segment);
+                    if (segments.size() > MAX_SEGMENTS_PER_FILE) {
+                        break;
+                    }
+                }
+                segment.endLine = lineNumber;
+                previousKey = key;
+                ordinal++;
+            }
+        }
+        MigrationEvents.endInputFile(event, file, lineNumber, (int) ordinal);
+        if (segments.size() > MAX_SEGMENTS_PER_FILE || sortedRunCount + segments.size() > MAX_SORTED_RUNS) {
+            System.out.println("Input file ["+file+"] is not sorted (or there are too many sorted sections), spilling it to sorted runs");
+            spillLineFile(file, fileIndex, fileId);
+            return;
+        }
+        System.out.println("Input file ["+file+"] is sorted in ["+segments.size()+"] sections, merging it in place");
+        runs.addAll(segments);
+        sortedRunCount += segments.size();
+    }
+
+    /**
+     * Merges the runs of all the input files and arbitrates each logical artifact.
+     *
+     * @param resolvedDependencies the previously resolved dependencies (e.g. from a snapshot), this map is not modified
+     * @return the processed dependencies
+     */
+    public TreeMap<String, MavenDependency> merge(TreeMap<String, MavenDependency> resolvedDependencies) throws Exception {
+        long start = System.currentTimeMillis();
+        spillBuffer();
+        TreeMap<String, MavenDependency> finalDependencies = new TreeMap<>(resolvedDependencies);
+        // kept for all the groups, for the snapshot and for the aliases of relocated artifacts
+        analyzer.dependencyArbiter.clearVersionHistograms();
+        PriorityQueue<CandidateRun> queue = new PriorityQueue<>(Math.max(1, runs.size()), new Comparator<CandidateRun>() {
+            @Override
+            public int compare(CandidateRun run1, CandidateRun run2) {
+                return compareCandidates(run1.head, run2.head);
+            }
+        });
+        try {
+            for (CandidateRun run : runs) {
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            }
+            CandidateGroup group = null;
+            while (!queue.isEmpty()) {
+                CandidateRun run = queue.poll();
+                Candidate candidate = run.head;
+                if (group == null || !group.key.equals(candidate.key)) {
+                    if (group != null) {
+                        if (compareKeys(group.key, candidate.key) > 0) {
+                            throw new IllegalStateException("Input file changed while merging, ["+candidate.key+"] after ["+group.key+"]");
+                        }
+                        group.finish(finalDependencies);
+                    }
+                    group = new CandidateGroup(candidate.key, resolvedDependencies.get(candidate.key));
+                }
+                group.add(candidate);
+                candidateCount++;
+                if (run.advance()) {
+                    queue.add(run);
+                }
+            }
+            if (group != null) {
+                group.finish(finalDependencies);
+            }
+        } finally {
+            for (CandidateRun run : runs) {
+                run.close();
+            }
+            for (File spillFile : spillFiles) {
+                spillFile.delete();
+            }
+        }
+        System.out.println("Merged ["+candidateCount+"] dependencies from ["+sortedRunCount+"] sorted input sections and ["+spilledRunCount+
+                "] spilled runs in "+(System.currentTimeMillis() - start)+"ms");
+        return finalDependencies;
+    }
+
+    /**
+     * Orders logical names as if each ended with a ':', which is the order <i>mvn -Dsort dependency:list</i> writes them in
+     * (com.sample:foo-bar:jar:1.0 sorts before com.sample:foo:jar:1.0).
+     */
+    static int compareKeys(String key1, String key2) {
+        int length = Math.min(key1.length(), key2.length());
+        for (int i = 0; i < length; i++) {
+            char c1 = key1.charAt(i);
+            char c2 = key2.charAt(i);
+            if (c1 != c2) {
+                return c1 - c2;
+            }
+        }
+        if (key1.length() == key2.length()) {
+            return 0;
+        }
+        if (key1.length() < key2.length()) {
+            int c2 = key2.charAt(length);
+            return c2 == ':' ? -1 : ':' - c2;
+        }
+        int c1 = key1.charAt(length);
+        return c1 == ':' ? 1 : c1 - ':';
+    }
+
+    // INTERNALS
+
+    /**
+     * The candidates of one logical artifact
+     */
+    private class CandidateGroup {
+        String key;
+        MavenDependency resolvedDep;
+        // the first candidate of each version and scope, in input order
+        Map<String, MavenDependency> distinctCandidates = new LinkedHashMap<>();
+        // version to the canonical coordinates of the candidates, see ArtifactRelocations
+        Map<String, MavenDependency> relocatedVersions = new HashMap<>();
+
+        CandidateGroup(String key, MavenDependency resolvedDep) {
+            this.key = key;
+            this.resolvedDep = resolvedDep;
+            if (resolvedDep != null) {
+                MavenDependency relocatedDep = analyzer.dependencyArbiter.relocations.relocate(resolvedDep);
+                if (relocatedDep == resolvedDep) {
+                    analyzer.dependencyArbiter.recordResolved(key, resolvedDep);
+                } else {
+                    // relocated since it was resolved, it is analyzed again as a candidate
+                    analyzer.dependencyArbiter.recordCandidate(relocatedDep.getLogicalName(), relocatedDep.version.label,
+                            relocatedDep.sourceFileId, relocatedDep.declaredInWorkspace);
+                }
+            }
+        }
+
+        void add(Candidate candidate) {
+            String[] tokens = candidate.tokens;
+            if (dropTestScopeDeps && "test".equalsIgnoreCase(tokens[2])) {
+                return;
+            }
+            String distinctKey = tokens[3]+" "+tokens[2];
+            if (!distinctCandidates.containsKey(distinctKey)) {
+                MavenDependency dep = parser.toDependency(tokens, parser.inputFiles.getPath(candidate.sourceFileId)+":"+candidate.sourceLineNumber,
+                        candidate.sourceFileId, candidate.sourceLineNumber);
+                distinctCandidates.put(distinctKey, dep);
+                if (dep != null && !relocatedVersions.containsKey(tokens[3])) {
+                    relocatedVersions.put(tokens[3], analyzer.dependencyArbiter.relocations.relocate(dep));
+                }
+            }
+            // counted under the canonical coordinates, so the aliases of an artifact share one histogram
+            MavenDependency relocatedDep = relocatedVersions.get(tokens[3]);
+            if (relocatedDep == null) {
+                analyzer.dependencyArbiter.recordCandidate(key, tokens[3], candidate.sourceFileId, tokens[5] != null);
+            } else {
+                analyzer.dependencyArbiter.recordCandidate(relocatedDep.getLogicalName(), relocatedDep.version.label,
+                        candidate.sourceFileId, tokens[5] != null);
+            }
+        }
+
+        void finish(TreeMap<String, MavenDependency> finalDependencies) {
+            List<MavenDependency> candidates = new ArrayList<>();
+            for (MavenDependency dep : distinctCandidates.values()) {
+                if (dep != null) {
+                    candidates.add(dep);
+                }
+            }
+            Map<String, MavenDependency> chosenDeps = analyzer.processDependencyGroup(key, resolvedDep, candidates);
+            if (!chosenDeps.containsKey(key)) {
+                // relocated, see ArtifactRelocations
+                finalDependencies.remove(key);
+            }
+            for (Map.Entry<String, MavenDependency> chosen : chosenDeps.entrySet()) {
+                MavenDependency chosenDep = chosen.getValue();
+                // the aliases of a relocated artifact are in different groups, the later group arbitrates against the earlier
+                MavenDependency aliasDep = finalDependencies.get(chosen.getKey());
+                if (aliasDep != null && aliasDep != resolvedDep) {
+                    if (!aliasDep.version.label.equals(chosenDep.version.label)) {
+                        chosenDep = analyzer.dependencyArbiter.choosePreferredVersionOfDependency(aliasDep, chosenDep);
+                    }
+                    if (chosenDep.scope != aliasDep.scope.widen(chosenDep.scope)) {
+                        chosenDep = new MavenDependency(chosenDep);
+                        chosenDep.scope = aliasDep.scope.widen(chosenDep.scope);
+                    }
+                }
+                finalDependencies.put(chosen.getKey(), chosenDep);
+            }
+        }
+    }
+
+    /**
+     * A source of candidates, sorted by key and then by input order
+     */
+    private static abstract class CandidateRun {
+        Candidate head;
+
+        /**
+         * Moves to the next candidate.
+         *
+         * @return false if the run is exhausted
+         */
+        abstract boolean advance() throws Exception;
+
+        abstract void close() throws Exception;
+    }
+
+    /**
+     * A sorted section of an input file, parsed again while merging
+     */
+    private class SegmentRun extends CandidateRun {
+        File file;
+        int fileIndex;
+        int fileId;
+        int startLine;
+        int endLine;
+        long ordinal;
+        BufferedReader reader;
+        int lineNumber = 0;
+
+        SegmentRun(File file, int fileIndex, int fileId, int startLine, long startOrdinal) {
+            this.file = file;
+            this.fileIndex = fileIndex;
+            this.fileId = fileId;
+            this.startLine = startLine;
+            this.ordinal = startOrdinal;
+        }
+
+        @Override
+        boolean advance() throws Exception {
+            if (reader == null) {
+                reader = new BufferedReader(new FileReader(file));
+                while (lineNumber < startLine - 1 && reader.readLine() != null) {
+                    lineNumber++;
+                }
+            }
+            String rawLine;
+            while (lineNumber < endLine && (rawLine = reader.readLine()) != null) {
+                lineNumber++;
+                String[] tokens = parser.parseDependencyTokens(rawLine, fileId);
+                if (tokens != null) {
+                    head = newCandidate(tokens, fileIndex, ordinal++, fileId, lineNumber);
+                    return true;
+                }
+            }
+            close();
+            return false;
+        }
+
+        @Override
+        void close() throws Exception {
+            if (reader != null) {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * A sorted run that was spilled to disk
+     */
+    private static class SpilledRun extends CandidateRun {
+        File runFile;
+        int remaining;
+        DataInputStream in;
+
+        SpilledRun(File runFile, int size) {
+            this.runFile = runFile;
+            this.remaining = size;
+        }
+
+        @Override
+        boolean advance() throws Exception {
+            if (in == null) {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile)));
+            }
+            if (remaining == 0) {
+                close();
+                return false;
+            }
+            remaining--;
+            Candidate candidate = new Candidate();
+            candidate.key = in.readUTF();
+            candidate.sequence = in.readLong();
+            candidate.tokens = new String[6];
+            for (int i = 0; i < candidate.tokens.length; i++) {
+                String token = in.readUTF();
+                candidate.tokens[i] = in.readBoolean() ? token : null;
+            }
+            candidate.sourceFileId = in.readInt();
+            candidate.sourceLineNumber = in.readInt();
+            head = candidate;
+            return true;
+        }
+
+        @Override
+        void close() throws Exception {
+            if (in != null) {
+                in.close();
+            }
+        }
+    }
+
+    private void spillLineFile(File file, int fileIndex, int fileId) throws Exception {
+        long ordinal = 0;
+        int lineNumber = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String rawLine;
+            while ((rawLine = reader.readLine()) != null) {
+                lineNumber++;
+                String[] tokens = parser.parseDependencyTokens(rawLine, fileId);
+                if (tokens != null) {
+                    bufferCandidate(newCandidate(tokens, fileIndex, ordinal++, fileId, lineNumber));
+                }
+            }
+        }
+    }
+
+    private void spillStarlarkFile(final File file, final int fileIndex, final int fileId, Object event) throws Exception {
+        char[] content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).toCharArray();
+        final long[] ordinal = new long[1];
+        StarlarkDependencyScanner.Listener listener = new StarlarkDependencyScanner.Listener() {
+            @Override
+            public void dependency(String[] tokens, int lineNumber) {
+                if (parser.accept(tokens)) {
+                    add(tokens, lineNumber);
+                }
+            }
+
+            @Override
+            public void line(String rawLine, int lineNumber) {
+                String[] tokens = parser.parseDependencyTokens(rawLine, fileId);
+                if (tokens != null) {
+                    add(tokens, lineNumber);
+                }
+            }
+
+            @Override
+            public void unrecognized(String text, int lineNumber) {
+                System.out.println(" PLEASE CHECK This does not look like a dependency. Ignoring. "+file+":"+lineNumber+": "+text);
+            }
+
+            private void add(String[] tokens, int lineNumber) {
+                try {
+                    bufferCandidate(newCandidate(tokens, fileIndex, ordinal[0]++, fileId, lineNumber));
+                } catch (IOException ioE) {
+                    throw new UncheckedIOException(ioE);
+                }
+            }
+        };
+        StarlarkDependencyScanner scanner = new StarlarkDependencyScanner(content, listener);
+        scanner.scan();
+        MigrationEvents.endInputFile(event, file, scanner.getLineCount(), (int) ordinal[0]);
+    }
+
+    private void bufferCandidate(Candidate candidate) throws IOException {
+        buffer.add(candidate);
+        if (buffer.size() >= runSize) {
+            spillBuffer();
+        }
+    }
+
+    private void spillBuffer() throws IOException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        Collections.sort(buffer, new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate candidate1, Candidate candidate2) {
+                return compareCandidates(candidate1, candidate2);
+            }
+        });
+        spillDirectory.mkdirs();
+        File runFile = File.createTempFile("run", ".spill", spillDirectory);
+        spillFiles.add(runFile);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile)))) {
+            for (Candidate candidate : buffer) {
+                out.writeUTF(candidate.key);
+                out.writeLong(candidate.sequence);
+                for (String token : candidate.tokens) {
+                    out.writeUTF(token == null ? "" : token);
+                    out.writeBoolean(token != null);
+                }
+                out.writeInt(candidate.sourceFileId);
+                out.writeInt(candidate.sourceLineNumber);
+            }
+        }
+        runs.add(new SpilledRun(runFile, buffer.size()));
+        spilledRunCount++;
+        buffer = new ArrayList<>();
+    }
+
+    private static Candidate newCandidate(String[] tokens, int fileIndex, long ordinal, int fileId, int lineNumber) {
+        Candidate candidate = new Candidate();
+        candidate.key = computeKey(tokens);
+        candidate.sequence = ((long) fileIndex << 40) | ordinal;
+        candidate.tokens = tokens;
+        candidate.sourceFileId = fileId;
+        candidate.sourceLineNumber = lineNumber;
+        return candidate;
+    }
+
+    private static int compareCandidates(Candidate candidate1, Candidate candidate2) {
+        int result = compareKeys(candidate1.key, candidate2.key);
+        if (result != 0) {
+            return result;
+        }
+        return Long.compare(candidate1.sequence, candidate2.sequence);
+    }
+
+    /**
+     * The logical name, see {@link MavenDependency#getLogicalName()}
+     */
+    private static String computeKey(String[] tokens) {
+        String key = tokens[0]+":"+tokens[1];
+        return tokens[4] == null ? key : key+":"+tokens[4];
+    }
+}
@@ -0,0 +1,62 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes where each resolved dependency was declared (input file and line), the rule that decided it if any, and the
+ * other versions it was chosen over with where those were declared. This explains the version decisions when merging
+ * hundreds of input files.
+ * <p>
+ * Example:
+ * <pre>
+ * com.google.guava:guava 20.0  inputs/WORKSPACE:12
+ *     over 19.0  inputs/my-project-deps.txt:40
+ * </pre>
+ */
+public class ProvenanceReport {
+    InputFileRegistry inputFiles;
+    
+    public ProvenanceReport(InputFileRegistry inputFiles) {
+        this.inputFiles = inputFiles;
+    }
+
+    /**
+     * Writes the report.
+     * 
+     * @param computedDeps the resolved dependencies
+     * @param defeatedDependencies the candidates that lost, by logical name, see {@link DependencyAnalyzer#defeatedDependencies}
+     * @param outputFile the report file
+     * @throws Exception
+     */
+    public void write(Map<String, MavenDependency> computedDeps, Map<String, List<MavenDependency>> defeatedDependencies, 
+            File outputFile) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# Provenance of the resolved dependencies\n");
+        sb.append("# artifact version  declared at  [deciding rule]\n");
+        sb.append("#     over version  declared at\n\n");
+        for (Map.Entry<String, MavenDependency> entry : computedDeps.entrySet()) {
+            MavenDependency dep = entry.getValue();
+            sb.append(entry.getKey()).append(" ").append(dep.version.label).append("  ").append(inputFiles.describeSource(dep));
+            if (dep.decidingRule != null) {
+                sb.append("  [").append(dep.decidingRule.ruleLine).append("]");
+            }
+            sb.append("\n");
+            List<MavenDependency> defeated = defeatedDependencies.get(entry.getKey());
+            for (MavenDependency defeatedDep : defeated == null ? Collections.<MavenDependency>emptyList() : defeated) {
+                sb.append("    over ").append(defeatedDep.version.label).append("  ").append(inputFiles.describeSource(defeatedDep)).append("\n");
+            }
+        }
+        if (GeneratedFileWriter.writeIfChanged(outputFile, sb.toString())) {
+            System.out.println("Wrote provenance report "+outputFile.getAbsolutePath());
+        }
+    }
+}
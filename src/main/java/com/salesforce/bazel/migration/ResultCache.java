@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.*;
+
+import com.salesforce.bazel.migration.MavenToBazelGenerator.MigrationOptions;
+
+/**
+ * A local cache of whole runs. The key is a SHA-256 over the tool version, the options and the name and content of every
+ * input file, so a run with exactly the same inputs, rules and flags can restore the output files of an earlier run
+ * without parsing or analyzing anything.
+ * <p>
+ * Each entry is a directory named by its key, holding the output files. Restoring an entry touches it, and when the
+ * cache grows beyond its maximum size the least recently used entries are deleted.
+ */
+public class ResultCache {
+    static final long DEFAULT_MAX_BYTES = 100L * 1024 * 1024;
+
+    File cacheDirectory;
+    long maxBytes;
+
+    public ResultCache(File cacheDirectory, long maxBytes) {
+        this.cacheDirectory = cacheDirectory;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Some options make the outputs depend on more than the input files, e.g. the jars in the local Maven repository
+     *
+     * @return the option that prevents caching, or null if the run can be cached
+     */
+    public static MigrationOptions findUncacheableOption(Set<MigrationOptions> options) {
+        for (MigrationOptions option : new MigrationOptions[] { MigrationOptions.SNAPSHOT, MigrationOptions.CHECKSUMS,
+                MigrationOptions.VALIDATE_LOCAL_REPOSITORY, MigrationOptions.SCAN_DUPLICATES, MigrationOptions.RESOLVE_SNAPSHOTS,
+                MigrationOptions.CLASSPATH_WEIGHT, MigrationOptions.RELOCATIONS_FROM_POMS,
+                MigrationOptions.VENDOR }) {
+            if (options.contains(option)) {
+                return option;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the first pom.xml input, its dependencies are resolved from the local repository so the outputs of the
+     *   run are not cacheable, or null if there is none
+     */
+    public static File findPomFile(List<File> inputFiles) {
+        for (File inputFile : inputFiles) {
+            if (DependenciesParser.isPomFile(inputFile)) {
+                return inputFile;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Computes the cache key of a run.
+     *
+     * @param inputFiles the input files, in the order they are parsed
+     * @param options the options of the run
+     * @param optionValues the values of the options
+     * @return the key, as a hex string
+     */
+    public static String computeKey(List<File> inputFiles, Set<MigrationOptions> options, Map<MigrationOptions, String> optionValues) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        update(digest, "maventobazel "+getToolVersion());
+        // in declaration order, not in the order of the (hash) set
+        for (MigrationOptions option : MigrationOptions.values()) {
+            if (options.contains(option) && option != MigrationOptions.RESULT_CACHE) {
+                update(digest, "option "+option.name()+"="+optionValues.get(option));
+            }
+        }
+        if (options.contains(MigrationOptions.IMPACT)) {
+            updateWithFile(digest, new File(optionValues.get(MigrationOptions.IMPACT)));
+        }
+        for (File inputFile : inputFiles) {
+            updateWithFile(digest, inputFile);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Copies the output files of a cached run into the output directory. Files with the same content are not rewritten.
+     *
+     * @return true if the key was in the cache
+     */
+    public boolean restore(String key, File outputDirectory) throws Exception {
+        File entryDirectory = new File(cacheDirectory, key);
+        File[] cachedFiles = entryDirectory.listFiles();
+        if (cachedFiles == null) {
+            return false;
+        }
+        for (File cachedFile : cachedFiles) {
+            String content = new String(Files.readAllBytes(cachedFile.toPath()), StandardCharsets.UTF_8);
+            GeneratedFileWriter.writeIfChanged(new File(outputDirectory, cachedFile.getName()), content);
+        }
+        // most recently used
+        entryDirectory.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * Adds the output files of a run to the cache, and evicts the least recently used entries if the cache is too big.
+     */
+    public void store(String key, List<File> outputFiles) throws Exception {
+        cacheDirectory.mkdirs();
+        File entryDirectory = new File(cacheDirectory, key);
+        // written under a temporary name and renamed, so a concurrent run never sees a partial entry
+        File temporaryDirectory = Files.createTempDirectory(cacheDirectory.toPath(), key+".tmp").toFile();
+        for (File outputFile : outputFiles) {
+            Files.copy(outputFile.toPath(), new File(temporaryDirectory, outputFile.getName()).toPath());
+        }
+        if (!temporaryDirectory.renameTo(entryDirectory)) {
+            // stored by another run in the meantime
+            deleteDirectory(temporaryDirectory);
+        }
+        evict(entryDirectory);
+    }
+
+    /**
+     * The output files that a run with these options produces in the output directory
+     */
+    public static List<File> listOutputFiles(File outputDirectory, Set<MigrationOptions> options) {
+        List<File> outputFiles = new ArrayList<>();
+        if (options.contains(MigrationOptions.GENERATE_WORKSPACE)) {
+            outputFiles.add(new File(outputDirectory, "external_deps"+BazelWorkspaceGenerator.OUTPUT_FILE_SUFFIX));
+            if (options.contains(MigrationOptions.SHARDS)) {
+                for (File file : outputDirectory.listFiles()) {
+                    if (file.getName().startsWith(BazelWorkspaceGenerator.SHARD_FILE_PREFIX) && file.getName().endsWith(BazelWorkspaceGenerator.OUTPUT_FILE_SUFFIX)) {
+                        outputFiles.add(file);
+                    }
+                }
+            }
+        }
+        if (options.contains(MigrationOptions.GENERATE_BUILD)) {
+            outputFiles.add(new File(outputDirectory, "BUILD.out"));
+        }
+        if (options.contains(MigrationOptions.PROVENANCE)) {
+            outputFiles.add(new File(outputDirectory, "provenance.out"));
+        }
+        if (options.contains(MigrationOptions.IMPACT)) {
+            outputFiles.add(new File(outputDirectory, "impact.out"));
+        }
+        if (options.contains(MigrationOptions.BUILDOZER)) {
+            outputFiles.add(new File(outputDirectory, "buildozer_commands.out"));
+        }
+        if (options.contains(MigrationOptions.RESOLVE_SNAPSHOTS)) {
+            outputFiles.add(new File(outputDirectory, "snapshot_resolution.out"));
+        }
+        return outputFiles;
+    }
+
+    // INTERNALS
+
+    private void evict(File newEntry) {
+        File[] entries = cacheDirectory.listFiles();
+        if (entries == null) {
+            return;
+        }
+        long totalBytes = 0;
+        final Map<File, Long> lastUsed = new HashMap<>();
+        for (File entry : entries) {
+            if (!entry.isDirectory() || entry.getName().contains(".tmp")) {
+                continue;
+            }
+            lastUsed.put(entry, entry.lastModified());
+            totalBytes += sizeOf(entry);
+        }
+        List<File> leastRecentlyUsedFirst = new ArrayList<>(lastUsed.keySet());
+        Collections.sort(leastRecentlyUsedFirst, new Comparator<File>() {
+            @Override
+            public int compare(File entry1, File entry2) {
+                return Long.compare(lastUsed.get(entry1), lastUsed.get(entry2));
+            }
+        });
+        for (File entry : leastRecentlyUsedFirst) {
+            if (totalBytes <= maxBytes) {
+                break;
+            }
+            if (entry.equals(newEntry)) {
+                // kept even if it is bigger than the cache on its own
+                continue;
+            }
+            totalBytes -= sizeOf(entry);
+            deleteDirectory(entry);
+            System.out.println("Evicted result cache entry "+entry.getName());
+        }
+    }
+
+    private static long sizeOf(File entryDirectory) {
+        long size = 0;
+        File[] files = entryDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /**
+     * The version in the jar manifest, so upgrading the tool invalidates the cache
+     */
+    static String getToolVersion() {
+        String version = ResultCache.class.getPackage().getImplementationVersion();
+        return version == null ? "development" : version;
+    }
+
+    private static void updateWithFile(MessageDigest digest, File file) throws Exception {
+        update(digest, "file "+file.getName());
+        byte[] content = Files.readAllBytes(file.toPath());
+        update(digest, String.valueOf(content.length));
+        digest.update(content);
+    }
+
+    private static void update(MessageDigest digest, String text) {
+        digest.update(text.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
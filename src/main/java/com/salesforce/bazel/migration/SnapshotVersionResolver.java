@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import static com.salesforce.bazel.migration.XmlDocuments.getChild;
+import static com.salesforce.bazel.migration.XmlDocuments.getChildText;
+
+import java.io.File;
+import java.util.*;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Rewrites -SNAPSHOT versions to the timestamped build they currently resolve to, e.g. <i>1.0-SNAPSHOT</i> to
+ * <i>1.0-20180101.120000-3</i>. A SNAPSHOT coordinate is mutable, so Bazel cannot cache it and the build is not hermetic;
+ * a timestamped build never changes.
+ * <p>
+ * The timestamped version is read from the metadata files that Maven keeps in the version directory of the local
+ * repository: <i>maven-metadata-&lt;repository id&gt;.xml</i> for snapshots downloaded from a remote repository, and
+ * <i>maven-metadata-local.xml</i>. The most recently updated build for the jar (with the dependency's classifier) wins.
+ * A snapshot that was only built and installed locally has no timestamped build that Bazel could download, and is
+ * reported as unresolved.
+ */
+public class SnapshotVersionResolver {
+    static final String SNAPSHOT_SUFFIX = "-SNAPSHOT";
+
+    LocalMavenRepository localRepository;
+
+    // logical name to the SNAPSHOT version and the timestamped version it was resolved to
+    public Map<String, String[]> resolvedVersions = new TreeMap<>();
+    // logical name to the SNAPSHOT dependency that could not be resolved, and why
+    public Map<String, String> unresolvedDependencies = new TreeMap<>();
+
+    public SnapshotVersionResolver(LocalMavenRepository localRepository) {
+        this.localRepository = localRepository;
+    }
+
+    /**
+     * Resolves the SNAPSHOT versions.
+     *
+     * @param computedDeps the resolved dependencies, this map is not modified
+     * @return the dependencies, with the SNAPSHOT versions that could be resolved replaced by timestamped versions
+     */
+    public TreeMap<String, MavenDependency> resolve(Map<String, MavenDependency> computedDeps) throws Exception {
+        TreeMap<String, MavenDependency> resolvedDeps = new TreeMap<>(computedDeps);
+        for (Map.Entry<String, MavenDependency> entry : computedDeps.entrySet()) {
+            MavenDependency dep = entry.getValue();
+            if (!dep.version.label.endsWith(SNAPSHOT_SUFFIX)) {
+                continue;
+            }
+            String timestampedVersion = findTimestampedVersion(dep);
+            if (timestampedVersion == null) {
+                continue;
+            }
+            MavenDependency resolvedDep = new MavenDependency(dep);
+            resolvedDep.version = new MavenDependencyVersion(timestampedVersion, dep.groupId+":"+dep.artifactId);
+            resolvedDeps.put(entry.getKey(), resolvedDep);
+            resolvedVersions.put(entry.getKey(), new String[] { dep.version.label, timestampedVersion });
+        }
+        System.out.println("Resolved ["+resolvedVersions.size()+"] SNAPSHOT dependencies to timestamped builds, ["+
+                unresolvedDependencies.size()+"] could not be resolved");
+        return resolvedDeps;
+    }
+
+    /**
+     * Writes the resolved and unresolved SNAPSHOT dependencies, one per line.
+     */
+    public void writeReport(File outputFile) throws Exception {
+        StringBuilder sb = new StringBuilder();
+        sb.append("# SNAPSHOT dependencies resolved to timestamped builds, from the local repository ");
+        sb.append(localRepository);
+        sb.append("\n");
+        for (Map.Entry<String, String> unresolved : unresolvedDependencies.entrySet()) {
+            sb.append("UNRESOLVED ");
+            sb.append(unresolved.getKey());
+            sb.append("  ");
+            sb.append(unresolved.getValue());
+            sb.append("\n");
+        }
+        for (Map.Entry<String, String[]> resolved : resolvedVersions.entrySet()) {
+            sb.append("RESOLVED ");
+            sb.append(resolved.getKey());
+            sb.append(" ");
+            sb.append(resolved.getValue()[0]);
+            sb.append(" -> ");
+            sb.append(resolved.getValue()[1]);
+            sb.append("\n");
+        }
+        if (GeneratedFileWriter.writeIfChanged(outputFile, sb.toString())) {
+            System.out.println("Wrote the SNAPSHOT resolution report to "+outputFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * @return true if the version is a timestamped SNAPSHOT build, as in 1.0-20180101.120000-3
+     */
+    static boolean isTimestampedVersion(String version) {
+        return version.matches(".*-[0-9]{8}\\.[0-9]{6}-[0-9]+");
+    }
+
+    /**
+     * @return the SNAPSHOT version of a timestamped build, as in 1.0-SNAPSHOT for 1.0-20180101.120000-3
+     */
+    static String toSnapshotVersion(String timestampedVersion) {
+        String withoutBuildNumber = timestampedVersion.substring(0, timestampedVersion.lastIndexOf('-'));
+        return withoutBuildNumber.substring(0, withoutBuildNumber.lastIndexOf('-'))+SNAPSHOT_SUFFIX;
+    }
+
+    // INTERNALS
+
+    private String findTimestampedVersion(MavenDependency dep) throws Exception {
+        String key = dep.getLogicalName();
+        File versionDirectory = localRepository.getVersionDirectory(dep);
+        File[] metadataFiles = versionDirectory.listFiles();
+        if (metadataFiles == null) {
+            unresolvedDependencies.put(key, dep.version.label+" is not in the local repository");
+            return null;
+        }
+        String bestVersion = null;
+        String bestUpdated = null;
+        for (File metadataFile : metadataFiles) {
+            String name = metadataFile.getName();
+            if (!name.startsWith("maven-metadata-") || !name.endsWith(".xml")) {
+                continue;
+            }
+            String[] build;
+            try {
+                build = readSnapshotBuild(metadataFile, dep);
+            } catch (Exception anyE) {
+                System.err.println(" WARNING could not read "+metadataFile+": "+anyE.getMessage());
+                continue;
+            }
+            if (build != null && (bestUpdated == null || build[1].compareTo(bestUpdated) > 0)) {
+                bestVersion = build[0];
+                bestUpdated = build[1];
+            }
+        }
+        if (bestVersion == null) {
+            unresolvedDependencies.put(key, dep.version.label+" has no timestamped build in the metadata of "+versionDirectory+
+                    " (only installed locally?)");
+        }
+        return bestVersion;
+    }
+
+    /**
+     * Reads the timestamped build of the jar from a maven-metadata xml file
+     *
+     * @return the timestamped version and when it was updated, or null if the file has none
+     */
+    private String[] readSnapshotBuild(File metadataFile, MavenDependency dep) throws Exception {
+        Element versioning = getChild(XmlDocuments.parse(metadataFile), "versioning");
+        if (versioning == null) {
+            return null;
+        }
+        String lastUpdated = getChildText(versioning, "lastUpdated", "");
+
+        // Maven 3 metadata lists a version per extension and classifier
+        Element snapshotVersions = getChild(versioning, "snapshotVersions");
+        if (snapshotVersions != null) {
+            NodeList children = snapshotVersions.getChildNodes();
+            for (int i = 0; i < children.getLength(); i++) {
+                Node child = children.item(i);
+                if (!(child instanceof Element) || !"snapshotVersion".equals(child.getNodeName())) {
+                    continue;
+                }
+                Element snapshotVersion = (Element) child;
+                String classifier = getChildText(snapshotVersion, "classifier", null);
+                String value = getChildText(snapshotVersion, "value", null);
+                if ("jar".equals(getChildText(snapshotVersion, "extension", null)) && Objects.equals(classifier, dep.classifier) &&
+                        value != null && isTimestampedVersion(value)) {
+                    return new String[] { value, getChildText(snapshotVersion, "updated", lastUpdated) };
+                }
+            }
+        }
+
+        // older metadata only has the timestamp and build number of the latest build
+        Element snapshot = getChild(versioning, "snapshot");
+        if (snapshot != null) {
+            String timestamp = getChildText(snapshot, "timestamp", null);
+            String buildNumber = getChildText(snapshot, "buildNumber", null);
+            if (timestamp != null && buildNumber != null) {
+                String baseVersion = dep.version.label.substring(0, dep.version.label.length() - SNAPSHOT_SUFFIX.length());
+                return new String[] { baseVersion+"-"+timestamp+"-"+buildNumber, lastUpdated };
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Extracts Maven coordinates from Starlark files (WORKSPACE, .bzl) in a single pass over the characters, with a small
+ * lexer and a bracket stack instead of per-line string rewriting. Entries can span any number of lines. It recognizes:
+ * <ul>
+ * <li><b>maven_jar</b> (and native.maven_jar): the <i>artifact</i> attribute</li>
+ * <li><b>maven_install</b>: the strings in the <i>artifacts</i> list, and <i>maven.artifact(group=, artifact=, version=)</i> entries</li>
+ * <li><b>http_jar</b>: the <i>url</i> or first of the <i>urls</i>, if it points into a Maven repository layout</li>
+ * <li>the dict entries of the table format generated by this tool: <i>"name": ("group:artifact:version", "sha")</i></li>
+ * <li>top level <i>artifact = "group:artifact:version"</i> lines, as in fragments copied out of a WORKSPACE</li>
+ * </ul>
+ * Comments (e.g. <i># RULE</i> lines) are handed to the listener as raw lines, and so are lines of <i>mvn dependency:list</i>
+ * output (starting with [INFO]) that were appended to the file.
+ */
+public class StarlarkDependencyScanner {
+    // path segments that are part of the repository base of an http_jar url rather than of the groupId
+    private static final String[] REPOSITORY_ROOT_SEGMENTS = { "maven2", "maven", "m2", "repository", "repositories", "public",
+            "releases", "groups", "content", "libs-release", "libs-release-local" };
+
+    /**
+     * Receives what the scanner finds
+     */
+    interface Listener {
+        /**
+         * A dependency, as group, artifact, scope, version, classifier (may be null) and "workspace"
+         */
+        void dependency(String[] tokens, int lineNumber);
+
+        /**
+         * A comment or a line of Maven output, to be parsed line by line
+         */
+        void line(String rawLine, int lineNumber);
+
+        /**
+         * Something that looks like a dependency but could not be understood
+         */
+        void unrecognized(String text, int lineNumber);
+    }
+
+    private static final char STRING = '"';
+    private static final char IDENTIFIER = 'i';
+    private static final char END = 0;
+
+    private final char[] content;
+    private final Listener listener;
+    private int pos = 0;
+    private int line = 1;
+    private boolean atLineStart = true;
+
+    // the current token
+    private char tokenType;
+    private String tokenText;
+    private int tokenLine;
+
+    private final Deque<Frame> frames = new ArrayDeque<>();
+
+    StarlarkDependencyScanner(char[] content, Listener listener) {
+        this.content = content;
+        this.listener = listener;
+    }
+
+    /**
+     * An open bracket: a call, a list, a dict or a tuple
+     */
+    private static class Frame {
+        char bracket;
+        // for calls, the name of the function
+        String callName;
+        // for calls, the keyword argument being read
+        String keyword;
+        // for dicts, true after the ':' of an entry
+        boolean afterColon;
+        // for tuples, true if it is the value of a dict entry
+        boolean isDictValue;
+        int stringCount;
+        // keyword string arguments of the call, e.g. for maven.artifact and http_jar
+        Map<String, String> stringArguments = new HashMap<>();
+    }
+
+    /**
+     * Scans the whole content.
+     */
+    void scan() {
+        String pendingIdentifier = null;
+        // the target of a top level assignment, as in the line format: artifact = "group:artifact:version"
+        String assignedIdentifier = null;
+        char previousType = END;
+        while (nextToken()) {
+            Frame top = frames.peek();
+            String assignment = assignedIdentifier;
+            assignedIdentifier = null;
+            char type = tokenType;
+            switch (tokenType) {
+            case IDENTIFIER:
+                pendingIdentifier = tokenText;
+                previousType = type;
+                continue;
+            case '(':
+            case '[':
+            case '{':
+                Frame frame = new Frame();
+                frame.bracket = tokenType;
+                frame.callName = tokenType == '(' ? pendingIdentifier : null;
+                // a tuple after the ':' of a dict entry, also accepted without the enclosing dict
+                frame.isDictValue = tokenType == '(' && pendingIdentifier == null && previousType == ':' && (top == null || top.bracket == '{');
+                frames.push(frame);
+                break;
+            case ')':
+            case ']':
+            case '}':
+                if (top != null) {
+                    frames.pop();
+                    closeFrame(top);
+                }
+                break;
+            case '=':
+                if (top == null) {
+                    assignedIdentifier = pendingIdentifier;
+                } else if (top.bracket == '(' && pendingIdentifier != null) {
+                    top.keyword = pendingIdentifier;
+                }
+                break;
+            case ',':
+                if (top != null) {
+                    top.keyword = null;
+                    top.afterColon = false;
+                }
+                break;
+            case ':':
+                if (top != null && top.bracket == '{') {
+                    top.afterColon = true;
+                }
+                break;
+            case STRING:
+                if (top != null) {
+                    handleString(top);
+                } else if ("artifact".equals(assignment)) {
+                    emitCoordinate(tokenText);
+                }
+                break;
+            default:
+                break;
+            }
+            pendingIdentifier = null;
+            previousType = type;
+        }
+    }
+
+    /**
+     * @return the number of lines scanned
+     */
+    int getLineCount() {
+        return line;
+    }
+
+    // INTERNALS
+
+    private void handleString(Frame top) {
+        top.stringCount++;
+        if (top.bracket == '(') {
+            if (isCall(top, "maven_jar") && "artifact".equals(top.keyword)) {
+                emitCoordinate(tokenText);
+            } else if (top.keyword != null) {
+                // e.g. maven.artifact(group = "..."), or http_jar(url = "...")
+                top.stringArguments.put(top.keyword, tokenText);
+                if (!top.stringArguments.containsKey("line")) {
+                    top.stringArguments.put("line", String.valueOf(tokenLine));
+                }
+            } else if (top.isDictValue && top.stringCount == 1) {
+                emitCoordinate(tokenText);
+            }
+            return;
+        }
+        if (top.bracket == '[') {
+            Frame parent = parentOf(top);
+            if (parent != null && isCall(parent, "maven_install") && "artifacts".equals(parent.keyword)) {
+                emitCoordinate(tokenText);
+            } else if (parent != null && isCall(parent, "http_jar") && "urls".equals(parent.keyword) && !parent.stringArguments.containsKey("url")) {
+                parent.stringArguments.put("url", tokenText);
+                parent.stringArguments.put("line", String.valueOf(tokenLine));
+            }
+        }
+    }
+
+    private void closeFrame(Frame frame) {
+        if (frame.bracket != '(') {
+            return;
+        }
+        int frameLine = frame.stringArguments.containsKey("line") ? Integer.parseInt(frame.stringArguments.get("line")) : tokenLine;
+        if (isCall(frame, "maven.artifact")) {
+            String group = frame.stringArguments.get("group");
+            String artifact = frame.stringArguments.get("artifact");
+            String version = frame.stringArguments.get("version");
+            if (group == null || artifact == null || version == null) {
+                listener.unrecognized("maven.artifact without group, artifact and version", frameLine);
+                return;
+            }
+            listener.dependency(new String[] { group, artifact, "compile", version, frame.stringArguments.get("classifier"), "workspace" }, frameLine);
+        } else if (isCall(frame, "http_jar") && frame.stringArguments.containsKey("url")) {
+            String[] tokens = parseMavenUrl(frame.stringArguments.get("url"));
+            if (tokens == null) {
+                listener.unrecognized(frame.stringArguments.get("url"), frameLine);
+                return;
+            }
+            listener.dependency(tokens, frameLine);
+        }
+    }
+
+    private void emitCoordinate(String coordinate) {
+        String[] tokens = parseCoordinate(coordinate);
+        if (tokens == null) {
+            listener.unrecognized(coordinate, tokenLine);
+            return;
+        }
+        listener.dependency(tokens, tokenLine);
+    }
+
+    /**
+     * Parses group:artifact:version, group:artifact:packaging:version or group:artifact:packaging:classifier:version
+     */
+    static String[] parseCoordinate(String coordinate) {
+        String[] parts = coordinate.split(":");
+        switch (parts.length) {
+        case 3:
+            return new String[] { parts[0], parts[1], "compile", parts[2], null, "workspace" };
+        case 4:
+            return new String[] { parts[0], parts[1], "compile", parts[3], null, "workspace" };
+        case 5:
+            return new String[] { parts[0], parts[1], "compile", parts[4], parts[3], "workspace" };
+        default:
+            return null;
+        }
+    }
+
+    /**
+     * Parses a url in the Maven repository layout, as in
+     * <i>https://repo1.maven.org/maven2/com/google/guava/guava/20.0/guava-20.0.jar</i>. The groupId starts after the
+     * host, or after the last well known repository path segment (e.g. maven2).
+     */
+    static String[] parseMavenUrl(String url) {
+        int queryIndex = url.indexOf('?');
+        String path = queryIndex < 0 ? url : url.substring(0, queryIndex);
+        int schemeIndex = path.indexOf("://");
+        if (schemeIndex >= 0) {
+            int hostEnd = path.indexOf('/', schemeIndex + 3);
+            if (hostEnd < 0) {
+                return null;
+            }
+            path = path.substring(hostEnd + 1);
+        }
+        String[] segments = path.split("/");
+        int n = segments.length;
+        if (n < 4 || !segments[n - 1].endsWith(".jar")) {
+            return null;
+        }
+        String artifact = segments[n - 3];
+        String version = segments[n - 2];
+        String fileName = segments[n - 1].substring(0, segments[n - 1].length() - 4);
+        String prefix = artifact+"-"+version;
+        if (!fileName.startsWith(prefix)) {
+            return null;
+        }
+        String classifier = null;
+        if (fileName.length() > prefix.length()) {
+            if (fileName.charAt(prefix.length()) != '-') {
+                return null;
+            }
+            classifier = fileName.substring(prefix.length() + 1);
+        }
+        int groupStart = 0;
+        for (int i = 0; i < n - 3; i++) {
+            for (String rootSegment : REPOSITORY_ROOT_SEGMENTS) {
+                if (segments[i].equals(rootSegment)) {
+                    groupStart = i + 1;
+                }
+            }
+        }
+        if (groupStart >= n - 3) {
+            return null;
+        }
+        StringBuilder group = new StringBuilder();
+        for (int i = groupStart; i < n - 3; i++) {
+            if (group.length() > 0) {
+                group.append('.');
+            }
+            group.append(segments[i]);
+        }
+        return new String[] { group.toString(), artifact, "compile", version, classifier, "workspace" };
+    }
+
+    private static boolean isCall(Frame frame, String name) {
+        return frame.callName != null && (frame.callName.equals(name) || frame.callName.endsWith("."+name));
+    }
+
+    private Frame parentOf(Frame frame) {
+        boolean found = false;
+        for (Frame candidate : frames) {
+            if (found) {
+                return candidate;
+            }
+            found = candidate == frame;
+        }
+        return null;
+    }
+
+    /**
+     * Reads the next token into tokenType, tokenText and tokenLine.
+     *
+     * @return false at the end of the content
+     */
+    private boolean nextToken() {
+        while (pos < content.length) {
+            char c = content[pos];
+            if (c == '\n') {
+                line++;
+                pos++;
+                atLineStart = true;
+                continue;
+            }
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\\') {
+                pos++;
+                continue;
+            }
+            if (atLineStart && frames.isEmpty() && startsWith("[INFO]")) {
+                // mvn dependency:list output appended to the file
+                listener.line(readToEndOfLine(), line);
+                continue;
+            }
+            atLineStart = false;
+            tokenLine = line;
+            if (c == '#') {
+                listener.line(readToEndOfLine(), line);
+                continue;
+            }
+            if (c == '"' || c == '\'') {
+                tokenType = STRING;
+                tokenText = readString(c);
+                return true;
+            }
+            if (Character.isJavaIdentifierStart(c) || Character.isDigit(c)) {
+                int start = pos;
+                while (pos < content.length && (Character.isJavaIdentifierPart(content[pos]) || content[pos] == '.')) {
+                    pos++;
+                }
+                // string prefixes, as in r"..."
+                if (pos < content.length && (content[pos] == '"' || content[pos] == '\'') && pos - start <= 2) {
+                    continue;
+                }
+                tokenType = IDENTIFIER;
+                tokenText = new String(content, start, pos - start);
+                return true;
+            }
+            pos++;
+            tokenType = c;
+            tokenText = null;
+            return true;
+        }
+        tokenType = END;
+        return false;
+    }
+
+    private boolean startsWith(String text) {
+        if (pos + text.length() > content.length) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (content[pos + i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readToEndOfLine() {
+        int start = pos;
+        while (pos < content.length && content[pos] != '\n') {
+            pos++;
+        }
+        return new String(content, start, pos - start);
+    }
+
+    private String readString(char quote) {
+        boolean triple = pos + 2 < content.length && content[pos + 1] == quote && content[pos + 2] == quote;
+        pos += triple ? 3 : 1;
+        StringBuilder sb = new StringBuilder();
+        while (pos < content.length) {
+            char c = content[pos];
+            if (c == '\\' && pos + 1 < content.length) {
+                sb.append(content[pos + 1]);
+                if (content[pos + 1] == '\n') {
+                    line++;
+                }
+                pos += 2;
+                continue;
+            }
+            if (c == quote) {
+                if (!triple) {
+                    pos++;
+                    return sb.toString();
+                }
+                if (pos + 2 < content.length && content[pos + 1] == quote && content[pos + 2] == quote) {
+                    pos += 3;
+                    return sb.toString();
+                }
+            }
+            if (c == '\n') {
+                line++;
+                if (!triple) {
+                    // unterminated string, stop at the end of the line
+                    return sb.toString();
+                }
+            }
+            sb.append(c);
+            pos++;
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,55 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns Strings and addresses them by a dense int id. Used by the {@link MavenDependencyTable} so that each distinct
+ * groupId, artifactId, version and classifier is held in memory only once, no matter how many input lines refer to it.
+ */
+public class StringPool {
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+
+    /**
+     * Returns the id of the String, adding it to the pool if it is not already there.
+     * 
+     * @param string the String to intern, may be null
+     * @return the id, or -1 for null
+     */
+    public int intern(String string) {
+        if (string == null) {
+            return -1;
+        }
+        Integer id = ids.get(string);
+        if (id == null) {
+            id = strings.size();
+            strings.add(string);
+            ids.put(string, id);
+        }
+        return id;
+    }
+
+    /**
+     * @param id an id returned by {@link #intern(String)}
+     * @return the String, or null for id -1
+     */
+    public String get(int id) {
+        if (id < 0) {
+            return null;
+        }
+        return strings.get(id);
+    }
+
+    public int size() {
+        return strings.size();
+    }
+}
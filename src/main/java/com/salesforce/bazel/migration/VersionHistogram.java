@@ -0,0 +1,106 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * The versions of one logical artifact that were seen during an analysis, with how many input files declare each 
+ * version and whether the version is the one in the existing workspace. Used by the {@link VersionSelectionStrategy}.
+ */
+public class VersionHistogram {
+    // version label to the ids of the input files that declare it, see InputFileRegistry
+    private Map<String, Set<Integer>> declaringFiles = new HashMap<>();
+    // version label to the number of declarations that have no input file
+    private Map<String, Integer> unattributedCounts = new HashMap<>();
+    private Set<String> workspaceVersions = new HashSet<>();
+
+    /**
+     * Records one declaration of the version. Several declarations from the same input file count once.
+     * 
+     * @param version the version label
+     * @param sourceFileId the id of the declaring input file, or -1 if unknown, in which case every declaration counts
+     * @param declaredInWorkspace true if the declaration is in the existing workspace (e.g. a maven_jar entry)
+     */
+    public void addDeclaration(String version, int sourceFileId, boolean declaredInWorkspace) {
+        if (sourceFileId < 0) {
+            Integer count = unattributedCounts.get(version);
+            unattributedCounts.put(version, count == null ? 1 : count + 1);
+        } else {
+            Set<Integer> files = declaringFiles.get(version);
+            if (files == null) {
+                files = new HashSet<>();
+                declaringFiles.put(version, files);
+            }
+            files.add(sourceFileId);
+        }
+        if (declaredInWorkspace) {
+            workspaceVersions.add(version);
+        }
+    }
+
+    /**
+     * @return the number of input files that declare the version
+     */
+    public int getDeclarerCount(String version) {
+        Set<Integer> files = declaringFiles.get(version);
+        Integer unattributedCount = unattributedCounts.get(version);
+        return (files == null ? 0 : files.size()) + (unattributedCount == null ? 0 : unattributedCount);
+    }
+
+    /**
+     * @return true if the version is declared in the existing workspace
+     */
+    public boolean isWorkspaceVersion(String version) {
+        return workspaceVersions.contains(version);
+    }
+
+    /**
+     * @return the versions that were declared, sorted
+     */
+    public Set<String> getVersions() {
+        Set<String> versions = new TreeSet<>(declaringFiles.keySet());
+        versions.addAll(unattributedCounts.keySet());
+        return versions;
+    }
+
+    /**
+     * @return the ids of the input files that declare the version
+     */
+    public Set<Integer> getDeclaringFileIds(String version) {
+        Set<Integer> files = declaringFiles.get(version);
+        return files == null ? Collections.<Integer>emptySet() : files;
+    }
+
+    /**
+     * @return the number of declarations of the version that have no input file
+     */
+    public int getUnattributedCount(String version) {
+        Integer count = unattributedCounts.get(version);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Adds the declarations of another histogram, e.g. one from an earlier run. A file that declares the version in
+     * both still counts once.
+     */
+    public void addAll(VersionHistogram other) {
+        for (String version : other.getVersions()) {
+            for (Integer fileId : other.getDeclaringFileIds(version)) {
+                addDeclaration(version, fileId, other.isWorkspaceVersion(version));
+            }
+            for (int i = 0; i < other.getUnattributedCount(version); i++) {
+                addDeclaration(version, -1, other.isWorkspaceVersion(version));
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+/**
+ * Chooses between two versions of the same logical artifact when no arbiter rule has an opinion, see 
+ * {@link MavenDependencyArbiter#choosePreferredVersionOfDependency(MavenDependency, MavenDependency)}.
+ * <p>
+ * Because versions are compared pairwise as the candidates are processed, a strategy must be a consistent ordering,
+ * so that the result does not depend on the order of the inputs.
+ */
+public interface VersionSelectionStrategy {
+    
+    /**
+     * @param dep1 a version of the artifact
+     * @param dep2 another version of the same artifact
+     * @param histogram the versions of the artifact seen during the analysis
+     * @return a positive number if dep1 is preferred, a negative number if dep2 is preferred, 0 if they are the same
+     */
+    int compare(MavenDependency dep1, MavenDependency dep2, VersionHistogram histogram);
+
+    /**
+     * Creates a strategy by name: newest, majority or minchange
+     */
+    static VersionSelectionStrategy forName(String name) {
+        switch (name) {
+        case "newest":
+            return new NewestVersionStrategy();
+        case "majority":
+            return new MajorityVersionStrategy();
+        case "minchange":
+            return new MinimumChangeVersionStrategy();
+        default:
+            throw new IllegalArgumentException("Unknown version selection strategy ["+name+"], use newest, majority or minchange");
+        }
+    }
+    
+    /**
+     * The default, picks the newest version by SemVer. 
+     */
+    static class NewestVersionStrategy implements VersionSelectionStrategy {
+        @Override
+        public int compare(MavenDependency dep1, MavenDependency dep2, VersionHistogram histogram) {
+            return MavenDependencyArbiter.chooseLaterVersionOfDependencyUsingSemVer(dep1.version, dep2.version);
+        }
+        
+        @Override
+        public String toString() {
+            return "strategy newest";
+        }
+    }
+    
+    /**
+     * Picks the version that is declared by the most input files (projects), and the newest version on a tie.
+     * Only the projects that declared another version see a change.
+     */
+    static class MajorityVersionStrategy implements VersionSelectionStrategy {
+        @Override
+        public int compare(MavenDependency dep1, MavenDependency dep2, VersionHistogram histogram) {
+            int countDifference = histogram.getDeclarerCount(dep1.version.label) - histogram.getDeclarerCount(dep2.version.label);
+            if (countDifference != 0) {
+                return countDifference;
+            }
+            return MavenDependencyArbiter.chooseLaterVersionOfDependencyUsingSemVer(dep1.version, dep2.version);
+        }
+        
+        @Override
+        public String toString() {
+            return "strategy majority";
+        }
+    }
+    
+    /**
+     * Keeps the version that is in the existing workspace, unless a project needs a newer major version (which is
+     * assumed to be incompatible). A project that asks for a newer minor or patch version gets the workspace version, 
+     * so that the targets that depend on the workspace version are not invalidated. Otherwise picks the newest version.
+     * <p>
+     * A version that is not SemVer has no major version to compare, so any SemVer version is preferred over it, even
+     * one that is not in the workspace. This keeps the order transitive when such versions are mixed with SemVer ones.
+     */
+    static class MinimumChangeVersionStrategy implements VersionSelectionStrategy {
+        @Override
+        public int compare(MavenDependency dep1, MavenDependency dep2, VersionHistogram histogram) {
+            MavenDependencyVersion version1 = dep1.version;
+            MavenDependencyVersion version2 = dep2.version;
+            if (version1.isSemVer != version2.isSemVer) {
+                return version1.isSemVer ? 1 : -1;
+            }
+            if (version1.isSemVer && version1.majorVersion != version2.majorVersion) {
+                return version1.majorVersion - version2.majorVersion;
+            }
+            boolean workspace1 = histogram.isWorkspaceVersion(version1.label);
+            boolean workspace2 = histogram.isWorkspaceVersion(version2.label);
+            if (workspace1 != workspace2) {
+                return workspace1 ? 1 : -1;
+            }
+            return MavenDependencyArbiter.chooseLaterVersionOfDependencyUsingSemVer(version1, version2);
+        }
+        
+        @Override
+        public String toString() {
+            return "strategy minchange";
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.io.File;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Reads the Maven xml files of a local repository (POMs, maven-metadata files) with the JDK's DOM parser. Doctypes are
+ * rejected, so a file cannot pull in external entities.
+ */
+final class XmlDocuments {
+
+    private XmlDocuments() {
+    }
+
+    static Element parse(File xmlFile) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        Document document = builder.parse(xmlFile);
+        return document.getDocumentElement();
+    }
+
+    /**
+     * @return the first child element with the name, or null
+     */
+    static Element getChild(Element parent, String name) {
+        if (parent == null) {
+            return null;
+        }
+        NodeList children = parent.getChildNodes();
+        for (int i = 0; i < children.getLength(); i++) {
+            Node child = children.item(i);
+            if (child instanceof Element && name.equals(child.getNodeName())) {
+                return (Element) child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the trimmed text of the first child element with the name, or the default value if there is none
+     */
+    static String getChildText(Element parent, String name, String defaultValue) {
+        Element child = getChild(parent, name);
+        return child == null ? defaultValue : child.getTextContent().trim();
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import java.io.File;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The JFR event types. This class is compiled for Java 11 from its own source directory, so the rest of the tool still
+ * builds for Java 8. {@link MigrationEvents} loads it by name, and only if JFR is available.
+ */
+final class MigrationJfrEvents implements MigrationEvents.Recorder {
+    static final String CATEGORY = "Maven to Bazel";
+
+    MigrationJfrEvents() {
+    }
+
+    @Name("com.salesforce.bazel.migration.InputFileParsed")
+    @Label("Input File Parsed")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class InputFileParsedEvent extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Lines")
+        int lines;
+
+        @Label("Dependencies")
+        int dependencies;
+    }
+
+    @Name("com.salesforce.bazel.migration.Arbitration")
+    @Label("Arbitration")
+    @Description("A choice between two versions of an artifact, or a version forced by a rule")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class ArbitrationEvent extends Event {
+        @Label("Artifact")
+        String artifact;
+
+        @Label("Candidates")
+        String candidates;
+
+        @Label("Chosen Version")
+        String chosenVersion;
+
+        @Label("Decided By")
+        @Description("The rule, or the version selection strategy")
+        String decidedBy;
+    }
+
+    @Name("com.salesforce.bazel.migration.OutputFileWritten")
+    @Label("Output File Written")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class OutputFileWrittenEvent extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        @Label("Changed")
+        @Description("False if the file already had this content and was not rewritten")
+        boolean changed;
+    }
+
+    @Name("com.salesforce.bazel.migration.MigrationRun")
+    @Label("Migration Run")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    static class MigrationRunEvent extends Event {
+        @Label("Input Directory")
+        String inputDirectory;
+
+        @Label("Input Files")
+        int inputFiles;
+
+        @Label("Parsed Dependencies")
+        @Description("-1 if the outputs were restored from the result cache")
+        long parsedDependencies;
+
+        @Label("Resolved Dependencies")
+        @Description("-1 if the outputs were restored from the result cache")
+        int resolvedDependencies;
+    }
+
+    @Override
+    public Object beginInputFile() {
+        InputFileParsedEvent event = new InputFileParsedEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endInputFile(Object handle, File file, int lineCount, int dependencyCount) {
+        InputFileParsedEvent event = (InputFileParsedEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = file.getPath();
+            event.lines = lineCount;
+            event.dependencies = dependencyCount;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void arbitration(MavenDependency dep1, MavenDependency dep2, MavenDependency chosenDep, Object decidedBy) {
+        ArbitrationEvent event = new ArbitrationEvent();
+        if (event.shouldCommit()) {
+            event.artifact = chosenDep.getLogicalName();
+            event.candidates = dep1 == null ? dep2.version.label : dep1.version.label+", "+dep2.version.label;
+            event.chosenVersion = chosenDep.version.label;
+            event.decidedBy = String.valueOf(decidedBy);
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginOutputFile() {
+        OutputFileWrittenEvent event = new OutputFileWrittenEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endOutputFile(Object handle, File file, long size, boolean changed) {
+        OutputFileWrittenEvent event = (OutputFileWrittenEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = file.getPath();
+            event.size = size;
+            event.changed = changed;
+            event.commit();
+        }
+    }
+
+    @Override
+    public Object beginRun() {
+        MigrationRunEvent event = new MigrationRunEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void endRun(Object handle, File inputDirectory, int inputFileCount, long candidateCount, int resolvedCount) {
+        MigrationRunEvent event = (MigrationRunEvent) handle;
+        event.end();
+        if (event.shouldCommit()) {
+            event.inputDirectory = inputDirectory.getPath();
+            event.inputFiles = inputFileCount;
+            event.parsedDependencies = candidateCount;
+            event.resolvedDependencies = resolvedCount;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArtifactVendorTest {
+	MavenDependency guava = new MavenDependency("parsed dep line of text", "com.google.guava", "guava", "compile", "20.0");
+	MavenDependency guava_new = new MavenDependency("parsed dep line of text", "com.google.guava", "guava", "compile", "21.0");
+	MavenDependency epoll = new MavenDependency("parsed dep line of text", "io.netty", "netty-transport-native-epoll", "compile", "4.1.8.Final", "linux-x86_64");
+	MavenDependency junit = new MavenDependency("parsed dep line of text", "junit", "junit", "test", "4.12");
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testVendor() throws Exception {
+		LocalMavenRepository repository = new LocalMavenRepository(tempFolder.newFolder("repository"));
+		for (MavenDependency dep : new MavenDependency[] { guava, guava_new, epoll }) {
+			File jarFile = repository.getArtifactFile(dep);
+			jarFile.getParentFile().mkdirs();
+			Files.write(jarFile.toPath(), dep.toString().getBytes(StandardCharsets.UTF_8));
+		}
+		File vendorDirectory = new File(tempFolder.getRoot(), "outputs/third_party");
+		File notOurs = new File(vendorDirectory, "hand_written/BUILD");
+		notOurs.getParentFile().mkdirs();
+		Files.write(notOurs.toPath(), "java_library(name = \"lib\")\n".getBytes(StandardCharsets.UTF_8));
+
+		ArtifactVendor vendor = new ArtifactVendor(repository, vendorDirectory);
+		vendor.vendor(deps(guava, epoll));
+		assertEquals(2, vendor.linkedCount + vendor.copiedCount);
+		File vendoredGuava = new File(vendorDirectory, "com_google_guava_guava/guava-20.0.jar");
+		assertTrue(vendoredGuava.isFile());
+		if (vendor.linkedCount == 2) {
+			assertTrue(Files.isSameFile(repository.getArtifactFile(guava).toPath(), vendoredGuava.toPath()));
+		}
+		String buildFile = new String(Files.readAllBytes(new File(vendorDirectory, "io_netty_netty_transport_native_epoll_linux_x86_64/BUILD").toPath()), 
+				StandardCharsets.UTF_8);
+		assertEquals(ArtifactVendor.BUILD_FILE_HEADER+"io.netty:netty-transport-native-epoll:jar:linux-x86_64:4.1.8.Final\n\n"+
+				"java_import(\n"+
+				"    name = \"jar\",\n"+
+				"    jars = [\"netty-transport-native-epoll-4.1.8.Final-linux-x86_64.jar\"],\n"+
+				"    visibility = [\"//visibility:public\"],\n"+
+				")\n", buildFile);
+		assertEquals("//third_party/com_google_guava_guava:jar", BazelNamer.computeBazelLabel(guava, "third_party"));
+
+		// a new version replaces the old jar, and packages of artifacts that are gone are deleted
+		vendor = new ArtifactVendor(repository, vendorDirectory);
+		vendor.vendor(deps(guava_new));
+		assertFalse(vendoredGuava.exists());
+		assertTrue(new File(vendorDirectory, "com_google_guava_guava/guava-21.0.jar").isFile());
+		assertEquals(1, vendor.deletedPackageCount);
+		assertFalse(new File(vendorDirectory, "io_netty_netty_transport_native_epoll_linux_x86_64").exists());
+		assertTrue(notOurs.isFile());
+
+		// nothing changed
+		vendor = new ArtifactVendor(repository, vendorDirectory);
+		vendor.vendor(deps(guava_new));
+		assertEquals(1, vendor.unchangedCount);
+
+		vendor = new ArtifactVendor(repository, vendorDirectory);
+		try {
+			vendor.vendor(deps(guava_new, junit));
+			fail("junit is not in the local repository");
+		} catch (IllegalStateException expected) {
+			assertEquals(1, vendor.missingArtifacts.size());
+		}
+	}
+
+	private Map<String, MavenDependency> deps(MavenDependency... deps) {
+		Map<String, MavenDependency> depMap = new TreeMap<>();
+		for (MavenDependency dep : deps) {
+			depMap.put(dep.getLogicalName(), dep);
+		}
+		return depMap;
+	}
+}
@@ -0,0 +1,76 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BazelBuildDependenciesGeneratorTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testScopeSplit() throws Exception {
+		Map<String, MavenDependency> deps = new TreeMap<>();
+		add(deps, new MavenDependency("parsed dep line of text", "com.sample", "foo", "compile", "1.2.3"));
+		add(deps, new MavenDependency("parsed dep line of text", "javax.servlet", "servlet-api", "provided", "2.5"));
+		add(deps, new MavenDependency("parsed dep line of text", "com.sample", "bar", "runtime", "4.5.6"));
+		add(deps, new MavenDependency("parsed dep line of text", "junit", "junit", "test", "4.12"));
+		
+		File outputFile = tempFolder.newFile("BUILD.out");
+		new BazelBuildDependenciesGenerator().writeDependenciesAsBuildFile(deps, outputFile);
+		
+		String expected = 
+				"# this is a list of dependencies to copy into the attributes of your Java targets in your BUILD file\n\n" +
+				"  # deps for your java_library\n" +
+				"  deps = [\n" +
+				"    \"@com_sample_foo//jar\",\n" +
+				"    \":javax_servlet_servlet_api_neverlink\",\n" +
+				"  ],\n" +
+				"  # runtime_deps for your java_library\n" +
+				"  runtime_deps = [\n" +
+				"    \"@com_sample_bar//jar\",\n" +
+				"  ],\n" +
+				"  # deps for your java_test, in addition to the java_library\n" +
+				"  deps = [\n" +
+				"    \"@junit_junit//jar\",\n" +
+				"  ],\n" +
+				"\n" +
+				"# compile-only wrappers of the provided dependencies, copy them into the same BUILD file\n" +
+				"java_library(\n" +
+				"    name = \"javax_servlet_servlet_api_neverlink\",\n" +
+				"    exports = [\"@javax_servlet_servlet_api//jar\"],\n" +
+				"    neverlink = 1,\n" +
+				")\n";
+		assertEquals(expected, new String(Files.readAllBytes(outputFile.toPath()), StandardCharsets.UTF_8));
+		
+		// the wrappers of vendored jars export the java_import, which stays linkable for other projects
+		BazelBuildDependenciesGenerator vendoredGenerator = new BazelBuildDependenciesGenerator();
+		vendoredGenerator.vendorPackage = "third_party";
+		vendoredGenerator.writeDependenciesAsBuildFile(deps, outputFile);
+		String vendoredOutput = new String(Files.readAllBytes(outputFile.toPath()), StandardCharsets.UTF_8);
+		assertTrue(vendoredOutput.contains("    \":javax_servlet_servlet_api_neverlink\",\n"));
+		assertTrue(vendoredOutput.contains("    exports = [\"//third_party/javax_servlet_servlet_api:jar\"],\n"));
+		assertFalse(vendoredOutput.contains("\"//third_party/javax_servlet_servlet_api:jar\",\n"));
+	}
+	
+	private void add(Map<String, MavenDependency> deps, MavenDependency dep) {
+		deps.put(dep.getLogicalName(), dep);
+	}
+}
@@ -0,0 +1,113 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BazelWorkspaceGeneratorTest {
+	MavenDependency jacksonCore = new MavenDependency("parsed dep line of text", "com.fasterxml.jackson.core", "jackson-core", "compile", "2.8.9");
+	MavenDependency jacksonDatabind = new MavenDependency("parsed dep line of text", "com.fasterxml.jackson.core", "jackson-databind", "compile", "2.8.9");
+	MavenDependency junit = new MavenDependency("parsed dep line of text", "junit", "junit", "test", "4.12");
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testShardNames() {
+		assertEquals("com_fasterxml", BazelWorkspaceGenerator.computeShardName(jacksonCore, 0));
+		assertEquals("junit", BazelWorkspaceGenerator.computeShardName(junit, 0));
+		String bucket = BazelWorkspaceGenerator.computeShardName(jacksonCore, 16);
+		assertEquals(2, bucket.length());
+		assertEquals(bucket, BazelWorkspaceGenerator.computeShardName(jacksonDatabind, 16));
+	}
+
+	@Test
+	public void testShardedOutput() throws Exception {
+		File outputs = tempFolder.newFolder("outputs");
+		Map<String, MavenDependency> deps = new TreeMap<>();
+		deps.put(jacksonCore.getLogicalName(), jacksonCore);
+		deps.put(jacksonDatabind.getLogicalName(), jacksonDatabind);
+		deps.put(junit.getLogicalName(), junit);
+
+		BazelWorkspaceGenerator generator = new BazelWorkspaceGenerator();
+		generator.writeDependenciesAsShardedWorkspaceFiles(deps, outputs, 0);
+		
+		String aggregator = read(new File(outputs, "external_deps.bzl.out"));
+		assertTrue(aggregator.contains("load(\"//:external_deps_com_fasterxml.bzl\", external_maven_jars_com_fasterxml = \"external_maven_jars\")"));
+		assertTrue(aggregator.contains("  external_maven_jars_junit()"));
+		String jacksonShard = read(new File(outputs, "external_deps_com_fasterxml.bzl.out"));
+		assertTrue(jacksonShard.contains("com.fasterxml.jackson.core:jackson-databind:2.8.9"));
+		assertFalse(jacksonShard.contains("junit"));
+
+		// junit goes away, so does its shard
+		deps.remove(junit.getLogicalName());
+		generator.writeDependenciesAsShardedWorkspaceFiles(deps, outputs, 0);
+		assertFalse(new File(outputs, "external_deps_junit.bzl.out").exists());
+		assertFalse(read(new File(outputs, "external_deps.bzl.out")).contains("junit"));
+	}
+
+	@Test
+	public void testTableOutput() throws Exception {
+		File outputFile = tempFolder.newFile("external_deps.bzl.out");
+		Map<String, MavenDependency> deps = new TreeMap<>();
+		deps.put(jacksonCore.getLogicalName(), jacksonCore);
+		deps.put(junit.getLogicalName(), junit);
+
+		BazelWorkspaceGenerator generator = new BazelWorkspaceGenerator();
+		generator.tableFormat = true;
+		generator.writeDependenciesAsWorkspaceFile(deps, outputFile);
+		
+		String table = read(outputFile);
+		assertTrue(table.contains("  \"junit_junit\": (\"junit:junit:4.12\", \"\"),\n"));
+		assertFalse(table.contains("native.maven_jar(\n"));
+		
+		// the table can be read back in by the parser
+		DependenciesParser parser = new DependenciesParser(null);
+		assertEquals(2, parser.parseFile(outputFile).size());
+	}
+
+	@Test
+	public void testChecksums() throws Exception {
+		LocalMavenRepository repository = new LocalMavenRepository(tempFolder.newFolder("repository"));
+		File jarFile = repository.getArtifactFile(junit);
+		jarFile.getParentFile().mkdirs();
+		Files.write(jarFile.toPath(), "abc".getBytes(StandardCharsets.UTF_8));
+		Map<String, MavenDependency> deps = new TreeMap<>();
+		deps.put(jacksonCore.getLogicalName(), jacksonCore);
+		deps.put(junit.getLogicalName(), junit);
+		
+		ArtifactChecksummer checksummer = new ArtifactChecksummer(repository, "sha1");
+		checksummer.computeChecksums(deps);
+		assertEquals(1, checksummer.missingArtifacts.size());
+		assertEquals("a9993e364706816aba3e25717850c26c9cd0d89d", checksummer.checksums.get(junit.getLogicalName()));
+
+		BazelWorkspaceGenerator generator = new BazelWorkspaceGenerator();
+		generator.checksums = checksummer.checksums;
+		assertEquals("  native.maven_jar(\n    name = \"junit_junit\",\n    artifact = \"junit:junit:4.12\",\n" + 
+				"    sha1 = \"a9993e364706816aba3e25717850c26c9cd0d89d\",\n  )\n\n", generator.constructMavenJarEntry(junit));
+		assertEquals("  native.maven_jar(\n    name = \"com_fasterxml_jackson_core_jackson_core\",\n" + 
+				"    artifact = \"com.fasterxml.jackson.core:jackson-core:2.8.9\",\n  )\n\n", generator.constructMavenJarEntry(jacksonCore));
+		assertEquals("  \"junit_junit\": (\"junit:junit:4.12\", \"a9993e364706816aba3e25717850c26c9cd0d89d\"),\n", 
+				generator.constructMavenJarTableEntry(junit));
+	}
+
+	private String read(File file) throws Exception {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,61 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BuildozerCommandGeneratorTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testCommands() throws Exception {
+		File projectFile = tempFolder.newFile("project1.txt");
+		Files.write(projectFile.toPath(), Arrays.asList("# BAZEL_TARGET //projects/foo:lib", "# BAZEL_TEST_TARGET //projects/foo:tests", 
+				"[INFO]    com.sample:foo:jar:1.2.3:compile", "[INFO]    javax.servlet:servlet-api:jar:2.5:provided", 
+				"[INFO]    com.sample:bar:jar:4.5.6:runtime", "[INFO]    junit:junit:jar:4.12:test"));
+		File untargetedFile = tempFolder.newFile("project2.txt");
+		Files.write(untargetedFile.toPath(), Arrays.asList("[INFO]    com.sample:other:jar:1.0.0:compile"));
+		
+		DependenciesParser parser = new DependenciesParser(new MavenDependencyArbiter());
+		BuildozerCommandGenerator buildozer = new BuildozerCommandGenerator();
+		buildozer.addDeclarations(parser.parseFile(projectFile), parser.inputFiles);
+		buildozer.addDeclarations(parser.parseFile(untargetedFile), parser.inputFiles);
+		
+		File outputFile = tempFolder.newFile("buildozer_commands.out");
+		MavenDependency removedDep = new MavenDependency(null, "com.sample", "gone", "compile", "1.0.0");
+		buildozer.writeCommandFile(Collections.singletonList(removedDep), outputFile);
+
+		String expected = 
+				"new java_library javax_servlet_servlet_api_neverlink|//projects/foo:__pkg__\n" +
+				"add exports @javax_servlet_servlet_api//jar|//projects/foo:javax_servlet_servlet_api_neverlink\n" +
+				"set neverlink 1|//projects/foo:javax_servlet_servlet_api_neverlink\n" +
+				"add deps @com_sample_foo//jar :javax_servlet_servlet_api_neverlink|//projects/foo:lib\n" +
+				"remove deps @javax_servlet_servlet_api//jar|//projects/foo:lib\n" +
+				"remove runtime_deps @com_sample_foo//jar @javax_servlet_servlet_api//jar|//projects/foo:lib\n" +
+				"add runtime_deps @com_sample_bar//jar|//projects/foo:lib\n" +
+				"remove deps @com_sample_bar//jar|//projects/foo:lib\n" +
+				"add deps @junit_junit//jar|//projects/foo:tests\n" +
+				"remove runtime_deps @junit_junit//jar|//projects/foo:tests\n" +
+				"remove deps @com_sample_gone//jar|//projects/foo:lib\n" +
+				"remove runtime_deps @com_sample_gone//jar|//projects/foo:lib\n" +
+				"remove deps @com_sample_gone//jar|//projects/foo:tests\n" +
+				"remove runtime_deps @com_sample_gone//jar|//projects/foo:tests\n";
+		assertEquals(expected, new String(Files.readAllBytes(outputFile.toPath()), StandardCharsets.UTF_8));
+	}
+}
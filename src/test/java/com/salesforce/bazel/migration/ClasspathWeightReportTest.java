@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClasspathWeightReportTest {
+	MavenDependency guava = new MavenDependency("parsed dep line of text", "com.google.guava", "guava", "compile", "20.0");
+	MavenDependency jackson = new MavenDependency("parsed dep line of text", "com.fasterxml.jackson.core", "jackson-core", "compile", "2.8.9");
+	MavenDependency slf4j = new MavenDependency("parsed dep line of text", "org.slf4j", "slf4j-simple", "runtime", "1.7.25");
+	MavenDependency junit = new MavenDependency("parsed dep line of text", "junit", "junit", "test", "4.12");
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testWeights() throws Exception {
+		LocalMavenRepository repository = new LocalMavenRepository(tempFolder.newFolder("repository"));
+		writeJar(repository, guava, 3, 4000);
+		writeJar(repository, jackson, 2, 1000);
+		writeJar(repository, slf4j, 1, 100);
+
+		Map<String, MavenDependency> deps = new TreeMap<>();
+		for (MavenDependency dep : new MavenDependency[] { guava, jackson, slf4j, junit }) {
+			deps.put(dep.getLogicalName(), dep);
+		}
+		ClasspathWeightReport report = new ClasspathWeightReport(repository, 2);
+		report.measure(deps);
+		report.addBuildLists(deps);
+
+		assertEquals(1, report.missingArtifacts.size());
+		assertEquals(3, report.listWeights.size());
+		ClasspathWeightReport.ListWeight compileWeight = report.listWeights.get("BUILD.out deps");
+		assertEquals(2, compileWeight.jars);
+		assertEquals(5, compileWeight.classes);
+		assertEquals(repository.getArtifactFile(guava).length() + repository.getArtifactFile(jackson).length(), compileWeight.bytes);
+		assertEquals(guava.getLogicalName(), compileWeight.heaviestArtifacts.get(0).logicalName);
+		// junit is not in the local repository, its list is still reported
+		assertEquals(0, report.listWeights.get("BUILD.out test deps").jars);
+		assertEquals(0, report.findBudgetViolations().size());
+
+		report.setBudgets("jars=1,classes=4");
+		assertEquals(2, report.findBudgetViolations().size());
+		File reportFile = new File(tempFolder.getRoot(), "classpath_weight.out");
+		report.writeReport(reportFile);
+		String content = new String(Files.readAllBytes(reportFile.toPath()), StandardCharsets.UTF_8);
+		assertTrue(content.contains("BUILD.out deps: "));
+		assertTrue(content.contains("OVER BUDGET [BUILD.out deps] has 2 jars, the budget is 1"));
+		assertTrue(content.contains("junit:junit:4.12"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidBudget() {
+		new ClasspathWeightReport(new LocalMavenRepository()).setBudgets("gb=1");
+	}
+
+	private void writeJar(LocalMavenRepository repository, MavenDependency dep, int classCount, int classSize) throws Exception {
+		File jarFile = repository.getArtifactFile(dep);
+		jarFile.getParentFile().mkdirs();
+		try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(jarFile))) {
+			zip.setLevel(0);
+			zip.putNextEntry(new ZipEntry("META-INF/MANIFEST.MF"));
+			zip.closeEntry();
+			for (int i = 0; i < classCount; i++) {
+				zip.putNextEntry(new ZipEntry("com/sample/Class"+i+".class"));
+				zip.write(new byte[classSize]);
+				zip.closeEntry();
+			}
+		}
+	}
+}
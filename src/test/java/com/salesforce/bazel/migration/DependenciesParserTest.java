@@ -7,16 +7,26 @@
 package com.salesforce.bazel.migration;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import com.salesforce.bazel.migration.MavenDependency.Scope;
 
 public class DependenciesParserTest {
 
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
     @Test
     public void testParseMavenOutput() throws Exception {
         DependenciesParser parser = new DependenciesParser(null);
@@ -85,6 +95,138 @@ public class DependenciesParserTest {
         assertEquals(0, parser.parseErrorLineCount);
     }
     
+    @Test
+    public void testParseBazelWorkspaceTable() throws Exception {
+        DependenciesParser parser = new DependenciesParser(null);
+        
+        List<String> rawLines = new ArrayList<>();
+        rawLines.add("# name: (artifact, sha1)"); // IGNORE
+        rawLines.add("_MAVEN_JARS = {"); // IGNORE
+        rawLines.add("  \"org_aopalliance_aopalliance\": (\"org.aopalliance:aopalliance:1.0\", \"\"),"); 
+        rawLines.add("  \"io_netty_netty_transport_native_epoll_linux_x86_64\": (\"io.netty:netty-transport-native-epoll:jar:linux-x86_64:4.1.8.Final\", \"\"),");
+        rawLines.add("}"); // IGNORE
+        rawLines.add("def external_maven_jars():"); // IGNORE
+        rawLines.add("  for name, entry in _MAVEN_JARS.items():"); // IGNORE
+        rawLines.add("    native.maven_jar(name = name, artifact = entry[0], sha1 = entry[1] or None)"); // IGNORE
+
+        List<MavenDependency> deps = parser.parseFileLines(rawLines);
+        
+        assertEquals(2, deps.size());
+        assertDependency(deps.get(0), "org.aopalliance", "aopalliance", Scope.COMPILE, new MavenDependencyVersion("1.0"));
+        assertDependency(deps.get(1), "io.netty", "netty-transport-native-epoll", Scope.COMPILE, new MavenDependencyVersion("4.1.8.Final"), "linux-x86_64");
+        assertEquals(6, parser.ignoredLineCount);
+        assertEquals(0, parser.parseErrorLineCount);
+    }
+    
+    @Test
+    public void testParseStarlarkWorkspace() throws Exception {
+        DependenciesParser parser = new DependenciesParser(new MavenDependencyArbiter());
+        
+        List<String> rawLines = new ArrayList<>();
+        rawLines.add("load(\"@rules_jvm_external//:defs.bzl\", \"maven_install\")");
+        rawLines.add("load(\"@rules_jvm_external//:specs.bzl\", \"maven\")");
+        rawLines.add("# RULE groupId=com.google.guava pinnedVersion=20.0");
+        rawLines.add("maven_jar(");
+        rawLines.add("    name = \"org_aopalliance_aopalliance\",");
+        rawLines.add("    artifact =");
+        rawLines.add("        \"org.aopalliance:aopalliance:1.0\",");
+        rawLines.add(")");
+        rawLines.add("maven_install(");
+        rawLines.add("    artifacts = [\"com.google.guava:guava:20.0\", \"io.netty:netty-transport-native-epoll:jar:linux-x86_64:4.1.8.Final\",");
+        rawLines.add("        # a comment, \"not:a:dependency\"");
+        rawLines.add("        maven.artifact(");
+        rawLines.add("            group = \"junit\",");
+        rawLines.add("            artifact = \"junit\",");
+        rawLines.add("            version = \"4.12\",");
+        rawLines.add("        ),");
+        rawLines.add("    ],");
+        rawLines.add("    repositories = [\"https://repo1.maven.org/maven2\"],");
+        rawLines.add(")");
+        rawLines.add("http_jar(name = \"commons_lang\", urls = [");
+        rawLines.add("    \"https://repo1.maven.org/maven2/commons-lang/commons-lang/2.6/commons-lang-2.6.jar\",");
+        rawLines.add("    \"https://mirror.example.com/commons-lang/commons-lang/2.6/commons-lang-2.6.jar\",");
+        rawLines.add("])");
+        rawLines.add("[INFO]    org.mockito:mockito-core:jar:1.10.19:test");
+        File workspaceFile = tempFolder.newFile("WORKSPACE");
+        Files.write(workspaceFile.toPath(), rawLines, StandardCharsets.UTF_8);
+
+        List<MavenDependency> deps = parser.parseFile(workspaceFile);
+        
+        assertEquals(6, deps.size());
+        assertDependency(deps.get(0), "org.aopalliance", "aopalliance", Scope.COMPILE, new MavenDependencyVersion("1.0"));
+        assertEquals(7, deps.get(0).sourceLineNumber);
+        assertEquals(true, deps.get(0).declaredInWorkspace);
+        assertDependency(deps.get(1), "com.google.guava", "guava", Scope.COMPILE, new MavenDependencyVersion("20.0"));
+        assertDependency(deps.get(2), "io.netty", "netty-transport-native-epoll", Scope.COMPILE, new MavenDependencyVersion("4.1.8.Final"), "linux-x86_64");
+        assertDependency(deps.get(3), "junit", "junit", Scope.COMPILE, new MavenDependencyVersion("4.12"));
+        assertEquals(13, deps.get(3).sourceLineNumber);
+        assertDependency(deps.get(4), "commons-lang", "commons-lang", Scope.COMPILE, new MavenDependencyVersion("2.6"));
+        assertEquals(21, deps.get(4).sourceLineNumber);
+        assertDependency(deps.get(5), "org.mockito", "mockito-core", Scope.TEST, new MavenDependencyVersion("1.10.19"));
+        assertEquals(false, deps.get(5).declaredInWorkspace);
+        assertEquals(1, parser.arbiter.getRules().size());
+        assertEquals(0, parser.parseErrorLineCount);
+
+        // the compact table form reads the same entries
+        MavenDependencyTable table = new MavenDependencyTable();
+        assertEquals(6, new DependenciesParser(null).parseFile(workspaceFile, table));
+    }
+    
+    @Test
+    public void testParseWithFilter() throws Exception {
+        DependenciesParser parser = new DependenciesParser(null);
+        parser.filter = new DependencyFilter();
+        parser.filter.excludeScopes("test");
+        parser.filter.excludeClassifiers("sources");
+        parser.filter.addExcludes("com.acme.*,org.sample:internal-*");
+        
+        List<String> rawLines = new ArrayList<>();
+        rawLines.add("[INFO]    com.twitter:finagle-http_2.11:jar:6.43.0:compile");
+        rawLines.add("[INFO]    junit:junit:jar:4.12:test"); // FILTERED scope
+        rawLines.add("[INFO]    com.foo.bar:somelib:jar:sources:2.0.0:compile"); // FILTERED classifier
+        rawLines.add("[INFO]    com.acme.billing:client:jar:1.0:compile"); // FILTERED group
+        rawLines.add("[INFO]    org.sample:internal-api:jar:1.0:compile"); // FILTERED artifact
+        rawLines.add("[INFO]    org.sample:api:jar:1.0:runtime");
+        rawLines.add("  artifact = \"com.acme.tools:tools:1.0\","); // FILTERED group
+        
+        List<MavenDependency> deps = parser.parseFileLines(rawLines);
+        
+        assertEquals(2, deps.size());
+        assertDependency(deps.get(0), "com.twitter", "finagle-http_2.11", Scope.COMPILE, new MavenDependencyVersion("6.43.0"));
+        assertDependency(deps.get(1), "org.sample", "api", Scope.RUNTIME, new MavenDependencyVersion("1.0"));
+        assertEquals(5, parser.filter.filteredCount);
+        assertEquals(0, parser.parseErrorLineCount);
+
+        // filtered lines are not added to the table, and includes drop everything that does not match
+        parser.filter = new DependencyFilter();
+        parser.filter.addIncludes("org.sample:api,com.twitter");
+        MavenDependencyTable table = new MavenDependencyTable();
+        int count = 0;
+        for (String rawLine : rawLines) {
+            if (parser.parseDependencyLine(rawLine, table)) {
+                count++;
+            }
+        }
+        assertEquals(2, count);
+        assertEquals(2, table.size());
+        assertEquals(5, parser.filter.filteredCount);
+
+        // and Starlark entries are filtered too
+        File workspaceFile = tempFolder.newFile("WORKSPACE");
+        Files.write(workspaceFile.toPath(), Arrays.asList("maven_install(artifacts = [\"org.sample:api:1.0\", \"com.acme:tools:1.0\"])"),
+                StandardCharsets.UTF_8);
+        assertEquals(1, parser.parseFile(workspaceFile).size());
+    }
+    
+    @Test
+    public void testParseMavenUrl() throws Exception {
+        String[] tokens = StarlarkDependencyScanner.parseMavenUrl("https://repo.example.com/artifactory/maven2/io/netty/netty-transport-native-epoll/4.1.8.Final/netty-transport-native-epoll-4.1.8.Final-linux-x86_64.jar");
+        assertEquals("io.netty", tokens[0]);
+        assertEquals("netty-transport-native-epoll", tokens[1]);
+        assertEquals("4.1.8.Final", tokens[3]);
+        assertEquals("linux-x86_64", tokens[4]);
+        assertNull(StarlarkDependencyScanner.parseMavenUrl("https://example.com/downloads/tool.jar"));
+    }
     
     
     // HELPERS
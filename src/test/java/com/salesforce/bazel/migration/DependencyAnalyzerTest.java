@@ -7,13 +7,22 @@
 package com.salesforce.bazel.migration;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class DependencyAnalyzerTest {
 	MavenDependency dep1 = new MavenDependency("parsed dep line of text", "com.sample", "foo", "compile", "1.2.3");
@@ -28,6 +37,9 @@ public class DependencyAnalyzerTest {
 
 	private MavenDependencyArbiter arbiter = new MavenDependencyArbiter();
 	
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+	
 	@Test
 	public void testNoConflicts() {
 		List<MavenDependency> inputDependencies = new ArrayList<>();
@@ -150,7 +162,327 @@ public class DependencyAnalyzerTest {
 		assertVersion(processedDeps, "7.8.9-patched", greenDep);
 	}
 	
+	@Test
+	public void testRuleProfiling() {
+		List<MavenDependency> inputDependencies = new ArrayList<>();
+		inputDependencies.add(dep1);
+		inputDependencies.add(greenDep);
+		inputDependencies.add(greenDep_patched);
+		
+		DependencyAnalyzer analyzer = new DependencyAnalyzer(arbiter);
+		MavenDependencyArbiterRule greenRule = analyzer.dependencyArbiter.addArbiterRule("groupId=com.green pinnedVersion=100.50.25");
+		MavenDependencyArbiterRule shadowedRule = analyzer.dependencyArbiter.addArbiterRule("groupId=com.green artifactId=baz pinnedVersion=1.0.0");
+		MavenDependencyArbiterRule unusedRule = analyzer.dependencyArbiter.addArbiterRule("groupId=org.unused winningVersion=.*patched");
+		analyzer.processDependencies(inputDependencies, false);
+		
+		assertEquals(3, greenRule.evaluationCount);
+		assertEquals(2, greenRule.matchCount);
+		assertEquals(2, greenRule.fireCount);
+		assertEquals(1, shadowedRule.evaluationCount);
+		assertEquals(0, shadowedRule.fireCount);
+		
+		List<MavenDependencyArbiterRule> unfired = arbiter.findUnfiredRules();
+		assertEquals(2, unfired.size());
+		assertTrue(unfired.contains(shadowedRule));
+		assertTrue(unfired.contains(unusedRule));
+		
+		Map<MavenDependencyArbiterRule, MavenDependencyArbiterRule> shadowed = arbiter.findShadowedRules();
+		assertEquals(1, shadowed.size());
+		assertEquals(greenRule, shadowed.get(shadowedRule));
+	}
+	
+	@Test
+	public void testScopeWidening() {
+		List<MavenDependency> inputDependencies = new ArrayList<>();
+		inputDependencies.add(new MavenDependency("parsed dep line of text", "com.sample", "foo", "test", "1.2.3"));
+		inputDependencies.add(new MavenDependency("parsed dep line of text", "com.sample", "foo", "runtime", "1.2.5"));
+		inputDependencies.add(new MavenDependency("parsed dep line of text", "com.sample", "bar", "provided", "4.5.6"));
+		inputDependencies.add(new MavenDependency("parsed dep line of text", "com.sample", "bar", "test", "4.5.6"));
+		
+		DependencyAnalyzer analyzer = new DependencyAnalyzer(arbiter);
+		Map<String, MavenDependency> processedDeps = analyzer.processDependencies(inputDependencies, false);
+		
+		assertVersion(processedDeps, "1.2.5", dep1);
+		assertEquals(MavenDependency.Scope.RUNTIME, processedDeps.get(dep1.getLogicalName()).scope);
+		assertEquals(MavenDependency.Scope.PROVIDED, processedDeps.get(dep2.getLogicalName()).scope);
+	}
+	
+	@Test
+	public void testCompactTable() {
+		MavenDependencyTable table = new MavenDependencyTable();
+		table.add("com.sample", "foo", "compile", "1.2.3", null);
+		table.add("com.sample", "foo", "compile", "1.3.0", null);
+		table.add("com.sample", "foo", "test", "1.2.5", null);
+		table.add("com.sample", "bar", "compile", "4.5.6", null);
+		table.add("com.sample", "bar", "compile", "4.5.6", "idl");
+		table.add("com.green", "baz", "compile", "7.8.9", null);
+		table.add("com.green", "baz", "compile", "7.8.9-patched", null);
+		table.add("junit", "junit", "test", "4.12", null);
+		
+		DependencyAnalyzer analyzer = new DependencyAnalyzer(arbiter);
+		analyzer.dependencyArbiter.addArbiterRule("groupId=com.green winningVersion=.*patched");
+		Map<String, MavenDependency> processedDeps = analyzer.processDependencies(table, true);
+		
+		assertEquals(4, processedDeps.size());
+		assertVersion(processedDeps, "1.3.0", dep1);
+		assertEquals(MavenDependency.Scope.COMPILE, processedDeps.get(dep1.getLogicalName()).scope);
+		assertVersion(processedDeps, "4.5.6", dep2);
+		assertEquals("idl", processedDeps.get("com.sample:bar:idl").classifier);
+		assertVersion(processedDeps, "7.8.9-patched", greenDep);
+		// the strings are pooled, each distinct value is held once
+		assertEquals(19, table.strings.size());
+	}
+	
+	@Test
+	public void testProvenance() throws Exception {
+		File workspaceFile = tempFolder.newFile("WORKSPACE");
+		Files.write(workspaceFile.toPath(), Arrays.asList("# RULE groupId=com.green winningVersion=.*patched", 
+				"    artifact = \"com.sample:foo:1.2.3\",", "    artifact = \"com.green:baz:7.8.9-patched\","));
+		File projectFile = tempFolder.newFile("project.txt");
+		Files.write(projectFile.toPath(), Arrays.asList("[INFO]    com.sample:foo:jar:1.3.0:compile", "[INFO]    com.green:baz:jar:7.8.9:compile"));
+		
+		DependenciesParser parser = new DependenciesParser(arbiter);
+		for (boolean compact : new boolean[] { false, true }) {
+			DependencyAnalyzer analyzer = new DependencyAnalyzer(arbiter);
+			analyzer.defeatedDependencies = new HashMap<>();
+			Map<String, MavenDependency> processedDeps;
+			if (compact) {
+				MavenDependencyTable table = new MavenDependencyTable();
+				parser.parseFile(workspaceFile, table);
+				parser.parseFile(projectFile, table);
+				processedDeps = analyzer.processDependencies(table, false);
+			} else {
+				List<MavenDependency> deps = new ArrayList<>();
+				deps.addAll(parser.parseFile(workspaceFile));
+				deps.addAll(parser.parseFile(projectFile));
+				processedDeps = analyzer.processDependencies(deps, false);
+			}
+			
+			assertEquals(projectFile.getPath()+":1", parser.inputFiles.describeSource(processedDeps.get(dep1.getLogicalName())));
+			assertEquals(workspaceFile.getPath()+":2", parser.inputFiles.describeSource(analyzer.defeatedDependencies.get(dep1.getLogicalName()).get(0)));
+			assertEquals(workspaceFile.getPath()+":3", parser.inputFiles.describeSource(processedDeps.get(greenDep.getLogicalName())));
+			assertEquals("7.8.9", analyzer.defeatedDependencies.get(greenDep.getLogicalName()).get(0).version.label);
+			
+			File reportFile = new File(tempFolder.getRoot(), "provenance.out");
+			new ProvenanceReport(parser.inputFiles).write(processedDeps, analyzer.defeatedDependencies, reportFile);
+			String report = new String(Files.readAllBytes(reportFile.toPath()), "UTF-8");
+			assertTrue(report.contains("com.green:baz 7.8.9-patched  "+workspaceFile.getPath()+":3  [groupId=com.green winningVersion=.*patched]\n"+
+					"    over 7.8.9  "+projectFile.getPath()+":2\n"));
+		}
+	}
+	
+	@Test
+	public void testOutOfCore() throws Exception {
+		File workspaceFile = tempFolder.newFile("WORKSPACE");
+		Files.write(workspaceFile.toPath(), Arrays.asList("# RULE groupId=com.green winningVersion=.*patched", 
+				"maven_jar(name = \"com_sample_foo\", artifact = \"com.sample:foo:1.2.3\")", "    artifact = \"com.green:baz:7.8.9-patched\","));
+		// sorted by mvn -Dsort, one section per module
+		File sortedFile = tempFolder.newFile("sorted.txt");
+		Files.write(sortedFile.toPath(), Arrays.asList("[INFO]    com.sample:foo-api:jar:1.0.0:compile", "[INFO]    com.sample:foo:jar:1.3.0:test", 
+				"[INFO]    com.sample:zzz:jar:1.0.0:compile", "[INFO]    com.green:baz:jar:7.8.9:compile", "[INFO]    com.sample:foo:jar:1.2.5:compile"));
+		File unsortedFile = tempFolder.newFile("unsorted.txt");
+		List<String> unsortedLines = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			unsortedLines.add("[INFO]    com.sample:lib"+(i % 7)+":jar:1."+(i % 3)+".0:compile");
+			unsortedLines.add("[INFO]    com.green:baz:jar:7.8."+i+":runtime");
+		}
+		Files.write(unsortedFile.toPath(), unsortedLines);
+		List<File> inputFiles = Arrays.asList(workspaceFile, sortedFile, unsortedFile);
+		
+		List<MavenDependency> deps = new ArrayList<>();
+		DependenciesParser parser = new DependenciesParser(arbiter);
+		for (File inputFile : inputFiles) {
+			deps.addAll(parser.parseFile(inputFile));
+		}
+		Map<String, MavenDependency> expectedDeps = new DependencyAnalyzer(arbiter).processDependencies(deps, false);
+		
+		MavenDependencyArbiter outOfCoreArbiter = new MavenDependencyArbiter();
+		OutOfCoreDependencyMerger merger = new OutOfCoreDependencyMerger(new DependenciesParser(outOfCoreArbiter), 
+				new DependencyAnalyzer(outOfCoreArbiter), new File(tempFolder.getRoot(), "spill"));
+		merger.runSize = 16;
+		for (File inputFile : inputFiles) {
+			merger.addInputFile(inputFile);
+		}
+		Map<String, MavenDependency> processedDeps = merger.merge(new TreeMap<>());
+		
+		assertEquals(2, merger.sortedRunCount);
+		assertEquals(13, merger.spilledRunCount);
+		assertEquals(expectedDeps.size(), processedDeps.size());
+		for (MavenDependency expectedDep : expectedDeps.values()) {
+			MavenDependency dep = processedDeps.get(expectedDep.getLogicalName());
+			assertEquals(expectedDep.version.label, dep.version.label);
+			assertEquals(expectedDep.scope, dep.scope);
+		}
+		assertVersion(processedDeps, "7.8.9-patched", greenDep);
+		assertVersion(processedDeps, "1.3.0", dep1);
+		assertEquals(MavenDependency.Scope.COMPILE, processedDeps.get(dep1.getLogicalName()).scope);
+		assertEquals(0, new File(tempFolder.getRoot(), "spill").list().length);
+		
+		// the aliases of a relocated artifact are merged in different groups, but counted together
+		File firstProject = tempFolder.newFile("first.txt");
+		Files.write(firstProject.toPath(), Arrays.asList("# RELOCATE from=asm:asm to=org.ow2.asm:asm", "[INFO]    asm:asm:jar:3.0:compile"));
+		File secondProject = tempFolder.newFile("second.txt");
+		Files.write(secondProject.toPath(), Arrays.asList("[INFO]    asm:asm:jar:3.0:compile"));
+		File thirdProject = tempFolder.newFile("third.txt");
+		Files.write(thirdProject.toPath(), Arrays.asList("[INFO]    org.ow2.asm:asm:jar:5.0:compile"));
+		List<File> relocationFiles = Arrays.asList(firstProject, secondProject, thirdProject);
+		String[][] expectations = { { "majority", "3.0" }, { "minchange", "5.0" } };
+		for (String[] expectation : expectations) {
+			MavenDependencyArbiter inMemoryArbiter = new MavenDependencyArbiter();
+			inMemoryArbiter.selectionStrategy = VersionSelectionStrategy.forName(expectation[0]);
+			DependenciesParser inMemoryParser = new DependenciesParser(inMemoryArbiter);
+			List<MavenDependency> relocationDeps = new ArrayList<>();
+			for (File inputFile : relocationFiles) {
+				relocationDeps.addAll(inMemoryParser.parseFile(inputFile));
+			}
+			Map<String, MavenDependency> inMemoryDeps = new DependencyAnalyzer(inMemoryArbiter).processDependencies(relocationDeps, false);
+			assertEquals(expectation[1], inMemoryDeps.get("org.ow2.asm:asm").version.label);
+			
+			MavenDependencyArbiter relocatingArbiter = new MavenDependencyArbiter();
+			relocatingArbiter.selectionStrategy = VersionSelectionStrategy.forName(expectation[0]);
+			OutOfCoreDependencyMerger relocatingMerger = new OutOfCoreDependencyMerger(new DependenciesParser(relocatingArbiter), 
+					new DependencyAnalyzer(relocatingArbiter), new File(tempFolder.getRoot(), "spill"));
+			for (File inputFile : relocationFiles) {
+				relocatingMerger.addInputFile(inputFile);
+			}
+			Map<String, MavenDependency> relocatedDeps = relocatingMerger.merge(new TreeMap<>());
+			assertEquals(inMemoryDeps.keySet(), relocatedDeps.keySet());
+			assertEquals(expectation[1], relocatedDeps.get("org.ow2.asm:asm").version.label);
+			assertEquals(2, relocatingArbiter.getVersionHistogram("org.ow2.asm:asm").getDeclarerCount("3.0"));
+		}
+	}
+	
+	@Test
+	public void testRelocations() throws Exception {
+		File projectFile = tempFolder.newFile("project.txt");
+		Files.write(projectFile.toPath(), Arrays.asList("# RELOCATE from=asm:asm to=org.ow2.asm:asm", "[INFO]    asm:asm:jar:3.3.1:compile", 
+				"[INFO]    org.ow2.asm:asm:jar:5.0.3:test", "[INFO]    com.old:lib:jar:2.0:compile", "[INFO]    com.new:lib:jar:1.0:compile"));
+		// the POM of com.old:lib:2.0 relocates it to com.new:lib, keeping the version
+		LocalMavenRepository repository = new LocalMavenRepository(tempFolder.newFolder("repository"));
+		File pomFile = new File(repository.rootDirectory, "com/old/lib/2.0/lib-2.0.pom");
+		pomFile.getParentFile().mkdirs();
+		Files.write(pomFile.toPath(), Arrays.asList("<project><groupId>com.old</groupId><artifactId>lib</artifactId><version>2.0</version>",
+				"<distributionManagement><relocation><groupId>com.new</groupId></relocation></distributionManagement></project>"));
+		
+		for (int mode = 0; mode < 3; mode++) {
+			MavenDependencyArbiter relocatingArbiter = new MavenDependencyArbiter();
+			relocatingArbiter.relocations.pomRepository = repository;
+			DependenciesParser parser = new DependenciesParser(relocatingArbiter);
+			DependencyAnalyzer analyzer = new DependencyAnalyzer(relocatingArbiter);
+			Map<String, MavenDependency> processedDeps;
+			if (mode == 0) {
+				processedDeps = analyzer.processDependencies(parser.parseFile(projectFile), false);
+			} else if (mode == 1) {
+				MavenDependencyTable table = new MavenDependencyTable();
+				parser.parseFile(projectFile, table);
+				processedDeps = analyzer.processDependencies(table, false);
+			} else {
+				OutOfCoreDependencyMerger merger = new OutOfCoreDependencyMerger(parser, analyzer, new File(tempFolder.getRoot(), "spill"));
+				merger.addInputFile(projectFile);
+				processedDeps = merger.merge(new TreeMap<>());
+			}
+			
+			assertEquals(2, processedDeps.size());
+			assertEquals("5.0.3", processedDeps.get("org.ow2.asm:asm").version.label);
+			assertEquals(MavenDependency.Scope.COMPILE, processedDeps.get("org.ow2.asm:asm").scope);
+			assertEquals("2.0", processedDeps.get("com.new:lib").version.label);
+			assertEquals("org.ow2.asm:asm", relocatingArbiter.relocations.appliedRelocations.get("asm:asm"));
+		}
+	}
+	
+	@Test
+	public void testRelocationLoop() throws Exception {
+		// asm:asm is relocated by a line, and the POM of org.ow2.asm:asm:3.0 relocates it back
+		LocalMavenRepository repository = new LocalMavenRepository(tempFolder.newFolder("repository"));
+		File pomFile = new File(repository.rootDirectory, "org/ow2/asm/asm/3.0/asm-3.0.pom");
+		pomFile.getParentFile().mkdirs();
+		Files.write(pomFile.toPath(), Arrays.asList("<project><groupId>org.ow2.asm</groupId><artifactId>asm</artifactId><version>3.0</version>",
+				"<distributionManagement><relocation><groupId>asm</groupId></relocation></distributionManagement></project>"));
+		ArtifactRelocations relocations = new ArtifactRelocations();
+		relocations.addRelocation("from=asm:asm to=org.ow2.asm:asm");
+		relocations.pomRepository = repository;
+		
+		assertEquals("org.ow2.asm:asm", relocations.relocate(new MavenDependency(null, "asm", "asm", "compile", "3.3.1")).getLogicalName());
+		try {
+			relocations.relocate(new MavenDependency(null, "asm", "asm", "compile", "3.0"));
+			fail("expected the relocation loop to be rejected");
+		} catch (IllegalArgumentException expected) {
+			assertTrue(expected.getMessage().contains("asm:asm:3.0 -> org.ow2.asm:asm:3.0 -> asm:asm:3.0"));
+		}
+	}
+	
+	@Test
+	public void testCompareKeys() {
+		// the order of mvn -Dsort dependency:list
+		assertTrue(OutOfCoreDependencyMerger.compareKeys("com.sample:foo-api", "com.sample:foo") < 0);
+		assertTrue(OutOfCoreDependencyMerger.compareKeys("com.sample:foo", "com.sample:foo:tests") < 0);
+		assertTrue(OutOfCoreDependencyMerger.compareKeys("com.sample:foo:tests", "com.sample:foo-api") > 0);
+		assertEquals(0, OutOfCoreDependencyMerger.compareKeys("com.sample:foo", "com.sample:foo"));
+	}
+	
+	@Test
+	public void testSelectionStrategies() {
+		List<MavenDependency> inputDependencies = new ArrayList<>();
+		inputDependencies.add(declaration("foo", "1.2.3", 0, true));
+		inputDependencies.add(declaration("bar", "4.5.6", 0, true));
+		inputDependencies.add(declaration("foo", "1.2.5", 1, false));
+		inputDependencies.add(declaration("bar", "5.0.0", 1, false));
+		inputDependencies.add(declaration("foo", "1.2.5", 2, false));
+		inputDependencies.add(declaration("foo", "1.3.0", 3, false));
+		
+		String[][] expectations = { { "newest", "1.3.0", "5.0.0" }, { "majority", "1.2.5", "5.0.0" }, { "minchange", "1.2.3", "5.0.0" } };
+		for (String[] expectation : expectations) {
+			for (int pass = 0; pass < 2; pass++) {
+				// the result must not depend on the order of the inputs
+				List<MavenDependency> orderedDependencies = new ArrayList<>(inputDependencies);
+				if (pass == 1) {
+					Collections.reverse(orderedDependencies);
+				}
+				MavenDependencyArbiter strategyArbiter = new MavenDependencyArbiter();
+				strategyArbiter.selectionStrategy = VersionSelectionStrategy.forName(expectation[0]);
+				Map<String, MavenDependency> processedDeps = new DependencyAnalyzer(strategyArbiter).processDependencies(orderedDependencies, false);
+				assertVersion(processedDeps, expectation[1], dep1);
+				assertVersion(processedDeps, expectation[2], dep2);
+			}
+			
+			MavenDependencyTable table = new MavenDependencyTable();
+			for (MavenDependency dep : inputDependencies) {
+				table.add(dep.groupId, dep.artifactId, "compile", dep.version.label, null, dep.sourceFileId, 1, dep.declaredInWorkspace);
+			}
+			MavenDependencyArbiter strategyArbiter = new MavenDependencyArbiter();
+			strategyArbiter.selectionStrategy = VersionSelectionStrategy.forName(expectation[0]);
+			Map<String, MavenDependency> processedDeps = new DependencyAnalyzer(strategyArbiter).processDependencies(table, false);
+			assertVersion(processedDeps, expectation[1], dep1);
+			assertVersion(processedDeps, expectation[2], dep2);
+		}
+	}
+	
+	@Test
+	public void testMinimumChangeWithNonSemVer() {
+		VersionHistogram histogram = new VersionHistogram();
+		histogram.addDeclaration("1.2", 0, true);
+		histogram.addDeclaration("2.0", 1, false);
+		histogram.addDeclaration("r05", 2, false);
+		MavenDependency workspaceDep = declaration("foo", "1.2", 0, true);
+		MavenDependency majorDep = declaration("foo", "2.0", 1, false);
+		MavenDependency labelDep = declaration("foo", "r05", 2, false);
+		
+		// 2.0 > 1.2 > r05, and so 2.0 > r05 without comparing the label by SemVer
+		VersionSelectionStrategy strategy = VersionSelectionStrategy.forName("minchange");
+		assertTrue(strategy.compare(majorDep, workspaceDep, histogram) > 0);
+		assertTrue(strategy.compare(workspaceDep, labelDep, histogram) > 0);
+		assertTrue(strategy.compare(majorDep, labelDep, histogram) > 0);
+		assertTrue(strategy.compare(labelDep, majorDep, histogram) < 0);
+	}
+	
 	// INTERNAL
+	private MavenDependency declaration(String artifactId, String version, int sourceFileId, boolean declaredInWorkspace) {
+		MavenDependency dep = new MavenDependency(null, "com.sample", artifactId, "compile", version);
+		dep.sourceFileId = sourceFileId;
+		dep.declaredInWorkspace = declaredInWorkspace;
+		return dep;
+	}
+	
 	private void assertVersion(Map<String, MavenDependency> processedDeps, String version, MavenDependency dep) {
 		MavenDependency pDep = processedDeps.get(dep.getLogicalName()); 
 		assertEquals(version, pDep.version.label);
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class DependencyFilterTest {
+
+	@Test
+	public void testAccept() {
+		DependencyFilter filter = new DependencyFilter();
+		assertTrue(filter.isEmpty());
+		filter.addIncludes("com.acme.*, org.sample:api*");
+		filter.addExcludes("com.acme.legacy");
+		filter.excludeScopes("Provided");
+		filter.excludeClassifiers("sources,javadoc");
+		assertFalse(filter.isEmpty());
+
+		assertTrue(filter.accept("com.acme.billing", "client", "compile", null));
+		assertTrue(filter.accept("org.sample", "api-client", "runtime", "tests"));
+		// not included
+		assertFalse(filter.accept("org.sample", "util", "compile", null));
+		assertFalse(filter.accept("com.google.guava", "guava", "compile", null));
+		// excluded
+		assertFalse(filter.accept("com.acme.legacy", "client", "compile", null));
+		assertFalse(filter.accept("com.acme.billing", "client", "provided", null));
+		assertFalse(filter.accept("com.acme.billing", "client", "compile", "sources"));
+		assertEquals(5, filter.filteredCount);
+	}
+
+	@Test
+	public void testMatches() {
+		assertTrue(DependencyFilter.matches("*", "anything"));
+		assertTrue(DependencyFilter.matches("com.acme*", "com.acme"));
+		assertTrue(DependencyFilter.matches("com.acme.*", "com.acme.billing"));
+		assertFalse(DependencyFilter.matches("com.acme.*", "com.acme"));
+		assertFalse(DependencyFilter.matches("com.acme", "com.acme.billing"));
+	}
+
+	@Test
+	public void testInvalidPatterns() {
+		for (String pattern : new String[] { "", "com.*.acme", "a:b:c", "com.acme:" }) {
+			try {
+				new DependencyFilter().addExcludes(pattern);
+				throw new AssertionError("expected ["+pattern+"] to be rejected");
+			} catch (IllegalArgumentException expected) {
+			}
+		}
+		try {
+			new DependencyFilter().excludeScopes("tests");
+			throw new AssertionError("expected the unknown scope to be rejected");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+}
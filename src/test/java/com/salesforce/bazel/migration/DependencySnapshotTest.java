@@ -0,0 +1,153 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DependencySnapshotTest {
+	MavenDependency dep1 = new MavenDependency("parsed dep line of text", "com.sample", "foo", "compile", "1.2.3");
+	MavenDependency dep1_minor = new MavenDependency("parsed dep line of text", "com.sample", "foo", "compile", "1.3.0");
+	MavenDependency dep2 = new MavenDependency("parsed dep line of text", "com.sample", "bar", "test", "4.5.6", "idl");
+	MavenDependency greenDep = new MavenDependency("parsed dep line of text", "com.green", "baz", "compile", "7.8.9");
+	MavenDependency greenDep_patched = new MavenDependency("parsed dep line of text", "com.green", "baz", "compile", "7.8.9-patched");
+	MavenDependency blueDep = new MavenDependency("parsed dep line of text", "com.blue", "qux", "compile", "1.0.0");
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		MavenDependencyArbiter arbiter = new MavenDependencyArbiter();
+		arbiter.addArbiterRule("groupId=com.green winningVersion=.*patched");
+		arbiter.relocations.addRelocation("from=com.red:baz to=com.green:baz");
+		List<MavenDependency> inputDependencies = new ArrayList<>();
+		inputDependencies.add(dep1);
+		inputDependencies.add(dep2);
+		inputDependencies.add(greenDep);
+		inputDependencies.add(greenDep_patched);
+		Map<String, MavenDependency> resolved = new DependencyAnalyzer(arbiter).processDependencies(inputDependencies, false);
+
+		File snapshotFile = tempFolder.newFile("resolved.snapshot");
+		DependencySnapshot.write(resolved, arbiter, snapshotFile);
+		assertTrue(DependencySnapshot.isSnapshotFile(snapshotFile));
+		
+		DependencySnapshot snapshot = DependencySnapshot.read(snapshotFile);
+		assertEquals(1, snapshot.ruleLines.size());
+		assertEquals(Arrays.asList("from=com.red:baz to=com.green:baz"), snapshot.relocationLines);
+		assertEquals(3, snapshot.dependencies.size());
+		MavenDependency loadedDep2 = snapshot.dependencies.get(dep2.getLogicalName());
+		assertEquals("4.5.6", loadedDep2.version.label);
+		assertEquals("idl", loadedDep2.classifier);
+		assertEquals(MavenDependency.Scope.TEST, loadedDep2.scope);
+		assertNull(loadedDep2.decidingRule);
+		MavenDependency loadedGreen = snapshot.dependencies.get(greenDep.getLogicalName());
+		assertEquals("7.8.9-patched", loadedGreen.version.label);
+		assertEquals("groupId=com.green winningVersion=.*patched", loadedGreen.decidingRule.ruleLine);
+	}
+
+	@Test
+	public void testIncrementalMatchesFullRun() throws Exception {
+		List<MavenDependency> existingDependencies = new ArrayList<>();
+		existingDependencies.add(dep1);
+		existingDependencies.add(greenDep);
+		List<MavenDependency> newDependencies = new ArrayList<>();
+		newDependencies.add(dep1_minor);
+		newDependencies.add(greenDep_patched);
+		newDependencies.add(blueDep);
+
+		// full recompute
+		MavenDependencyArbiter fullArbiter = new MavenDependencyArbiter();
+		fullArbiter.addArbiterRule("groupId=com.green winningVersion=.*patched");
+		fullArbiter.addArbiterRule("groupId=com.blue pinnedVersion=2.0.0");
+		List<MavenDependency> allDependencies = new ArrayList<>(existingDependencies);
+		allDependencies.addAll(newDependencies);
+		TreeMap<String, MavenDependency> fullResult = new DependencyAnalyzer(fullArbiter).processDependencies(allDependencies, false);
+
+		// incremental, the blue rule is new in the second run
+		MavenDependencyArbiter firstArbiter = new MavenDependencyArbiter();
+		firstArbiter.addArbiterRule("groupId=com.green winningVersion=.*patched");
+		File snapshotFile = tempFolder.newFile("resolved.snapshot");
+		DependencySnapshot.write(new DependencyAnalyzer(firstArbiter).processDependencies(existingDependencies, false), firstArbiter, snapshotFile);
+		
+		MavenDependencyArbiter secondArbiter = new MavenDependencyArbiter();
+		DependencySnapshot snapshot = DependencySnapshot.read(snapshotFile);
+		snapshot.attachRules(secondArbiter);
+		secondArbiter.addArbiterRule("groupId=com.green winningVersion=.*patched");
+		secondArbiter.addArbiterRule("groupId=com.blue pinnedVersion=2.0.0");
+		assertEquals(2, secondArbiter.getRules().size());
+		TreeMap<String, MavenDependency> incrementalResult = new DependencyAnalyzer(secondArbiter).processDependencies(
+				snapshot.applyNewRules(secondArbiter), newDependencies, false);
+
+		assertEquals(fullResult.keySet(), incrementalResult.keySet());
+		for (String key : fullResult.keySet()) {
+			assertEquals(fullResult.get(key).version.label, incrementalResult.get(key).version.label);
+		}
+		assertEquals("2.0.0", incrementalResult.get(blueDep.getLogicalName()).version.label);
+	}
+
+	@Test
+	public void testMajorityAcrossRuns() throws Exception {
+		// a.txt and b.txt declare foo:1.0, c.txt declares foo:2.0
+		InputFileRegistry allFiles = new InputFileRegistry();
+		List<MavenDependency> allDependencies = new ArrayList<>();
+		for (String[] declaration : new String[][] { { "a.txt", "1.0" }, { "b.txt", "1.0" }, { "c.txt", "2.0" } }) {
+			MavenDependency dep = new MavenDependency("parsed dep line of text", "com.sample", "foo", "compile", declaration[1]);
+			dep.sourceFileId = allFiles.register(new File(declaration[0]));
+			allDependencies.add(dep);
+		}
+
+		// full recompute
+		MavenDependencyArbiter fullArbiter = new MavenDependencyArbiter();
+		fullArbiter.selectionStrategy = VersionSelectionStrategy.forName("majority");
+		TreeMap<String, MavenDependency> fullResult = new DependencyAnalyzer(fullArbiter).processDependencies(allDependencies, false);
+		assertEquals("1.0", fullResult.get(dep1.getLogicalName()).version.label);
+
+		// incremental, c.txt is new in the second run
+		MavenDependencyArbiter firstArbiter = new MavenDependencyArbiter();
+		firstArbiter.selectionStrategy = VersionSelectionStrategy.forName("majority");
+		File snapshotFile = tempFolder.newFile("resolved.snapshot");
+		DependencySnapshot.write(new DependencyAnalyzer(firstArbiter).processDependencies(allDependencies.subList(0, 2), false),
+				firstArbiter, allFiles, snapshotFile);
+
+		InputFileRegistry secondFiles = new InputFileRegistry();
+		MavenDependency newDep = new MavenDependency("parsed dep line of text", "com.sample", "foo", "compile", "2.0");
+		newDep.sourceFileId = secondFiles.register(new File("c.txt"));
+		MavenDependencyArbiter secondArbiter = new MavenDependencyArbiter();
+		secondArbiter.selectionStrategy = VersionSelectionStrategy.forName("majority");
+		DependencySnapshot snapshot = DependencySnapshot.read(snapshotFile);
+		snapshot.attachRules(secondArbiter);
+		assertEquals(1, snapshot.histograms.get(dep1.getLogicalName()).size());
+		assertEquals(Arrays.asList("a.txt", "b.txt"), snapshot.histograms.get(dep1.getLogicalName()).get(0).declaringPaths);
+		TreeMap<String, MavenDependency> resolved = snapshot.applyNewRules(secondArbiter);
+		snapshot.attachHistograms(secondArbiter, secondFiles);
+		TreeMap<String, MavenDependency> incrementalResult = new DependencyAnalyzer(secondArbiter).processDependencies(
+				resolved, Arrays.asList(newDep), false);
+		assertEquals("1.0", incrementalResult.get(dep1.getLogicalName()).version.label);
+		assertEquals(2, secondArbiter.getVersionHistogram(dep1.getLogicalName()).getDeclarerCount("1.0"));
+		assertEquals(1, secondArbiter.getVersionHistogram(dep1.getLogicalName()).getDeclarerCount("2.0"));
+	}
+
+	@Test
+	public void testNotASnapshot() throws Exception {
+		File textFile = tempFolder.newFile("deps.txt");
+		assertFalse(DependencySnapshot.isSnapshotFile(textFile));
+	}
+}
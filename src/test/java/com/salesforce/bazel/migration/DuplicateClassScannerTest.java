@@ -0,0 +1,68 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DuplicateClassScannerTest {
+	MavenDependency guava = new MavenDependency("parsed dep line of text", "com.google.guava", "guava", "compile", "20.0");
+	MavenDependency shadedGuava = new MavenDependency("parsed dep line of text", "com.sample", "guava-shaded", "compile", "1.0", "all");
+	MavenDependency notDownloaded = new MavenDependency("parsed dep line of text", "com.sample", "missing", "compile", "1.0");
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testScan() throws Exception {
+		LocalMavenRepository repository = new LocalMavenRepository(tempFolder.newFolder("repository"));
+		writeJar(repository, guava, "META-INF/MANIFEST.MF", "com/google/common/base/Strings.class", "com/google/common/collect/Lists.class");
+		writeJar(repository, shadedGuava, "META-INF/MANIFEST.MF", "com/google/common/base/Strings.class", "com/sample/Shaded.class",
+				"com/google/common/collect/package-info.class");
+		assertTrue(repository.getArtifactFile(shadedGuava).getPath().endsWith("guava-shaded-1.0-all.jar"));
+		assertEquals(Arrays.asList("META-INF/MANIFEST.MF", "com/google/common/base/Strings.class", "com/google/common/collect/Lists.class"), 
+				JarCentralDirectory.readEntryNames(repository.getArtifactFile(guava)));
+		
+		Map<String, MavenDependency> deps = new TreeMap<>();
+		deps.put(guava.getLogicalName(), guava);
+		deps.put(shadedGuava.getLogicalName(), shadedGuava);
+		deps.put(notDownloaded.getLogicalName(), notDownloaded);
+		DuplicateClassScanner scanner = new DuplicateClassScanner(repository, 2);
+		scanner.scan(deps);
+		
+		assertEquals(1, scanner.missingArtifacts.size());
+		assertEquals(1, scanner.duplicateClasses.size());
+		assertEquals(2, scanner.duplicateClasses.get("com.google.common.base.Strings").size());
+		assertEquals(1, scanner.splitPackages.size());
+		assertTrue(scanner.splitPackages.get("com.google.common.base").contains("com.sample:guava-shaded:all"));
+	}
+
+	private void writeJar(LocalMavenRepository repository, MavenDependency dep, String... entryNames) throws Exception {
+		File jarFile = repository.getArtifactFile(dep);
+		jarFile.getParentFile().mkdirs();
+		try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(jarFile))) {
+			zip.setComment("a comment before the end of the central directory");
+			for (String entryName : entryNames) {
+				zip.putNextEntry(new ZipEntry(entryName));
+				zip.write(new byte[] { 1, 2, 3 });
+				zip.closeEntry();
+			}
+		}
+	}
+}
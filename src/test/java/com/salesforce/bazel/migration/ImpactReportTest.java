@@ -0,0 +1,91 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImpactReportTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testImpact() throws Exception {
+		File previousFile = tempFolder.newFile("external_deps.bzl");
+		Files.write(previousFile.toPath(), Arrays.asList("    artifact = \"com.sample:foo:1.2.3\",", "    artifact = \"com.sample:bar:4.5.6\",", 
+				"    artifact = \"com.sample:gone:1.0.0\","));
+		File project1File = tempFolder.newFile("project1.txt");
+		Files.write(project1File.toPath(), Arrays.asList("[INFO]    com.sample:foo:jar:1.3.0:compile", "[INFO]    com.sample:bar:jar:4.5.6:compile"));
+		File project2File = tempFolder.newFile("project2.txt");
+		Files.write(project2File.toPath(), Arrays.asList("[INFO]    com.sample:bar:jar:4.5.6:compile", "[INFO]    com.sample:new:jar:2.0.0:test"));
+
+		DependenciesParser parser = new DependenciesParser(new MavenDependencyArbiter());
+		List<MavenDependency> deps = new ArrayList<>();
+		deps.addAll(parser.parseFile(project1File));
+		deps.addAll(parser.parseFile(project2File));
+		Map<String, MavenDependency> computedDeps = new DependencyAnalyzer(new MavenDependencyArbiter()).processDependencies(deps, false);
+		
+		ImpactReport impactReport = new ImpactReport(previousFile.getPath());
+		impactReport.addDeclarations(deps, parser.inputFiles);
+		impactReport.compare(ImpactReport.loadPreviousDependencies(previousFile), computedDeps);
+		
+		assertEquals(1, impactReport.addedDependencies.size());
+		assertTrue(impactReport.addedDependencies.containsKey("com.sample:new"));
+		assertEquals(1, impactReport.removedDependencies.size());
+		assertTrue(impactReport.removedDependencies.containsKey("com.sample:gone"));
+		assertEquals(1, impactReport.changedDependencies.size());
+		assertEquals("1.2.3", impactReport.changedDependencies.get("com.sample:foo")[0].version.label);
+		assertEquals(2, impactReport.findAffectedFiles().size());
+		
+		File reportFile = new File(tempFolder.getRoot(), "impact.out");
+		impactReport.write(reportFile);
+		String report = new String(Files.readAllBytes(reportFile.toPath()), "UTF-8");
+		assertTrue(report.contains("CHANGED com.sample:foo 1.2.3 -> 1.3.0  "+project1File.getPath()+"\n"));
+		assertTrue(report.contains("ADDED com.sample:new 2.0.0  "+project2File.getPath()+"\n"));
+		assertTrue(report.contains("REMOVED com.sample:gone 1.0.0\n"));
+	}
+
+	@Test
+	public void testShardedPreviousFile() throws Exception {
+		Map<String, MavenDependency> previousDeps = new TreeMap<>();
+		for (MavenDependency dep : new MavenDependency[] { new MavenDependency(null, "com.sample", "foo", "compile", "1.2.3"),
+				new MavenDependency(null, "org.other", "bar", "compile", "4.5.6"), new MavenDependency(null, "junit", "junit", "test", "4.12") }) {
+			previousDeps.put(dep.getLogicalName(), dep);
+		}
+		File outputs = tempFolder.newFolder("outputs");
+		new BazelWorkspaceGenerator().writeDependenciesAsShardedWorkspaceFiles(previousDeps, outputs, 0);
+
+		Map<String, MavenDependency> loadedDeps = ImpactReport.loadPreviousDependencies(new File(outputs, "external_deps.bzl.out"));
+		assertEquals(previousDeps.keySet(), loadedDeps.keySet());
+		assertEquals("4.5.6", loadedDeps.get("org.other:bar").version.label);
+
+		// without its shards the aggregator declares nothing
+		File copiedAggregator = tempFolder.newFile("external_deps.bzl");
+		Files.copy(new File(outputs, "external_deps.bzl.out").toPath(), copiedAggregator.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		try {
+			ImpactReport.loadPreviousDependencies(copiedAggregator);
+			fail("expected the empty previous file to be rejected");
+		} catch (IllegalStateException expected) {
+			assertTrue(expected.getMessage().contains("--snapshot"));
+		}
+	}
+}
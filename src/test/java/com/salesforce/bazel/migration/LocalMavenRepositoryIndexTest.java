@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalMavenRepositoryIndexTest {
+	MavenDependency guava = new MavenDependency("parsed dep line of text", "com.google.guava", "guava", "compile", "20.0");
+	MavenDependency epoll = new MavenDependency("parsed dep line of text", "io.netty", "netty-transport-native-epoll", "compile", "4.1.8.Final", "linux-x86_64");
+	MavenDependency junit = new MavenDependency("parsed dep line of text", "junit", "junit", "test", "4.12");
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testIndexAndRefresh() throws Exception {
+		LocalMavenRepository repository = new LocalMavenRepository(tempFolder.newFolder("repository"));
+		File indexFile = new File(tempFolder.getRoot(), "cache/localrepo.idx");
+		writeFile(repository.getArtifactFile(guava), 10);
+		writeFile(repository.getArtifactFile(epoll), 20);
+		writeFile(new File(repository.getVersionDirectory(guava), "guava-20.0.pom"), 5);
+		writeFile(new File(repository.rootDirectory, "com/sample/lib/1.0-SNAPSHOT/lib-1.0-20180101.120000-1.jar"), 5);
+		age(repository.rootDirectory);
+
+		LocalMavenRepositoryIndex index = new LocalMavenRepositoryIndex(repository.rootDirectory, indexFile);
+		index.loadAndRefresh();
+		assertEquals(3, index.entries.size());
+		assertEquals(10, index.lookup(guava).size);
+		// a timestamped build is indexed under its own version
+		MavenDependency lib = new MavenDependency("parsed dep line of text", "com.sample", "lib", "compile", "1.0-20180101.120000-1");
+		assertEquals("com/sample/lib/1.0-SNAPSHOT/lib-1.0-20180101.120000-1.jar", index.lookup(lib).path);
+		assertEquals(20, index.lookup(epoll).size);
+		assertEquals("io/netty/netty-transport-native-epoll/4.1.8.Final/netty-transport-native-epoll-4.1.8.Final-linux-x86_64.jar", index.lookup(epoll).path);
+		assertNull(index.lookup(junit));
+		index.putChecksum(index.lookup(guava), "sha1", "abc");
+		index.saveIfChanged();
+
+		// a new run loads the index, nothing changed so no directory is listed
+		index = new LocalMavenRepositoryIndex(repository.rootDirectory, indexFile);
+		index.load();
+		assertEquals(0, index.refresh());
+		assertEquals("abc", index.getChecksum(index.lookup(guava), "sha1"));
+		assertNull(index.getChecksum(index.lookup(guava), "sha256"));
+
+		// download another artifact, only the changed directories are listed
+		writeFile(repository.getArtifactFile(junit), 30);
+		File junitDirectory = repository.getVersionDirectory(junit);
+		assertEquals(4, index.refresh());
+		assertNotNull(index.lookup(junit));
+		assertEquals("abc", index.getChecksum(index.lookup(guava), "sha1"));
+
+		Map<String, MavenDependency> deps = new TreeMap<>();
+		deps.put(guava.getLogicalName(), guava);
+		deps.put(junit.getLogicalName(), junit);
+		assertEquals(0, index.findMissing(deps).size());
+		repository.index = index;
+		assertEquals(repository.getArtifactFile(junit), repository.findArtifact(junit));
+
+		// remove it again
+		new File(junitDirectory, "junit-4.12.jar").delete();
+		junitDirectory.delete();
+		index.refresh();
+		assertNull(index.lookup(junit));
+		assertNull(repository.findArtifact(junit));
+		assertEquals(1, index.findMissing(deps).size());
+	}
+
+	@Test
+	public void testJarOverwrittenInPlace() throws Exception {
+		LocalMavenRepository repository = new LocalMavenRepository(tempFolder.newFolder("repository"));
+		File indexFile = new File(tempFolder.getRoot(), "localrepo.idx");
+		File jarFile = repository.getArtifactFile(guava);
+		writeFile(jarFile, 10);
+		age(repository.rootDirectory);
+		repository.index = new LocalMavenRepositoryIndex(repository.rootDirectory, indexFile);
+		repository.index.loadAndRefresh();
+		Map<String, MavenDependency> deps = new TreeMap<>();
+		deps.put(guava.getLogicalName(), guava);
+		ArtifactChecksummer checksummer = new ArtifactChecksummer(repository, "sha1");
+		checksummer.computeChecksums(deps);
+		String oldChecksum = checksummer.checksums.get(guava.getLogicalName());
+		assertEquals(oldChecksum, repository.index.getChecksum(repository.index.lookup(guava), "sha1"));
+
+		// reinstalled with other content, the directory's modification time does not change
+		long directoryModified = jarFile.getParentFile().lastModified();
+		writeFile(jarFile, 20);
+		jarFile.getParentFile().setLastModified(directoryModified);
+		assertEquals(0, repository.index.refresh());
+
+		checksummer = new ArtifactChecksummer(repository, "sha1");
+		checksummer.computeChecksums(deps);
+		String newChecksum = checksummer.checksums.get(guava.getLogicalName());
+		assertEquals(ArtifactChecksummer.computeChecksum(jarFile, "SHA-1"), newChecksum);
+		assertNotEquals(oldChecksum, newChecksum);
+		assertEquals(20, repository.index.lookup(guava).size);
+		assertEquals(newChecksum, repository.index.getChecksum(repository.index.lookup(guava), "sha1"));
+	}
+
+	@Test
+	public void testIndexForAnotherRepository() throws Exception {
+		LocalMavenRepository repository = new LocalMavenRepository(tempFolder.newFolder("repository"));
+		File indexFile = new File(tempFolder.getRoot(), "localrepo.idx");
+		writeFile(repository.getArtifactFile(guava), 10);
+		LocalMavenRepositoryIndex index = new LocalMavenRepositoryIndex(repository.rootDirectory, indexFile);
+		index.loadAndRefresh();
+		index.saveIfChanged();
+
+		index = new LocalMavenRepositoryIndex(tempFolder.newFolder("otherrepository"), indexFile);
+		index.loadAndRefresh();
+		assertNull(index.lookup(guava));
+	}
+
+	// the index relists directories that were modified right before they were listed, so pretend these are old
+	private void age(File file) {
+		if (file.isDirectory()) {
+			for (File child : file.listFiles()) {
+				age(child);
+			}
+		}
+		file.setLastModified(System.currentTimeMillis() - 60000L);
+	}
+
+	private void writeFile(File file, int size) throws Exception {
+		file.getParentFile().mkdirs();
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(new byte[size]);
+		}
+	}
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LocalPomResolverTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testResolve() throws Exception {
+		LocalMavenRepository repository = new LocalMavenRepository(tempFolder.newFolder("repository"));
+		// a BOM, imported by the parent
+		writeRepositoryPom(repository, "com.sample", "bom", "1.0", "<packaging>pom</packaging>"+
+				"<dependencyManagement><dependencies>"+
+				dependency("com.sample", "util", "2.0", null)+
+				dependency("com.sample", "logging", "1.5", null)+
+				"</dependencies></dependencyManagement>");
+		writeRepositoryPom(repository, "com.sample", "parent", "1.0", "<packaging>pom</packaging>"+
+				"<properties><json.version>3.0</json.version></properties>"+
+				"<dependencyManagement><dependencies>"+
+				"<dependency><groupId>com.sample</groupId><artifactId>bom</artifactId><version>1.0</version><type>pom</type><scope>import</scope></dependency>"+
+				// overridden by the child's property
+				dependency("com.sample", "json", "${json.version}", null)+
+				"</dependencies></dependencyManagement>"+
+				"<dependencies>"+dependency("junit", "junit", "4.12", "test")+"</dependencies>");
+		// compile dependencies of the app
+		writeRepositoryPom(repository, "com.sample", "client", "1.0", "<dependencies>"+
+				dependency("com.sample", "util", "1.0", null)+
+				dependency("com.sample", "http", "1.0", "runtime")+
+				dependency("com.sample", "server", "1.0", "provided")+
+				"<dependency><groupId>com.sample</groupId><artifactId>optional</artifactId><version>1.0</version><optional>true</optional></dependency>"+
+				"<dependency><groupId>com.sample</groupId><artifactId>io</artifactId><version>1.0</version>"+
+				"<exclusions><exclusion><groupId>com.sample</groupId><artifactId>unwanted</artifactId></exclusion></exclusions></dependency>"+
+				"</dependencies>");
+		writeRepositoryPom(repository, "com.sample", "io", "1.0", "<dependencies>"+
+				dependency("com.sample", "unwanted", "1.0", null)+
+				dependency("com.sample", "logging", "1.0", null)+"</dependencies>");
+		writeRepositoryPom(repository, "com.sample", "http", "1.0", "<dependencies>"+dependency("com.sample", "codec", "[1.0,2.0)", null)+"</dependencies>");
+		writeRepositoryPom(repository, "com.sample", "util", "2.0", "");
+		writeRepositoryPom(repository, "com.sample", "json", "3.1", "");
+		writeRepositoryPom(repository, "com.sample", "logging", "1.5", "");
+		// only the version directories matter for the range
+		for (String version : new String[] { "1.0", "1.2", "1.10", "2.0" }) {
+			new File(repository.rootDirectory, "com/sample/codec/"+version).mkdirs();
+		}
+
+		File projectDirectory = tempFolder.newFolder("project");
+		File pomFile = new File(projectDirectory, "pom.xml");
+		write(pomFile, "<project><modelVersion>4.0.0</modelVersion>"+
+				"<parent><groupId>com.sample</groupId><artifactId>parent</artifactId><version>1.0</version></parent>"+
+				"<artifactId>app</artifactId>"+
+				"<properties><json.version>3.1</json.version></properties>"+
+				"<dependencies>"+
+				dependency("com.sample", "client", "1.0", null)+
+				dependency("com.sample", "json", null, null)+
+				"<dependency><groupId>com.sample</groupId><artifactId>client</artifactId><version>${project.version}</version><type>test-jar</type><scope>test</scope></dependency>"+
+				"</dependencies></project>");
+
+		LocalPomResolver resolver = new LocalPomResolver(repository);
+		Map<String, String[]> dependencies = toMap(resolver.resolve(pomFile));
+
+		assertEquals(9, dependencies.size());
+		assertDependency(dependencies, "com.sample:client", "compile", "1.0", null);
+		// the version of the project's parent, and the classifier of a test-jar
+		assertDependency(dependencies, "com.sample:client:tests", "test", "1.0", "tests");
+		// the child's property is used in the parent's dependencyManagement
+		assertDependency(dependencies, "com.sample:json", "compile", "3.1", null);
+		// inherited from the parent
+		assertDependency(dependencies, "junit:junit", "test", "4.12", null);
+		// the BOM overrides the transitive version
+		assertDependency(dependencies, "com.sample:util", "compile", "2.0", null);
+		assertDependency(dependencies, "com.sample:http", "runtime", "1.0", null);
+		// a runtime dependency of a runtime dependency, the newest version in the range
+		assertDependency(dependencies, "com.sample:codec", "runtime", "1.10", null);
+		assertDependency(dependencies, "com.sample:io", "compile", "1.0", null);
+		assertDependency(dependencies, "com.sample:logging", "compile", "1.5", null);
+		// provided, optional and excluded dependencies are not transitive
+		assertFalse(dependencies.containsKey("com.sample:server"));
+		assertFalse(dependencies.containsKey("com.sample:optional"));
+		assertFalse(dependencies.containsKey("com.sample:unwanted"));
+
+		// the POMs of the dependencies without a POM are reported
+		assertTrue(resolver.missingPoms.contains("com.sample:codec:1.10"));
+		assertTrue(resolver.missingPoms.contains("junit:junit:4.12"));
+		assertTrue(resolver.unresolvedDependencies.isEmpty());
+	}
+
+	@Test
+	public void testMediation() throws Exception {
+		LocalMavenRepository repository = new LocalMavenRepository(tempFolder.newFolder("repository"));
+		writeRepositoryPom(repository, "com.sample", "a", "1.0", "<dependencies>"+dependency("com.sample", "shared", "1.0", null)+"</dependencies>");
+		writeRepositoryPom(repository, "com.sample", "b", "1.0", "<dependencies>"+dependency("com.sample", "c", "1.0", null)+
+				dependency("com.sample", "shared", "2.0", null)+"</dependencies>");
+		writeRepositoryPom(repository, "com.sample", "c", "1.0", "<dependencies>"+dependency("com.sample", "deep", "1.0", null)+"</dependencies>");
+		writeRepositoryPom(repository, "com.sample", "deep", "1.0", "");
+		writeRepositoryPom(repository, "com.sample", "shared", "1.0", "");
+
+		// a reactor module, its parent is next to it and not in the repository
+		File reactorDirectory = tempFolder.newFolder("reactor");
+		write(new File(reactorDirectory, "pom.xml"), "<project><groupId>com.sample</groupId><artifactId>reactor</artifactId><version>5.0</version>"+
+				"<dependencyManagement><dependencies>"+dependency("com.sample", "deep", "9.0", null)+"</dependencies></dependencyManagement></project>");
+		File moduleDirectory = new File(reactorDirectory, "module");
+		moduleDirectory.mkdirs();
+		File pomFile = new File(moduleDirectory, "pom.xml");
+		write(pomFile, "<project><parent><groupId>com.sample</groupId><artifactId>reactor</artifactId><version>5.0</version></parent>"+
+				"<artifactId>module</artifactId><dependencies>"+
+				dependency("com.sample", "a", "1.0", null)+
+				dependency("com.sample", "b", "1.0", "test")+
+				dependency("com.sample", "missing", null, null)+
+				"</dependencies></project>");
+
+		LocalPomResolver resolver = new LocalPomResolver(repository);
+		Map<String, String[]> dependencies = toMap(resolver.resolve(pomFile));
+
+		assertEquals(5, dependencies.size());
+		// at the same depth, the first declaration wins
+		assertDependency(dependencies, "com.sample:shared", "compile", "1.0", null);
+		assertDependency(dependencies, "com.sample:b", "test", "1.0", null);
+		assertDependency(dependencies, "com.sample:c", "test", "1.0", null);
+		// the project's dependencyManagement applies to transitive dependencies
+		assertDependency(dependencies, "com.sample:deep", "test", "9.0", null);
+		assertEquals("no version, and none in the dependencyManagement", resolver.unresolvedDependencies.get("com.sample:missing"));
+	}
+
+	@Test
+	public void testWidenedScopes() throws Exception {
+		LocalMavenRepository repository = new LocalMavenRepository(tempFolder.newFolder("repository"));
+		writeRepositoryPom(repository, "com.sample", "testlib", "1.0", "<dependencies>"+dependency("com.sample", "x", "1.0", null)+"</dependencies>");
+		writeRepositoryPom(repository, "com.sample", "complib", "1.0", "<dependencies>"+dependency("com.sample", "x", "1.0", null)+"</dependencies>");
+		writeRepositoryPom(repository, "com.sample", "x", "1.0", "<dependencies>"+dependency("com.sample", "y", "1.0", null)+
+				dependency("com.sample", "z", "1.0", "runtime")+"</dependencies>");
+		writeRepositoryPom(repository, "com.sample", "y", "1.0", "");
+		writeRepositoryPom(repository, "com.sample", "z", "1.0", "");
+		File pomFile = tempFolder.newFile("pom.xml");
+		write(pomFile, "<project><groupId>com.sample</groupId><artifactId>app</artifactId><version>1.0</version><dependencies>"+
+				dependency("com.sample", "testlib", "1.0", "test")+
+				dependency("com.sample", "complib", "1.0", null)+
+				"</dependencies></project>");
+
+		Map<String, String[]> dependencies = toMap(new LocalPomResolver(repository).resolve(pomFile));
+
+		assertEquals(5, dependencies.size());
+		assertDependency(dependencies, "com.sample:testlib", "test", "1.0", null);
+		// x is first reached through the test dependency, but complib needs it at compile time
+		assertDependency(dependencies, "com.sample:x", "compile", "1.0", null);
+		// so the dependencies of x follow its widened scope
+		assertDependency(dependencies, "com.sample:y", "compile", "1.0", null);
+		assertDependency(dependencies, "com.sample:z", "runtime", "1.0", null);
+	}
+
+	@Test
+	public void testDirectExclusions() throws Exception {
+		LocalMavenRepository repository = new LocalMavenRepository(tempFolder.newFolder("repository"));
+		writeRepositoryPom(repository, "com.sample", "lib", "1.0", "<dependencies>"+dependency("com.sample", "unwanted", "1.0", null)+
+				dependency("com.sample", "wanted", "1.0", null)+"</dependencies>");
+		writeRepositoryPom(repository, "com.sample", "other", "1.0", "<dependencies>"+dependency("org.logging", "api", "1.0", null)+"</dependencies>");
+		File pomFile = tempFolder.newFile("pom.xml");
+		write(pomFile, "<project><groupId>com.sample</groupId><artifactId>app</artifactId><version>1.0</version>"+
+				"<dependencyManagement><dependencies>"+
+				"<dependency><groupId>com.sample</groupId><artifactId>other</artifactId><version>1.0</version>"+
+				"<exclusions><exclusion><groupId>org.logging</groupId><artifactId>*</artifactId></exclusion></exclusions></dependency>"+
+				"</dependencies></dependencyManagement>"+
+				"<dependencies>"+
+				"<dependency><groupId>com.sample</groupId><artifactId>lib</artifactId><version>1.0</version>"+
+				"<exclusions><exclusion><groupId>com.sample</groupId><artifactId>unwanted</artifactId></exclusion></exclusions></dependency>"+
+				dependency("com.sample", "other", null, null)+
+				"</dependencies></project>");
+
+		Map<String, String[]> dependencies = toMap(new LocalPomResolver(repository).resolve(pomFile));
+
+		// excluded where the project declares the dependency
+		assertFalse(dependencies.containsKey("com.sample:unwanted"));
+		assertDependency(dependencies, "com.sample:wanted", "compile", "1.0", null);
+		// and with a wildcard in the dependencyManagement
+		assertFalse(dependencies.containsKey("org.logging:api"));
+		assertEquals(3, dependencies.size());
+	}
+
+	@Test
+	public void testMissingParent() throws Exception {
+		LocalMavenRepository repository = new LocalMavenRepository(tempFolder.newFolder("repository"));
+		File pomFile = tempFolder.newFile("pom.xml");
+		write(pomFile, "<project><parent><groupId>com.sample</groupId><artifactId>parent</artifactId><version>1.0</version>"+
+				"<relativePath/></parent><artifactId>app</artifactId></project>");
+		try {
+			new LocalPomResolver(repository).resolve(pomFile);
+			throw new AssertionError("expected the missing parent to fail the resolution");
+		} catch (IllegalStateException expected) {
+			assertTrue(expected.getMessage().contains("com.sample:parent:1.0"));
+		}
+	}
+
+	@Test
+	public void testParseFile() throws Exception {
+		LocalMavenRepository repository = new LocalMavenRepository(tempFolder.newFolder("repository"));
+		writeRepositoryPom(repository, "com.sample", "lib", "1.0", "<dependencies>"+dependency("com.sample", "transitive", "1.0", "runtime")+"</dependencies>");
+		File pomFile = tempFolder.newFile("app-pom.xml");
+		write(pomFile, "<project><groupId>com.sample</groupId><artifactId>app</artifactId><version>1.0</version>"+
+				"<dependencies>"+dependency("com.sample", "lib", "1.0", null)+"</dependencies></project>");
+
+		DependenciesParser parser = new DependenciesParser(new MavenDependencyArbiter());
+		parser.pomResolver = new LocalPomResolver(repository);
+		List<MavenDependency> dependencies = parser.parseFile(pomFile);
+		assertEquals(2, dependencies.size());
+		assertEquals("com.sample:lib", dependencies.get(0).getLogicalName());
+		assertEquals(MavenDependency.Scope.RUNTIME, dependencies.get(1).scope);
+		assertFalse(dependencies.get(1).declaredInWorkspace);
+		assertEquals(pomFile.getPath(), parser.inputFiles.getPath(dependencies.get(1).sourceFileId));
+
+		MavenDependencyTable table = new MavenDependencyTable();
+		assertEquals(2, parser.parseFile(pomFile, table));
+	}
+
+	@Test
+	public void testCompareVersions() {
+		assertTrue(LocalPomResolver.compareVersions("1.10", "1.9") > 0);
+		assertTrue(LocalPomResolver.compareVersions("1.0", "1.0-rc1") > 0);
+		assertTrue(LocalPomResolver.compareVersions("1.0-beta", "1.0-alpha") > 0);
+		assertTrue(LocalPomResolver.compareVersions("1.0-SNAPSHOT", "1.0-rc2") > 0);
+		assertTrue(LocalPomResolver.compareVersions("1.0-sp1", "1.0") > 0);
+		assertTrue(LocalPomResolver.compareVersions("1.0.1", "1.0-sp1") > 0);
+		assertEquals(0, LocalPomResolver.compareVersions("1.0", "1"));
+		assertEquals(0, LocalPomResolver.compareVersions("1.0.0.Final", "1"));
+
+		assertTrue(LocalPomResolver.isInRange("1.5", "[1.0,2.0)"));
+		assertFalse(LocalPomResolver.isInRange("2.0", "[1.0,2.0)"));
+		assertTrue(LocalPomResolver.isInRange("1.0", "[1.0]"));
+		assertFalse(LocalPomResolver.isInRange("1.1", "[1.0]"));
+		assertTrue(LocalPomResolver.isInRange("0.1", "(,1.0]"));
+		assertTrue(LocalPomResolver.isInRange("3.0", "[1.0,1.2),[1.5,)"));
+		assertFalse(LocalPomResolver.isInRange("1.3", "[1.0,1.2),[1.5,)"));
+	}
+
+	@Test
+	public void testComputeTransitiveScope() {
+		assertEquals("runtime", LocalPomResolver.computeTransitiveScope("compile", "runtime"));
+		assertEquals("runtime", LocalPomResolver.computeTransitiveScope("runtime", "compile"));
+		assertEquals("test", LocalPomResolver.computeTransitiveScope("test", "compile"));
+		assertEquals("provided", LocalPomResolver.computeTransitiveScope("provided", "runtime"));
+		assertNull(LocalPomResolver.computeTransitiveScope("compile", "test"));
+		assertNull(LocalPomResolver.computeTransitiveScope("compile", "provided"));
+	}
+
+	private static Map<String, String[]> toMap(List<String[]> dependencies) {
+		Map<String, String[]> map = new LinkedHashMap<>();
+		for (String[] tokens : dependencies) {
+			map.put(tokens[0]+":"+tokens[1]+(tokens[4] == null ? "" : ":"+tokens[4]), tokens);
+		}
+		return map;
+	}
+
+	private static void assertDependency(Map<String, String[]> dependencies, String logicalName, String scope, String version, String classifier) {
+		String[] tokens = dependencies.get(logicalName);
+		assertTrue(logicalName+" was not resolved", tokens != null);
+		assertEquals(logicalName, scope, tokens[2]);
+		assertEquals(logicalName, version, tokens[3]);
+		assertEquals(logicalName, classifier, tokens[4]);
+		assertNull(tokens[5]);
+	}
+
+	private static String dependency(String groupId, String artifactId, String version, String scope) {
+		return "<dependency><groupId>"+groupId+"</groupId><artifactId>"+artifactId+"</artifactId>"+
+				(version == null ? "" : "<version>"+version+"</version>")+
+				(scope == null ? "" : "<scope>"+scope+"</scope>")+"</dependency>";
+	}
+
+	private static void writeRepositoryPom(LocalMavenRepository repository, String groupId, String artifactId, String version, String content) throws Exception {
+		MavenDependency pomDep = new MavenDependency(null, groupId, artifactId, "compile", version);
+		File versionDirectory = repository.getVersionDirectory(pomDep);
+		versionDirectory.mkdirs();
+		write(new File(versionDirectory, LocalMavenRepository.computeArtifactFileName(pomDep, "pom")),
+				"<project><groupId>"+groupId+"</groupId><artifactId>"+artifactId+"</artifactId><version>"+version+"</version>"+content+"</project>");
+	}
+
+	private static void write(File file, String content) throws Exception {
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+}
@@ -57,4 +57,13 @@ public class MavenDependencyTest {
 		assertEquals(4, dep.version.hotfixVersion);
 		assertEquals("test-jar", dep.classifier);
 	}
+
+	@Test
+	public void testScopeWidening() {
+		assertEquals(MavenDependency.Scope.COMPILE, MavenDependency.Scope.TEST.widen(MavenDependency.Scope.COMPILE));
+		assertEquals(MavenDependency.Scope.RUNTIME, MavenDependency.Scope.RUNTIME.widen(MavenDependency.Scope.TEST));
+		assertEquals(MavenDependency.Scope.PROVIDED, MavenDependency.Scope.PROVIDED.widen(MavenDependency.Scope.PROVIDED));
+		assertEquals(MavenDependency.Scope.COMPILE, MavenDependency.Scope.PROVIDED.widen(MavenDependency.Scope.RUNTIME));
+		assertEquals(MavenDependency.Scope.COMPILE, MavenDependency.Scope.COMPILE.widen(MavenDependency.Scope.PROVIDED));
+	}
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class MigrationEventsTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testEvents() throws Exception {
+		assumeTrue(MigrationEvents.AVAILABLE);
+		File inputFile = tempFolder.newFile("project.txt");
+		Files.write(inputFile.toPath(), Arrays.asList("# RULE groupId=com.green pinnedVersion=7.8.9", "[INFO]    com.sample:foo:jar:1.2.3:compile",
+				"[INFO]    com.sample:foo:jar:1.3.0:compile", "[INFO]    com.green:baz:jar:7.8.10:compile"));
+		File recordingFile = new File(tempFolder.getRoot(), "recording.jfr");
+
+		try (Recording recording = new Recording()) {
+			recording.enable("com.salesforce.bazel.migration.InputFileParsed");
+			recording.enable("com.salesforce.bazel.migration.Arbitration");
+			recording.enable("com.salesforce.bazel.migration.OutputFileWritten");
+			recording.start();
+			MavenDependencyArbiter arbiter = new MavenDependencyArbiter();
+			DependenciesParser parser = new DependenciesParser(arbiter);
+			List<MavenDependency> deps = parser.parseFile(inputFile);
+			new DependencyAnalyzer(arbiter).processDependencies(deps, false);
+			GeneratedFileWriter.writeIfChanged(new File(tempFolder.getRoot(), "BUILD.out"), "content");
+			recording.stop();
+			recording.dump(recordingFile.toPath());
+		}
+
+		List<RecordedEvent> events = new ArrayList<>();
+		for (RecordedEvent event : RecordingFile.readAllEvents(recordingFile.toPath())) {
+			if (event.getEventType().getName().startsWith("com.salesforce.bazel.migration.")) {
+				events.add(event);
+			}
+		}
+		assertEquals(4, events.size());
+		RecordedEvent parsed = findEvent(events, "InputFileParsed", 0);
+		assertEquals(4, parsed.getInt("lines"));
+		assertEquals(3, parsed.getInt("dependencies"));
+		RecordedEvent pinned = findEvent(events, "Arbitration", 1);
+		assertEquals("com.green:baz", pinned.getString("artifact"));
+		assertEquals("7.8.9", pinned.getString("chosenVersion"));
+		RecordedEvent newest = findEvent(events, "Arbitration", 0);
+		assertEquals("1.2.3, 1.3.0", newest.getString("candidates"));
+		assertEquals("strategy newest", newest.getString("decidedBy"));
+		assertEquals(7, findEvent(events, "OutputFileWritten", 0).getLong("size"));
+	}
+
+	private RecordedEvent findEvent(List<RecordedEvent> events, String name, int index) {
+		for (RecordedEvent event : events) {
+			if (event.getEventType().getName().endsWith("."+name) && index-- == 0) {
+				return event;
+			}
+		}
+		throw new AssertionError("no "+name+" event");
+	}
+}
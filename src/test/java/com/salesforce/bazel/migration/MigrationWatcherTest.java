@@ -0,0 +1,79 @@
+/* 
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license. 
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.salesforce.bazel.migration.MavenToBazelGenerator.MigrationOptions;
+
+public class MigrationWatcherTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testIncrementalUpdates() throws Exception {
+		File inputs = tempFolder.newFolder("inputs");
+		File outputs = tempFolder.newFolder("outputs");
+		File workspace = write(inputs, "external_deps.bzl", "  artifact = \"com.sample:foo:1.2.3\",", "  artifact = \"com.sample:bar:4.5.6\",");
+		File project = write(inputs, "project-deps.txt", "[INFO]    com.sample:foo:jar:1.3.0:compile");
+		
+		MigrationWatcher watcher = new MigrationWatcher(inputs, outputs, new HashSet<>(Arrays.asList(MigrationOptions.GENERATE_WORKSPACE)), 
+				new HashMap<>());
+		assertTrue(watcher.update(Arrays.asList(workspace, project)));
+		assertEquals(2, watcher.getComputedDependencies().size());
+		assertEquals("1.3.0", watcher.getComputedDependencies().get("com.sample:foo").version.label);
+
+		// a change that doesn't affect the outcome
+		write(inputs, "project-deps.txt", "# a comment", "[INFO]    com.sample:foo:jar:1.3.0:compile");
+		assertFalse(watcher.update(Collections.singletonList(project)));
+
+		// a new rule in the changed file forces a recompute of everything
+		write(inputs, "project-deps.txt", "# RULE groupId=com.sample artifactId=bar pinnedVersion=5.0.0", "[INFO]    com.sample:baz:jar:1.0:compile");
+		assertTrue(watcher.update(Collections.singletonList(project)));
+		assertEquals(3, watcher.getComputedDependencies().size());
+		assertEquals("1.2.3", watcher.getComputedDependencies().get("com.sample:foo").version.label);
+		assertEquals("5.0.0", watcher.getComputedDependencies().get("com.sample:bar").version.label);
+
+		// deleting the project file drops its artifacts
+		project.delete();
+		assertTrue(watcher.update(Collections.singletonList(project)));
+		assertEquals(2, watcher.getComputedDependencies().size());
+		assertNull(watcher.getComputedDependencies().get("com.sample:baz"));
+		assertEquals("4.5.6", watcher.getComputedDependencies().get("com.sample:bar").version.label);
+	}
+
+	@Test
+	public void testUnsupportedOptions() {
+		Set<MigrationOptions> options = new HashSet<>(Arrays.asList(MigrationOptions.GENERATE_WORKSPACE, MigrationOptions.GENERATE_BUILD));
+		assertNull(MigrationWatcher.findUnsupportedOption(options));
+		options.add(MigrationOptions.SNAPSHOT);
+		assertEquals(MigrationOptions.SNAPSHOT, MigrationWatcher.findUnsupportedOption(options));
+	}
+
+	private File write(File dir, String name, String... lines) throws Exception {
+		File file = new File(dir, name);
+		Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+		return file;
+	}
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.salesforce.bazel.migration.MavenToBazelGenerator.MigrationOptions;
+
+public class ResultCacheTest {
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testKey() throws Exception {
+		File inputFile = write(tempFolder.newFolder("inputs"), "project.txt", "[INFO]    com.sample:foo:jar:1.3.0:compile");
+		List<File> inputFiles = Arrays.asList(inputFile);
+		Set<MigrationOptions> options = new HashSet<>(Arrays.asList(MigrationOptions.GENERATE_WORKSPACE, MigrationOptions.RESULT_CACHE));
+		Map<MigrationOptions, String> optionValues = new HashMap<>();
+		String key = ResultCache.computeKey(inputFiles, options, optionValues);
+		assertEquals(64, key.length());
+
+		// the size of the cache is not part of the key
+		optionValues.put(MigrationOptions.RESULT_CACHE, "10");
+		assertEquals(key, ResultCache.computeKey(inputFiles, options, optionValues));
+
+		options.add(MigrationOptions.STRATEGY);
+		optionValues.put(MigrationOptions.STRATEGY, "majority");
+		String strategyKey = ResultCache.computeKey(inputFiles, options, optionValues);
+		assertNotEquals(key, strategyKey);
+		optionValues.put(MigrationOptions.STRATEGY, "minchange");
+		assertNotEquals(strategyKey, ResultCache.computeKey(inputFiles, options, optionValues));
+
+		options.remove(MigrationOptions.STRATEGY);
+		write(inputFile.getParentFile(), "project.txt", "[INFO]    com.sample:foo:jar:1.4.0:compile");
+		assertNotEquals(key, ResultCache.computeKey(inputFiles, options, optionValues));
+
+		assertEquals(null, ResultCache.findUncacheableOption(options));
+		options.add(MigrationOptions.CHECKSUMS);
+		assertEquals(MigrationOptions.CHECKSUMS, ResultCache.findUncacheableOption(options));
+	}
+
+	@Test
+	public void testStoreRestoreAndEvict() throws Exception {
+		File outputs = tempFolder.newFolder("outputs");
+		File cacheDirectory = new File(tempFolder.getRoot(), "cache");
+		Set<MigrationOptions> options = new HashSet<>(Arrays.asList(MigrationOptions.GENERATE_WORKSPACE, MigrationOptions.GENERATE_BUILD));
+		ResultCache cache = new ResultCache(cacheDirectory, 100);
+
+		write(outputs, "external_deps.bzl.out", "workspace 1");
+		write(outputs, "BUILD.out", "build 1");
+		assertEquals(2, ResultCache.listOutputFiles(outputs, options).size());
+		assertFalse(cache.restore("key1", outputs));
+		cache.store("key1", ResultCache.listOutputFiles(outputs, options));
+
+		File otherOutputs = tempFolder.newFolder("otheroutputs");
+		assertTrue(cache.restore("key1", otherOutputs));
+		assertEquals("workspace 1", read(new File(otherOutputs, "external_deps.bzl.out")));
+		assertEquals("build 1", read(new File(otherOutputs, "BUILD.out")));
+		new File(cacheDirectory, "key1").setLastModified(System.currentTimeMillis() - 60000L);
+
+		// the cache holds 100 bytes, so storing a bigger entry evicts the least recently used one
+		write(outputs, "external_deps.bzl.out", "workspace 2 with a long list of dependencies, enough to go over the size of the cache");
+		cache.store("key2", ResultCache.listOutputFiles(outputs, options));
+		assertFalse(new File(cacheDirectory, "key1").exists());
+		assertTrue(cache.restore("key2", otherOutputs));
+		assertTrue(read(new File(otherOutputs, "external_deps.bzl.out")).startsWith("workspace 2"));
+	}
+
+	private File write(File directory, String name, String content) throws Exception {
+		File file = new File(directory, name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private String read(File file) throws Exception {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2018, salesforce.com, inc.
+ * All rights reserved.
+ * Licensed under the BSD 3-Clause license.
+ * For full license text, see LICENSE.txt file in the repo root  or https://opensource.org/licenses/BSD-3-Clause
+ */
+package com.salesforce.bazel.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SnapshotVersionResolverTest {
+	MavenDependency lib = new MavenDependency("parsed dep line of text", "com.sample", "lib", "compile", "1.0-SNAPSHOT");
+	MavenDependency native_ = new MavenDependency("parsed dep line of text", "com.sample", "native", "compile", "2.1-SNAPSHOT", "linux-x86_64");
+	MavenDependency old = new MavenDependency("parsed dep line of text", "com.sample", "old", "compile", "0.9-SNAPSHOT");
+	MavenDependency local = new MavenDependency("parsed dep line of text", "com.sample", "local", "compile", "3.0-SNAPSHOT");
+	MavenDependency missing = new MavenDependency("parsed dep line of text", "com.sample", "missing", "compile", "4.0-SNAPSHOT");
+	MavenDependency guava = new MavenDependency("parsed dep line of text", "com.google.guava", "guava", "compile", "20.0");
+
+	@Rule
+	public TemporaryFolder tempFolder = new TemporaryFolder();
+
+	@Test
+	public void testResolve() throws Exception {
+		LocalMavenRepository repository = new LocalMavenRepository(tempFolder.newFolder("repository"));
+		// downloaded from two remote repositories, the most recently updated build wins
+		writeMetadata(repository, lib, "maven-metadata-central.xml", "<snapshotVersions>"+
+				snapshotVersion("jar", null, "1.0-20180101.120000-1", "20180101120000")+
+				snapshotVersion("pom", null, "1.0-20180101.120000-1", "20180101120000")+"</snapshotVersions>");
+		writeMetadata(repository, lib, "maven-metadata-nexus.xml", "<snapshotVersions>"+
+				snapshotVersion("pom", null, "1.0-20180301.090000-4", "20180301090000")+
+				snapshotVersion("jar", null, "1.0-20180301.090000-4", "20180301090000")+"</snapshotVersions>");
+		writeMetadata(repository, native_, "maven-metadata-central.xml", "<snapshotVersions>"+
+				snapshotVersion("jar", null, "2.1-20180101.120000-2", "20180101120000")+
+				snapshotVersion("jar", "linux-x86_64", "2.1-20180101.120000-3", "20180101120000")+"</snapshotVersions>");
+		// Maven 2 metadata
+		writeMetadata(repository, old, "maven-metadata-central.xml",
+				"<snapshot><timestamp>20170505.101010</timestamp><buildNumber>7</buildNumber></snapshot><lastUpdated>20170505101010</lastUpdated>");
+		// mvn install writes a local flag, not a timestamped build
+		writeMetadata(repository, local, "maven-metadata-local.xml", "<snapshot><localCopy>true</localCopy></snapshot>"+
+				"<snapshotVersions>"+snapshotVersion("jar", null, "3.0-SNAPSHOT", "20180101120000")+"</snapshotVersions>");
+
+		Map<String, MavenDependency> computedDeps = new TreeMap<>();
+		for (MavenDependency dep : new MavenDependency[] { lib, native_, old, local, missing, guava }) {
+			computedDeps.put(dep.getLogicalName(), dep);
+		}
+		SnapshotVersionResolver resolver = new SnapshotVersionResolver(repository);
+		Map<String, MavenDependency> resolvedDeps = resolver.resolve(computedDeps);
+
+		assertEquals(6, resolvedDeps.size());
+		assertEquals("1.0-20180301.090000-4", resolvedDeps.get(lib.getLogicalName()).version.label);
+		assertEquals("2.1-20180101.120000-3", resolvedDeps.get(native_.getLogicalName()).version.label);
+		assertEquals("0.9-20170505.101010-7", resolvedDeps.get(old.getLogicalName()).version.label);
+		assertEquals("3.0-SNAPSHOT", resolvedDeps.get(local.getLogicalName()).version.label);
+		assertEquals("4.0-SNAPSHOT", resolvedDeps.get(missing.getLogicalName()).version.label);
+		assertEquals("20.0", resolvedDeps.get(guava.getLogicalName()).version.label);
+		// the input is not modified
+		assertEquals("1.0-SNAPSHOT", lib.version.label);
+		assertEquals(3, resolver.resolvedVersions.size());
+		assertEquals(2, resolver.unresolvedDependencies.size());
+		assertTrue(resolver.unresolvedDependencies.containsKey(local.getLogicalName()));
+
+		// the timestamped build is found in the SNAPSHOT directory
+		assertEquals(repository.getVersionDirectory(lib), repository.getVersionDirectory(resolvedDeps.get(lib.getLogicalName())));
+
+		File reportFile = new File(tempFolder.getRoot(), "snapshot_resolution.out");
+		resolver.writeReport(reportFile);
+		String report = new String(Files.readAllBytes(reportFile.toPath()), StandardCharsets.UTF_8);
+		assertTrue(report.contains("RESOLVED com.sample:lib 1.0-SNAPSHOT -> 1.0-20180301.090000-4"));
+		assertTrue(report.contains("UNRESOLVED com.sample:missing"));
+	}
+
+	@Test
+	public void testVersions() {
+		assertTrue(SnapshotVersionResolver.isTimestampedVersion("1.0-20180101.120000-3"));
+		assertFalse(SnapshotVersionResolver.isTimestampedVersion("1.0-SNAPSHOT"));
+		assertFalse(SnapshotVersionResolver.isTimestampedVersion("1.0.20180101"));
+		assertEquals("1.0-SNAPSHOT", SnapshotVersionResolver.toSnapshotVersion("1.0-20180101.120000-3"));
+		assertEquals("1.0-beta-SNAPSHOT", SnapshotVersionResolver.toSnapshotVersion("1.0-beta-20180101.120000-3"));
+	}
+
+	private String snapshotVersion(String extension, String classifier, String value, String updated) {
+		return "<snapshotVersion>"+(classifier == null ? "" : "<classifier>"+classifier+"</classifier>")+"<extension>"+extension+
+				"</extension><value>"+value+"</value><updated>"+updated+"</updated></snapshotVersion>";
+	}
+
+	private void writeMetadata(LocalMavenRepository repository, MavenDependency dep, String fileName, String versioning) throws Exception {
+		File metadataFile = new File(repository.getVersionDirectory(dep), fileName);
+		metadataFile.getParentFile().mkdirs();
+		String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<metadata modelVersion=\"1.1.0\"><groupId>"+dep.groupId+
+				"</groupId><artifactId>"+dep.artifactId+"</artifactId><version>"+dep.version.label+"</version><versioning>"+
+				versioning+"</versioning></metadata>";
+		Files.write(metadataFile.toPath(), xml.getBytes(StandardCharsets.UTF_8));
+	}
+}